@@ -0,0 +1,103 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of Account credit and debit, either with every thread on one hot account or with the threads spread
+ * over many accounts. The number of threads is given by BenchmarkRunner or the -t option of JMH.
+ *
+ * The readWhileWriting group reads balances with 3 threads while 1 thread credits the same accounts, the
+ * balance polling of clients during a stream of transactions.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountBenchmark {
+
+    private static final BigDecimal FUNDS = new BigDecimal("0.01");
+    // enough for every debit of an iteration
+    private static final BigDecimal OPENING_BALANCE = new BigDecimal("10000000000");
+
+    /**
+     * Number of accounts the threads work on, 1 for a single hot account. A power of 2.
+     */
+    @Param({"1", "1024"})
+    public int accounts;
+
+    private Account[] registry;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        registry = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            registry[i] = new Account();
+            registry[i].credit(OPENING_BALANCE);
+        }
+    }
+
+    /**
+     * Walks over the accounts from its own offset, threads only meet on the same account when there is one.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        @Setup
+        public void setUp(ThreadParams threadParams) {
+            next = threadParams.getThreadIndex() * 31;
+        }
+
+        Account next(Account[] registry) {
+            return registry[next++ & (registry.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public int credit(Cursor cursor) {
+        return cursor.next(registry).credit(FUNDS);
+    }
+
+    @Benchmark
+    public int debit(Cursor cursor) {
+        return cursor.next(registry).debit(FUNDS);
+    }
+
+    @Benchmark
+    public BigDecimal getBalance(Cursor cursor) {
+        return cursor.next(registry).getBalance();
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public BalanceSnapshot read(Cursor cursor) {
+        return cursor.next(registry).getSnapshot();
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public int write(Cursor cursor) {
+        return cursor.next(registry).credit(FUNDS);
+    }
+}
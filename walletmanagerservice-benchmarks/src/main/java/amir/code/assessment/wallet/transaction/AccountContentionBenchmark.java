@@ -0,0 +1,57 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention of the lock-free Account against the former synchronized one: every thread hammers the same (hot)
+ * account with a credit, a balance read and a debit per operation. The number of threads is given by BenchmarkRunner
+ * or the -t option of JMH.
+ *
+ *   java -Dthreads=1,4,16 -jar target/benchmarks.jar AccountContentionBenchmark -rff contention.json
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountContentionBenchmark {
+
+    private static final BigDecimal FUNDS = new BigDecimal("12.34");
+
+    private Account lockFree;
+    private SynchronizedAccount synchronizedAccount;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        lockFree = new Account();
+        synchronizedAccount = new SynchronizedAccount();
+    }
+
+    @Benchmark
+    public int lockFree() {
+        lockFree.credit(FUNDS);
+        lockFree.getBalance();
+        return lockFree.debit(FUNDS);
+    }
+
+    @Benchmark
+    public int synchronizedAccount() {
+        synchronizedAccount.credit(FUNDS);
+        synchronizedAccount.getBalance();
+        return synchronizedAccount.debit(FUNDS);
+    }
+}
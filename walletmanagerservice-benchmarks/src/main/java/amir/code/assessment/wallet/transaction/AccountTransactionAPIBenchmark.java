@@ -0,0 +1,139 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the register-transaction and get-account-balance resources invoked in-process, from the request body
+ * to the written response body, without the HTTP server in front of them.
+ *
+ * Every iteration starts with a new in-memory Ledger so the registered transactions of one iteration do not slow down
+ * the next one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class AccountTransactionAPIBenchmark {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    /**
+     * Number of accounts the requests are spread over, 1 for a single hot account. A power of 2.
+     */
+    @Param({"1", "1024"})
+    public int accounts;
+
+    @Param({"DIRECT", "PARTITIONED"})
+    public EngineFactory.Mode mode;
+
+    private Ledger ledger;
+    private AccountTransactionAPI api;
+    // ETag of the balance of each account, by accountId - 1
+    private String[] entityTags;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        TransactionConfiguration configuration = new TransactionConfiguration();
+        configuration.getEngine().setMode(mode);
+        ledger = new Ledger(configuration);
+        ledger.recover();
+        ledger.start();
+        api = new AccountTransactionAPI(ledger);
+        for (int accountId = 1; accountId <= accounts; accountId++) {
+            api.registerAccount(accountId);
+            ledger.getAccount(accountId).credit(new BigDecimal("1000"));
+        }
+        entityTags = new String[accounts];
+        for (int accountId = 1; accountId <= accounts; accountId++)
+            entityTags[accountId - 1] = (String) api.getAccountBalance(accountId, null).getMetadata().getFirst(HttpHeaders.ETAG);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        ledger.stop();
+    }
+
+    /**
+     * Request bodies of one thread, each with a new externalTransactionId.
+     */
+    @State(Scope.Thread)
+    public static class Requests {
+        private String prefix;
+        private long next;
+
+        @Setup
+        public void setUp(ThreadParams threadParams) {
+            prefix = "bench-" + threadParams.getThreadIndex() + "-";
+            next = threadParams.getThreadIndex() * 31;
+        }
+
+        long nextAccountId(int accounts) {
+            return (next++ & (accounts - 1)) + 1;
+        }
+
+        byte[] nextBody(int accounts) {
+            long sequence = next;
+            return ("{\"accountId\": " + nextAccountId(accounts) + ", \"transactionType\": \"credit\", \"funds\": 12.34,"
+                    + " \"externalTransactionId\": \"" + prefix + sequence + "\"}").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public int registerTransaction(Requests requests) throws IOException {
+        return write(api.registerTransaction(new ByteArrayInputStream(requests.nextBody(accounts))));
+    }
+
+    @Benchmark
+    public int getAccountBalance(Requests requests) throws IOException {
+        return write(api.getAccountBalance(requests.nextAccountId(accounts), null));
+    }
+
+    /**
+     * A client polling an unchanged balance with the ETag of its last response.
+     */
+    @Benchmark
+    public int getAccountBalanceNotModified(Requests requests) throws IOException {
+        long accountId = requests.nextAccountId(accounts);
+        return write(api.getAccountBalance(accountId, entityTags[(int) accountId - 1]));
+    }
+
+    private static int write(Response response) throws IOException {
+        Object entity = response.getEntity();
+        if (entity instanceof StreamingOutput)
+            ((StreamingOutput) entity).write(DISCARD);
+        return response.getStatus();
+    }
+}
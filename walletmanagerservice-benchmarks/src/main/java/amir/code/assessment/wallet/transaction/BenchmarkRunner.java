@@ -0,0 +1,66 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks once per thread count and writes the results of all runs to one JSON file, so they can be
+ * compared with the results of an earlier build.
+ *
+ * Takes the usual JMH command line options, e.g. a regular expression selecting the benchmarks or -p accounts=1.
+ * Without the -t option the thread counts are taken from the threads system property, 1,2,4 by default. The results
+ * are written to the file of the -rff option, jmh-result.json by default.
+ *
+ *   java -Dthreads=1,4,16 -jar target/benchmarks.jar AccountBenchmark -rff account.json
+ */
+public class BenchmarkRunner {
+
+    private static final String DEFAULT_THREADS = "1,2,4";
+    private static final String DEFAULT_RESULT = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+
+        List<Integer> threadCounts = new ArrayList<>();
+        if (commandLine.getThreads().hasValue())
+            threadCounts.add(commandLine.getThreads().get());
+        else
+            for (String threads : System.getProperty("threads", DEFAULT_THREADS).split(","))
+                threadCounts.add(Integer.parseInt(threads.trim()));
+
+        // JMH also writes the results of each run to the file, it has to exist beforehand
+        File file = new File(commandLine.getResult().orElse(DEFAULT_RESULT)).getAbsoluteFile();
+        file.getParentFile().mkdirs();
+
+        List<RunResult> results = new ArrayList<>();
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder().parent(commandLine).threads(threads).build();
+            results.addAll(new Runner(options).run());
+        }
+
+        try (PrintStream out = new PrintStream(new FileOutputStream(file), false, StandardCharsets.UTF_8.name())) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+        System.out.println("results of " + results.size() + " runs written to " + file);
+    }
+}
@@ -0,0 +1,203 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of a cluster of nodes started on localhost, each one a separate JVM running the TransactionApplication
+ * with the clustered mode enabled, as nodes are added. Requests are sent over HTTP to a random node for a random
+ * account, so (nodes - 1) / nodes of them are forwarded to the owner of the account.
+ *
+ * The nodes share the cores of the machine with each other and with the benchmark threads, adding nodes only adds
+ * throughput when there are cores left for them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClusterBenchmark {
+
+    private static final long STARTUP_MILLIS = 60_000;
+
+    @Param({"1", "2", "4"})
+    public int nodes;
+
+    @Param({"1024"})
+    public int accounts;
+
+    private Process[] processes;
+    private String[] addresses;
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("cluster-benchmark").toFile();
+        processes = new Process[nodes];
+        addresses = new String[nodes];
+        int[] adminPorts = new int[nodes];
+        for (int node = 0; node < nodes; node++) {
+            addresses[node] = "http://localhost:" + freePort();
+            adminPorts[node] = freePort();
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath = new File(TransactionApplication.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        for (int node = 0; node < nodes; node++) {
+            File configuration = new File(directory, "node" + node + ".yml");
+            Files.write(configuration.toPath(), configuration(node, adminPorts[node]).getBytes(StandardCharsets.UTF_8));
+            processes[node] = new ProcessBuilder(java, "-Xmx512m", "-cp", classPath,
+                    TransactionApplication.class.getName(), "server", configuration.getPath())
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File(directory, "node" + node + ".log"))
+                    .start();
+        }
+        for (int node = 0; node < nodes; node++)
+            awaitHealthy(node, adminPorts[node]);
+
+        // every account is registered through node 0 and forwarded to its owner
+        for (int accountId = 1; accountId <= accounts; accountId++) {
+            send(addresses[0], "POST", "/AccountTransactionAPI/register-account/accountId/" + accountId, null);
+            send(addresses[0], "POST", "/AccountTransactionAPI/register-transaction", body(accountId, "credit", "setup-" + accountId));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (Process process : processes) {
+            if (process != null) {
+                process.destroy();
+                process.waitFor(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+        private static final AtomicInteger threads = new AtomicInteger();
+        private final String prefix = "cluster-" + threads.incrementAndGet() + "-" + System.nanoTime() + "-";
+        private long next;
+
+        String nextExternalTransactionId() {
+            return prefix + next++;
+        }
+    }
+
+    @Benchmark
+    public int registerTransaction(Requests requests) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int accountId = 1 + random.nextInt(accounts);
+        return send(addresses[random.nextInt(nodes)], "POST", "/AccountTransactionAPI/register-transaction",
+                body(accountId, "credit", requests.nextExternalTransactionId()));
+    }
+
+    @Benchmark
+    public int getAccountBalance() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return send(addresses[random.nextInt(nodes)], "GET",
+                "/AccountTransactionAPI/get-account-balance/accountId/" + (1 + random.nextInt(accounts)), null);
+    }
+
+    private String configuration(int node, int adminPort) {
+        StringBuilder configuration = new StringBuilder()
+                .append("server:\n")
+                .append("  applicationConnectors:\n")
+                .append("    - type: http\n")
+                .append("      port: ").append(addresses[node].substring(addresses[node].lastIndexOf(':') + 1)).append('\n')
+                .append("  adminConnectors:\n")
+                .append("    - type: http\n")
+                .append("      port: ").append(adminPort).append('\n')
+                .append("  requestLog:\n")
+                .append("    appenders: []\n")
+                .append("logging:\n")
+                .append("  level: WARN\n")
+                .append("node: ").append(node).append('\n')
+                .append("wal:\n")
+                .append("  enabled: false\n")
+                .append("cluster:\n")
+                .append("  enabled: true\n")
+                .append("  members:\n");
+        for (int member = 0; member < nodes; member++)
+            configuration.append("    - node: ").append(member).append('\n')
+                    .append("      address: ").append(addresses[member]).append('\n');
+        return configuration.toString();
+    }
+
+    private void awaitHealthy(int node, int adminPort) throws Exception {
+        long deadline = System.currentTimeMillis() + STARTUP_MILLIS;
+        while (true) {
+            try {
+                if (send("http://localhost:" + adminPort, "GET", "/healthcheck", null) < 500)
+                    return;
+            } catch (IOException e) {
+                // not listening yet
+            }
+            if (!processes[node].isAlive() || System.currentTimeMillis() > deadline)
+                throw new IllegalStateException("node " + node + " did not start, see " + new File(directory, "node" + node + ".log"));
+            Thread.sleep(200);
+        }
+    }
+
+    private static byte[] body(int accountId, String transactionType, String externalTransactionId) {
+        return ("{\"accountId\":" + accountId + ",\"transactionType\":\"" + transactionType
+                + "\",\"funds\":1,\"externalTransactionId\":\"" + externalTransactionId + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return status of the response, whose body is read to its end so the connection is kept alive
+     */
+    private static int send(String address, String method, String path, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(address + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Content-Type", "application/json");
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream input = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (input != null) {
+            try (InputStream in = input) {
+                ByteArrayOutputStream discard = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                for (int read; (read = in.read(buffer)) != -1; )
+                    discard.write(buffer, 0, read);
+            }
+        }
+        return status;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
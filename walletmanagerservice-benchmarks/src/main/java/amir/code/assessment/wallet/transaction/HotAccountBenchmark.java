@@ -0,0 +1,76 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the credits of one hot account, e.g. a house or jackpot account, every thread crediting the same
+ * account. With striped=false the credits retry the compare-and-set of the single balance, with striped=true they
+ * land in the CreditCells of the account. The number of threads is given by BenchmarkRunner or the -t option of JMH.
+ *
+ * The payout group debits the account with 1 thread while 3 threads credit it, each debit merging the cells.
+ *
+ *   java -Dthreads=1,4,16 -jar target/benchmarks.jar HotAccountBenchmark.credit -rff hot-account.json
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HotAccountBenchmark {
+
+    private static final BigDecimal FUNDS = new BigDecimal("0.01");
+    // enough for every debit of an iteration
+    private static final BigDecimal OPENING_BALANCE = new BigDecimal("10000000000");
+
+    /**
+     * Whether the credits of the account are striped.
+     */
+    @Param({"false", "true"})
+    public boolean striped;
+
+    private Account account;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        account = new Account();
+        account.credit(OPENING_BALANCE);
+        if (striped)
+            account.stripeCredits();
+    }
+
+    @Benchmark
+    public int credit() {
+        return account.credit(FUNDS);
+    }
+
+    @Benchmark
+    @Group("payout")
+    @GroupThreads(3)
+    public int payoutCredit() {
+        return account.credit(FUNDS);
+    }
+
+    @Benchmark
+    @Group("payout")
+    @GroupThreads(1)
+    public int payoutDebit() {
+        return account.debit(FUNDS);
+    }
+}
@@ -0,0 +1,107 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of a register-transaction request with the JsonCodec against org.json as it was handled before the codec, from
+ * the request body to the written response body. Run with the gc profiler, gc.alloc.rate.norm gives the bytes
+ * allocated per request.
+ *
+ *   java -jar target/benchmarks.jar JsonCodecBenchmark -prof gc -rff codec.json
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class JsonCodecBenchmark {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private Ledger ledger;
+    private AccountTransactionAPI api;
+    private final AtomicLong next = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        ledger = new Ledger(new TransactionConfiguration());
+        ledger.recover();
+        ledger.start();
+        api = new AccountTransactionAPI(ledger);
+        api.registerAccount(1);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        ledger.stop();
+    }
+
+    @Benchmark
+    public int jsonCodec() throws IOException {
+        Response response = api.registerTransaction(new ByteArrayInputStream(nextBody().getBytes(StandardCharsets.UTF_8)));
+        ((StreamingOutput) response.getEntity()).write(DISCARD);
+        return response.getStatus();
+    }
+
+    /**
+     * The register-transaction request as it was handled before the codec: the body given by Jersey as a String,
+     * parsed by org.json, and the response built as a JSONObject and encoded to UTF-8 by Jersey.
+     */
+    @Benchmark
+    public int orgJson() throws Exception {
+        JSONObject jsonBody = new JSONObject(nextBody());
+        String transactionType = jsonBody.getString("transactionType").toUpperCase();
+        long accountId = jsonBody.getLong("accountId");
+        BigDecimal funds = new BigDecimal(jsonBody.getString("funds"));
+        String externalTransactionId = jsonBody.getString("externalTransactionId");
+        Transaction transaction = ledger.registerTransaction(accountId, TransactionType.valueOf(transactionType),
+                funds, externalTransactionId).getTransaction();
+        byte[] response = new JSONObject()
+                .put("message", "transaction registered successfully")
+                .put("transactionId", transaction.getTransactionId())
+                .put("externalTransactionId", transaction.getExternalTransactionId())
+                .put("transactionType", transaction.getTransactionType())
+                .put("accountId", transaction.getAccountId())
+                .put("funds", transaction.getFunds())
+                .toString().getBytes(StandardCharsets.UTF_8);
+        DISCARD.write(response);
+        return response.length;
+    }
+
+    // every request has its own externalTransactionId
+    private String nextBody() {
+        return "{\"accountId\": 1, \"transactionType\": \"credit\", \"funds\": 12.34,"
+                + " \"externalTransactionId\": \"bet-" + next.getAndIncrement() + "\"}";
+    }
+}
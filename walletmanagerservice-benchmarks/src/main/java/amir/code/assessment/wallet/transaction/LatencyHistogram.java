@@ -0,0 +1,87 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in microseconds with three significant digits, in the style of HdrHistogram: values below
+ * 2048 have a bucket each, larger values share 1024 buckets per power of two, so a percentile is reported within 0.1%
+ * of the recorded value whatever its magnitude. Recording is an array increment.
+ *
+ * Not thread-safe: every thread records into its own histograms, which are added up at the end of a run.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 10;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // grown up to the largest recorded value, most runs stay below a few seconds
+    private long[] counts = new long[2 * SUB_BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        int index = index(value);
+        if (index >= counts.length)
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+        counts[index]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    void add(LatencyHistogram other) {
+        if (other.counts.length > counts.length)
+            counts = Arrays.copyOf(counts, other.counts.length);
+        for (int index = 0; index < other.counts.length; index++)
+            counts[index] += other.counts[index];
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile . Between 0 and 100.
+     * @return the largest value of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    long getValueAtPercentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int index = 0; index < counts.length; index++) {
+            seen += counts[index];
+            if (seen >= rank)
+                return Math.min(highestValue(index), max);
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < 2 * SUB_BUCKETS)
+            return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (magnitude << SUB_BUCKET_BITS) + (int) (value >>> magnitude);
+    }
+
+    private static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+        int magnitude = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = index - ((long) magnitude << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+}
@@ -0,0 +1,87 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of a registration in both LedgerEngine modes, with the threads alternating credits and debits
+ * over a few accounts. The sample time mode reports the p50 and p99 of the registrations, as well as their throughput.
+ * The number of threads is given by BenchmarkRunner or the -t option of JMH.
+ *
+ *   java -Dthreads=8 -jar target/benchmarks.jar LedgerEngineBenchmark -rff engine.json
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class LedgerEngineBenchmark {
+
+    private static final BigDecimal FUNDS = new BigDecimal("2.5");
+    private static final int ACCOUNTS = 64;
+
+    @Param({"DIRECT", "PARTITIONED"})
+    public EngineFactory.Mode mode;
+
+    private Ledger ledger;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        TransactionConfiguration configuration = new TransactionConfiguration();
+        configuration.getEngine().setMode(mode);
+        ledger = new Ledger(configuration);
+        ledger.recover();
+        ledger.start();
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++)
+            ledger.registerAccount(accountId);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        ledger.stop();
+    }
+
+    /**
+     * Registrations of one thread, each with a new externalTransactionId.
+     */
+    @State(Scope.Thread)
+    public static class Registrations {
+        private String prefix;
+        private int thread;
+        private int next;
+
+        @Setup
+        public void setUp(ThreadParams threadParams) {
+            thread = threadParams.getThreadIndex();
+            prefix = "bench-" + thread + "-";
+        }
+    }
+
+    /**
+     * A credit followed by a debit of the same account, so the debits do not run out of balance.
+     */
+    @Benchmark
+    public int registerTransaction(Registrations registrations) throws IOException {
+        int count = registrations.next++;
+        long accountId = 1 + (registrations.thread + count / 2) % ACCOUNTS;
+        TransactionType type = count % 2 == 0 ? TransactionType.CREDIT : TransactionType.DEBIT;
+        return ledger.registerTransaction(accountId, type, FUNDS, registrations.prefix + count).getStatus();
+    }
+}
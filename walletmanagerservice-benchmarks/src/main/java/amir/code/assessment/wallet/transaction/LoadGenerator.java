@@ -0,0 +1,531 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator measuring the latency profile of the service over HTTP at a given request rate, either of a service
+ * at a URL or of a TransactionApplication started in a separate JVM on localhost.
+ *
+ * Every worker thread sends its share of the requests on a fixed schedule (open loop) and the latency of a request is
+ * measured from the time it was scheduled at, not from the time it was sent: a request delayed by a slow response
+ * before it counts the delay, which corrects the coordinated omission of a closed loop only measuring the requests it
+ * got to send. The time from sending to the response is reported separately as service time. With rate=0 the workers
+ * send as fast as they can and both are the same.
+ *
+ * Requests are a weighted mix of register-account (new accounts), credit and debit (register-transaction) and balance
+ * (get-account-balance) on accounts drawn from a Zipfian distribution, account 1 being the most requested. The
+ * accounts are registered and credited before the run. The latencies are recorded in histograms per operation and a
+ * JSON report holds their percentiles, the throughput and the response statuses.
+ *
+ *   java -cp walletmanagerservice-benchmarks/target/benchmarks.jar amir.code.assessment.wallet.transaction.LoadGenerator \
+ *       rate=20000 threads=64 durationSeconds=60 accounts=100000 zipfExponent=0.99 \
+ *       mix=register:1,credit:45,debit:20,balance:34 report=load-report.json
+ *
+ * Options (key=value):
+ *   url              service to load, e.g. http://localhost:8080; started locally when omitted
+ *   rate             requests per second of all threads, 0 for as fast as possible (default 10000)
+ *   threads          worker threads, enough for rate times the latency (default 64)
+ *   warmupSeconds    requests before the measurement, not recorded (default 10)
+ *   durationSeconds  measured requests (default 60)
+ *   accounts         accounts registered before the run (default 10000)
+ *   zipfExponent     skew of the account distribution, 0 for uniform (default 0.99)
+ *   mix              weights of register, credit, debit and balance (default register:1,credit:45,debit:20,balance:34)
+ *   report           JSON report file (default load-report.json)
+ *   jvmOptions       options of the local service JVM, comma separated (default -Xmx1g)
+ *   configFile       YAML appended to the configuration of the local service, e.g. its engine or wal section
+ */
+public class LoadGenerator {
+
+    private static final long STARTUP_MILLIS = 60_000;
+    private static final long PROGRESS_MILLIS = 5_000;
+    // credited to every account before the run, enough for its debits
+    private static final int OPENING_FUNDS = 1_000_000;
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+    private static final String REGISTER_ACCOUNT = "/AccountTransactionAPI/register-account/accountId/";
+    private static final String REGISTER_TRANSACTION = "/AccountTransactionAPI/register-transaction";
+    private static final String GET_ACCOUNT_BALANCE = "/AccountTransactionAPI/get-account-balance/accountId/";
+
+    /**
+     * Kinds of requests of the mix.
+     */
+    enum Operation {
+        REGISTER,
+        CREDIT,
+        DEBIT,
+        BALANCE
+    }
+
+    private final Map<String, String> options;
+    private final double rate;
+    private final int threads;
+    private final long warmupSeconds;
+    private final long durationSeconds;
+    private final int accounts;
+    private final double zipfExponent;
+    private final int[] weights = new int[Operation.values().length];
+    private final int totalWeight;
+
+    // run unique prefix of externalTransactionIds and first accountId of the accounts registered during the run
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong nextAccountId = new AtomicLong(System.currentTimeMillis() << 16);
+    private final LongAdder completed = new LongAdder();
+
+    private String url;
+    private Process process;
+    private File directory;
+    private double[] zipfCumulative;
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.rate = Double.parseDouble(option("rate", "10000"));
+        this.threads = Integer.parseInt(option("threads", "64"));
+        this.warmupSeconds = Long.parseLong(option("warmupSeconds", "10"));
+        this.durationSeconds = Long.parseLong(option("durationSeconds", "60"));
+        this.accounts = Integer.parseInt(option("accounts", "10000"));
+        this.zipfExponent = Double.parseDouble(option("zipfExponent", "0.99"));
+        int total = 0;
+        for (String weight : option("mix", "register:1,credit:45,debit:20,balance:34").split(",")) {
+            String[] parts = weight.split(":");
+            int value = Integer.parseInt(parts[1].trim());
+            weights[Operation.valueOf(parts[0].trim().toUpperCase()).ordinal()] = value;
+            total += value;
+        }
+        this.totalWeight = total;
+        if (rate < 0 || threads <= 0 || durationSeconds <= 0 || accounts <= 0 || totalWeight <= 0)
+            throw new IllegalArgumentException("unexpected options " + options);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0)
+                throw new IllegalArgumentException("unexpected argument " + arg + ", options are key=value");
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    void run() throws Exception {
+        // keep a connection per worker alive instead of 5 shared by all of them
+        System.setProperty("http.maxConnections", String.valueOf(threads));
+        url = options.get("url");
+        if (url == null)
+            startService();
+        try {
+            zipfCumulative = zipfCumulative(accounts, zipfExponent);
+            long startTime = System.nanoTime();
+            setUp();
+            System.out.printf("registered and credited %d accounts in %d ms%n", accounts,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+            Worker[] workers = load();
+            Map<String, Object> report = report(workers);
+            File file = new File(option("report", "load-report.json")).getAbsoluteFile();
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+            System.out.println("report written to " + file);
+        } finally {
+            stopService();
+        }
+    }
+
+    private String option(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    /**
+     * Registers the accounts and credits their opening funds, with every worker thread.
+     */
+    private void setUp() throws Exception {
+        AtomicLong next = new AtomicLong(1);
+        AtomicLong failures = new AtomicLong();
+        runAll(worker -> {
+            for (long accountId; (accountId = next.getAndIncrement()) <= accounts; ) {
+                try {
+                    // an account of a previous run against the same service is already registered
+                    send("POST", REGISTER_ACCOUNT + accountId, null);
+                    if (send("POST", REGISTER_TRANSACTION, body(accountId, "credit", OPENING_FUNDS, "open-" + runId + "-" + accountId)) != 200)
+                        failures.incrementAndGet();
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                }
+            }
+        });
+        if (failures.get() > 0)
+            throw new IllegalStateException(failures.get() + " accounts could not be credited, see the service log");
+    }
+
+    /**
+     * Runs the warmup and the measurement.
+     */
+    private Worker[] load() throws Exception {
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+        Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; i++)
+            workers[i] = new Worker(i, start, measureStart, end);
+
+        Thread progress = new Thread(() -> {
+            long previous = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(PROGRESS_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long current = completed.sum();
+                System.out.printf("%s %.0f requests/s%n", System.nanoTime() < measureStart ? "warmup" : "measure",
+                        (current - previous) * 1000.0 / PROGRESS_MILLIS);
+                previous = current;
+            }
+        }, "load-progress");
+        progress.setDaemon(true);
+        progress.start();
+        try {
+            runAll(index -> workers[index].run());
+        } finally {
+            progress.interrupt();
+        }
+        return workers;
+    }
+
+    private interface Task {
+        void run(int worker) throws Exception;
+    }
+
+    private void runAll(Task task) throws Exception {
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Exception> failures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int worker = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    task.run(worker);
+                } catch (Exception e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + worker);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        if (!failures.isEmpty())
+            throw failures.get(0);
+    }
+
+    /**
+     * A worker thread with its own schedule and histograms.
+     */
+    private final class Worker {
+        private final int index;
+        private final long start;
+        private final long measureStart;
+        private final long end;
+        private final Random random = new Random();
+        private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+        private final LatencyHistogram[] serviceTimes = new LatencyHistogram[Operation.values().length];
+        // response statuses per operation, -1 for an I/O error
+        private final List<Map<Integer, Long>> statuses = new ArrayList<>();
+        private long next;
+
+        Worker(int index, long start, long measureStart, long end) {
+            this.index = index;
+            this.start = start;
+            this.measureStart = measureStart;
+            this.end = end;
+            for (Operation operation : Operation.values()) {
+                latencies[operation.ordinal()] = new LatencyHistogram();
+                serviceTimes[operation.ordinal()] = new LatencyHistogram();
+                statuses.add(new TreeMap<>());
+            }
+        }
+
+        void run() {
+            // the workers take turns, each one every threads / rate seconds
+            long interval = rate > 0 ? (long) (threads * 1e9 / rate) : 0;
+            long scheduled = start + (rate > 0 ? (long) (index * 1e9 / rate) : 0);
+            while (true) {
+                long now = System.nanoTime();
+                if (rate > 0) {
+                    for (; now < scheduled; now = System.nanoTime())
+                        LockSupport.parkNanos(scheduled - now);
+                } else {
+                    scheduled = now;
+                }
+                if (scheduled >= end)
+                    return;
+
+                Operation operation = nextOperation();
+                long sent = System.nanoTime();
+                int status;
+                try {
+                    status = execute(operation);
+                } catch (IOException e) {
+                    status = -1;
+                }
+                long received = System.nanoTime();
+                completed.increment();
+                if (scheduled >= measureStart) {
+                    latencies[operation.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(received - scheduled));
+                    serviceTimes[operation.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(received - sent));
+                    statuses.get(operation.ordinal()).merge(status, 1L, Long::sum);
+                }
+                scheduled += interval;
+            }
+        }
+
+        private Operation nextOperation() {
+            int pick = random.nextInt(totalWeight);
+            for (Operation operation : Operation.values()) {
+                pick -= weights[operation.ordinal()];
+                if (pick < 0)
+                    return operation;
+            }
+            throw new IllegalStateException();
+        }
+
+        private int execute(Operation operation) throws IOException {
+            switch (operation) {
+                case REGISTER:
+                    return send("POST", REGISTER_ACCOUNT + nextAccountId.getAndIncrement(), null);
+                case CREDIT:
+                    return send("POST", REGISTER_TRANSACTION, body(nextAccount(), "credit", 1, nextExternalTransactionId()));
+                case DEBIT:
+                    return send("POST", REGISTER_TRANSACTION, body(nextAccount(), "debit", 1, nextExternalTransactionId()));
+                default:
+                    return send("GET", GET_ACCOUNT_BALANCE + nextAccount(), null);
+            }
+        }
+
+        private long nextAccount() {
+            int rank = Arrays.binarySearch(zipfCumulative, random.nextDouble());
+            return 1 + (rank >= 0 ? rank : Math.min(-rank - 1, accounts - 1));
+        }
+
+        private String nextExternalTransactionId() {
+            return "load-" + runId + "-" + index + "-" + next++;
+        }
+    }
+
+    /**
+     * @return cumulative probabilities of the ranks 1 to accounts, the probability of rank k being proportional to
+     * 1 / k^exponent
+     */
+    private static double[] zipfCumulative(int accounts, double exponent) {
+        double[] cumulative = new double[accounts];
+        double sum = 0;
+        for (int rank = 1; rank <= accounts; rank++) {
+            sum += 1 / Math.pow(rank, exponent);
+            cumulative[rank - 1] = sum;
+        }
+        for (int i = 0; i < accounts; i++)
+            cumulative[i] /= sum;
+        return cumulative;
+    }
+
+    private Map<String, Object> report(Worker[] workers) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("target", options.getOrDefault("url", "local"));
+        report.put("rate", rate);
+        report.put("threads", threads);
+        report.put("durationSeconds", durationSeconds);
+        report.put("accounts", accounts);
+        report.put("zipfExponent", zipfExponent);
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (Operation operation : Operation.values())
+            mix.put(operation.name().toLowerCase(), weights[operation.ordinal()]);
+        report.put("mix", mix);
+
+        LatencyHistogram allLatencies = new LatencyHistogram();
+        LatencyHistogram allServiceTimes = new LatencyHistogram();
+        Map<Integer, Long> allStatuses = new TreeMap<>();
+        Map<String, Object> operations = new LinkedHashMap<>();
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "requests/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram latency = new LatencyHistogram();
+            LatencyHistogram serviceTime = new LatencyHistogram();
+            Map<Integer, Long> statuses = new TreeMap<>();
+            for (Worker worker : workers) {
+                latency.add(worker.latencies[operation.ordinal()]);
+                serviceTime.add(worker.serviceTimes[operation.ordinal()]);
+                worker.statuses.get(operation.ordinal()).forEach((status, count) -> statuses.merge(status, count, Long::sum));
+            }
+            allLatencies.add(latency);
+            allServiceTimes.add(serviceTime);
+            statuses.forEach((status, count) -> allStatuses.merge(status, count, Long::sum));
+            if (latency.getCount() > 0)
+                operations.put(operation.name().toLowerCase(), summary(latency, serviceTime, statuses, operation.name().toLowerCase()));
+        }
+        report.put("operations", operations);
+        report.put("all", summary(allLatencies, allServiceTimes, allStatuses, "all"));
+        return report;
+    }
+
+    private Map<String, Object> summary(LatencyHistogram latency, LatencyHistogram serviceTime, Map<Integer, Long> statuses,
+                                        String name) {
+        long errors = statuses.entrySet().stream()
+                .filter(status -> status.getKey() < 200 || status.getKey() >= 300)
+                .mapToLong(Map.Entry::getValue)
+                .sum();
+        double throughput = latency.getCount() / (double) durationSeconds;
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", latency.getCount());
+        summary.put("throughput", throughput);
+        summary.put("errors", errors);
+        Map<String, Long> byStatus = new LinkedHashMap<>();
+        statuses.forEach((status, count) -> byStatus.put(status < 0 ? "io-error" : String.valueOf(status), count));
+        summary.put("statuses", byStatus);
+        summary.put("latencyMillis", percentiles(latency));
+        summary.put("serviceTimeMillis", percentiles(serviceTime));
+        System.out.printf("%-10s %10.0f %10.3f %10.3f %10.3f %10.3f %10.3f %10d%n", name, throughput,
+                latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(90) / 1000.0,
+                latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0,
+                latency.getMax() / 1000.0, errors);
+        return summary;
+    }
+
+    private static Map<String, Double> percentiles(LatencyHistogram histogram) {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for (double percentile : PERCENTILES)
+            percentiles.put("p" + (percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile)),
+                    histogram.getValueAtPercentile(percentile) / 1000.0);
+        percentiles.put("max", histogram.getMax() / 1000.0);
+        percentiles.put("mean", histogram.getMean() / 1000.0);
+        return percentiles;
+    }
+
+    /**
+     * Starts the service in a separate JVM, so its garbage collections and threads are not mixed with the ones of
+     * the load generator.
+     */
+    private void startService() throws Exception {
+        directory = Files.createTempDirectory("load-generator").toFile();
+        int port = freePort();
+        int adminPort = freePort();
+        url = "http://localhost:" + port;
+
+        StringBuilder configuration = new StringBuilder()
+                .append("server:\n")
+                .append("  applicationConnectors:\n")
+                .append("    - type: http\n")
+                .append("      port: ").append(port).append('\n')
+                .append("  adminConnectors:\n")
+                .append("    - type: http\n")
+                .append("      port: ").append(adminPort).append('\n')
+                .append("  requestLog:\n")
+                .append("    appenders: []\n")
+                .append("logging:\n")
+                .append("  level: WARN\n");
+        String configFile = options.get("configFile");
+        if (configFile != null)
+            configuration.append(new String(Files.readAllBytes(new File(configFile).toPath()), StandardCharsets.UTF_8));
+        File file = new File(directory, "service.yml");
+        Files.write(file.toPath(), configuration.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String option : option("jvmOptions", "-Xmx1g").split(","))
+            if (!option.trim().isEmpty())
+                command.add(option.trim());
+        command.addAll(Arrays.asList("-cp",
+                new File(TransactionApplication.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath(),
+                TransactionApplication.class.getName(), "server", file.getPath()));
+        File log = new File(directory, "service.log");
+        process = new ProcessBuilder(command).directory(directory).redirectErrorStream(true).redirectOutput(log).start();
+
+        long deadline = System.currentTimeMillis() + STARTUP_MILLIS;
+        while (true) {
+            try {
+                if (send("http://localhost:" + adminPort, "GET", "/healthcheck", null) < 500)
+                    break;
+            } catch (IOException e) {
+                // not listening yet
+            }
+            if (!process.isAlive() || System.currentTimeMillis() > deadline)
+                throw new IllegalStateException("the service did not start, see " + log);
+            Thread.sleep(200);
+        }
+        System.out.println("started the service at " + url + ", log in " + log);
+    }
+
+    private void stopService() throws InterruptedException {
+        if (process != null) {
+            process.destroy();
+            process.waitFor(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static byte[] body(long accountId, String transactionType, int funds, String externalTransactionId) {
+        return ("{\"accountId\":" + accountId + ",\"transactionType\":\"" + transactionType + "\",\"funds\":" + funds
+                + ",\"externalTransactionId\":\"" + externalTransactionId + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int send(String method, String path, byte[] body) throws IOException {
+        return send(url, method, path, body);
+    }
+
+    /**
+     * @return status of the response, whose body is read to its end so the connection is kept alive
+     */
+    private static int send(String address, String method, String path, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(address + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Content-Type", "application/json");
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream input = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (input != null) {
+            try (InputStream in = input) {
+                ByteArrayOutputStream discard = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                for (int read; (read = in.read(buffer)) != -1; )
+                    discard.write(buffer, 0, read);
+            }
+        }
+        return status;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
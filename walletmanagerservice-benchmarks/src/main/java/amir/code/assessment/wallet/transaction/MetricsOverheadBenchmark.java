@@ -0,0 +1,122 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the instrumentation of the register-transaction path: the same requests as AccountTransactionAPIBenchmark
+ * on a ledger with and without metrics. When instrumented, the request is also timed by a Timer like the one the
+ * Jersey listener of Dropwizard keeps for the @Timed resource method. The record benchmark measures the recording
+ * alone, which the noise of a whole request hides.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class MetricsOverheadBenchmark {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Param({"false", "true"})
+    public boolean instrumented;
+
+    /**
+     * Number of accounts the requests are spread over, 1 for a single hot account. A power of 2.
+     */
+    @Param({"1", "1024"})
+    public int accounts;
+
+    private Ledger ledger;
+    private AccountTransactionAPI api;
+    private Timer timer;
+    private LedgerMetrics recorder;
+    private Timer recordTimer;
+    private final RegistrationResult registered = RegistrationResult.registered(
+            new Transaction("bet-1", "bet", TransactionType.CREDIT.name(), BigDecimal.ONE, 1L));
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        TransactionConfiguration configuration = new TransactionConfiguration();
+        configuration.setInstrumented(instrumented);
+        ledger = new Ledger(configuration, metrics);
+        ledger.recover();
+        ledger.start();
+        api = new AccountTransactionAPI(ledger);
+        LedgerMetrics.registerTimers(metrics, AccountTransactionAPI.class);
+        timer = metrics.timer(MetricRegistry.name(AccountTransactionAPI.class, "registerTransaction"));
+        MetricRegistry recorderMetrics = new MetricRegistry();
+        recorder = instrumented
+                ? new LedgerMetrics(recorderMetrics, ledger.getAccounts(), ledger.getTransactions())
+                : LedgerMetrics.disabled();
+        recordTimer = LedgerMetrics.newTimer();
+        for (int accountId = 1; accountId <= accounts; accountId++) {
+            api.registerAccount(accountId);
+            ledger.getAccount(accountId).credit(new BigDecimal("1000"));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        ledger.stop();
+    }
+
+    @Benchmark
+    public int registerTransaction(AccountTransactionAPIBenchmark.Requests requests) throws IOException {
+        byte[] body = requests.nextBody(accounts);
+        if (!instrumented)
+            return write(api.registerTransaction(new ByteArrayInputStream(body)));
+        try (Timer.Context ignored = timer.time()) {
+            return write(api.registerTransaction(new ByteArrayInputStream(body)));
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        if (!instrumented) {
+            recorder.record(registered);
+            return;
+        }
+        long startTime = System.nanoTime();
+        recorder.record(registered);
+        recordTimer.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+    }
+
+    private static int write(Response response) throws IOException {
+        Object entity = response.getEntity();
+        if (entity instanceof StreamingOutput)
+            ((StreamingOutput) entity).write(DISCARD);
+        return response.getStatus();
+    }
+}
@@ -0,0 +1,37 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * The former monitor based Account balance, only kept as a baseline to compare the lock-free Account against.
+ */
+class SynchronizedAccount {
+
+    private BigDecimal balance = BigDecimal.ZERO;
+
+    synchronized BigDecimal getBalance(){
+        return balance;
+    }
+
+    synchronized int credit(BigDecimal funds) {
+        if (funds.compareTo(BigDecimal.ZERO) > 0) {
+            balance = balance.add(funds, MathContext.UNLIMITED);
+            return 0;
+        }
+        return -1;
+    }
+
+    synchronized int debit(BigDecimal funds) {
+        if (funds.compareTo(BigDecimal.ZERO) > 0) {
+            BigDecimal futureBalance = balance.subtract(funds);
+            if (futureBalance.compareTo(BigDecimal.ZERO) >= 0) {
+                balance = futureBalance;
+                return 0;
+            } else {
+                return -2;
+            }
+        }
+        return -1;
+    }
+}
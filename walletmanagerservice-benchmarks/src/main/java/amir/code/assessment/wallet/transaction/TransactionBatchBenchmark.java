@@ -0,0 +1,106 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of the register-transactions resource by batch size, with the PARTITIONED engine and the write-ahead log
+ * enabled in a temporary directory. The score counts requests, transactions per second are the score times the
+ * batch size. The number of threads is given by BenchmarkRunner or the -t option of JMH.
+ *
+ *   java -Dthreads=8 -jar target/benchmarks.jar TransactionBatchBenchmark -rff batch.json
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class TransactionBatchBenchmark {
+
+    private static final int ACCOUNTS = 64;
+
+    @Param({"1", "10", "100", "1000"})
+    public int batchSize;
+
+    private Path directory;
+    private Ledger ledger;
+    private AccountTransactionAPI api;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("batch-benchmark");
+        TransactionConfiguration configuration = new TransactionConfiguration();
+        configuration.getEngine().setMode(EngineFactory.Mode.PARTITIONED);
+        configuration.getEngine().setShards(4);
+        configuration.getWal().setEnabled(true);
+        configuration.getWal().setDirectory(directory.toString());
+        ledger = new Ledger(configuration);
+        ledger.recover();
+        ledger.start();
+        api = new AccountTransactionAPI(ledger);
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++)
+            ledger.registerAccount(accountId);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        ledger.stop();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Request bodies of one thread, each transaction with a new externalTransactionId.
+     */
+    @State(Scope.Thread)
+    public static class Requests {
+        private int thread;
+        private int next;
+
+        @Setup
+        public void setUp(ThreadParams threadParams) {
+            thread = threadParams.getThreadIndex();
+        }
+
+        String nextBody(int batchSize) {
+            int request = next++;
+            StringBuilder body = new StringBuilder("[");
+            for (int item = 0; item < batchSize; item++) {
+                long accountId = 1 + (thread + item) % ACCOUNTS;
+                body.append(item == 0 ? "" : ",")
+                        .append("{\"accountId\": ").append(accountId)
+                        .append(", \"transactionType\": \"credit\", \"funds\": 2.5")
+                        .append(", \"externalTransactionId\": \"").append(thread).append('-')
+                        .append(request).append('-').append(item).append("\"}");
+            }
+            return body.append(']').toString();
+        }
+    }
+
+    @Benchmark
+    public int registerTransactions(Requests requests) throws IOException {
+        return api.registerTransactions(requests.nextBody(batchSize)).getStatus();
+    }
+}
@@ -0,0 +1,56 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of the TransactionIdGenerator, which every registered transaction goes through, against the former
+ * transactionId counter: a static synchronized method around an AtomicLong building the transactionId String.
+ * Meant to be run with many threads, e.g. -Dthreads=1,4,16,64.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransactionIdBenchmark {
+
+    private static final String EXTERNAL_TRANSACTION_ID = "bet-2c2f9d0e";
+
+    private static final AtomicLong counter = new AtomicLong();
+
+    private final TransactionIdGenerator ids = new TransactionIdGenerator(1);
+
+    private static synchronized String synchronizedTransactionId(String externalTransactionId) {
+        return externalTransactionId + '-' + String.valueOf(counter.incrementAndGet());
+    }
+
+    @Benchmark
+    public String synchronizedCounter() {
+        return synchronizedTransactionId(EXTERNAL_TRANSACTION_ID);
+    }
+
+    @Benchmark
+    public long next() {
+        return ids.next();
+    }
+
+    /**
+     * An id and its transactionId, as built for the response.
+     */
+    @Benchmark
+    public String nextTransactionId() {
+        return TransactionIdGenerator.format(EXTERNAL_TRANSACTION_ID, ids.next());
+    }
+}
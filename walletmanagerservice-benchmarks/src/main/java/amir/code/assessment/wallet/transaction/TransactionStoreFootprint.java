@@ -0,0 +1,74 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares the heap bytes per transaction of both transaction stores and the time of a full garbage collection, which
+ * has to trace every live object of the store. Run it with a fixed heap so the collections are comparable.
+ *
+ *   java -Xms4g -Xmx4g -cp walletmanagerservice-benchmarks/target/benchmarks.jar \
+ *       amir.code.assessment.wallet.transaction.TransactionStoreFootprint transactions=1000000 accounts=1000
+ *
+ * Options (key=value):
+ *   transactions  transactions added to each store (default 1000000)
+ *   accounts      accounts the transactions are spread over (default 1000)
+ */
+public class TransactionStoreFootprint {
+
+    public static void main(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0)
+                throw new IllegalArgumentException("unexpected argument " + arg + ", options are key=value");
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        int transactions = Integer.parseInt(options.getOrDefault("transactions", "1000000"));
+        int accounts = Integer.parseInt(options.getOrDefault("accounts", "1000"));
+
+        for (RegistryFactory.StoreType storeType : RegistryFactory.StoreType.values()) {
+            long before = usedHeap();
+            RegistryFactory factory = new RegistryFactory();
+            factory.setTransactionStore(storeType);
+            factory.setExpectedTransactions(transactions);
+            TransactionStore store = factory.buildTransactionStore();
+            BigDecimal funds = new BigDecimal("12.34");
+            for (int i = 0; i < transactions; i++) {
+                String externalTransactionId = "bet-" + i;
+                store.add(new Transaction(externalTransactionId + "-" + (i + 1), externalTransactionId,
+                        i % 2 == 0 ? "CREDIT" : "DEBIT", funds.add(BigDecimal.valueOf(i)), (long) (i % accounts), new Date()));
+            }
+            long used = usedHeap() - before;
+
+            long gcTime = gcMillis();
+            long startTime = System.nanoTime();
+            System.gc();
+            long fullGcMillis = (System.nanoTime() - startTime) / 1_000_000;
+            gcTime = gcMillis() - gcTime;
+
+            System.out.println(storeType + " store, transactions: " + store.size()
+                    + ", heap bytes/transaction: " + used / transactions
+                    + ", estimated bytes/transaction: " + store.footprint() / transactions
+                    + ", full gc millis: " + fullGcMillis + " (collector: " + gcTime + ")");
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, collector.getCollectionTime());
+        return millis;
+    }
+}
@@ -0,0 +1,91 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of transfers between random pairs of accounts, in both directions, from a couple of accounts where
+ * every transfer overlaps the others to many accounts where they rarely do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    private static final BigDecimal FUNDS = new BigDecimal("0.01");
+
+    @Param({"2", "16", "1024"})
+    public int accounts;
+
+    private Ledger ledger;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        TransactionConfiguration configuration = new TransactionConfiguration();
+        // every transfer has its own externalTransactionId
+        configuration.getIdempotency().setEnabled(false);
+        ledger = new Ledger(configuration);
+        ledger.recover();
+        ledger.start();
+        for (int accountId = 1; accountId <= accounts; accountId++) {
+            ledger.registerAccount(accountId);
+            ledger.getAccount(accountId).credit(new BigDecimal("1000000"));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        ledger.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class Pairs {
+        private String prefix;
+        private long next;
+        private long seed;
+
+        @Setup
+        public void setUp(ThreadParams threadParams) {
+            prefix = "transfer-" + threadParams.getThreadIndex() + "-";
+            seed = threadParams.getThreadIndex() * 0x9e3779b97f4a7c15L + 1;
+        }
+
+        private int nextInt(int bound) {
+            // xorshift, cheaper than a Random per call
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            return (int) Long.remainderUnsigned(seed, bound);
+        }
+    }
+
+    @Benchmark
+    public int transfer(Pairs pairs) throws IOException {
+        long from = 1 + pairs.nextInt(accounts);
+        long to = 1 + (from + pairs.nextInt(accounts - 1)) % accounts;
+        String externalTransactionId = pairs.prefix + pairs.next++;
+        return ledger.transfer(Arrays.asList(
+                new TransactionRequest(from, TransactionType.DEBIT, FUNDS, externalTransactionId),
+                new TransactionRequest(to, TransactionType.CREDIT, FUNDS, externalTransactionId))).getStatus();
+    }
+}
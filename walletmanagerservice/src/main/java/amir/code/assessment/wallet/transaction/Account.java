@@ -2,31 +2,152 @@ package amir.code.assessment.wallet.transaction;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This is a Account class storing balance of an account which can be shared by 3 different methods
- * In order to avoid wrong and unexpected balance when accessing (reading the balance value) or updating (writing the balance value)
- * We need to make sure at a time only one of these methods can read or update the balance, this is done by using synchronized
- * where it locks the shared resource (balance) while they could own it and then release it for the other method calls in a
- * multi-threading environment.
+ * (credit, debit and getBalance) in a multi-threading environment.
+ *
+ * The balance used to be guarded by the object monitor, which serialized every request thread working on a hot account.
+ * Now the balance is published as an immutable versioned BalanceSnapshot which every update replaces with
+ * compare-and-set, so credits and debits never block each other and reads are one volatile read which never waits.
+ * The balance is kept as a scaled long number of minor units (balance * 10^scale). Only when an amount does not fit the
+ * configured scale (more fractional digits) or the long range, the account is promoted once and for all to a BigDecimal
+ * balance. This keeps support for very very big decimal numbers.
+ *
+ * A hot account, e.g. a house or jackpot account taking thousands of credits per second, can have its credits striped:
+ * credits are then added to per-core CreditCells without touching the balance. A debit merges the new credits of the
+ * cells into the balance with the same compare-and-set as its own update and checks the merged balance, so an account
+ * is never overdrawn. A read adds the new credits of the cells to the balance without any lock or update and retries
+ * if the balance or the cells changed meanwhile, so it sees every credit which completed before it and a version
+ * always stands for one balance. Credits of an account are striped when it is configured as hot or once its failed
+ * balance updates in one second reach the contention threshold, and stay striped.
  *
  * We need to make sure only non-zero positive funds can be credited or debited.
  * We also need to make sure only when balance is not negative we can update balance while debiting funds amount.
  *
- * In the beginning double primitive was used for balance but since tests were failing due to the mismatch fractional digits numbers when
- * comparing, BigDecimal is used. And also it should support very very big decimal number as well.
- *
  */
 class Account {
 
-    private BigDecimal balance;
+    /**
+     * Default number of fractional digits kept by the fixed-point balance.
+     */
+    static final int DEFAULT_SCALE = 8;
+
+    /**
+     * Largest scale where 10^scale still fits into a long.
+     */
+    static final int MAX_SCALE = 18;
+
+    // returned by toUnits when an amount does not fit the fixed-point representation
+    private static final long NOT_REPRESENTABLE = Long.MIN_VALUE;
+    // max number of decimal digits always fitting into a long
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private static final AtomicReferenceFieldUpdater<Account, BalanceSnapshot> SNAPSHOT =
+            AtomicReferenceFieldUpdater.newUpdater(Account.class, BalanceSnapshot.class, "snapshot");
+
+    private static final AtomicReferenceFieldUpdater<Account, CreditCells> CELLS =
+            AtomicReferenceFieldUpdater.newUpdater(Account.class, CreditCells.class, "cells");
+
+    private static final AtomicIntegerFieldUpdater<Account> CONTENTION =
+            AtomicIntegerFieldUpdater.newUpdater(Account.class, "contention");
+
+    private static final AtomicLongFieldUpdater<Account> CONTENTION_WINDOW_START =
+            AtomicLongFieldUpdater.newUpdater(Account.class, "contentionWindowStart");
+
+    private static final long CONTENTION_WINDOW_MILLIS = 1000;
+
+    // compare-and-set of a balance lost to a concurrent update of the same account, across all accounts
+    private static final LongAdder updateRetries = new LongAdder();
+    private static final LongAdder stripedAccounts = new LongAdder();
+
+    private final int scale;
+    // failed balance updates per second after which credits are striped, 0 for never
+    private final int contentionThreshold;
+
+    private volatile BalanceSnapshot snapshot;
+    // pending credits, null until the credits of the account are striped
+    private volatile CreditCells cells;
+
+    // failed balance updates in the current contention window, only written when an update failed
+    private volatile int contention;
+    private volatile long contentionWindowStart;
 
     Account(){
-        this.balance = BigDecimal.ZERO;
+        this(DEFAULT_SCALE);
     }
 
-    synchronized BigDecimal getBalance(){
-        return balance;
+    /**
+     *
+     * @param scale . Number of fractional digits handled by the lock-free fixed-point balance.
+     */
+    Account(int scale){
+        this(scale, 0);
+    }
+
+    /**
+     *
+     * @param scale . Number of fractional digits handled by the lock-free fixed-point balance.
+     * @param contentionThreshold . Failed balance updates per second after which credits are striped, 0 for never.
+     */
+    Account(int scale, int contentionThreshold){
+        if (scale < 0 || scale > MAX_SCALE)
+            throw new IllegalArgumentException("unexpected balance scale: " + scale);
+        this.scale = scale;
+        this.contentionThreshold = contentionThreshold;
+        this.snapshot = new BalanceSnapshot(0, 0, scale);
+    }
+
+    /**
+     * @return number of balance updates of all accounts which had to be retried because of a concurrent update,
+     * the cost of contention on hot accounts
+     */
+    static long getUpdateRetries() {
+        return updateRetries.sum();
+    }
+
+    /**
+     * @return number of accounts whose credits are striped
+     */
+    static long getStripedAccounts() {
+        return stripedAccounts.sum();
+    }
+
+    BigDecimal getBalance(){
+        return getSnapshot().getBalance();
+    }
+
+    /**
+     * @return the current balance and its version, incremented by every credit and debit
+     */
+    BalanceSnapshot getSnapshot() {
+        CreditCells cells = this.cells;
+        if (cells == null)
+            return snapshot;
+        // like a seqlock: the sum only holds if neither the snapshot nor the cells changed meanwhile, otherwise a debit
+        // merging some of the credits could give the same version to two different balances
+        for (;;) {
+            BalanceSnapshot current = snapshot;
+            BalanceSnapshot merged = merged(current, cells);
+            if (snapshot == current && unchanged(merged, cells))
+                return merged;
+        }
+    }
+
+    /**
+     * Stripes the credits of the account from now on.
+     */
+    void stripeCredits() {
+        if (CELLS.compareAndSet(this, null, new CreditCells()))
+            stripedAccounts.increment();
+    }
+
+    boolean isStriped() {
+        return cells != null;
     }
 
     /**
@@ -36,12 +157,26 @@ class Account {
      *  return 0: if credited successfully
      *  return -1: if funds is NOT a non-zero positive number
      */
-    synchronized int credit(BigDecimal funds) {
-        if (funds.compareTo(BigDecimal.ZERO) > 0) {
-            balance = balance.add(funds, MathContext.UNLIMITED);
+    int credit(BigDecimal funds) {
+        if (funds.compareTo(BigDecimal.ZERO) <= 0)
+            return -1;
+
+        long amount = toUnits(funds);
+        CreditCells cells = this.cells;
+        if (cells != null && amount != NOT_REPRESENTABLE && cells.add(amount))
             return 0;
+        for (;;) {
+            BalanceSnapshot current = snapshot;
+            BalanceSnapshot next;
+            long units = current.getUnits() + amount;
+            if (!current.isPromoted() && amount != NOT_REPRESENTABLE && units >= 0)
+                next = current.updated(units, scale);
+            else // promoted, not representable or overflow
+                next = current.updated(current.getBalance().add(funds, MathContext.UNLIMITED));
+            if (SNAPSHOT.compareAndSet(this, current, next))
+                return 0;
+            contended();
         }
-        return -1;
     }
 
     /**
@@ -52,16 +187,202 @@ class Account {
      *  return -1: if funds is NOT a non-zero positive number
      *  return -2: if not enough money exist to debit expected amount of funds
      */
-    synchronized int debit(BigDecimal funds) {
-        if (funds.compareTo(BigDecimal.ZERO) > 0) {
-            BigDecimal futureBalance = balance.subtract(funds);
-            if (futureBalance.compareTo(BigDecimal.ZERO) >= 0) {
-                balance = futureBalance;
-                return 0;
+    int debit(BigDecimal funds) {
+        if (funds.compareTo(BigDecimal.ZERO) <= 0)
+            return -1;
+
+        long amount = toUnits(funds);
+        CreditCells cells = this.cells;
+        for (;;) {
+            BalanceSnapshot current = snapshot;
+            // striped credits are merged by the same update
+            BalanceSnapshot merged = cells == null ? current : merged(current, cells);
+            BalanceSnapshot next;
+            if (!merged.isPromoted() && amount != NOT_REPRESENTABLE) {
+                long units = merged.getUnits() - amount;
+                if (units < 0)
+                    return -2;
+                next = merged.updated(units, scale);
             } else {
-                return -2;
+                // promoted, or an amount with more fractional digits than the scale which promotes the account
+                BigDecimal futureBalance = merged.getBalance().subtract(funds);
+                if (futureBalance.compareTo(BigDecimal.ZERO) < 0)
+                    return -2;
+                next = merged.updated(futureBalance);
+            }
+            if (SNAPSHOT.compareAndSet(this, current, next))
+                return 0;
+            contended();
+        }
+    }
+
+    /**
+     * Credits and debits a group of funds in the given order with one update of the balance, e.g. the transactions of
+     * one account in a batch request.
+     *
+     * The credits of the group only fund its own debits: when the applied credits exceed the applied debits the
+     * balance is left as it was and the caller credits the difference once the group is durable, so no other debit
+     * spends a credit which may still be lost.
+     *
+     * @param credits . For each amount, true to credit it or false to debit it.
+     * @param funds . The amounts.
+     * @param allOrNothing . If true, nothing is applied when one of the amounts can not be applied.
+     * @param statuses . Receives for each amount the status credit or debit would return.
+     * @return number of applied amounts
+     */
+    int apply(boolean[] credits, BigDecimal[] funds, boolean allOrNothing, int[] statuses) {
+        int count = funds.length;
+        long[] amounts = new long[count];
+        boolean representable = true;
+        for (int i = 0; i < count; i++) {
+            if (funds[i].signum() > 0 && (amounts[i] = toUnits(funds[i])) == NOT_REPRESENTABLE)
+                representable = false;
+        }
+        CreditCells cells = this.cells;
+
+        for (;;) {
+            BalanceSnapshot current = snapshot;
+            // striped credits are merged by the same update
+            BalanceSnapshot merged = cells == null ? current : merged(current, cells);
+            if (representable && !merged.isPromoted()) {
+                long start = merged.getUnits();
+                long units = start;
+                int applied = 0;
+                boolean failed = false;
+                for (int i = 0; i < count; i++) {
+                    if (funds[i].signum() <= 0) {
+                        statuses[i] = -1;
+                        failed = true;
+                    } else if (credits[i]) {
+                        units += amounts[i];
+                        if (units < 0)
+                            break; // overflow, continue on the BigDecimal path
+                        statuses[i] = 0;
+                        applied++;
+                    } else if (units - amounts[i] < 0) {
+                        statuses[i] = -2;
+                        failed = true;
+                    } else {
+                        units -= amounts[i];
+                        statuses[i] = 0;
+                        applied++;
+                    }
+                }
+                if (units >= 0) {
+                    if ((allOrNothing && failed) || applied == 0)
+                        return 0;
+                    if (SNAPSHOT.compareAndSet(this, current, merged.updated(Math.min(units, start), scale)))
+                        return applied;
+                    contended();
+                    continue;
+                }
+            }
+
+            BigDecimal start = merged.getBalance();
+            BigDecimal balance = start;
+            int applied = 0;
+            boolean failed = false;
+            for (int i = 0; i < count; i++) {
+                if (funds[i].signum() <= 0) {
+                    statuses[i] = -1;
+                    failed = true;
+                } else if (credits[i]) {
+                    balance = balance.add(funds[i], MathContext.UNLIMITED);
+                    statuses[i] = 0;
+                    applied++;
+                } else if (balance.compareTo(funds[i]) < 0) {
+                    statuses[i] = -2;
+                    failed = true;
+                } else {
+                    balance = balance.subtract(funds[i]);
+                    statuses[i] = 0;
+                    applied++;
+                }
             }
+            if ((allOrNothing && failed) || applied == 0)
+                return 0;
+            if (SNAPSHOT.compareAndSet(this, current, merged.updated(balance.min(start))))
+                return applied;
+            contended();
+        }
+    }
+
+    /**
+     * @return the snapshot with the credits added to the cells since it was published, or the snapshot itself if
+     * there are none. Cells only grow, so the result holds every credit which completed before the call.
+     */
+    private BalanceSnapshot merged(BalanceSnapshot current, CreditCells cells) {
+        long units = 0;
+        long count = 0;
+        // sum of the new credits beyond a long, if ever
+        BigDecimal carry = null;
+        // allocated once a cell has new credits
+        CreditCells.Pending[] merged = null;
+        for (int cell = 0; cell < cells.size(); cell++) {
+            CreditCells.Pending total = cells.get(cell);
+            CreditCells.Pending included = current.getMerged(cell);
+            if (merged == null) {
+                if (total.count == included.count)
+                    continue;
+                merged = new CreditCells.Pending[cells.size()];
+                for (int previous = 0; previous < cell; previous++)
+                    merged[previous] = current.getMerged(previous);
+            }
+            merged[cell] = total;
+            long pending = total.units - included.units;
+            if (units + pending < 0) {
+                carry = carry == null ? BigDecimal.valueOf(units, scale) : carry.add(BigDecimal.valueOf(units, scale));
+                units = 0;
+            }
+            units += pending;
+            count += total.count - included.count;
+        }
+        return merged == null ? current : current.credited(units, carry, count, scale, merged);
+    }
+
+    /**
+     * @return true if the cells still hold the sums merged into the snapshot, the number of credits of a cell only
+     * grows so equal numbers mean no credit was added in between
+     */
+    private static boolean unchanged(BalanceSnapshot merged, CreditCells cells) {
+        for (int cell = 0; cell < cells.size(); cell++) {
+            if (cells.get(cell).count != merged.getMerged(cell).count)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a balance update lost to a concurrent one and stripes the credits when the account is hot.
+     */
+    private void contended() {
+        updateRetries.increment();
+        if (contentionThreshold == 0 || cells != null)
+            return;
+        long now = System.currentTimeMillis();
+        long windowStart = contentionWindowStart;
+        // one of the failing writers starts the next window, failures counted meanwhile by the others may be lost
+        if (now - windowStart > CONTENTION_WINDOW_MILLIS && CONTENTION_WINDOW_START.compareAndSet(this, windowStart, now))
+            CONTENTION.set(this, 0);
+        if (CONTENTION.incrementAndGet(this) >= contentionThreshold)
+            stripeCredits();
+    }
+
+    /**
+     * Converts funds into minor units of this account scale.
+     *
+     * @param funds . A positive amount.
+     * @return number of minor units or NOT_REPRESENTABLE if funds has more fractional digits than scale
+     * or it is too big to be stored in a long.
+     */
+    private long toUnits(BigDecimal funds) {
+        if (funds.scale() > scale) {
+            funds = funds.stripTrailingZeros();
+            if (funds.scale() > scale)
+                return NOT_REPRESENTABLE;
         }
-        return -1;
+        if (funds.precision() - funds.scale() + scale > MAX_LONG_DIGITS)
+            return NOT_REPRESENTABLE;
+        return funds.movePointRight(scale).longValue();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,37 @@
+package amir.code.assessment.wallet.transaction;
+
+/**
+ * Registry of accounts by their unique primitive accountId, shared by all request threads.
+ * accountId should be a non-zero positive number, 0 is never registered.
+ */
+interface AccountRegistry {
+
+    /**
+     * @param accountId . The key of the account.
+     * @return registered Account or null if there is no account with accountId
+     */
+    Account get(long accountId);
+
+    /**
+     * Atomically registers account if there is no account registered with accountId yet.
+     *
+     * @param accountId . A non-zero positive key of the account.
+     * @param account . The account to register.
+     * @return null if account is registered or the already registered Account otherwise
+     */
+    Account registerIfAbsent(long accountId, Account account);
+
+    /**
+     * @return number of registered accounts
+     */
+    int size();
+
+    /**
+     * Visits all registered accounts. Accounts registered concurrently may or may not be visited.
+     */
+    void forEach(Visitor visitor);
+
+    interface Visitor {
+        void visit(long accountId, Account account);
+    }
+}
@@ -1,18 +1,31 @@
 package amir.code.assessment.wallet.transaction;
 
+import com.codahale.metrics.annotation.Timed;
+
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
-import java.util.HashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -29,7 +42,20 @@ public class AccountTransactionAPI {
     private static final String TRANSACTION_ID = "transactionId";
     private static final String MESSAGE = "message";
     private static final String BALANCE = "balance";
-    private static final char UNIQUE_TRANSACTION_ID_SEPARATOR = '-';
+    private static final String TRANSACTIONS = "transactions";
+    private static final String ALL_OR_NOTHING = "allOrNothing";
+    private static final String RESULTS = "results";
+    private static final String STATUS = "status";
+    private static final String TRANSACTION_DATE = "transactionDate";
+    private static final String CURSOR = "cursor";
+    private static final String NEXT_CURSOR = "nextCursor";
+    private static final String HAS_MORE = "hasMore";
+    private static final String LIMIT = "limit";
+    private static final String FROM = "from";
+    private static final String TO = "to";
+    private static final String FROM_ACCOUNT_ID = "fromAccountId";
+    private static final String TO_ACCOUNT_ID = "toAccountId";
+    private static final String LEGS = "legs";
 
     private static final String CREDIT = "CREDIT";
     private static final String DEBIT = "DEBIT";
@@ -43,53 +69,51 @@ public class AccountTransactionAPI {
     private static final String EXCEPTION_CAUGHT = "exception caught: ";
     private static final String UNEXPECTED_TRANSACTION_TYPE = "unexpected transaction type: ";
     private static final String UNEXPECTED_ACCOUNT_ID_ACCOUNT_ID_SHOULD_BE_A_NON_ZERO_POSITIVE_INTEGER_NUMBER = "unexpected accountId: accountId should be a non-zero positive integer number";
+    private static final String COULD_NOT_REGISTER_TRANSACTIONS = "could not register transactions. ";
+    private static final String ROLLED_BACK = "rolled back, another transaction of the account could not be registered";
+    private static final String EXTERNAL_TRANSACTION_ID_REUSED = "externalTransactionId was already registered with a different request";
+    private static final String COULD_NOT_REGISTER_TRANSFER = "could not register transfer. ";
+    private static final String TRANSFER_REGISTERED_SUCCESSFULLY = "transfer registered successfully";
+
+    // max number of transactions of one batch request
+    private static final int MAX_BATCH_SIZE = 10_000;
+    // max number of legs of one multi-leg transfer
+    private static final int MAX_TRANSFER_LEGS = 100;
+    // max number of transactions of one history page
+    private static final int MAX_PAGE_SIZE = 1_000;
 
     private static final Logger logger = LoggerFactory.getLogger(AccountTransactionAPI.class);
 
     // singleton class for RestAPI
     private static AccountTransactionAPI INSTANCE = null;
 
-    private AccountTransactionAPI(){}
+    /**
+     * The ledger holding registered accounts and the history of registered transactions.
+     */
+    private final Ledger ledger;
+
+    AccountTransactionAPI(Ledger ledger){
+        this.ledger = ledger;
+    }
 
     /**
-     * A Singleton class created for RestAPI which stores a globally unique transactionId counter.
+     * A Singleton class created for RestAPI on top of the ledger of the application.
+     * @param ledger . Application ledger, only used when the instance is created.
      * @return
      */
-    static AccountTransactionAPI getInstance(){
+    static synchronized AccountTransactionAPI getInstance(Ledger ledger){
         if (INSTANCE == null){
-            INSTANCE = new AccountTransactionAPI();
+            INSTANCE = new AccountTransactionAPI(ledger);
         }
         return INSTANCE;
     }
 
-    //unique transactionId
-    private static AtomicLong transactionId = new AtomicLong();
-
-    private synchronized static String getUniqueTransactionId(String externalTransactionId) {
-        return externalTransactionId+UNIQUE_TRANSACTION_ID_SEPARATOR+String.valueOf(transactionId.incrementAndGet());
-    }
-
-    /**
-     * HashMap data structure is used for fast access to the Account value by its unique key (AccountID).
-     * Long should makes sense as number of accounts for players but in case later other types can be used
-     * to represent larger range of Integers if still we want to use numbered IDs.
-     */
-    private static final HashMap<Long, Account> accounts = new HashMap<>();
-
-    /**
-     * transactions will store history of registered transactions. There is a one-2-many relationship
-     * between one account and its transactions. meaning that each transaction should be connected to
-     * only and only one account but there can be an account to have zero or many transactions connected to.
-     *
-     * Key is the transactionId where a transaction can be found using this unique identifier.
-     */
-    private static final HashMap<String, Transaction> transactions = new HashMap<>();
-
     /**
      *
      * @param accountId . They key to create a new unique mapped Account
      * @return
      */
+    @Timed
     @POST
     @Path("/register-account/accountId/{accountId}")
     @Consumes(MediaType.APPLICATION_JSON)
@@ -100,16 +124,11 @@ public class AccountTransactionAPI {
         try {
             if (accountId <= 0)
                 return getFailResponse(400, UNEXPECTED_ACCOUNT_ID_ACCOUNT_ID_SHOULD_BE_A_NON_ZERO_POSITIVE_INTEGER_NUMBER);
-            if (accounts.containsKey(accountId))
+            Account account = ledger.registerAccount(accountId);
+            if (account == null)
                 return getFailResponse(400,"account with id:"+accountId+" already registered");
 
-            Account account = new Account();
-            accounts.put(accountId, account);
-
-            return Response.ok(new JSONObject()
-                    .put(ACCOUNT_ID, accountId)
-                    .put(BALANCE, account.getBalance()).toString())
-                    .build();
+            return getBalanceResponse(accountId, account.getBalance());
 
         } catch (Exception e) {
             logger.error(EXCEPTION_CAUGHT, e);
@@ -118,23 +137,34 @@ public class AccountTransactionAPI {
     }
 
     /**
+     * This API is to get the balance of an account with its version, which changes with every credit and debit of the
+     * account. The version is also sent as the ETag of the response: a client polling the balance sends it back in an
+     * If-None-Match header and gets a 304 Not Modified without body as long as the balance did not change.
      *
      * @param accountId . They key to get balance of mapped Account
+     * @param ifNoneMatch . ETags of balances the client already has, or null.
      * @return
+     *  { "accountId" : 1, "balance" : 10.5, "version" : 7 }
      */
+    @Timed
     @GET
     @Path("/get-account-balance/accountId/{accountId}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
     public Response getAccountBalance(
-            @PathParam(ACCOUNT_ID) long accountId) {
+            @PathParam(ACCOUNT_ID) long accountId,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) {
 
         try {
-            if (accounts.containsKey(accountId))
-                return Response.ok(new JSONObject()
-                        .put(ACCOUNT_ID, accountId)
-                        .put(BALANCE, accounts.get(accountId).getBalance()).toString())
-                        .build();
+            Account account = ledger.getAccount(accountId);
+            if (account != null) {
+                // balance and version of one immutable snapshot, read without waiting for writers
+                BalanceSnapshot snapshot = account.getSnapshot();
+                String entityTag = getEntityTag(snapshot);
+                if (ifNoneMatch != null && matches(ifNoneMatch, entityTag))
+                    return Response.notModified().header(HttpHeaders.ETAG, entityTag).build();
+                return getVersionedBalanceResponse(accountId, snapshot, entityTag);
+            }
 
             else return getFailResponse(400, "account with id:"+accountId+" does not exist");
 
@@ -144,6 +174,82 @@ public class AccountTransactionAPI {
         return Response.serverError().build();
     }
 
+    /**
+     * This API is to list the registered transactions of one account in the order of their transactionDate, one page
+     * at a time. The nextCursor of a page is the cursor of the next page, it can also be used later to poll for
+     * transactions registered in the meantime.
+     *
+     * @param accountId . They key of the Account.
+     * @param cursor . Cursor of the page, 0 for the first page.
+     * @param limit . Max number of transactions of the page, up to 1000.
+     * @param from . Only transactions registered at or after this time, in epoch millis.
+     * @param to . Only transactions registered before this time, in epoch millis.
+     * @param transactionType . Only CREDIT or only DEBIT transactions, all if empty.
+     * @return
+     *  { "accountId" : 1, "transactions" : [ { "transactionId" : ..., "transactionDate" : 1520000000000, ... } ],
+     *    "nextCursor" : 100, "hasMore" : true }
+     */
+    @Timed
+    @GET
+    @Path("/get-account-transactions/accountId/{accountId}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getAccountTransactions(
+            @PathParam(ACCOUNT_ID) long accountId,
+            @QueryParam(CURSOR) @DefaultValue("0") int cursor,
+            @QueryParam(LIMIT) @DefaultValue("100") int limit,
+            @QueryParam(FROM) @DefaultValue("0") long from,
+            @QueryParam(TO) @DefaultValue("" + Long.MAX_VALUE) long to,
+            @QueryParam(TRANSACTION_TYPE) @DefaultValue("") String transactionType) {
+
+        try {
+            if (ledger.getAccount(accountId) == null)
+                return getFailResponse(400, "account with id:"+accountId+" does not exist");
+            if (cursor < 0)
+                return getFailResponse(400, "unexpected cursor: " + cursor);
+            if (limit <= 0 || limit > MAX_PAGE_SIZE)
+                return getFailResponse(400, "unexpected limit: limit should be between 1 and " + MAX_PAGE_SIZE);
+
+            TransactionType type;
+            switch (transactionType.toUpperCase()) {
+                case "":
+                    type = null;
+                    break;
+                case CREDIT:
+                    type = TransactionType.CREDIT;
+                    break;
+                case DEBIT:
+                    type = TransactionType.DEBIT;
+                    break;
+                default:
+                    return getFailResponse(400, UNEXPECTED_TRANSACTION_TYPE + transactionType.toUpperCase());
+            }
+
+            JSONArray transactions = new JSONArray();
+            int nextCursor = cursor;
+            boolean hasMore = false;
+            TransactionHistory history = ledger.getHistory(accountId);
+            if (history != null) {
+                TransactionHistory.Page page = history.page(cursor, from, to, type, limit);
+                for (Transaction transaction : page.getTransactions())
+                    transactions.put(getTransactionJson(transaction));
+                nextCursor = page.getNextCursor();
+                hasMore = page.hasMore();
+            }
+
+            return Response.ok(new JSONObject()
+                    .put(ACCOUNT_ID, accountId)
+                    .put(TRANSACTIONS, transactions)
+                    .put(NEXT_CURSOR, nextCursor)
+                    .put(HAS_MORE, hasMore).toString())
+                    .build();
+
+        } catch (Exception e) {
+            logger.error(EXCEPTION_CAUGHT, e);
+        }
+        return Response.serverError().build();
+    }
+
     /**
      * This API is to register a CREDIT or DEBIT transaction on one account which is identified by its unique Id.
      * The funds amount can only be a non-zero positive fractional number.
@@ -159,13 +265,48 @@ public class AccountTransactionAPI {
      *                   "funds" : 43242434.34234244243244423424234432424423432424234242,
      *                   "externalTransactionId" : "2dsff"
      *               }
+     *
+     *             The body is parsed by the JsonCodec from a buffer reused by the requests of the thread, funds
+     *             keeps all its digits also when given as a JSON number.
+     *
+     *             A retry with the same accountId and externalTransactionId gets the registered transaction back, a
+     *             different transactionType or funds gets 422 instead.
      * @return
      */
+    @Timed
     @POST
     @Path("/register-transaction")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response registerTransaction(String body)  {
+    public Response registerTransaction(InputStream body) {
+
+        try {
+            JsonCodec codec = JsonCodec.get().read(body);
+            TransactionRequest request = codec.parseTransaction();
+            // malformed or unusual bodies go through org.json, which gives the usual error messages
+            if (request == null)
+                return registerTransaction(codec.inputAsString());
+
+            RegistrationResult result = ledger.registerTransaction(request.getAccountId(), request.getTransactionType(),
+                    request.getFunds(), request.getExternalTransactionId());
+            if (result.getStatus() == RegistrationResult.REGISTERED)
+                return getSuccessRegisterResponse(result.getTransaction());
+            return getFailResponse(getFailStatus(result.getStatus()),
+                    getFailRegisterMessage(result.getStatus(), request.getAccountId(), request.getFunds()));
+
+        } catch (Exception e) {
+            logger.error(EXCEPTION_CAUGHT, e);
+        }
+        return Response.serverError().build();
+    }
+
+    /**
+     * Registers a transaction from a body parsed by org.json.
+     *
+     * @param body . A request body of the register-transaction API.
+     * @return
+     */
+    Response registerTransaction(String body)  {
 
         try {
             try {
@@ -176,40 +317,27 @@ public class AccountTransactionAPI {
                 BigDecimal funds = new BigDecimal(jsonBody.getString(FUNDS)); // funds
                 String externalTransactionId = jsonBody.getString(EXTERNAL_TRANSACTION_ID); // external transaction id
 
-                // check if account exists
-                if (!accounts.containsKey(accountId)){
-                    return getFailResponse(400, COULD_NOT_REGISTER_TRANSACTION + "account with id:" +accountId+" does not exist");
-                }
-
                 // register transaction CREDIT or DEBIT
-                int registrationStatus;
+                TransactionType registrationType;
                 switch (transactionType) {
                     case CREDIT:
-                        registrationStatus = accounts.get(accountId).credit(funds);
+                        registrationType = TransactionType.CREDIT;
                         break;
                     case DEBIT:
-                        registrationStatus = accounts.get(accountId).debit(funds);
+                        registrationType = TransactionType.DEBIT;
                         break;
                     default:
+                        // check if account exists
+                        if (ledger.getAccount(accountId) == null)
+                            return getFailResponse(400, COULD_NOT_REGISTER_TRANSACTION + "account with id:" +accountId+" does not exist");
                         return getFailResponse(400, COULD_NOT_REGISTER_TRANSACTION + UNEXPECTED_TRANSACTION_TYPE +transactionType);
                 }
+                RegistrationResult result = ledger.registerTransaction(accountId, registrationType, funds, externalTransactionId);
 
-                // update transactions history
-                switch (registrationStatus) {
-                    case 0:
-                        String transactionId = getUniqueTransactionId(externalTransactionId);
-                        Transaction registeredTransaction = new Transaction(transactionId, externalTransactionId, transactionType, funds, accountId);
-
-                        // since transactionId is unique simply add it to transactions history (thread-safe)
-                        transactions.put(transactionId, registeredTransaction);
-                        return getSuccessRegisterResponse(registeredTransaction);
-                    case -1:
-                        return getFailResponse(400, COULD_NOT_REGISTER_TRANSACTION + UNEXPECTED_ZERO_OR_NEGATIVE_FUNDS_AMOUNT +funds);
-                    case -2:
-                        return getFailResponse(400, COULD_NOT_REGISTER_TRANSACTION + NOT_ENOUGH_BALANCE);
-                    default:
-                        break;
-                }
+                // transactions history is updated by the ledger engine
+                if (result.getStatus() == RegistrationResult.REGISTERED)
+                    return getSuccessRegisterResponse(result.getTransaction());
+                return getFailResponse(getFailStatus(result.getStatus()), getFailRegisterMessage(result.getStatus(), accountId, funds));
 
             } catch (JSONException e) {
                 logger.error(EXCEPTION_CAUGHT, e);
@@ -227,32 +355,409 @@ public class AccountTransactionAPI {
     }
 
     /**
+     * This API is to register many CREDIT or DEBIT transactions with one request, e.g. settling many bets at once.
+     * Transactions are grouped by account and each group is applied in submission order with one update of the account.
+     * Every transaction gets its own result, with the same status and message the register-transaction API would
+     * give for it.
      *
-     * @param transaction . A registered transaction.
+     * @param body . Either an array of transactions in the format of the register-transaction API, or an object
+     *             with the transactions and allOrNothing. When allOrNothing is true, the transactions of an account
+     *             are either all registered or none of them (other accounts are not affected).
+     *
+     *             Example of body:
+     *               {
+     *                   "allOrNothing" : true,
+     *                   "transactions" : [
+     *                       { "accountId" : "1", "transactionType" : "debit", "funds" : 10, "externalTransactionId" : "bet-1" },
+     *                       { "accountId" : "2", "transactionType" : "credit", "funds" : 10, "externalTransactionId" : "win-1" }
+     *                   ]
+     *               }
      * @return
-     * @throws JSONException
+     *  { "results" : [ { "status" : 200, "message" : "transaction registered successfully", ... },
+     *                  { "status" : 400, "message" : "could not register transaction. not enough balance!" } ] }
      */
-    private Response getSuccessRegisterResponse(Transaction transaction) throws JSONException{
+    @Timed
+    @POST
+    @Path("/register-transactions")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response registerTransactions(String body) {
+
+        try {
+            JSONArray items;
+            boolean allOrNothing = false;
+            try {
+                if (body.trim().startsWith("[")) {
+                    items = new JSONArray(body);
+                } else {
+                    JSONObject jsonBody = new JSONObject(body);
+                    items = jsonBody.getJSONArray(TRANSACTIONS);
+                    allOrNothing = jsonBody.optBoolean(ALL_OR_NOTHING, false);
+                }
+            } catch (JSONException e) {
+                logger.error(EXCEPTION_CAUGHT, e);
+                return getFailResponse(400, COULD_NOT_REGISTER_TRANSACTIONS + JSON_EXCEPTION +e.getMessage());
+            }
+            if (items.length() > MAX_BATCH_SIZE)
+                return getFailResponse(400, COULD_NOT_REGISTER_TRANSACTIONS + "more than " + MAX_BATCH_SIZE + " transactions");
+
+            JSONObject[] results = new JSONObject[items.length()];
+            List<TransactionRequest> requests = new ArrayList<>(items.length());
+            List<Integer> requestIndexes = new ArrayList<>(items.length());
+            // accounts with an invalid transaction, their other transactions are rolled back when allOrNothing
+            Set<Long> invalidAccounts = new HashSet<>();
+
+            for (int i = 0; i < items.length(); i++) {
+                long accountId = 0;
+                try {
+                    // fetch transaction register info from JSON item
+                    JSONObject item = items.getJSONObject(i);
+                    String transactionType = item.getString(TRANSACTION_TYPE).toUpperCase(); // transaction type
+                    accountId = item.getLong(ACCOUNT_ID); // account id
+                    BigDecimal funds = new BigDecimal(item.getString(FUNDS)); // funds
+                    String externalTransactionId = item.getString(EXTERNAL_TRANSACTION_ID); // external transaction id
+
+                    TransactionType registrationType;
+                    switch (transactionType) {
+                        case CREDIT:
+                            registrationType = TransactionType.CREDIT;
+                            break;
+                        case DEBIT:
+                            registrationType = TransactionType.DEBIT;
+                            break;
+                        default:
+                            invalidAccounts.add(accountId);
+                            // check if account exists
+                            if (ledger.getAccount(accountId) == null)
+                                results[i] = getFailResult(COULD_NOT_REGISTER_TRANSACTION + "account with id:" +accountId+" does not exist");
+                            else
+                                results[i] = getFailResult(COULD_NOT_REGISTER_TRANSACTION + UNEXPECTED_TRANSACTION_TYPE +transactionType);
+                            continue;
+                    }
+                    requests.add(new TransactionRequest(accountId, registrationType, funds, externalTransactionId));
+                    requestIndexes.add(i);
+
+                } catch (JSONException e) {
+                    invalidAccounts.add(accountId);
+                    results[i] = getFailResult(COULD_NOT_REGISTER_TRANSACTION + JSON_EXCEPTION +e.getMessage());
+
+                } catch (NumberFormatException e) {
+                    // Unexpected FUNDS input value
+                    invalidAccounts.add(accountId);
+                    results[i] = getFailResult(COULD_NOT_REGISTER_TRANSACTION + UNEXPECTED_FUNDS_VALUE_NUMBER_FORMAT_EXCEPTION +e.getMessage());
+                }
+            }
+
+            if (allOrNothing && !invalidAccounts.isEmpty()) {
+                for (int r = requests.size() - 1; r >= 0; r--) {
+                    if (invalidAccounts.contains(requests.get(r).getAccountId())) {
+                        results[requestIndexes.get(r)] = getFailResult(COULD_NOT_REGISTER_TRANSACTION + ROLLED_BACK);
+                        requests.remove(r);
+                        requestIndexes.remove(r);
+                    }
+                }
+            }
+
+            RegistrationResult[] registrationResults = ledger.registerTransactions(requests, allOrNothing);
+            for (int r = 0; r < registrationResults.length; r++) {
+                RegistrationResult result = registrationResults[r];
+                TransactionRequest request = requests.get(r);
+                results[requestIndexes.get(r)] = result.getStatus() == RegistrationResult.REGISTERED
+                        ? getSuccessRegisterJson(result.getTransaction()).put(STATUS, 200)
+                        : getFailResult(getFailStatus(result.getStatus()),
+                                getFailRegisterMessage(result.getStatus(), request.getAccountId(), request.getFunds()));
+            }
+
+            JSONArray jsonResults = new JSONArray();
+            for (JSONObject result : results)
+                jsonResults.put(result);
+            return Response.ok(new JSONObject().put(RESULTS, jsonResults).toString()).build();
+
+        } catch (Exception e) {
+            logger.error(EXCEPTION_CAUGHT, e);
+        }
+        return Response.serverError().build();
+    }
+
+    /**
+     * This API is to move funds from one account to another atomically: the DEBIT of fromAccountId and the CREDIT of
+     * toAccountId are registered together or not at all, as two linked transactions sharing the externalTransactionId.
+     * A retried transfer gets its original result back.
+     *
+     * @param body . The accounts, funds and externalTransactionId of the transfer.
+     *
+     *             Example of body:
+     *               { "fromAccountId" : "1", "toAccountId" : "2", "funds" : 10, "externalTransactionId" : "transfer-1" }
+     * @return
+     *  { "message" : "transfer registered successfully", "transactions" : [ { DEBIT of account 1 }, { CREDIT of account 2 } ] }
+     */
+    @Timed
+    @POST
+    @Path("/register-transfer")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response registerTransfer(String body) {
+
+        try {
+            try {
+                JSONObject jsonBody = new JSONObject(body);
+                long fromAccountId = jsonBody.getLong(FROM_ACCOUNT_ID);
+                long toAccountId = jsonBody.getLong(TO_ACCOUNT_ID);
+                BigDecimal funds = new BigDecimal(jsonBody.getString(FUNDS));
+                String externalTransactionId = jsonBody.getString(EXTERNAL_TRANSACTION_ID);
+                if (fromAccountId == toAccountId)
+                    return getFailResponse(400, COULD_NOT_REGISTER_TRANSFER + "fromAccountId and toAccountId should be different");
+
+                List<TransactionRequest> legs = new ArrayList<>(2);
+                legs.add(new TransactionRequest(fromAccountId, TransactionType.DEBIT, funds, externalTransactionId));
+                legs.add(new TransactionRequest(toAccountId, TransactionType.CREDIT, funds, externalTransactionId));
+                return transfer(legs);
+
+            } catch (JSONException e) {
+                logger.error(EXCEPTION_CAUGHT, e);
+                return getFailResponse(400, COULD_NOT_REGISTER_TRANSFER + JSON_EXCEPTION +e.getMessage());
+
+            } catch (NumberFormatException e) {
+                logger.error(EXCEPTION_CAUGHT, e);
+                return getFailResponse(400, COULD_NOT_REGISTER_TRANSFER + UNEXPECTED_FUNDS_VALUE_NUMBER_FORMAT_EXCEPTION +e.getMessage());
+            }
+        } catch (Exception e) {
+            logger.error(EXCEPTION_CAUGHT, e);
+        }
+        return Response.serverError().build();
+    }
+
+    /**
+     * This API is to move funds between several accounts atomically, e.g. settling a pot between players: the legs are
+     * registered together or not at all, as linked transactions sharing the externalTransactionId. The debited funds
+     * should be equal to the credited funds.
+     *
+     * @param body . The externalTransactionId and up to 100 legs of the transfer.
+     *
+     *             Example of body:
+     *               {
+     *                   "externalTransactionId" : "pot-1",
+     *                   "legs" : [
+     *                       { "accountId" : "1", "transactionType" : "debit", "funds" : 10 },
+     *                       { "accountId" : "2", "transactionType" : "credit", "funds" : 7 },
+     *                       { "accountId" : "3", "transactionType" : "credit", "funds" : 3 }
+     *                   ]
+     *               }
+     * @return
+     *  { "message" : "transfer registered successfully", "transactions" : [ one transaction per leg ] }
+     */
+    @Timed
+    @POST
+    @Path("/register-multi-leg-transfer")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response registerMultiLegTransfer(String body) {
+
+        try {
+            try {
+                JSONObject jsonBody = new JSONObject(body);
+                String externalTransactionId = jsonBody.getString(EXTERNAL_TRANSACTION_ID);
+                JSONArray items = jsonBody.getJSONArray(LEGS);
+                if (items.length() < 2 || items.length() > MAX_TRANSFER_LEGS)
+                    return getFailResponse(400, COULD_NOT_REGISTER_TRANSFER + "a transfer should have 2 to " + MAX_TRANSFER_LEGS + " legs");
+
+                List<TransactionRequest> legs = new ArrayList<>(items.length());
+                for (int i = 0; i < items.length(); i++) {
+                    JSONObject item = items.getJSONObject(i);
+                    String transactionType = item.getString(TRANSACTION_TYPE).toUpperCase();
+                    long accountId = item.getLong(ACCOUNT_ID);
+                    BigDecimal funds = new BigDecimal(item.getString(FUNDS));
+                    TransactionType legType;
+                    switch (transactionType) {
+                        case CREDIT:
+                            legType = TransactionType.CREDIT;
+                            break;
+                        case DEBIT:
+                            legType = TransactionType.DEBIT;
+                            break;
+                        default:
+                            return getFailResponse(400, COULD_NOT_REGISTER_TRANSFER + UNEXPECTED_TRANSACTION_TYPE +transactionType);
+                    }
+                    legs.add(new TransactionRequest(accountId, legType, funds, externalTransactionId));
+                }
+                return transfer(legs);
+
+            } catch (JSONException e) {
+                logger.error(EXCEPTION_CAUGHT, e);
+                return getFailResponse(400, COULD_NOT_REGISTER_TRANSFER + JSON_EXCEPTION +e.getMessage());
+
+            } catch (NumberFormatException e) {
+                logger.error(EXCEPTION_CAUGHT, e);
+                return getFailResponse(400, COULD_NOT_REGISTER_TRANSFER + UNEXPECTED_FUNDS_VALUE_NUMBER_FORMAT_EXCEPTION +e.getMessage());
+            }
+        } catch (Exception e) {
+            logger.error(EXCEPTION_CAUGHT, e);
+        }
+        return Response.serverError().build();
+    }
+
+    /**
+     * Registers the legs of a transfer once they balance.
+     */
+    private Response transfer(List<TransactionRequest> legs) throws IOException, JSONException {
+        BigDecimal debits = BigDecimal.ZERO;
+        BigDecimal credits = BigDecimal.ZERO;
+        for (TransactionRequest leg : legs) {
+            if (leg.getFunds().signum() <= 0)
+                return getFailResponse(400, getFailRegisterMessage(COULD_NOT_REGISTER_TRANSFER,
+                        RegistrationResult.UNEXPECTED_FUNDS, leg.getAccountId(), leg.getFunds()));
+            if (leg.getTransactionType() == TransactionType.DEBIT)
+                debits = debits.add(leg.getFunds());
+            else
+                credits = credits.add(leg.getFunds());
+        }
+        if (debits.compareTo(credits) != 0)
+            return getFailResponse(400, COULD_NOT_REGISTER_TRANSFER + "debited funds " + debits
+                    + " should be equal to credited funds " + credits);
+
+        RegistrationResult result = ledger.transfer(legs);
+        if (result.getStatus() != RegistrationResult.REGISTERED) {
+            TransactionRequest failed = legs.get(Math.max(0, result.getFailedLeg()));
+            return getFailResponse(getFailStatus(result.getStatus()), getFailRegisterMessage(COULD_NOT_REGISTER_TRANSFER, result.getStatus(),
+                    failed.getAccountId(), failed.getFunds()));
+        }
+
+        // a retry of a transfer registered before a restart only gets the transaction of its first leg back
+        List<Transaction> registered = result.getLinkedTransactions() != null
+                ? result.getLinkedTransactions()
+                : Collections.singletonList(result.getTransaction());
+        JSONArray jsonTransactions = new JSONArray();
+        for (Transaction transaction : registered)
+            jsonTransactions.put(getTransactionJson(transaction));
         return Response.ok(new JSONObject()
+                .put(MESSAGE, TRANSFER_REGISTERED_SUCCESSFULLY)
+                .put(TRANSACTIONS, jsonTransactions).toString()).build();
+    }
+
+    /**
+     *
+     * @param transaction . A registered transaction.
+     * @return A JSON format Response, written straight to the output stream.
+     */
+    private Response getSuccessRegisterResponse(Transaction transaction) {
+        return Response.ok((StreamingOutput) output ->
+                JsonCodec.get().writeTransaction(TRANSACTION_REGISTERED_SUCCESSFULLY, transaction, output)).build();
+    }
+
+    private Response getBalanceResponse(long accountId, BigDecimal balance) {
+        return Response.ok((StreamingOutput) output -> JsonCodec.get().writeBalance(accountId, balance, output)).build();
+    }
+
+    private Response getVersionedBalanceResponse(long accountId, BalanceSnapshot snapshot, String entityTag) {
+        return Response.ok((StreamingOutput) output ->
+                JsonCodec.get().writeBalance(accountId, snapshot.getBalance(), snapshot.getVersion(), output))
+                .header(HttpHeaders.ETAG, entityTag)
+                .build();
+    }
+
+    /**
+     * @return strong entity tag of the balance, unique across restarts of the ledger
+     */
+    private String getEntityTag(BalanceSnapshot snapshot) {
+        return "\"" + Long.toString(ledger.getIncarnation(), 36) + "-" + snapshot.getVersion() + "\"";
+    }
+
+    /**
+     * @param ifNoneMatch . An If-None-Match header, * or a list of entity tags.
+     * @return true if one of the entity tags is entityTag (weak comparison)
+     */
+    private static boolean matches(String ifNoneMatch, String entityTag) {
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(entityTag))
+                return true;
+        }
+        return false;
+    }
+
+    private JSONObject getSuccessRegisterJson(Transaction transaction) throws JSONException {
+        return new JSONObject()
                 .put(MESSAGE, TRANSACTION_REGISTERED_SUCCESSFULLY)
+                .put(TRANSACTION_ID, transaction.getTransactionId())
+                .put(EXTERNAL_TRANSACTION_ID, transaction.getExternalTransactionId())
+                .put(TRANSACTION_TYPE, transaction.getTransactionType())
+                .put(ACCOUNT_ID, transaction.getAccountId())
+                .put(FUNDS, transaction.getFunds());
+    }
+
+    private JSONObject getTransactionJson(Transaction transaction) throws JSONException {
+        return new JSONObject()
                 .put(TRANSACTION_ID, transaction.getTransactionId())
                 .put(EXTERNAL_TRANSACTION_ID, transaction.getExternalTransactionId())
                 .put(TRANSACTION_TYPE, transaction.getTransactionType())
                 .put(ACCOUNT_ID, transaction.getAccountId())
                 .put(FUNDS, transaction.getFunds())
-                .toString())
-                .build();
+                .put(TRANSACTION_DATE, transaction.getTransactionDate().getTime());
     }
 
     /**
      *
-     * @param errorCode . Http error code. For now (could be more specific in usage later)
-     * used only for Bad Request and only 400 meaning not expected information received from client.
+     * @param status . A failed RegistrationResult status.
+     * @return message of the failed registration
+     */
+    private String getFailRegisterMessage(int status, long accountId, BigDecimal funds) {
+        return getFailRegisterMessage(COULD_NOT_REGISTER_TRANSACTION, status, accountId, funds);
+    }
+
+    /**
+     *
+     * @param prefix . Beginning of the message, e.g. for a transaction or a transfer.
+     * @param status . A failed RegistrationResult status.
+     * @return message of the failed registration
+     */
+    private String getFailRegisterMessage(String prefix, int status, long accountId, BigDecimal funds) {
+        switch (status) {
+            case RegistrationResult.UNEXPECTED_FUNDS:
+                return prefix + UNEXPECTED_ZERO_OR_NEGATIVE_FUNDS_AMOUNT +funds;
+            case RegistrationResult.NOT_ENOUGH_BALANCE:
+                return prefix + NOT_ENOUGH_BALANCE;
+            case RegistrationResult.ACCOUNT_NOT_FOUND:
+                return prefix + "account with id:" +accountId+" does not exist";
+            case RegistrationResult.ROLLED_BACK:
+                return prefix + ROLLED_BACK;
+            case RegistrationResult.IDEMPOTENCY_CONFLICT:
+                return prefix + EXTERNAL_TRANSACTION_ID_REUSED;
+            default:
+                throw new IllegalStateException("unexpected registration status: " + status);
+        }
+    }
+
+    /**
+     * @param status . A failed RegistrationResult status.
+     * @return 422 for a reused externalTransactionId, 400 otherwise
+     */
+    private static int getFailStatus(int status) {
+        return status == RegistrationResult.IDEMPOTENCY_CONFLICT ? 422 : 400;
+    }
+
+    /**
+     * A failed item of a batch request, with the status the register-transaction API would respond with.
+     */
+    private JSONObject getFailResult(String errorMessage) throws JSONException {
+        return getFailResult(400, errorMessage);
+    }
+
+    private JSONObject getFailResult(int status, String errorMessage) throws JSONException {
+        return new JSONObject().put(STATUS, status).put(MESSAGE, errorMessage);
+    }
+
+    /**
+     *
+     * @param errorCode . Http error code, 400 for not expected information received from client, 422 for a reused
+     * externalTransactionId.
      * @param errorMessage . errorMessage.
-     * @return A JSON format Response.
-     * @throws JSONException
+     * @return A JSON format Response, written straight to the output stream.
      */
-    private Response getFailResponse(int errorCode, String errorMessage) throws JSONException {
-        return Response.status(errorCode).entity(new JSONObject().put(MESSAGE, errorMessage).toString()).build();
+    private Response getFailResponse(int errorCode, String errorMessage) {
+        return Response.status(errorCode)
+                .entity((StreamingOutput) output -> JsonCodec.get().writeMessage(errorMessage, output))
+                .build();
     }
 }
@@ -0,0 +1,125 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.annotation.Timed;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * The AccountTransactionAPI served asynchronously, registered instead of it when async is enabled in the
+ * configuration. Every API keeps its path, body and responses.
+ *
+ * Registrations are run on the write executor and transaction history reads on the read executor of the
+ * RequestExecutors, the HTTP thread is released as soon as the request is queued. Balance reads are a single read of
+ * the account snapshot and are still answered on the HTTP thread, so they are served during write storms as long as
+ * the HTTP threads are not busy with anything else. A request which can not be queued gets a 429 or 503 with a
+ * Retry-After header, see RequestExecutors.
+ *
+ * The timers of the suspended APIs measure handing the request over to its executor, the latency up to the response
+ * is measured per executor by the RequestExecutors.
+ */
+@Path("/AccountTransactionAPI")
+@Produces(MediaType.APPLICATION_JSON)
+public class AsyncAccountTransactionAPI {
+
+    private static final String ACCOUNT_ID = "accountId";
+
+    private final AccountTransactionAPI api;
+    private final RequestExecutors executors;
+
+    AsyncAccountTransactionAPI(AccountTransactionAPI api, RequestExecutors executors) {
+        this.api = api;
+        this.executors = executors;
+    }
+
+    @Timed
+    @POST
+    @Path("/register-account/accountId/{accountId}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void registerAccount(
+            @PathParam(ACCOUNT_ID) long accountId,
+            @Suspended AsyncResponse response) {
+        executors.write(response, () -> api.registerAccount(accountId));
+    }
+
+    @Timed
+    @GET
+    @Path("/get-account-balance/accountId/{accountId}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getAccountBalance(
+            @PathParam(ACCOUNT_ID) long accountId,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) {
+        return api.getAccountBalance(accountId, ifNoneMatch);
+    }
+
+    @Timed
+    @GET
+    @Path("/get-account-transactions/accountId/{accountId}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getAccountTransactions(
+            @PathParam(ACCOUNT_ID) long accountId,
+            @QueryParam("cursor") @DefaultValue("0") int cursor,
+            @QueryParam("limit") @DefaultValue("100") int limit,
+            @QueryParam("from") @DefaultValue("0") long from,
+            @QueryParam("to") @DefaultValue("" + Long.MAX_VALUE) long to,
+            @QueryParam("transactionType") @DefaultValue("") String transactionType,
+            @Suspended AsyncResponse response) {
+        executors.read(response, () -> api.getAccountTransactions(accountId, cursor, limit, from, to, transactionType));
+    }
+
+    /**
+     * The body is read on the HTTP thread, the JsonCodec of the write thread parses it.
+     */
+    @Timed
+    @POST
+    @Path("/register-transaction")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void registerTransaction(byte[] body, @Suspended AsyncResponse response) {
+        executors.write(response, () -> api.registerTransaction(new ByteArrayInputStream(body)));
+    }
+
+    @Timed
+    @POST
+    @Path("/register-transactions")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void registerTransactions(String body, @Suspended AsyncResponse response) {
+        executors.write(response, () -> api.registerTransactions(body));
+    }
+
+    @Timed
+    @POST
+    @Path("/register-transfer")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void registerTransfer(String body, @Suspended AsyncResponse response) {
+        executors.write(response, () -> api.registerTransfer(body));
+    }
+
+    @Timed
+    @POST
+    @Path("/register-multi-leg-transfer")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void registerMultiLegTransfer(String body, @Suspended AsyncResponse response) {
+        executors.write(response, () -> api.registerMultiLegTransfer(body));
+    }
+}
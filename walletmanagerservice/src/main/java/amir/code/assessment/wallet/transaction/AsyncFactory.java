@@ -0,0 +1,120 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Configuration of the asynchronous execution of requests, e.g.
+ *
+ *   async:
+ *     enabled: true
+ *     writeThreads: 8
+ *     writeQueue: 1024
+ *     readThreads: 2
+ *     readQueue: 256
+ *     timeoutMillis: 10000
+ *     retryAfterSeconds: 1
+ *
+ * When enabled, registrations and transaction history reads are handed over to bounded executors and the HTTP thread
+ * is released at once, balance reads are still answered on the HTTP thread. A request finding the queue of its
+ * executor full gets 429 Too Many Requests, a request waiting longer than timeoutMillis gets 503 Service Unavailable,
+ * both with a Retry-After of retryAfterSeconds.
+ */
+public class AsyncFactory {
+
+    private boolean enabled = false;
+
+    @Min(1)
+    private int writeThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    @Min(1)
+    private int writeQueue = 1024;
+
+    @Min(1)
+    private int readThreads = 2;
+
+    @Min(1)
+    private int readQueue = 256;
+
+    @Min(0)
+    private long timeoutMillis = 10_000;
+
+    @Min(0)
+    private int retryAfterSeconds = 1;
+
+    @JsonProperty
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty
+    public int getWriteThreads() {
+        return writeThreads;
+    }
+
+    @JsonProperty
+    public void setWriteThreads(int writeThreads) {
+        this.writeThreads = writeThreads;
+    }
+
+    @JsonProperty
+    public int getWriteQueue() {
+        return writeQueue;
+    }
+
+    @JsonProperty
+    public void setWriteQueue(int writeQueue) {
+        this.writeQueue = writeQueue;
+    }
+
+    @JsonProperty
+    public int getReadThreads() {
+        return readThreads;
+    }
+
+    @JsonProperty
+    public void setReadThreads(int readThreads) {
+        this.readThreads = readThreads;
+    }
+
+    @JsonProperty
+    public int getReadQueue() {
+        return readQueue;
+    }
+
+    @JsonProperty
+    public void setReadQueue(int readQueue) {
+        this.readQueue = readQueue;
+    }
+
+    @JsonProperty
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    @JsonProperty
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @JsonProperty
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @JsonProperty
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    RequestExecutors build(MetricRegistry metrics) {
+        return new RequestExecutors(writeThreads, writeQueue, readThreads, readQueue, timeoutMillis, retryAfterSeconds, metrics);
+    }
+}
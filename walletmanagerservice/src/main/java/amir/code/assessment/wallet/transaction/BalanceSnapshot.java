@@ -0,0 +1,106 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Immutable balance of an Account with its version, the number of updates the account went through. Every update of
+ * the account publishes a new snapshot, so a reader gets a consistent balance and version with one volatile read.
+ *
+ * The balance is kept as a scaled long number of minor units (balance * 10^scale), or as a BigDecimal once the account
+ * was promoted to the BigDecimal path. The snapshot of an account with striped credits also holds the sums of the
+ * CreditCells already merged into its balance, so it is replaced together with them.
+ */
+final class BalanceSnapshot {
+
+    private final long version;
+    private final long units;
+    private final int scale;
+    // null while the balance is kept in units
+    private final BigDecimal decimal;
+    // sums of every credit cell included in the balance, null until credits are striped
+    private final CreditCells.Pending[] merged;
+
+    BalanceSnapshot(long version, long units, int scale) {
+        this(version, units, scale, null, null);
+    }
+
+    BalanceSnapshot(long version, BigDecimal decimal) {
+        this(version, 0, 0, decimal, null);
+    }
+
+    private BalanceSnapshot(long version, long units, int scale, BigDecimal decimal, CreditCells.Pending[] merged) {
+        this.version = version;
+        this.units = units;
+        this.scale = scale;
+        this.decimal = decimal;
+        this.merged = merged;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    boolean isPromoted() {
+        return decimal != null;
+    }
+
+    long getUnits() {
+        return units;
+    }
+
+    /**
+     * @return the snapshot after one update to a balance in units, keeping the merged credit cells
+     */
+    BalanceSnapshot updated(long units, int scale) {
+        return new BalanceSnapshot(version + 1, units, scale, null, merged);
+    }
+
+    /**
+     * @return the snapshot after one update which promoted the balance or kept it promoted, keeping the merged credit
+     * cells
+     */
+    BalanceSnapshot updated(BigDecimal balance) {
+        return new BalanceSnapshot(version + 1, 0, 0, balance, merged);
+    }
+
+    /**
+     * @return sum of the credit cell included in the balance
+     */
+    CreditCells.Pending getMerged(int cell) {
+        return merged == null ? CreditCells.EMPTY : merged[cell];
+    }
+
+    /**
+     * @param units . Sum of the credits, in minor units of the scale of the account.
+     * @param carry . Part of the sum beyond a long, or null.
+     * @param count . Number of the credits.
+     * @param merged . Sums of every credit cell once the credits are included.
+     * @return the snapshot after the given credits taken from the credit cells
+     */
+    BalanceSnapshot credited(long units, BigDecimal carry, long count, int scale, CreditCells.Pending[] merged) {
+        long sum = this.units + units;
+        if (decimal == null && carry == null && sum >= 0)
+            return new BalanceSnapshot(version + count, sum, scale, null, merged);
+        BigDecimal balance = getBalance().add(BigDecimal.valueOf(units, scale), MathContext.UNLIMITED);
+        if (carry != null)
+            balance = balance.add(carry, MathContext.UNLIMITED);
+        return new BalanceSnapshot(version + count, 0, 0, balance, merged);
+    }
+
+    /**
+     * @return the balance as a decimal number without trailing fractional zeros (e.g. 10.5 instead of 10.50000000)
+     * while it is kept in units
+     */
+    BigDecimal getBalance() {
+        if (decimal != null)
+            return decimal;
+        long value = units;
+        int digits = scale;
+        while (digits > 0 && value % 10 == 0) {
+            value /= 10;
+            digits--;
+        }
+        return BigDecimal.valueOf(value, digits);
+    }
+}
@@ -0,0 +1,113 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Forwards requests to the other nodes of the cluster. The internal protocol is the API itself: the request is sent
+ * as it is to the same path of the owning node, marked with the FORWARDED_FROM header so the owner serves it without
+ * routing it again. The response of the owner is given back as it is.
+ *
+ * Connections are kept alive and reused by the HttpURLConnection of the JDK. A node which can not be reached gives a
+ * 503 with a Retry-After header.
+ */
+class ClusterClient {
+
+    static final String FORWARDED_FROM = "X-Wallet-Forwarded-From";
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterClient.class);
+
+    // headers of the request sent to the owner, and of the response sent back
+    private static final String[] REQUEST_HEADERS = {HttpHeaders.CONTENT_TYPE, HttpHeaders.ACCEPT, HttpHeaders.IF_NONE_MATCH};
+    private static final String[] RESPONSE_HEADERS = {HttpHeaders.ETAG, HttpHeaders.RETRY_AFTER};
+
+    private final int node;
+    // base address of every member by node
+    private final String[] addresses;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    ClusterClient(int node, String[] addresses, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.node = node;
+        this.addresses = addresses;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @param owner . Node to forward the request to.
+     * @param path . Path and query of the request, e.g. /AccountTransactionAPI/get-account-balance/accountId/1
+     * @param headers . Gives the value of a header of the request, or null.
+     * @param body . Body of the request, or null.
+     * @return the response of the owner
+     */
+    Response forward(int owner, String method, String path, HeaderLookup headers, byte[] body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(addresses[owner] + path).openConnection();
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestMethod(method);
+            connection.setRequestProperty(FORWARDED_FROM, Integer.toString(node));
+            for (String header : REQUEST_HEADERS) {
+                String value = headers.get(header);
+                if (value != null)
+                    connection.setRequestProperty(header, value);
+            }
+            if (body != null && body.length > 0) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream output = connection.getOutputStream()) {
+                    output.write(body);
+                }
+            }
+
+            int status = connection.getResponseCode();
+            Response.ResponseBuilder response = Response.status(status);
+            for (String header : RESPONSE_HEADERS) {
+                String value = connection.getHeaderField(header);
+                if (value != null)
+                    response.header(header, value);
+            }
+            // the stream is read to its end so the connection goes back to the keep-alive cache
+            byte[] entity = readAll(status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+            if (entity.length > 0)
+                response.entity(entity).type(connection.getContentType());
+            return response.build();
+
+        } catch (IOException e) {
+            logger.warn("could not forward request to node {}: {}", owner, e.toString());
+            return Response.status(RequestExecutors.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, 1)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .entity((StreamingOutput) output -> JsonCodec.get().writeMessage("node " + owner + " is unavailable", output))
+                    .build();
+        }
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        if (input == null)
+            return new byte[0];
+        try (InputStream in = input) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read; (read = in.read(buffer)) != -1; )
+                output.write(buffer, 0, read);
+            return output.toByteArray();
+        }
+    }
+
+    interface HeaderLookup {
+        String get(String header);
+    }
+}
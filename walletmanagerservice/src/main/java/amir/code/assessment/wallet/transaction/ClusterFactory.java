@@ -0,0 +1,144 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration of the clustered mode, where accounts are partitioned across instances by consistent hashing on the
+ * accountId, e.g. for two instances on localhost:
+ *
+ *   node: 0
+ *   cluster:
+ *     enabled: true
+ *     members:
+ *       - node: 0
+ *         address: http://localhost:8080
+ *       - node: 1
+ *         address: http://localhost:8090
+ *
+ * Every instance has the same members and its own node. A request for an account of another node is forwarded to it,
+ * see ClusterRouter.
+ */
+public class ClusterFactory {
+
+    private boolean enabled = false;
+
+    @Valid
+    @NotNull
+    private List<Member> members = new ArrayList<>();
+
+    @Min(1)
+    private int virtualNodes = 256;
+
+    @Min(1)
+    private int connectTimeoutMillis = 1000;
+
+    @Min(1)
+    private int readTimeoutMillis = 10_000;
+
+    public static class Member {
+
+        @Min(0)
+        @Max(TransactionIdGenerator.MAX_NODE)
+        private int node;
+
+        @NotNull
+        private String address;
+
+        @JsonProperty
+        public int getNode() {
+            return node;
+        }
+
+        @JsonProperty
+        public void setNode(int node) {
+            this.node = node;
+        }
+
+        @JsonProperty
+        public String getAddress() {
+            return address;
+        }
+
+        @JsonProperty
+        public void setAddress(String address) {
+            this.address = address;
+        }
+    }
+
+    @JsonProperty
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    @JsonProperty
+    public void setMembers(List<Member> members) {
+        this.members = members;
+    }
+
+    @JsonProperty
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    @JsonProperty
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    @JsonProperty
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    @JsonProperty
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    @JsonProperty
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    @JsonProperty
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @param node . Node of this instance, one of the members.
+     */
+    ClusterRouter build(int node, MetricRegistry metrics) {
+        int[] nodes = new int[members.size()];
+        String[] addresses = new String[TransactionIdGenerator.MAX_NODE + 1];
+        for (int i = 0; i < members.size(); i++) {
+            Member member = members.get(i);
+            if (addresses[member.getNode()] != null)
+                throw new IllegalArgumentException("node " + member.getNode() + " is a member more than once");
+            nodes[i] = member.getNode();
+            addresses[member.getNode()] = member.getAddress();
+        }
+        if (addresses[node] == null)
+            throw new IllegalArgumentException("node " + node + " is not a member of the cluster");
+        return new ClusterRouter(node, new ConsistentHashRing(nodes, virtualNodes),
+                new ClusterClient(node, addresses, connectTimeoutMillis, readTimeoutMillis), metrics);
+    }
+}
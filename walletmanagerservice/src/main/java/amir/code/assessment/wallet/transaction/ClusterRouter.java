@@ -0,0 +1,135 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Routes the requests of one account to the node owning the account in the clustered mode. Runs before the resource
+ * method: a request for an account of this node goes on to the resource, a request for an account of another node is
+ * forwarded to it by the ClusterClient and answered with the response of the owner.
+ *
+ * register-account, get-account-balance and get-account-transactions are routed on the accountId of their path,
+ * register-transaction on the accountId of its body. Requests on several accounts, batches and transfers, are served
+ * by the node receiving them and can only register transactions of the accounts it owns.
+ *
+ * A request carrying the FORWARDED_FROM header is never forwarded again. It is only served when this node owns its
+ * account and rejected with 421 (Misdirected Request) otherwise, e.g. when the sender has other members or a client
+ * set the header itself, so an account is never updated on two nodes.
+ */
+class ClusterRouter implements ContainerRequestFilter {
+
+    static final int MISDIRECTED_REQUEST = 421;
+
+    private static final String ACCOUNT_ID = "accountId";
+    private static final String REGISTER_TRANSACTION = "/register-transaction";
+    private static final long NO_ACCOUNT = -1;
+
+    private final int node;
+    private final ConsistentHashRing ring;
+    private final ClusterClient client;
+    private final Meter local;
+    private final Timer forwarded;
+
+    ClusterRouter(int node, ConsistentHashRing ring, ClusterClient client, MetricRegistry metrics) {
+        this.node = node;
+        this.ring = ring;
+        this.client = client;
+        this.local = metrics.meter(MetricRegistry.name(ClusterRouter.class, "local"));
+        this.forwarded = metrics.register(MetricRegistry.name(ClusterRouter.class, "forwarded"), LedgerMetrics.newTimer());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        UriInfo uriInfo = request.getUriInfo();
+        byte[] body = null;
+        long accountId = accountIdOf(uriInfo.getPathParameters().getFirst(ACCOUNT_ID));
+        if (accountId == NO_ACCOUNT && uriInfo.getPath().endsWith(REGISTER_TRANSACTION)) {
+            // the body is read here and given back to the resource
+            body = readAll(request.getEntityStream());
+            request.setEntityStream(new ByteArrayInputStream(body));
+            accountId = accountIdOf(body);
+        }
+        if (accountId == NO_ACCOUNT)
+            return;
+
+        int owner = ring.owner(accountId);
+        if (owner == node) {
+            local.mark();
+            return;
+        }
+        // the sender routed it here although this node does not own the account
+        if (request.getHeaderString(ClusterClient.FORWARDED_FROM) != null) {
+            String message = "account " + accountId + " is owned by node " + owner + ", not by node " + node;
+            request.abortWith(Response.status(MISDIRECTED_REQUEST)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .entity((StreamingOutput) output -> JsonCodec.get().writeMessage(message, output))
+                    .build());
+            return;
+        }
+        if (body == null && request.hasEntity()) {
+            body = readAll(request.getEntityStream());
+        }
+        URI uri = uriInfo.getRequestUri();
+        String path = uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + '?' + uri.getRawQuery();
+        try (Timer.Context ignored = forwarded.time()) {
+            request.abortWith(client.forward(owner, request.getMethod(), path, request::getHeaderString, body));
+        }
+    }
+
+    /**
+     * @return owner of the account
+     */
+    int owner(long accountId) {
+        return ring.owner(accountId);
+    }
+
+    private static long accountIdOf(String pathParameter) {
+        if (pathParameter == null)
+            return NO_ACCOUNT;
+        try {
+            return Long.parseLong(pathParameter);
+        } catch (NumberFormatException e) {
+            // rejected by the resource
+            return NO_ACCOUNT;
+        }
+    }
+
+    /**
+     * @return accountId of a register-transaction body, or NO_ACCOUNT for a body the resource rejects
+     */
+    static long accountIdOf(byte[] body) throws IOException {
+        TransactionRequest request = JsonCodec.get().read(new ByteArrayInputStream(body)).parseTransaction();
+        if (request != null)
+            return request.getAccountId();
+        // unusual bodies, as parsed by the resource
+        try {
+            return new JSONObject(new String(body, StandardCharsets.UTF_8)).getLong(ACCOUNT_ID);
+        } catch (JSONException e) {
+            return NO_ACCOUNT;
+        }
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = input.read(buffer)) != -1; )
+            output.write(buffer, 0, read);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,389 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TransactionStore keeping transactions in primitive columns instead of Transaction objects, so tens of millions of
+ * stored transactions are a few hundred large arrays for the garbage collector rather than several objects each.
+ *
+ * A row is made of the accountId, the funds as unscaled long and scale, the transactionType ordinal, the
+ * transactionDate as epoch millis and the offset of its ids in a byte arena. The transactionId is not stored when it
+ * is the externalTransactionId followed by the id of the TransactionIdGenerator, only the id is kept as sequence.
+ * Funds which do not fit an unscaled long are kept aside per row. transactionIds are indexed by an open addressing
+ * table of rows.
+ *
+ * Rows are appended under the lock of the store and published by a volatile size, readers never block. A read
+ * returns a flyweight Transaction view decoding the columns of its row when a getter is called.
+ *
+ * Released rows drop the chunks and arena pages they fill completely, their index slots are dropped by the next
+ * resize of the index.
+ */
+class ColumnarTransactionStore implements TransactionStore {
+
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int PAGE_SHIFT = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    // scale of a row whose funds are kept in bigFunds
+    private static final byte BIG_FUNDS = Byte.MIN_VALUE;
+    // sequence of a row whose transactionId is stored in the arena
+    private static final long NO_SEQUENCE = -1;
+
+    private static final TransactionType[] TYPES = TransactionType.values();
+    // appending threads of different accounts rarely share a stripe of the histories
+    private static final int HISTORY_STRIPES = 64;
+
+    private final StripedLongMap<TransactionHistory> histories = new StripedLongMap<>(HISTORY_STRIPES, 16);
+    private final ConcurrentHashMap<Integer, BigDecimal> bigFunds = new ConcurrentHashMap<>();
+    private final TransactionArchive archive;
+
+    // written under the lock of the store, read after the volatile size
+    private Chunk[] chunks = new Chunk[16];
+    private byte[][] pages = new byte[16][];
+    private int page = -1;
+    private int pagePosition = PAGE_SIZE;
+    // row + 1 per slot, 0 for an empty slot
+    private int[] index;
+    // used slots of the index, released rows included
+    private int indexed;
+
+    private volatile int size;
+    // written under the lock of the store
+    private volatile int released;
+
+    /**
+     * @param expectedTransactions . Expected number of transactions, used to size the transactionId index upfront.
+     */
+    ColumnarTransactionStore(int expectedTransactions) {
+        this(expectedTransactions, TransactionArchive.disabled());
+    }
+
+    /**
+     * @param archive . The archive holding the oldest transactions of the histories.
+     */
+    ColumnarTransactionStore(int expectedTransactions, TransactionArchive archive) {
+        this.index = new int[Integer.highestOneBit(Math.max(16, expectedTransactions * 2 - 1)) << 1];
+        this.archive = archive;
+    }
+
+    private static final class Chunk {
+        private final long[] accountIds = new long[CHUNK_SIZE];
+        private final long[] unscaledFunds = new long[CHUNK_SIZE];
+        private final byte[] scales = new byte[CHUNK_SIZE];
+        private final byte[] types = new byte[CHUNK_SIZE];
+        private final long[] dates = new long[CHUNK_SIZE];
+        private final long[] sequences = new long[CHUNK_SIZE];
+        // page << 32 | position of the ids in the arena
+        private final long[] ids = new long[CHUNK_SIZE];
+    }
+
+    @Override
+    public void add(Transaction transaction) {
+        String externalTransactionId = transaction.getExternalTransactionId();
+        long sequence = transaction.getId() != Transaction.NO_ID
+                ? transaction.getId()
+                : sequenceOf(transaction.getTransactionId(), externalTransactionId);
+        byte[] external = externalTransactionId.getBytes(StandardCharsets.UTF_8);
+        byte[] full = sequence == NO_SEQUENCE ? transaction.getTransactionId().getBytes(StandardCharsets.UTF_8) : null;
+        int hash = sequence == NO_SEQUENCE ? transaction.getTransactionId().hashCode() : hashOf(externalTransactionId, sequence);
+
+        BigDecimal funds = transaction.getFunds();
+        boolean big = funds.scale() <= BIG_FUNDS || funds.scale() > Byte.MAX_VALUE || funds.unscaledValue().bitLength() > 63;
+        TransactionType type = TransactionType.valueOf(transaction.getTransactionType());
+        long date = transaction.getTransactionDate().getTime();
+        long accountId = transaction.getAccountId();
+
+        int row;
+        synchronized (this) {
+            row = size;
+            Chunk chunk = chunk(row);
+            int slot = row & (CHUNK_SIZE - 1);
+            chunk.accountIds[slot] = accountId;
+            chunk.unscaledFunds[slot] = big ? 0 : funds.unscaledValue().longValue();
+            chunk.scales[slot] = big ? BIG_FUNDS : (byte) funds.scale();
+            chunk.types[slot] = (byte) type.ordinal();
+            chunk.dates[slot] = date;
+            chunk.sequences[slot] = sequence;
+            chunk.ids[slot] = writeIds(external, full);
+            if (big)
+                bigFunds.put(row, funds);
+            insert(hash, row);
+            size = row + 1;
+        }
+        histories.computeIfAbsent(accountId, this::newHistory).append(row, type, date);
+    }
+
+    @Override
+    public Transaction get(String transactionId) {
+        // read the size before anything else, see add
+        int end = size;
+        int first = released;
+        int[] index = this.index;
+        int mask = index.length - 1;
+        for (int slot = mix(transactionId.hashCode()) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            int row = index[slot] - 1;
+            if (row < end && row >= first && transactionIdOf(row).equals(transactionId))
+                return new View(row);
+        }
+        return null;
+    }
+
+    @Override
+    public Transaction read(int row) {
+        return new View(row);
+    }
+
+    @Override
+    public int rows() {
+        return size;
+    }
+
+    @Override
+    public int firstRow() {
+        return released;
+    }
+
+    @Override
+    public synchronized void release(int rows) {
+        if (rows <= released)
+            return;
+        // the arena is filled in row order, pages before the one of the first kept row are not used anymore
+        int keptPage = rows < size ? (int) (chunks[rows >>> CHUNK_SHIFT].ids[rows & (CHUNK_SIZE - 1)] >>> 32) : page;
+        for (int chunk = released >>> CHUNK_SHIFT; chunk < rows >>> CHUNK_SHIFT; chunk++)
+            chunks[chunk] = null;
+        for (int arena = 0; arena < keptPage; arena++)
+            pages[arena] = null;
+        bigFunds.keySet().removeIf(row -> row < rows);
+        released = rows;
+    }
+
+    @Override
+    public TransactionHistory getHistory(long accountId) {
+        TransactionHistory history = histories.get(accountId);
+        if (history == null && archive.archivedCount(accountId) > 0)
+            history = histories.computeIfAbsent(accountId, this::newHistory);
+        return history;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return heap bytes of the columns, the arena and the transactionId index
+     */
+    @Override
+    public synchronized long footprint() {
+        long bytes = (long) index.length * 4;
+        for (Chunk chunk : chunks)
+            if (chunk != null)
+                bytes += (long) CHUNK_SIZE * (8 * 5 + 2);
+        for (byte[] arena : pages)
+            if (arena != null)
+                bytes += arena.length;
+        return bytes;
+    }
+
+    /**
+     * @return sequence of the transactionId if it is externalTransactionId-sequence, or NO_SEQUENCE
+     */
+    private static long sequenceOf(String transactionId, String externalTransactionId) {
+        int length = externalTransactionId.length();
+        if (transactionId.length() <= length + 1 || transactionId.length() > length + 20
+                || !transactionId.startsWith(externalTransactionId) || transactionId.charAt(length) != '-'
+                || transactionId.charAt(length + 1) == '0')
+            return NO_SEQUENCE;
+        long sequence = 0;
+        for (int i = length + 1; i < transactionId.length(); i++) {
+            char digit = transactionId.charAt(i);
+            if (digit < '0' || digit > '9' || sequence > (Long.MAX_VALUE - (digit - '0')) / 10)
+                return NO_SEQUENCE;
+            sequence = sequence * 10 + (digit - '0');
+        }
+        return sequence;
+    }
+
+    /**
+     * @return hashCode of the transactionId externalTransactionId-sequence, without building it
+     */
+    private static int hashOf(String externalTransactionId, long sequence) {
+        int hash = externalTransactionId.hashCode() * 31 + '-';
+        long divisor = 1;
+        while (divisor <= sequence / 10)
+            divisor *= 10;
+        for (; divisor > 0; divisor /= 10)
+            hash = hash * 31 + (char) ('0' + sequence / divisor % 10);
+        return hash;
+    }
+
+    private TransactionHistory newHistory(long accountId) {
+        return new TransactionHistory(this, archive, accountId);
+    }
+
+    private Chunk chunk(int row) {
+        int chunk = row >>> CHUNK_SHIFT;
+        if (chunk == chunks.length)
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        if (chunks[chunk] == null)
+            chunks[chunk] = new Chunk();
+        return chunks[chunk];
+    }
+
+    /**
+     * Appends [length][externalTransactionId] and, if given, [length][transactionId] to the arena.
+     * @return page << 32 | position of the ids
+     */
+    private long writeIds(byte[] external, byte[] full) {
+        int length = 5 + external.length + (full == null ? 0 : 5 + full.length);
+        if (pagePosition + length > PAGE_SIZE) {
+            page++;
+            if (page == pages.length)
+                pages = Arrays.copyOf(pages, pages.length * 2);
+            pages[page] = new byte[Math.max(PAGE_SIZE, length)];
+            pagePosition = 0;
+        }
+        byte[] arena = pages[page];
+        long ids = (long) page << 32 | pagePosition;
+        pagePosition = writeBytes(arena, pagePosition, external);
+        if (full != null)
+            pagePosition = writeBytes(arena, pagePosition, full);
+        return ids;
+    }
+
+    private static int writeBytes(byte[] arena, int position, byte[] bytes) {
+        // varint length
+        int length = bytes.length;
+        while ((length & ~0x7f) != 0) {
+            arena[position++] = (byte) (length & 0x7f | 0x80);
+            length >>>= 7;
+        }
+        arena[position++] = (byte) length;
+        System.arraycopy(bytes, 0, arena, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    private void insert(int hash, int row) {
+        if ((indexed + 1) * 2 > index.length) {
+            // sized for the rows which are not released, which are the only ones kept
+            int kept = row - released;
+            int[] grown = new int[Math.max(index.length, Integer.highestOneBit(Math.max(16, (kept + 1) * 4 - 1)) << 1)];
+            indexed = 0;
+            for (int value : index) {
+                if (value != 0 && value - 1 >= released) {
+                    insert(grown, transactionIdOf(value - 1).hashCode(), value);
+                    indexed++;
+                }
+            }
+            // readers still using the old table miss only rows they can not see yet
+            index = grown;
+        }
+        insert(index, hash, row + 1);
+        indexed++;
+    }
+
+    private static void insert(int[] table, int hash, int value) {
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        while (table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = value;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private String externalTransactionIdOf(int row) {
+        long ids = chunks[row >>> CHUNK_SHIFT].ids[row & (CHUNK_SIZE - 1)];
+        return readString(pages[(int) (ids >>> 32)], (int) ids);
+    }
+
+    private String transactionIdOf(int row) {
+        Chunk chunk = chunks[row >>> CHUNK_SHIFT];
+        int slot = row & (CHUNK_SIZE - 1);
+        long ids = chunk.ids[slot];
+        byte[] arena = pages[(int) (ids >>> 32)];
+        int position = (int) ids;
+        long sequence = chunk.sequences[slot];
+        if (sequence != NO_SEQUENCE)
+            return readString(arena, position) + '-' + sequence;
+        // skip the externalTransactionId
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = arena[position++];
+            length |= (b & 0x7f) << shift;
+            if (b >= 0)
+                break;
+        }
+        return readString(arena, position + length);
+    }
+
+    private static String readString(byte[] arena, int position) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = arena[position++];
+            length |= (b & 0x7f) << shift;
+            if (b >= 0)
+                break;
+        }
+        return new String(arena, position, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Flyweight Transaction of one row, only decoded when read.
+     */
+    private final class View extends Transaction {
+        private final int row;
+
+        View(int row) {
+            super(null, null, null, null, null, null);
+            this.row = row;
+        }
+
+        @Override
+        public String getTransactionId() {
+            return transactionIdOf(row);
+        }
+
+        @Override
+        long getId() {
+            // NO_SEQUENCE is NO_ID
+            return chunks[row >>> CHUNK_SHIFT].sequences[row & (CHUNK_SIZE - 1)];
+        }
+
+        @Override
+        public String getExternalTransactionId() {
+            return externalTransactionIdOf(row);
+        }
+
+        @Override
+        public String getTransactionType() {
+            return TYPES[chunks[row >>> CHUNK_SHIFT].types[row & (CHUNK_SIZE - 1)]].name();
+        }
+
+        @Override
+        public BigDecimal getFunds() {
+            Chunk chunk = chunks[row >>> CHUNK_SHIFT];
+            int slot = row & (CHUNK_SIZE - 1);
+            byte scale = chunk.scales[slot];
+            return scale == BIG_FUNDS ? bigFunds.get(row) : BigDecimal.valueOf(chunk.unscaledFunds[slot], scale);
+        }
+
+        @Override
+        public Long getAccountId() {
+            return chunks[row >>> CHUNK_SHIFT].accountIds[row & (CHUNK_SIZE - 1)];
+        }
+
+        @Override
+        public Date getTransactionDate() {
+            return new Date(chunks[row >>> CHUNK_SHIFT].dates[row & (CHUNK_SIZE - 1)]);
+        }
+    }
+}
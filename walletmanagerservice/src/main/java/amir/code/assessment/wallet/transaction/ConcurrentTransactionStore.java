@@ -0,0 +1,157 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * TransactionStore on top of a ConcurrentHashMap, which is internally striped per hash bin so concurrent
+ * registrations of transactions with different transactionIds do not contend.
+ * Every stored transaction also gets a row, kept in chunks of an append-only array, which is appended to the
+ * TransactionHistory of its account, histories being kept by primitive accountId in a StripedLongMap. Rows are taken
+ * in registration order but may be filled out of order by concurrent registrations, a filled row is published by an
+ * ordered write so rows() only counts rows up to the first one still being filled.
+ *
+ * Released rows are removed from the map and their chunks are dropped, see release.
+ */
+class ConcurrentTransactionStore implements TransactionStore {
+
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    // heap bytes of a stored transaction with short ids: map node, Transaction, ids, BigDecimal, Date and Long
+    private static final int TRANSACTION_BYTES = 256;
+
+    private final ConcurrentHashMap<String, Transaction> transactions;
+    private final StripedLongMap<TransactionHistory> histories;
+    private final TransactionArchive archive;
+
+    private final AtomicInteger nextRow = new AtomicInteger();
+    // chunks are only added, under the lock of this store
+    private volatile AtomicReferenceArray<Transaction>[] rows = newChunks(16);
+    // rows known to be filled, a lower bound of rows()
+    private volatile int filledRows;
+    // written under the lock of the store
+    private volatile int released;
+
+    /**
+     * @param expectedTransactions . Expected number of transactions, used to size the map upfront and avoid resizes.
+     * @param concurrencyLevel . Expected number of concurrently updating threads.
+     */
+    ConcurrentTransactionStore(int expectedTransactions, int concurrencyLevel) {
+        this(expectedTransactions, concurrencyLevel, TransactionArchive.disabled());
+    }
+
+    /**
+     * @param archive . The archive holding the oldest transactions of the histories.
+     */
+    ConcurrentTransactionStore(int expectedTransactions, int concurrencyLevel, TransactionArchive archive) {
+        this.transactions = new ConcurrentHashMap<>(expectedTransactions, LOAD_FACTOR, concurrencyLevel);
+        this.histories = new StripedLongMap<>(concurrencyLevel, 16);
+        this.archive = archive;
+    }
+
+    @Override
+    public void add(Transaction transaction) {
+        int row = nextRow.getAndIncrement();
+        chunk(row).lazySet(row & (CHUNK_SIZE - 1), transaction);
+        transactions.put(transaction.getTransactionId(), transaction);
+        histories.computeIfAbsent(transaction.getAccountId(), this::newHistory)
+                .append(row, TransactionType.valueOf(transaction.getTransactionType()), transaction.getTransactionDate().getTime());
+    }
+
+    @Override
+    public Transaction get(String transactionId) {
+        return transactions.get(transactionId);
+    }
+
+    @Override
+    public Transaction read(int row) {
+        return rows[row >>> CHUNK_SHIFT].get(row & (CHUNK_SIZE - 1));
+    }
+
+    @Override
+    public int rows() {
+        // a racing caller may have written a count below the released rows
+        int row = Math.max(filledRows, released);
+        int end = nextRow.get();
+        AtomicReferenceArray<Transaction>[] current = rows;
+        while (row < end) {
+            int index = row >>> CHUNK_SHIFT;
+            if (index >= current.length || current[index] == null || current[index].get(row & (CHUNK_SIZE - 1)) == null)
+                break;
+            row++;
+        }
+        // racing callers may write a smaller count, which is still a lower bound
+        filledRows = row;
+        return row;
+    }
+
+    @Override
+    public int firstRow() {
+        return released;
+    }
+
+    @Override
+    public synchronized void release(int rows) {
+        AtomicReferenceArray<Transaction>[] current = this.rows;
+        for (int row = released; row < rows; row++) {
+            AtomicReferenceArray<Transaction> chunk = current[row >>> CHUNK_SHIFT];
+            Transaction transaction = chunk.get(row & (CHUNK_SIZE - 1));
+            transactions.remove(transaction.getTransactionId(), transaction);
+            chunk.lazySet(row & (CHUNK_SIZE - 1), null);
+            if ((row & (CHUNK_SIZE - 1)) == CHUNK_SIZE - 1)
+                current[row >>> CHUNK_SHIFT] = null;
+        }
+        if (rows > released)
+            released = rows;
+    }
+
+    @Override
+    public TransactionHistory getHistory(long accountId) {
+        TransactionHistory history = histories.get(accountId);
+        if (history == null && archive.archivedCount(accountId) > 0)
+            history = histories.computeIfAbsent(accountId, this::newHistory);
+        return history;
+    }
+
+    @Override
+    public long size() {
+        return nextRow.get();
+    }
+
+    @Override
+    public long footprint() {
+        long bytes = 0;
+        for (AtomicReferenceArray<Transaction> chunk : rows)
+            if (chunk != null)
+                bytes += 16 + (long) CHUNK_SIZE * 4;
+        return bytes + (long) (nextRow.get() - released) * TRANSACTION_BYTES;
+    }
+
+    private TransactionHistory newHistory(long accountId) {
+        return new TransactionHistory(this, archive, accountId);
+    }
+
+    private AtomicReferenceArray<Transaction> chunk(int row) {
+        int index = row >>> CHUNK_SHIFT;
+        AtomicReferenceArray<Transaction>[] current = rows;
+        if (index < current.length && current[index] != null)
+            return current[index];
+        synchronized (this) {
+            current = rows;
+            if (index >= current.length)
+                current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+            if (current[index] == null)
+                current[index] = new AtomicReferenceArray<>(CHUNK_SIZE);
+            rows = current;
+            return current[index];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<Transaction>[] newChunks(int length) {
+        return (AtomicReferenceArray<Transaction>[]) new AtomicReferenceArray[length];
+    }
+}
@@ -0,0 +1,61 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.util.Arrays;
+
+/**
+ * Maps accountIds to the nodes of the cluster by consistent hashing. Every node is placed at many points of a ring of
+ * 64-bit hashes and an account belongs to the node of the first point at or after the hash of its accountId, so
+ * accounts are spread evenly and adding a node only moves the accounts taken over by the new node.
+ *
+ * The ring only depends on the node numbers, every node of the cluster builds the same ring from the same membership.
+ */
+class ConsistentHashRing {
+
+    // keeps the points of node 0 off the hashes of small accountIds, which would all land on them
+    private static final long POINT_SEED = 0x9e3779b97f4a7c15L;
+
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param nodes . Numbers of the nodes of the cluster.
+     * @param virtualNodes . Number of points of every node on the ring.
+     */
+    ConsistentHashRing(int[] nodes, int virtualNodes) {
+        if (nodes.length == 0)
+            throw new IllegalArgumentException("a cluster needs at least one node");
+        int size = nodes.length * virtualNodes;
+        long[] unsorted = new long[size];
+        for (int i = 0; i < nodes.length; i++)
+            for (int point = 0; point < virtualNodes; point++)
+                unsorted[i * virtualNodes + point] = StripedLongMap.mix(((long) nodes[i] << 32 | point) ^ POINT_SEED);
+
+        // sort points and owners together, ties are broken by the node so every node builds the same ring
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> unsorted[a] != unsorted[b]
+                ? Long.compare(unsorted[a], unsorted[b])
+                : Integer.compare(nodes[a / virtualNodes], nodes[b / virtualNodes]));
+        this.points = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = unsorted[order[i]];
+            owners[i] = nodes[order[i] / virtualNodes];
+        }
+    }
+
+    /**
+     * @return number of the node owning the account
+     */
+    int owner(long accountId) {
+        int index = Arrays.binarySearch(points, StripedLongMap.mix(accountId));
+        if (index < 0)
+            index = -index - 1;
+        else
+            // first point of equal ones
+            while (index > 0 && points[index - 1] == points[index])
+                index--;
+        return owners[index == points.length ? 0 : index];
+    }
+}
@@ -0,0 +1,80 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Credits of a hot Account spread over one cell per core, so concurrent credits of the account update different cache
+ * lines instead of all retrying the compare-and-set of one balance. A cell holds the sum of all its credits in minor
+ * units and their number, it only grows. The BalanceSnapshot of the account records the sums already included in the
+ * balance, so a debit merges the new credits with the same compare-and-set as its own update and a read adds them up
+ * without changing anything. A cell which would overflow refuses further credits, they update the balance instead.
+ */
+final class CreditCells {
+
+    static final Pending EMPTY = new Pending(0, 0);
+
+    // references apart of two cells, 64 bytes with compressed references
+    private static final int PADDING = 16;
+
+    private final AtomicReferenceArray<Pending> cells;
+    private final int mask;
+
+    CreditCells() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int count = Math.max(2, cores <= 1 ? 1 : Integer.highestOneBit(cores - 1) << 1);
+        this.cells = new AtomicReferenceArray<>(count * PADDING);
+        for (int i = 0; i < count; i++)
+            cells.set(i * PADDING, EMPTY);
+        this.mask = count - 1;
+    }
+
+    /**
+     * Adds a credit to the cell of the calling thread.
+     *
+     * @param units . A positive amount in minor units.
+     * @return false if the cell can not hold the amount without overflow, the amount is then not added
+     */
+    boolean add(long units) {
+        int index = probe();
+        for (;;) {
+            int slot = (index & mask) * PADDING;
+            Pending current = cells.get(slot);
+            long sum = current.units + units;
+            if (sum < 0)
+                return false;
+            if (cells.compareAndSet(slot, current, new Pending(sum, current.count + 1)))
+                return true;
+            // another thread shares the cell, move on to the next one
+            index++;
+        }
+    }
+
+    int size() {
+        return mask + 1;
+    }
+
+    /**
+     * @return sum of all credits of a cell
+     */
+    Pending get(int cell) {
+        return cells.get(cell * PADDING);
+    }
+
+    private static int probe() {
+        long hash = Thread.currentThread().getId() * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    /**
+     * Immutable sum of the credits of a cell.
+     */
+    static final class Pending {
+        final long units;
+        final long count;
+
+        Pending(long units, long count) {
+            this.units = units;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * LedgerEngine where every request thread updates the Account directly.
+ *
+ * A transfer takes the write locks of the stripes of its accounts in ascending stripe order, so two transfers over the
+ * same accounts never wait for each other in a cycle. Debits and batch groups take the read lock of the stripe of
+ * their account, they run in parallel with each other and only wait for a transfer over the same stripe, so they never
+ * fail on its intermediate balances. Credits can not fail and stay lock-free.
+ *
+ * A credit is applied once its record is durable and a debit before its record is logged, so a debit only ever spends
+ * durable funds: a crash never keeps a debit without the credits it spent, and a debit which could not be made durable
+ * is credited back, which can not fail.
+ */
+class DirectLedgerEngine implements LedgerEngine {
+
+    private static final int LOCK_STRIPES = 1024;
+
+    private final AccountRegistry accounts;
+    private final TransactionStore transactions;
+    private final LedgerJournal journal;
+    private final TransactionIdGenerator ids;
+    private final TransferManager transfers;
+    private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[LOCK_STRIPES];
+
+    DirectLedgerEngine(AccountRegistry accounts, TransactionStore transactions, LedgerJournal journal, TransactionIdGenerator ids) {
+        this.accounts = accounts;
+        this.transactions = transactions;
+        this.journal = journal;
+        this.ids = ids;
+        this.transfers = new TransferManager(accounts, transactions, journal, ids);
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            locks[i] = new ReentrantReadWriteLock();
+    }
+
+    @Override
+    public RegistrationResult register(long accountId, TransactionType transactionType, BigDecimal funds, String externalTransactionId) throws IOException {
+        Account account = accounts.get(accountId);
+        if (account == null)
+            return RegistrationResult.failed(RegistrationResult.ACCOUNT_NOT_FOUND);
+
+        journal.checkWritable();
+        if (funds.signum() <= 0)
+            return RegistrationResult.failed(RegistrationResult.UNEXPECTED_FUNDS);
+        if (transactionType == TransactionType.DEBIT) {
+            int registrationStatus;
+            Lock lock = locks[stripe(accountId)].readLock();
+            lock.lock();
+            try {
+                registrationStatus = account.debit(funds);
+            } finally {
+                lock.unlock();
+            }
+            if (registrationStatus != RegistrationResult.REGISTERED)
+                return RegistrationResult.failed(registrationStatus);
+        }
+
+        Transaction registeredTransaction = new Transaction(ids.next(), externalTransactionId, transactionType.name(), funds, accountId);
+        try {
+            // concurrent registrations waiting here share one write of the log (group commit)
+            journal.sync(journal.logTransaction(registeredTransaction));
+        } catch (IOException | RuntimeException e) {
+            if (transactionType == TransactionType.DEBIT)
+                account.credit(funds);
+            throw e;
+        }
+        if (transactionType == TransactionType.CREDIT)
+            account.credit(funds);
+        transactions.add(registeredTransaction);
+        return RegistrationResult.registered(registeredTransaction);
+    }
+
+    @Override
+    public void registerAll(TransactionBatch batch) throws IOException {
+        journal.checkWritable();
+        long position = LedgerJournal.NOT_LOGGED;
+        int applied = 0;
+        try {
+            for (; applied < batch.groupCount(); applied++) {
+                Lock lock = locks[stripe(batch.getAccountId(applied))].readLock();
+                lock.lock();
+                try {
+                    position = Math.max(position, batch.apply(applied, accounts, journal, ids));
+                } finally {
+                    lock.unlock();
+                }
+            }
+            // one sync for the records of all groups
+            journal.sync(position);
+        } catch (IOException | RuntimeException e) {
+            // a group failing to log rolled itself back
+            for (int group = applied - 1; group >= 0; group--)
+                batch.rollBack(group, accounts);
+            throw e;
+        }
+        for (int group = 0; group < batch.groupCount(); group++)
+            batch.store(group, accounts, transactions);
+    }
+
+    @Override
+    public RegistrationResult transfer(List<TransactionRequest> legs) throws IOException {
+        Account[] legAccounts = new Account[legs.size()];
+        RegistrationResult failed = transfers.resolve(legs, legAccounts);
+        if (failed != null)
+            return failed;
+
+        int[] stripes = stripes(legs);
+        for (int stripe : stripes)
+            locks[stripe].writeLock().lock();
+        try {
+            return transfers.apply(legs, legAccounts);
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--)
+                locks[stripes[i]].writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return distinct lock stripes of the accounts of the legs in ascending order
+     */
+    private static int[] stripes(List<TransactionRequest> legs) {
+        int[] stripes = new int[legs.size()];
+        for (int leg = 0; leg < stripes.length; leg++)
+            stripes[leg] = stripe(legs.get(leg).getAccountId());
+        Arrays.sort(stripes);
+        int distinct = 0;
+        for (int i = 0; i < stripes.length; i++)
+            if (i == 0 || stripes[i] != stripes[i - 1])
+                stripes[distinct++] = stripes[i];
+        return Arrays.copyOf(stripes, distinct);
+    }
+
+    private static int stripe(long accountId) {
+        // mixed so neighbour account ids do not share a stripe
+        return (int) StripedLongMap.mix(accountId) & (LOCK_STRIPES - 1);
+    }
+}
@@ -0,0 +1,90 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Configuration of the LedgerEngine, e.g.
+ *
+ *   engine:
+ *     mode: PARTITIONED
+ *     shards: 8
+ *     ringSize: 1024
+ *     maxBatch: 256
+ *
+ * DIRECT lets every request thread update accounts directly, PARTITIONED hands transactions over to single-threaded
+ * shards owning the accounts. Both modes can be switched for comparing their throughput and latency.
+ */
+public class EngineFactory {
+
+    public enum Mode {
+        DIRECT,
+        PARTITIONED
+    }
+
+    @NotNull
+    private Mode mode = Mode.DIRECT;
+
+    @Min(1)
+    private int shards = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    @Min(2)
+    private int ringSize = 1024;
+
+    @Min(1)
+    private int maxBatch = 256;
+
+    @JsonProperty
+    public Mode getMode() {
+        return mode;
+    }
+
+    @JsonProperty
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    @JsonProperty
+    public int getShards() {
+        return shards;
+    }
+
+    @JsonProperty
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    @JsonProperty
+    public int getRingSize() {
+        return ringSize;
+    }
+
+    @JsonProperty
+    public void setRingSize(int ringSize) {
+        this.ringSize = ringSize;
+    }
+
+    @JsonProperty
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    @JsonProperty
+    public void setMaxBatch(int maxBatch) {
+        this.maxBatch = maxBatch;
+    }
+
+    LedgerEngine build(AccountRegistry accounts, TransactionStore transactions, LedgerJournal journal,
+                       TransactionIdGenerator ids, MetricRegistry metrics) {
+        switch (mode) {
+            case PARTITIONED:
+                return new PartitionedLedgerEngine(accounts, transactions, journal, ids, shards, ringSize, maxBatch, metrics);
+            case DIRECT:
+            default:
+                return new DirectLedgerEngine(accounts, transactions, journal, ids);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Configuration of the change feed of registered transactions, e.g.
+ *
+ *   feed:
+ *     enabled: true
+ *     ringSize: 65536
+ *     maxWaitMillis: 30000
+ *     maxSubscribers: 10000
+ *     dispatchThreads: 4
+ *
+ * The ringSize most recent transactions are kept encoded for the consumers, older ones are read from the transaction
+ * store. A consumer waits for new transactions for at most maxWaitMillis, a consumer beyond maxSubscribers waiting
+ * ones gets 429 Too Many Requests. See TransactionFeed.
+ */
+public class FeedFactory {
+
+    private boolean enabled = true;
+
+    @Min(2)
+    private int ringSize = 65536;
+
+    @Min(0)
+    private long maxWaitMillis = 30_000;
+
+    @Min(1)
+    private int maxSubscribers = 10_000;
+
+    @Min(1)
+    private int dispatchThreads = 4;
+
+    @JsonProperty
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty
+    public int getRingSize() {
+        return ringSize;
+    }
+
+    @JsonProperty
+    public void setRingSize(int ringSize) {
+        this.ringSize = ringSize;
+    }
+
+    @JsonProperty
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    @JsonProperty
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @JsonProperty
+    public int getMaxSubscribers() {
+        return maxSubscribers;
+    }
+
+    @JsonProperty
+    public void setMaxSubscribers(int maxSubscribers) {
+        this.maxSubscribers = maxSubscribers;
+    }
+
+    @JsonProperty
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    @JsonProperty
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    TransactionFeed build(Ledger ledger, MetricRegistry metrics) {
+        return new TransactionFeed(ledger.getTransactions(), ledger.getIncarnation(), ringSize, maxSubscribers,
+                dispatchThreads, metrics);
+    }
+}
@@ -0,0 +1,54 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Configuration of the striped credits of hot accounts, e.g.
+ *
+ *   hotAccounts:
+ *     accountIds: [1, 2]
+ *     contentionThreshold: 1000
+ *
+ * The credits of the listed accounts are striped from their registration, the credits of any other account once its
+ * failed balance updates in one second reach contentionThreshold (0 never). See Account.
+ */
+public class HotAccountFactory {
+
+    @NotNull
+    private Set<Long> accountIds = new HashSet<>();
+
+    @Min(0)
+    private int contentionThreshold = 0;
+
+    @JsonProperty
+    public Set<Long> getAccountIds() {
+        return accountIds;
+    }
+
+    @JsonProperty
+    public void setAccountIds(Set<Long> accountIds) {
+        this.accountIds = accountIds;
+    }
+
+    @JsonProperty
+    public int getContentionThreshold() {
+        return contentionThreshold;
+    }
+
+    @JsonProperty
+    public void setContentionThreshold(int contentionThreshold) {
+        this.contentionThreshold = contentionThreshold;
+    }
+
+    Account build(long accountId, int scale) {
+        Account account = new Account(scale, contentionThreshold);
+        if (accountIds.contains(accountId))
+            account.stripeCredits();
+        return account;
+    }
+}
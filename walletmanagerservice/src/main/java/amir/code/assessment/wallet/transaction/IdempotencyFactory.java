@@ -0,0 +1,62 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Configuration of the deduplication of retried transaction registrations, e.g.
+ *
+ *   idempotency:
+ *     enabled: true
+ *     maxEntries: 1000000
+ *     windowSeconds: 3600
+ */
+public class IdempotencyFactory {
+
+    private boolean enabled = true;
+
+    @Min(1)
+    private int maxEntries = 1_000_000;
+
+    @Min(1)
+    private long windowSeconds = 3600;
+
+    @JsonProperty
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @JsonProperty
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    @JsonProperty
+    public long getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    @JsonProperty
+    public void setWindowSeconds(long windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    /**
+     * @return the index or null when deduplication is disabled
+     */
+    IdempotencyIndex build(MetricRegistry metrics) {
+        return enabled ? new IdempotencyIndex(maxEntries, windowSeconds, metrics) : null;
+    }
+}
@@ -0,0 +1,317 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deduplicates retried transaction registrations keyed by (accountId, externalTransactionId). Transfers have keys
+ * of their own, so a transfer and a transaction on the account of its first leg never share a result.
+ *
+ * The first registration of a key reserves it before reaching the LedgerEngine, so a retry arriving while the first
+ * call is still in progress waits for it, and a later retry gets the original result back instead of crediting or
+ * debiting again. A key remembers the requests it was registered with: a retry with a different type or funds, or a
+ * transfer with different legs, is a reuse of the externalTransactionId and gets IDEMPOTENCY_CONFLICT instead of the
+ * original result. Only successful registrations are remembered, a failed one did not change any balance and can be
+ * retried. The index is bounded: keys are evicted in insertion order once there are more than maxEntries or once
+ * they are older than the window.
+ */
+class IdempotencyIndex {
+
+    /**
+     * The registration to run for a key seen for the first time.
+     */
+    interface Registration {
+        RegistrationResult register() throws IOException;
+    }
+
+    /**
+     * The registration of the requests of a batch seen for the first time.
+     */
+    interface BatchRegistration {
+        RegistrationResult[] register(List<TransactionRequest> requests) throws IOException;
+    }
+
+    private final ConcurrentHashMap<Key, Entry> entries;
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxEntries;
+    private final long windowNanos;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Counter conflicts;
+
+    /**
+     * @param maxEntries . Max number of remembered registrations.
+     * @param windowSeconds . Time a registration is remembered.
+     */
+    IdempotencyIndex(int maxEntries, long windowSeconds, MetricRegistry metrics) {
+        this.entries = new ConcurrentHashMap<>(Math.min(maxEntries, 1 << 16));
+        this.maxEntries = maxEntries;
+        this.windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+
+        this.hits = metrics.counter(MetricRegistry.name(IdempotencyIndex.class, "hits"));
+        this.misses = metrics.counter(MetricRegistry.name(IdempotencyIndex.class, "misses"));
+        this.evictions = metrics.counter(MetricRegistry.name(IdempotencyIndex.class, "evictions"));
+        this.conflicts = metrics.counter(MetricRegistry.name(IdempotencyIndex.class, "conflicts"));
+        metrics.register(MetricRegistry.name(IdempotencyIndex.class, "size"), (Gauge<Integer>) size::get);
+    }
+
+    /**
+     * @return the result of registration, the original result if the key was already registered with the same request,
+     *         or IDEMPOTENCY_CONFLICT if it was registered with a different one
+     */
+    RegistrationResult register(TransactionRequest request, Registration registration) throws IOException {
+        return register(new Key(request.getAccountId(), request.getExternalTransactionId(), false),
+                Collections.singletonList(request), registration);
+    }
+
+    /**
+     * Deduplicates a transfer by the account of its first leg and its externalTransactionId, a retry has to repeat
+     * every leg.
+     * @return the result of registration, the original result if the transfer was already registered with the same
+     *         legs, or IDEMPOTENCY_CONFLICT if it was registered with different ones
+     */
+    RegistrationResult registerTransfer(List<TransactionRequest> legs, Registration registration) throws IOException {
+        TransactionRequest first = legs.get(0);
+        return register(new Key(first.getAccountId(), first.getExternalTransactionId(), true), legs, registration);
+    }
+
+    private RegistrationResult register(Key key, List<TransactionRequest> requests, Registration registration)
+            throws IOException {
+        Entry entry = new Entry(key, requests, System.nanoTime());
+
+        Entry original = entries.putIfAbsent(key, entry);
+        if (original != null)
+            return original(original, requests);
+        misses.inc();
+
+        RegistrationResult result;
+        try {
+            result = registration.register();
+        } catch (IOException | RuntimeException e) {
+            entries.remove(key, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+
+        if (result.getStatus() == RegistrationResult.REGISTERED) {
+            remember(entry);
+        } else {
+            entries.remove(key, entry);
+        }
+        entry.result.complete(result);
+        return result;
+    }
+
+    /**
+     * Registers the requests of a batch not registered before, requests already registered (also earlier in the same
+     * batch) get their original result.
+     * @return results in the order of the requests
+     */
+    RegistrationResult[] registerAll(List<TransactionRequest> requests, BatchRegistration registration) throws IOException {
+        Entry[] reserved = new Entry[requests.size()];
+        Entry[] originals = new Entry[requests.size()];
+        List<TransactionRequest> fresh = new ArrayList<>(requests.size());
+        long now = System.nanoTime();
+        for (int i = 0; i < reserved.length; i++) {
+            TransactionRequest request = requests.get(i);
+            Key key = new Key(request.getAccountId(), request.getExternalTransactionId(), false);
+            Entry entry = new Entry(key, Collections.singletonList(request), now);
+            Entry original = entries.putIfAbsent(key, entry);
+            if (original != null) {
+                originals[i] = original;
+            } else {
+                misses.inc();
+                reserved[i] = entry;
+                fresh.add(request);
+            }
+        }
+
+        RegistrationResult[] freshResults;
+        try {
+            freshResults = fresh.isEmpty() ? new RegistrationResult[0] : registration.register(fresh);
+        } catch (IOException | RuntimeException e) {
+            for (Entry entry : reserved) {
+                if (entry != null) {
+                    entries.remove(entry.key, entry);
+                    entry.result.completeExceptionally(e);
+                }
+            }
+            throw e;
+        }
+
+        RegistrationResult[] results = new RegistrationResult[reserved.length];
+        for (int i = 0, next = 0; i < reserved.length; i++) {
+            Entry entry = reserved[i];
+            if (entry == null)
+                continue;
+            RegistrationResult result = freshResults[next++];
+            if (result.getStatus() == RegistrationResult.REGISTERED)
+                remember(entry);
+            else
+                entries.remove(entry.key, entry);
+            entry.result.complete(result);
+            results[i] = result;
+        }
+        // only waited for after completing the own reservations, a batch may repeat its own keys
+        for (int i = 0; i < originals.length; i++) {
+            if (originals[i] != null)
+                results[i] = original(originals[i], Collections.singletonList(requests.get(i)));
+        }
+        return results;
+    }
+
+    /**
+     * @return the result of the original registration of a key, once it completed, if it had the same requests
+     */
+    private RegistrationResult original(Entry original, List<TransactionRequest> requests) throws IOException {
+        if (!original.matches(requests)) {
+            conflicts.inc();
+            return RegistrationResult.failed(RegistrationResult.IDEMPOTENCY_CONFLICT);
+        }
+        hits.inc();
+        return original.await();
+    }
+
+    /**
+     * Remembers a recovered transaction, if it is still in the window.
+     */
+    void remember(Transaction transaction) {
+        remember(new Key(transaction.getAccountId(), transaction.getExternalTransactionId(), false),
+                Collections.singletonList(request(transaction)), transaction, RegistrationResult.registered(transaction));
+    }
+
+    /**
+     * Remembers the legs of a recovered transfer, if it is still in the window.
+     */
+    void rememberTransfer(List<Transaction> legs) {
+        Transaction first = legs.get(0);
+        List<TransactionRequest> requests = new ArrayList<>(legs.size());
+        for (Transaction leg : legs)
+            requests.add(request(leg));
+        remember(new Key(first.getAccountId(), first.getExternalTransactionId(), true),
+                requests, first, RegistrationResult.registered(legs));
+    }
+
+    private void remember(Key key, List<TransactionRequest> requests, Transaction transaction, RegistrationResult result) {
+        long ageNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - transaction.getTransactionDate().getTime());
+        if (ageNanos >= windowNanos)
+            return;
+        Entry entry = new Entry(key, requests, System.nanoTime() - ageNanos);
+        entry.result.complete(result);
+        if (entries.putIfAbsent(key, entry) == null)
+            remember(entry);
+    }
+
+    private static TransactionRequest request(Transaction transaction) {
+        return new TransactionRequest(transaction.getAccountId(), TransactionType.valueOf(transaction.getTransactionType()),
+                transaction.getFunds(), transaction.getExternalTransactionId());
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    private void remember(Entry entry) {
+        insertionOrder.add(entry);
+        size.incrementAndGet();
+
+        // amortized eviction by inserting threads, keys leave in insertion order
+        long now = System.nanoTime();
+        for (Entry eldest; (eldest = insertionOrder.peek()) != null; ) {
+            if (size.get() <= maxEntries && now - eldest.createdNanos < windowNanos)
+                break;
+            if (insertionOrder.remove(eldest)) {
+                entries.remove(eldest.key, eldest);
+                size.decrementAndGet();
+                evictions.inc();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final long accountId;
+        private final String externalTransactionId;
+        private final boolean transfer;
+
+        Key(long accountId, String externalTransactionId, boolean transfer) {
+            this.accountId = accountId;
+            this.externalTransactionId = externalTransactionId;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other)
+                return true;
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return accountId == key.accountId && transfer == key.transfer
+                    && externalTransactionId.equals(key.externalTransactionId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Long.hashCode(accountId) + externalTransactionId.hashCode()) + Boolean.hashCode(transfer);
+        }
+    }
+
+    private static final class Entry {
+        private final Key key;
+        // the registered transaction, or the legs of a transfer
+        private final List<TransactionRequest> requests;
+        private final long createdNanos;
+        private final CompletableFuture<RegistrationResult> result = new CompletableFuture<>();
+
+        Entry(Key key, List<TransactionRequest> requests, long createdNanos) {
+            this.key = key;
+            this.requests = requests;
+            this.createdNanos = createdNanos;
+        }
+
+        /**
+         * @return true if a retry has the same accounts, types and funds (compared by value, 10 equals 10.00)
+         */
+        boolean matches(List<TransactionRequest> retried) {
+            if (retried.size() != requests.size())
+                return false;
+            for (int i = 0; i < requests.size(); i++) {
+                TransactionRequest request = requests.get(i);
+                TransactionRequest retry = retried.get(i);
+                if (request.getAccountId() != retry.getAccountId()
+                        || request.getTransactionType() != retry.getTransactionType()
+                        || request.getFunds().compareTo(retry.getFunds()) != 0)
+                    return false;
+            }
+            return true;
+        }
+
+        RegistrationResult await() throws IOException {
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for the original registration", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IllegalStateException("original registration failed", e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,633 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming JSON codec of the transaction, balance and error payloads of AccountTransactionAPI, working on buffers
+ * reused by every request of a thread instead of building JSONObjects and Strings.
+ *
+ * The parser only accepts a well-formed flat object of a register-transaction request and returns null for anything
+ * else (malformed or unusual bodies, duplicate keys, unknown transaction types, bad funds), so the caller can fall
+ * back to org.json which gives the usual error messages. funds is parsed straight from the bytes into a BigDecimal,
+ * also when it is a JSON number. The writer follows the number and string formatting of org.json.
+ */
+final class JsonCodec {
+
+    private static final ThreadLocal<JsonCodec> CODECS = ThreadLocal.withInitial(JsonCodec::new);
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    // buffers grown beyond this by a large request are not kept for the next requests
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+    // max number of digits always fitting into a long
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private static final byte[] ACCOUNT_ID = bytes("accountId");
+    private static final byte[] TRANSACTION_TYPE = bytes("transactionType");
+    private static final byte[] FUNDS = bytes("funds");
+    private static final byte[] EXTERNAL_TRANSACTION_ID = bytes("externalTransactionId");
+    private static final byte[] CREDIT = bytes("credit");
+    private static final byte[] DEBIT = bytes("debit");
+    private static final byte[] HEX = bytes("0123456789abcdef");
+
+    private byte[] input = new byte[INITIAL_BUFFER_SIZE];
+    private int inputLength;
+    private int position;
+
+    private byte[] output = new byte[INITIAL_BUFFER_SIZE];
+    private int outputLength;
+    private boolean firstField;
+
+    private char[] chars = new char[64];
+
+    private JsonCodec() {
+    }
+
+    /**
+     * @return codec of the current thread
+     */
+    static JsonCodec get() {
+        return CODECS.get();
+    }
+
+    /**
+     * Reads a whole request body into the input buffer.
+     */
+    JsonCodec read(InputStream body) throws IOException {
+        if (input.length > MAX_RETAINED_BUFFER_SIZE)
+            input = new byte[INITIAL_BUFFER_SIZE];
+        inputLength = 0;
+        for (int read; (read = body.read(input, inputLength, input.length - inputLength)) != -1; ) {
+            inputLength += read;
+            if (inputLength == input.length)
+                input = Arrays.copyOf(input, input.length * 2);
+        }
+        return this;
+    }
+
+    /**
+     * @return the input buffer as a String, only for the fallback to org.json
+     */
+    String inputAsString() {
+        return new String(input, 0, inputLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a register-transaction request body, e.g.
+     * {"accountId": 1, "transactionType": "credit", "funds": 10.5, "externalTransactionId": "2dsff"}
+     *
+     * @return the request, or null if the body is not a well-formed request the codec handles
+     */
+    TransactionRequest parseTransaction() {
+        position = 0;
+        long accountId = 0;
+        TransactionType transactionType = null;
+        BigDecimal funds = null;
+        String externalTransactionId = null;
+        boolean hasAccountId = false;
+
+        if (next() != '{')
+            return null;
+        int c = next();
+        if (c == '}')
+            return null;
+        for (;;) {
+            if (c != '"')
+                return null;
+            int keyStart = position;
+            int keyEnd = skipString();
+            if (keyEnd < 0 || next() != ':')
+                return null;
+            skipWhitespace();
+
+            if (equals(keyStart, keyEnd, ACCOUNT_ID)) {
+                if (hasAccountId)
+                    return null;
+                boolean quoted = peek() == '"';
+                if (quoted)
+                    position++;
+                long value = parseLong();
+                if (value == Long.MIN_VALUE || (quoted && peekRaw() != '"'))
+                    return null;
+                if (quoted)
+                    position++;
+                accountId = value;
+                hasAccountId = true;
+            } else if (equals(keyStart, keyEnd, TRANSACTION_TYPE)) {
+                if (transactionType != null || peek() != '"')
+                    return null;
+                int valueStart = ++position;
+                int valueEnd = skipString();
+                if (equalsIgnoreCase(valueStart, valueEnd, CREDIT))
+                    transactionType = TransactionType.CREDIT;
+                else if (equalsIgnoreCase(valueStart, valueEnd, DEBIT))
+                    transactionType = TransactionType.DEBIT;
+                else
+                    return null;
+            } else if (equals(keyStart, keyEnd, FUNDS)) {
+                if (funds != null)
+                    return null;
+                boolean quoted = peek() == '"';
+                if (quoted)
+                    position++;
+                funds = parseDecimal();
+                if (funds == null || (quoted && peekRaw() != '"'))
+                    return null;
+                if (quoted)
+                    position++;
+            } else if (equals(keyStart, keyEnd, EXTERNAL_TRANSACTION_ID)) {
+                if (externalTransactionId != null || peek() != '"')
+                    return null;
+                position++;
+                externalTransactionId = parseString();
+                if (externalTransactionId == null)
+                    return null;
+            } else if (!skipScalar()) {
+                return null;
+            }
+
+            c = next();
+            if (c == '}')
+                break;
+            if (c != ',')
+                return null;
+            c = next();
+        }
+
+        skipWhitespace();
+        if (position != inputLength || !hasAccountId || transactionType == null || funds == null || externalTransactionId == null)
+            return null;
+        return new TransactionRequest(accountId, transactionType, funds, externalTransactionId);
+    }
+
+    /**
+     * {"message": "...", "transactionId": "...", "externalTransactionId": "...", "transactionType": "...",
+     * "accountId": 1, "funds": 10.5}
+     */
+    void writeTransaction(String message, Transaction transaction, OutputStream out) throws IOException {
+        beginObject();
+        field("message", message);
+        field("transactionId", transaction.getTransactionId());
+        field("externalTransactionId", transaction.getExternalTransactionId());
+        field("transactionType", transaction.getTransactionType());
+        field("accountId", transaction.getAccountId());
+        field("funds", transaction.getFunds());
+        endObject(out);
+    }
+
+    /**
+     * {"accountId": 1, "balance": 10.5}
+     */
+    void writeBalance(long accountId, BigDecimal balance, OutputStream out) throws IOException {
+        beginObject();
+        field("accountId", accountId);
+        field("balance", balance);
+        endObject(out);
+    }
+
+    /**
+     * {"accountId": 1, "balance": 10.5, "version": 7}
+     */
+    void writeBalance(long accountId, BigDecimal balance, long version, OutputStream out) throws IOException {
+        beginObject();
+        field("accountId", accountId);
+        field("balance", balance);
+        field("version", version);
+        endObject(out);
+    }
+
+    /**
+     * {"transactionId": "...", "externalTransactionId": "...", "transactionType": "...", "accountId": 1,
+     * "funds": 10.5, "transactionDate": 1520000000000}
+     *
+     * @return the transaction as one JSON object, to be written later by writeFeed
+     */
+    byte[] encodeTransaction(Transaction transaction) {
+        beginObject();
+        field("transactionId", transaction.getTransactionId());
+        field("externalTransactionId", transaction.getExternalTransactionId());
+        field("transactionType", transaction.getTransactionType());
+        field("accountId", transaction.getAccountId());
+        field("funds", transaction.getFunds());
+        field("transactionDate", transaction.getTransactionDate().getTime());
+        put('}');
+        return Arrays.copyOf(output, outputLength);
+    }
+
+    /**
+     * {"transactions": [ encoded transactions ], "nextCursor": "..."}
+     */
+    void writeFeed(List<byte[]> transactions, String nextCursor, OutputStream out) throws IOException {
+        beginObject();
+        name("transactions");
+        put('[');
+        for (int i = 0; i < transactions.size(); i++) {
+            if (i > 0)
+                put(',');
+            byte[] transaction = transactions.get(i);
+            ensureOutput(transaction.length);
+            System.arraycopy(transaction, 0, output, outputLength, transaction.length);
+            outputLength += transaction.length;
+        }
+        put(']');
+        field("nextCursor", nextCursor);
+        endObject(out);
+    }
+
+    /**
+     * {"message": "..."}
+     */
+    void writeMessage(String message, OutputStream out) throws IOException {
+        beginObject();
+        field("message", message);
+        endObject(out);
+    }
+
+    private void beginObject() {
+        if (output.length > MAX_RETAINED_BUFFER_SIZE)
+            output = new byte[INITIAL_BUFFER_SIZE];
+        outputLength = 0;
+        firstField = true;
+        put('{');
+    }
+
+    private void endObject(OutputStream out) throws IOException {
+        put('}');
+        out.write(output, 0, outputLength);
+    }
+
+    private void name(String name) {
+        if (!firstField)
+            put(',');
+        firstField = false;
+        quote(name);
+        put(':');
+    }
+
+    private void field(String name, String value) {
+        name(name);
+        if (value == null) {
+            ascii("null");
+            return;
+        }
+        quote(value);
+    }
+
+    private void field(String name, long value) {
+        name(name);
+        ascii(Long.toString(value));
+    }
+
+    private void field(String name, BigDecimal value) {
+        name(name);
+        // org.json drops trailing fractional zeros of plain numbers
+        String number = value.toString();
+        int end = number.length();
+        if (number.indexOf('.') > 0 && number.indexOf('E') < 0) {
+            while (number.charAt(end - 1) == '0')
+                end--;
+            if (number.charAt(end - 1) == '.')
+                end--;
+        }
+        ensureOutput(end);
+        for (int i = 0; i < end; i++)
+            output[outputLength++] = (byte) number.charAt(i);
+    }
+
+    /**
+     * Writes a quoted string escaped like org.json JSONObject.quote.
+     */
+    private void quote(String value) {
+        put('"');
+        char previous = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    put('\\');
+                    put(c);
+                    break;
+                case '/':
+                    if (previous == '<')
+                        put('\\');
+                    put(c);
+                    break;
+                case '\b':
+                    put('\\');
+                    put('b');
+                    break;
+                case '\t':
+                    put('\\');
+                    put('t');
+                    break;
+                case '\n':
+                    put('\\');
+                    put('n');
+                    break;
+                case '\f':
+                    put('\\');
+                    put('f');
+                    break;
+                case '\r':
+                    put('\\');
+                    put('r');
+                    break;
+                default:
+                    if (c < ' ' || (c >= 0x80 && c < 0xa0) || (c >= 0x2000 && c < 0x2100)) {
+                        put('\\');
+                        put('u');
+                        put(HEX[c >>> 12 & 0xf]);
+                        put(HEX[c >>> 8 & 0xf]);
+                        put(HEX[c >>> 4 & 0xf]);
+                        put(HEX[c & 0xf]);
+                    } else if (c < 0x80) {
+                        put(c);
+                    } else {
+                        utf8(value, i, c);
+                        if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+                            i++;
+                    }
+            }
+            previous = c;
+        }
+        put('"');
+    }
+
+    private void utf8(String value, int index, char c) {
+        if (c < 0x800) {
+            put(0xc0 | c >> 6);
+            put(0x80 | c & 0x3f);
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            put(0xf0 | codePoint >> 18);
+            put(0x80 | codePoint >> 12 & 0x3f);
+            put(0x80 | codePoint >> 6 & 0x3f);
+            put(0x80 | codePoint & 0x3f);
+        } else if (Character.isSurrogate(c)) {
+            put('?');
+        } else {
+            put(0xe0 | c >> 12);
+            put(0x80 | c >> 6 & 0x3f);
+            put(0x80 | c & 0x3f);
+        }
+    }
+
+    private void ascii(String value) {
+        ensureOutput(value.length());
+        for (int i = 0; i < value.length(); i++)
+            output[outputLength++] = (byte) value.charAt(i);
+    }
+
+    private void put(int b) {
+        ensureOutput(1);
+        output[outputLength++] = (byte) b;
+    }
+
+    private void ensureOutput(int length) {
+        if (outputLength + length > output.length)
+            output = Arrays.copyOf(output, Math.max(output.length * 2, outputLength + length));
+    }
+
+    /**
+     * @return next non-whitespace byte, or -1 at the end of the input
+     */
+    private int next() {
+        skipWhitespace();
+        return position < inputLength ? input[position++] : -1;
+    }
+
+    private int peek() {
+        skipWhitespace();
+        return peekRaw();
+    }
+
+    private int peekRaw() {
+        return position < inputLength ? input[position] : -1;
+    }
+
+    private void skipWhitespace() {
+        while (position < inputLength) {
+            byte b = input[position];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t')
+                return;
+            position++;
+        }
+    }
+
+    /**
+     * Skips a string without escapes, positioned after its opening quote.
+     * @return end of the string content, or -1 if it has escapes or is not terminated
+     */
+    private int skipString() {
+        while (position < inputLength) {
+            byte b = input[position++];
+            if (b == '"')
+                return position - 1;
+            if (b == '\\' || (b >= 0 && b < ' '))
+                return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Skips the value of an unknown key: a string, a number, true, false or null.
+     */
+    private boolean skipScalar() {
+        int c = peek();
+        if (c == '"') {
+            position++;
+            return parseString() != null;
+        }
+        int start = position;
+        while (position < inputLength) {
+            byte b = input[position];
+            if (b == ',' || b == '}' || b == ' ' || b == '\n' || b == '\r' || b == '\t')
+                break;
+            if (b == '{' || b == '[' || b == '"')
+                return false;
+            position++;
+        }
+        return position > start;
+    }
+
+    /**
+     * Parses a string positioned after its opening quote.
+     * @return the string, or null if it is malformed
+     */
+    private String parseString() {
+        int length = 0;
+        while (position < inputLength) {
+            int b = input[position++] & 0xff;
+            if (b == '"')
+                return new String(chars, 0, length);
+            if (length + 2 > chars.length)
+                chars = Arrays.copyOf(chars, chars.length * 2);
+            if (b == '\\') {
+                if (position >= inputLength)
+                    return null;
+                int escaped = input[position++];
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        chars[length++] = (char) escaped;
+                        break;
+                    case 'b':
+                        chars[length++] = '\b';
+                        break;
+                    case 't':
+                        chars[length++] = '\t';
+                        break;
+                    case 'n':
+                        chars[length++] = '\n';
+                        break;
+                    case 'f':
+                        chars[length++] = '\f';
+                        break;
+                    case 'r':
+                        chars[length++] = '\r';
+                        break;
+                    case 'u':
+                        if (position + 4 > inputLength)
+                            return null;
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(input[position++], 16);
+                            if (digit < 0)
+                                return null;
+                            code = code << 4 | digit;
+                        }
+                        chars[length++] = (char) code;
+                        break;
+                    default:
+                        return null;
+                }
+            } else if (b < ' ') {
+                return null;
+            } else if (b < 0x80) {
+                chars[length++] = (char) b;
+            } else {
+                // multi-byte UTF-8 sequence, decoded by the String decoder
+                int start = position - 1;
+                int extra = b >= 0xf0 ? 3 : b >= 0xe0 ? 2 : b >= 0xc0 ? 1 : -1;
+                if (extra < 0 || start + 1 + extra > inputLength)
+                    return null;
+                position = start + 1 + extra;
+                String decoded = new String(input, start, 1 + extra, StandardCharsets.UTF_8);
+                for (int i = 0; i < decoded.length(); i++)
+                    chars[length++] = decoded.charAt(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses an integer of at most 18 digits.
+     * @return the number, or Long.MIN_VALUE if there is none
+     */
+    private long parseLong() {
+        boolean negative = position < inputLength && input[position] == '-';
+        if (negative)
+            position++;
+        int start = position;
+        long value = 0;
+        while (position < inputLength && input[position] >= '0' && input[position] <= '9')
+            value = value * 10 + (input[position++] - '0');
+        int digits = position - start;
+        if (digits == 0 || digits > MAX_LONG_DIGITS)
+            return Long.MIN_VALUE;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a decimal number in the format of new BigDecimal(String), straight from the input bytes.
+     * @return the number, or null if there is none
+     */
+    private BigDecimal parseDecimal() {
+        int start = position;
+        boolean negative = false;
+        if (position < inputLength && (input[position] == '-' || input[position] == '+'))
+            negative = input[position++] == '-';
+
+        long unscaled = 0;
+        int digits = 0;
+        int significant = 0;
+        int scale = 0;
+        boolean point = false;
+        while (position < inputLength) {
+            byte b = input[position];
+            if (b >= '0' && b <= '9') {
+                if (significant > 0 || b != '0')
+                    significant++;
+                unscaled = unscaled * 10 + (b - '0');
+                digits++;
+                if (point)
+                    scale++;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+            position++;
+        }
+        if (digits == 0)
+            return null;
+
+        long exponent = 0;
+        if (position < inputLength && (input[position] == 'e' || input[position] == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if (position < inputLength && (input[position] == '-' || input[position] == '+'))
+                negativeExponent = input[position++] == '-';
+            int exponentStart = position;
+            while (position < inputLength && input[position] >= '0' && input[position] <= '9' && position - exponentStart < 10)
+                exponent = exponent * 10 + (input[position++] - '0');
+            if (position == exponentStart || (position < inputLength && input[position] >= '0' && input[position] <= '9'))
+                return null;
+            if (negativeExponent)
+                exponent = -exponent;
+        }
+        long finalScale = scale - exponent;
+        if (finalScale > Integer.MAX_VALUE || finalScale < Integer.MIN_VALUE)
+            return null;
+
+        if (significant <= MAX_LONG_DIGITS)
+            return BigDecimal.valueOf(negative ? -unscaled : unscaled, (int) finalScale);
+
+        // too many digits for a long, parsed from a reused char buffer
+        int length = position - start;
+        if (length > chars.length)
+            chars = new char[Math.max(length, chars.length * 2)];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) input[start + i];
+        return new BigDecimal(chars, 0, length);
+    }
+
+    private boolean equals(int start, int end, byte[] expected) {
+        if (end - start != expected.length)
+            return false;
+        for (int i = 0; i < expected.length; i++)
+            if (input[start + i] != expected[i])
+                return false;
+        return true;
+    }
+
+    private boolean equalsIgnoreCase(int start, int end, byte[] expected) {
+        if (end - start != expected.length)
+            return false;
+        for (int i = 0; i < expected.length; i++)
+            if ((input[start + i] | 0x20) != expected[i])
+                return false;
+        return true;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,305 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The core of the wallet: registered accounts, the history of registered transactions and the LedgerEngine applying
+ * new transactions to accounts. Managed by the application lifecycle so engine threads are started before serving
+ * requests and stopped on shutdown.
+ *
+ * When the write-ahead log is enabled every registered account and transaction is journaled, and recover rebuilds
+ * the ledger on startup from the latest snapshot and the journal tail after it.
+ *
+ * When retention is enabled the oldest transactions of the histories are moved to the TransactionArchive, which is
+ * opened by recover before the journal tail is replayed.
+ */
+class Ledger implements Managed {
+
+    private static final Logger logger = LoggerFactory.getLogger(Ledger.class);
+
+    private static final char UNIQUE_TRANSACTION_ID_SEPARATOR = '-';
+
+    // number of fractional digits of the fixed-point balance of new accounts
+    private final int balanceScale;
+    // creates accounts, with striped credits for hot ones
+    private final HotAccountFactory hotAccounts;
+
+    private final AccountRegistry accounts;
+    private final TransactionStore transactions;
+    // cold tier of the histories, disabled unless retention is enabled
+    private final TransactionArchive archive;
+    private final RetentionManager retention;
+    private final LedgerJournal journal;
+    // issues the ids of the unique transactionIds
+    private final TransactionIdGenerator ids;
+    private final SnapshotManager snapshots;
+    private final LedgerEngine engine;
+    // null when deduplication of retried registrations is disabled
+    private final IdempotencyIndex idempotency;
+    private final Reconciler reconciler;
+    private final LedgerMetrics metrics;
+
+    // tells apart the balance versions of this run from the ones of a previous run, which restart at 0
+    private final long incarnation = System.currentTimeMillis();
+
+    // last segment of the journal covered by the restored snapshot
+    private long restoredSegment;
+
+    Ledger(TransactionConfiguration configuration) {
+        this(configuration, new MetricRegistry());
+    }
+
+    Ledger(TransactionConfiguration configuration, MetricRegistry metrics) {
+        this.balanceScale = configuration.getBalanceScale();
+        this.hotAccounts = configuration.getHotAccounts();
+        this.accounts = configuration.getRegistry().buildAccountRegistry();
+        this.archive = configuration.getRetention().buildArchive(metrics);
+        this.transactions = configuration.getRegistry().buildTransactionStore(archive);
+        this.retention = configuration.getRetention().build(accounts, transactions, archive, metrics);
+        this.journal = configuration.getWal().build();
+        this.ids = new TransactionIdGenerator(configuration.getNode());
+        this.snapshots = configuration.getSnapshot().build(journal, configuration.getIdempotency().isEnabled()
+                ? configuration.getIdempotency().getWindowSeconds()
+                : 0, metrics);
+        this.engine = configuration.getEngine().build(accounts, transactions, journal, ids, metrics);
+        this.idempotency = configuration.getIdempotency().build(metrics);
+        this.reconciler = configuration.getReconciliation().build(accounts, transactions, metrics);
+        this.metrics = configuration.isInstrumented()
+                ? new LedgerMetrics(metrics, accounts, transactions)
+                : LedgerMetrics.disabled();
+    }
+
+    /**
+     * @return the id part of a unique transactionId
+     */
+    static long getTransactionSequence(String uniqueTransactionId) {
+        int separator = uniqueTransactionId.lastIndexOf(UNIQUE_TRANSACTION_ID_SEPARATOR);
+        return Long.parseLong(uniqueTransactionId.substring(separator + 1));
+    }
+
+    /**
+     * Rebuilds accounts and their balances from the latest snapshot and the history of transactions by replaying
+     * the journal tail after it. Should be called once before start.
+     *
+     * @return number of replayed journal records
+     * @throws IOException if the journal could not be read or replays a negative balance
+     */
+    long recover() throws IOException {
+        long startTime = System.nanoTime();
+        LedgerSnapshot snapshot = snapshots.restore();
+        restoredSegment = snapshot.getLastSegment();
+        archive.open();
+        // the replayed transactions are added to the history, the ones of the snapshot only to the opening balances,
+        // as well as replayed ones which were archived already: the histories continue after the archived positions
+        Map<Long, BigDecimal> openingBalances = new HashMap<>(snapshot.getBalances());
+        // registrations covered by the snapshot but still inside the idempotency window stay deduplicated
+        if (idempotency != null)
+            snapshot.rememberRecent(idempotency);
+
+        long records = journal.replay(restoredSegment, new LedgerJournal.Handler() {
+            @Override
+            public void accountRegistered(long accountId) {
+                snapshot.accountRegistered(accountId);
+            }
+
+            @Override
+            public void transactionRegistered(Transaction transaction) {
+                replayed(transaction);
+                if (idempotency != null)
+                    idempotency.remember(transaction);
+            }
+
+            @Override
+            public void transferRegistered(List<Transaction> legs) {
+                for (Transaction leg : legs)
+                    replayed(leg);
+                if (idempotency != null)
+                    idempotency.rememberTransfer(legs);
+            }
+
+            private void replayed(Transaction transaction) {
+                snapshot.transactionRegistered(transaction);
+                if (archive.contains(transaction))
+                    openingBalances.merge(transaction.getAccountId(),
+                            TransactionType.CREDIT.name().equals(transaction.getTransactionType())
+                                    ? transaction.getFunds()
+                                    : transaction.getFunds().negate(),
+                            BigDecimal::add);
+                else
+                    transactions.add(transaction);
+            }
+        });
+
+        reconciler.setOpeningBalances(openingBalances, archive.archivedCounts());
+
+        // makes sure next unique transactionIds do not collide with a recovered one
+        ids.observe(snapshot.getTransactionId());
+
+        Map<Long, BigDecimal> balances = snapshot.getBalances();
+        for (Map.Entry<Long, BigDecimal> entry : balances.entrySet()) {
+            long accountId = entry.getKey();
+            BigDecimal balance = entry.getValue();
+            // a debit is never logged before the credits it spent, the journal is corrupt
+            if (balance.signum() < 0) {
+                logger.error("journal replays a negative balance {} of account {}", balance, accountId);
+                throw new IOException("could not recover account " + accountId + ", replayed balance " + balance + " is negative");
+            }
+            Account account = hotAccounts.build(accountId, balanceScale);
+            Account registered = accounts.registerIfAbsent(accountId, account);
+            if (registered != null)
+                account = registered;
+            if (balance.signum() > 0)
+                account.credit(balance);
+        }
+
+        if (records > 0 || restoredSegment > 0)
+            logger.info("recovered {} accounts and {} transactions from {} journal records in {} ms",
+                    balances.size(), transactions.size(), records, (System.nanoTime() - startTime) / 1_000_000);
+        return records;
+    }
+
+    /**
+     * @param accountId . A non-zero positive key of the new account.
+     * @return the new Account or null if an account with accountId is already registered
+     * @throws IOException if the registration could not be made durable
+     */
+    Account registerAccount(long accountId) throws IOException {
+        journal.checkWritable();
+        Account account = hotAccounts.build(accountId, balanceScale);
+        // register-if-absent is atomic, only one of concurrent registrations with the same id wins
+        if (accounts.registerIfAbsent(accountId, account) != null)
+            return null;
+        journal.sync(journal.logAccount(accountId));
+        return account;
+    }
+
+    /**
+     * @return a value which is different for every run of the ledger, e.g. to make balance versions unique
+     * across restarts
+     */
+    long getIncarnation() {
+        return incarnation;
+    }
+
+    /**
+     * @return registered Account or null if there is no account with accountId
+     */
+    Account getAccount(long accountId) {
+        return accounts.get(accountId);
+    }
+
+    /**
+     * Registers a transaction once per (accountId, externalTransactionId): a retry gets the original result back, a
+     * reuse of the externalTransactionId with a different type or funds gets IDEMPOTENCY_CONFLICT.
+     */
+    RegistrationResult registerTransaction(long accountId, TransactionType transactionType, BigDecimal funds, String externalTransactionId)
+            throws IOException {
+        if (idempotency == null)
+            return register(accountId, transactionType, funds, externalTransactionId);
+        return idempotency.register(new TransactionRequest(accountId, transactionType, funds, externalTransactionId),
+                () -> register(accountId, transactionType, funds, externalTransactionId));
+    }
+
+    private RegistrationResult register(long accountId, TransactionType transactionType, BigDecimal funds, String externalTransactionId)
+            throws IOException {
+        RegistrationResult result = engine.register(accountId, transactionType, funds, externalTransactionId);
+        metrics.record(result);
+        return result;
+    }
+
+    /**
+     * Registers the legs of a transfer all together or none of them. A retried transfer gets its original result back,
+     * it is deduplicated by the externalTransactionId of the transfer and the account of its first leg, apart from
+     * the transactions registered on that account. A retry with different legs gets IDEMPOTENCY_CONFLICT.
+     *
+     * @param legs . At least one CREDIT or DEBIT transaction, all with the externalTransactionId of the transfer.
+     */
+    RegistrationResult transfer(List<TransactionRequest> legs) throws IOException {
+        if (idempotency == null)
+            return executeTransfer(legs);
+        return idempotency.registerTransfer(legs, () -> executeTransfer(legs));
+    }
+
+    private RegistrationResult executeTransfer(List<TransactionRequest> legs) throws IOException {
+        RegistrationResult result = engine.transfer(legs);
+        metrics.record(result);
+        return result;
+    }
+
+    AccountRegistry getAccounts() {
+        return accounts;
+    }
+
+    TransactionStore getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * @return history of the registered transactions of the account or null if none was registered
+     */
+    TransactionHistory getHistory(long accountId) {
+        return transactions.getHistory(accountId);
+    }
+
+    IdempotencyIndex getIdempotency() {
+        return idempotency;
+    }
+
+    /**
+     * Registers a batch of transactions, grouped by account and applied in submission order. A retried transaction of
+     * the batch gets its original result back.
+     *
+     * @param allOrNothing . If true, the transactions of an account are either all registered or none of them.
+     * @return results in the order of the requests
+     */
+    RegistrationResult[] registerTransactions(List<TransactionRequest> requests, boolean allOrNothing) throws IOException {
+        if (idempotency == null)
+            return registerAll(requests, allOrNothing);
+        return idempotency.registerAll(requests, fresh -> registerAll(fresh, allOrNothing));
+    }
+
+    private RegistrationResult[] registerAll(List<TransactionRequest> requests, boolean allOrNothing) throws IOException {
+        TransactionBatch batch = new TransactionBatch(requests, allOrNothing);
+        engine.registerAll(batch);
+        metrics.record(batch.getResults());
+        return batch.getResults();
+    }
+
+    Reconciler getReconciler() {
+        return reconciler;
+    }
+
+    SnapshotManager getSnapshots() {
+        return snapshots;
+    }
+
+    RetentionManager getRetention() {
+        return retention;
+    }
+
+    @Override
+    public void start() throws Exception {
+        journal.start(restoredSegment + 1);
+        engine.start();
+        snapshots.start();
+        retention.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        retention.stop();
+        snapshots.stop();
+        engine.stop();
+        journal.stop();
+        archive.close();
+    }
+}
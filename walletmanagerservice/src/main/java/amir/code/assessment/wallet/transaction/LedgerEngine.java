@@ -0,0 +1,54 @@
+package amir.code.assessment.wallet.transaction;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Applies CREDIT and DEBIT transactions to accounts and records the registered Transaction.
+ *
+ * A transaction is only stored once its journal record is durable. Engines fail closed: nothing is applied once the
+ * journal failed, and a transaction applied before its record could not be logged or made durable is rolled back, so
+ * a client retrying the failed request does not credit or debit twice.
+ *
+ * Credits are only applied once their record is durable and debits before their record is logged, so a debit only
+ * ever spends durable funds. A crash never keeps a debit without the credits it spent, and rolling back means
+ * crediting back a debit, which can not fail.
+ */
+interface LedgerEngine extends Managed {
+
+    /**
+     * @param accountId . The account to update.
+     * @param transactionType . CREDIT or DEBIT.
+     * @param funds . The amount of the transaction.
+     * @param externalTransactionId . Transaction id given by the client.
+     * @return registration status and the registered Transaction if successful
+     * @throws IOException if the registered transaction could not be made durable
+     */
+    RegistrationResult register(long accountId, TransactionType transactionType, BigDecimal funds, String externalTransactionId) throws IOException;
+
+    /**
+     * Applies every account group of the batch with one update of the account, in submission order, and stores the
+     * results in the batch.
+     * @throws IOException if the registered transactions could not be made durable
+     */
+    void registerAll(TransactionBatch batch) throws IOException;
+
+    /**
+     * Registers the legs of a transfer all together or none of them. No other registration debits the accounts of
+     * the legs while the transfer is applied.
+     * @return registration status and the linked transactions of all legs if successful, otherwise the failed leg
+     * @throws IOException if the registered transactions could not be made durable
+     */
+    RegistrationResult transfer(List<TransactionRequest> legs) throws IOException;
+
+    @Override
+    default void start() throws Exception {
+    }
+
+    @Override
+    default void stop() throws Exception {
+    }
+}
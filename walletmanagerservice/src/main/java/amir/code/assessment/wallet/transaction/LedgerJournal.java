@@ -0,0 +1,272 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Binary records of the ledger (registered accounts and registered transactions) written to the WriteAheadLog.
+ * When the log is disabled nothing is written and every position is immediately durable.
+ */
+class LedgerJournal {
+
+    static final long NOT_LOGGED = -1;
+
+    private static final byte ACCOUNT_REGISTERED = 1;
+    private static final byte TRANSACTION_REGISTERED = 2;
+    private static final byte TRANSACTIONS_REGISTERED = 3;
+    private static final byte TRANSFER_REGISTERED = 4;
+
+    /**
+     * Receives the records of the journal while replaying it.
+     */
+    interface Handler {
+        void accountRegistered(long accountId);
+
+        void transactionRegistered(Transaction transaction);
+
+        /**
+         * Receives the linked transactions of the legs of a transfer.
+         */
+        default void transferRegistered(List<Transaction> legs) {
+            for (Transaction leg : legs)
+                transactionRegistered(leg);
+        }
+    }
+
+    // null when the write-ahead log is disabled
+    private final WriteAheadLog wal;
+
+    LedgerJournal(WriteAheadLog wal) {
+        this.wal = wal;
+    }
+
+    static LedgerJournal disabled() {
+        return new LedgerJournal(null);
+    }
+
+    boolean isEnabled() {
+        return wal != null;
+    }
+
+    WriteAheadLog getWriteAheadLog() {
+        return wal;
+    }
+
+    /**
+     * @throws IOException if the log failed or is closed, so a registration would fail once applied
+     */
+    void checkWritable() throws IOException {
+        if (wal != null)
+            wal.checkWritable();
+    }
+
+    /**
+     * @return log position of the record or NOT_LOGGED
+     */
+    long logAccount(long accountId) throws IOException {
+        if (wal == null)
+            return NOT_LOGGED;
+        ByteBuffer record = ByteBuffer.allocate(1 + 8);
+        record.put(ACCOUNT_REGISTERED).putLong(accountId).flip();
+        return wal.append(record);
+    }
+
+    /**
+     * @return log position of the record or NOT_LOGGED
+     */
+    long logTransaction(Transaction transaction) throws IOException {
+        if (wal == null)
+            return NOT_LOGGED;
+        return wal.append(encode(transaction));
+    }
+
+    /**
+     * Logs registered transactions as one record, they are either all replayed or none of them.
+     * @return log position of the record or NOT_LOGGED
+     */
+    long logTransactions(List<Transaction> transactions) throws IOException {
+        if (wal == null)
+            return NOT_LOGGED;
+        if (transactions.size() == 1)
+            return wal.append(encode(transactions.get(0)));
+        return wal.append(encode(TRANSACTIONS_REGISTERED, transactions));
+    }
+
+    /**
+     * Logs the legs of a transfer as one record, replayed as a transfer so a retry is still deduplicated as one.
+     * @return log position of the record or NOT_LOGGED
+     */
+    long logTransfer(List<Transaction> legs) throws IOException {
+        if (wal == null)
+            return NOT_LOGGED;
+        return wal.append(encode(TRANSFER_REGISTERED, legs));
+    }
+
+    private static ByteBuffer encode(byte type, List<Transaction> transactions) {
+        ByteBuffer[] encoded = new ByteBuffer[transactions.size()];
+        int length = 1 + 4;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = encode(transactions.get(i));
+            length += encoded[i].remaining();
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.put(type).putInt(encoded.length);
+        for (ByteBuffer transaction : encoded)
+            record.put(transaction);
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Waits until the record at position and all records before it are durable.
+     */
+    void sync(long position) throws IOException {
+        if (position != NOT_LOGGED)
+            wal.awaitDurable(position);
+    }
+
+    /**
+     * Replays all records of the journal in the order they were logged.
+     * @return number of replayed records
+     */
+    long replay(Handler handler) throws IOException {
+        return replay(0, handler);
+    }
+
+    /**
+     * Replays records of the segments after afterSegment, e.g. the tail of the log after a snapshot.
+     * @return number of replayed records
+     */
+    long replay(long afterSegment, Handler handler) throws IOException {
+        if (wal == null)
+            return 0;
+        return wal.replay(afterSegment, record -> dispatch(record, handler));
+    }
+
+    /**
+     * Reads the records of one sealed segment.
+     * @return number of read records
+     */
+    long readSegment(long segment, Handler handler) throws IOException {
+        return wal.readSegment(segment, record -> dispatch(record, handler), false);
+    }
+
+    private static void dispatch(ByteBuffer record, Handler handler) {
+        byte type = record.get();
+        switch (type) {
+            case ACCOUNT_REGISTERED:
+                handler.accountRegistered(record.getLong());
+                break;
+            case TRANSACTION_REGISTERED:
+                handler.transactionRegistered(decode(record));
+                break;
+            case TRANSACTIONS_REGISTERED:
+                for (int count = record.getInt(); count > 0; count--) {
+                    record.get(); // TRANSACTION_REGISTERED
+                    handler.transactionRegistered(decode(record));
+                }
+                break;
+            case TRANSFER_REGISTERED:
+                int count = record.getInt();
+                List<Transaction> legs = new ArrayList<>(count);
+                for (; count > 0; count--) {
+                    record.get(); // TRANSACTION_REGISTERED
+                    legs.add(decode(record));
+                }
+                handler.transferRegistered(legs);
+                break;
+            default:
+                throw new IllegalStateException("unexpected journal record type: " + type);
+        }
+    }
+
+    /**
+     * @param minSegment . Lowest number of the segment to write, e.g. the first segment after a snapshot.
+     */
+    void start(long minSegment) throws IOException {
+        if (wal != null)
+            wal.start(minSegment);
+    }
+
+    void stop() throws IOException, InterruptedException {
+        if (wal != null)
+            wal.stop();
+    }
+
+    static ByteBuffer encode(Transaction transaction) {
+        byte[] externalTransactionId = transaction.getExternalTransactionId().getBytes(StandardCharsets.UTF_8);
+        // the transactionId of a registered transaction is written from its id without building the String
+        long id = transaction.getId();
+        byte[] transactionId = id == Transaction.NO_ID
+                ? transaction.getTransactionId().getBytes(StandardCharsets.UTF_8)
+                : null;
+        int transactionIdLength = transactionId != null
+                ? transactionId.length
+                : externalTransactionId.length + 1 + digits(id);
+        byte[] unscaledFunds = transaction.getFunds().unscaledValue().toByteArray();
+
+        ByteBuffer record = ByteBuffer.allocate(1 + 8 + 1 + 4 + 4 + unscaledFunds.length + 8
+                + 4 + transactionIdLength + 4 + externalTransactionId.length);
+        record.put(TRANSACTION_REGISTERED)
+                .putLong(transaction.getAccountId())
+                .put((byte) TransactionType.valueOf(transaction.getTransactionType()).ordinal())
+                .putInt(transaction.getFunds().scale())
+                .putInt(unscaledFunds.length).put(unscaledFunds)
+                .putLong(transaction.getTransactionDate().getTime())
+                .putInt(transactionIdLength);
+        if (transactionId != null) {
+            record.put(transactionId);
+        } else {
+            record.put(externalTransactionId).put((byte) '-');
+            putDigits(record, id, digits(id));
+        }
+        record.putInt(externalTransactionId.length).put(externalTransactionId);
+        record.flip();
+        return record;
+    }
+
+    private static int digits(long id) {
+        int digits = 1;
+        for (long value = id / 10; value > 0; value /= 10)
+            digits++;
+        return digits;
+    }
+
+    private static void putDigits(ByteBuffer record, long id, int digits) {
+        int end = record.position() + digits;
+        for (int position = end - 1; position >= end - digits; position--) {
+            record.put(position, (byte) ('0' + id % 10));
+            id /= 10;
+        }
+        record.position(end);
+    }
+
+    /**
+     * @param record . A TRANSACTION_REGISTERED record positioned after its type.
+     */
+    static Transaction decode(ByteBuffer record) {
+        long accountId = record.getLong();
+        TransactionType transactionType = TransactionType.values()[record.get()];
+        int scale = record.getInt();
+        byte[] unscaledFunds = new byte[record.getInt()];
+        record.get(unscaledFunds);
+        long transactionDate = record.getLong();
+        String transactionId = getString(record);
+        String externalTransactionId = getString(record);
+
+        return new Transaction(transactionId, externalTransactionId, transactionType.name(),
+                new BigDecimal(new BigInteger(unscaledFunds), scale), accountId, new Date(transactionDate));
+    }
+
+    private static String getString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,110 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.annotation.Timed;
+
+import java.lang.reflect.Method;
+
+/**
+ * Metrics of the ledger published in the MetricRegistry of the application, i.e. on the admin port: a meter of
+ * registered transactions, a counter per reason a registration was rejected, the number of accounts and transactions,
+ * and how often a balance update lost its compare-and-set to a concurrent update of the same account.
+ *
+ * Recording is a striped counter increment per registration, counts and retries are only read when the metrics are.
+ */
+class LedgerMetrics {
+
+    // null when the ledger is not instrumented
+    private final Meter registered;
+    private final Counter unexpectedFunds;
+    private final Counter notEnoughBalance;
+    private final Counter accountNotFound;
+    private final Counter rolledBack;
+
+    LedgerMetrics(MetricRegistry metrics, AccountRegistry accounts, TransactionStore transactions) {
+        this.registered = metrics.meter(MetricRegistry.name(Ledger.class, "registered"));
+        this.unexpectedFunds = metrics.counter(MetricRegistry.name(Ledger.class, "rejected", "unexpected-funds"));
+        this.notEnoughBalance = metrics.counter(MetricRegistry.name(Ledger.class, "rejected", "not-enough-balance"));
+        this.accountNotFound = metrics.counter(MetricRegistry.name(Ledger.class, "rejected", "account-not-found"));
+        this.rolledBack = metrics.counter(MetricRegistry.name(Ledger.class, "rejected", "rolled-back"));
+        metrics.register(MetricRegistry.name(Ledger.class, "accounts"), (Gauge<Integer>) accounts::size);
+        metrics.register(MetricRegistry.name(Ledger.class, "transactions"), (Gauge<Long>) transactions::size);
+        metrics.register(MetricRegistry.name(Account.class, "balance-update-retries"), (Gauge<Long>) Account::getUpdateRetries);
+        metrics.register(MetricRegistry.name(Account.class, "striped-accounts"), (Gauge<Long>) Account::getStripedAccounts);
+    }
+
+    private LedgerMetrics() {
+        this.registered = null;
+        this.unexpectedFunds = null;
+        this.notEnoughBalance = null;
+        this.accountNotFound = null;
+        this.rolledBack = null;
+    }
+
+    static LedgerMetrics disabled() {
+        return new LedgerMetrics();
+    }
+
+    /**
+     * Registers the timers of the @Timed methods of a resource under the names the Jersey listener of Dropwizard looks
+     * them up with, backed by a RecentSamplesReservoir instead of the default locking one.
+     */
+    static void registerTimers(MetricRegistry metrics, Class<?> resource) {
+        for (Method method : resource.getMethods()) {
+            Timed timed = method.getAnnotation(Timed.class);
+            if (timed == null)
+                continue;
+            String name = timed.name().isEmpty() ? method.getName() : timed.name();
+            metrics.register(timed.absolute() ? name : MetricRegistry.name(resource, name), newTimer());
+        }
+    }
+
+    static Timer newTimer() {
+        return new Timer(new RecentSamplesReservoir());
+    }
+
+    void record(RegistrationResult result) {
+        if (registered == null)
+            return;
+        if (result.getStatus() == RegistrationResult.REGISTERED)
+            registered.mark(result.getLinkedTransactions() == null ? 1 : result.getLinkedTransactions().size());
+        else
+            rejected(result.getStatus()).inc();
+    }
+
+    /**
+     * Records the results of a batch, with one mark of the meter for all its registered transactions.
+     */
+    void record(RegistrationResult[] results) {
+        if (registered == null)
+            return;
+        int count = 0;
+        for (RegistrationResult result : results) {
+            if (result.getStatus() == RegistrationResult.REGISTERED)
+                count++;
+            else
+                rejected(result.getStatus()).inc();
+        }
+        if (count > 0)
+            registered.mark(count);
+    }
+
+    private Counter rejected(int status) {
+        switch (status) {
+            case RegistrationResult.UNEXPECTED_FUNDS:
+                return unexpectedFunds;
+            case RegistrationResult.NOT_ENOUGH_BALANCE:
+                return notEnoughBalance;
+            case RegistrationResult.ACCOUNT_NOT_FOUND:
+                return accountNotFound;
+            case RegistrationResult.ROLLED_BACK:
+                return rolledBack;
+            default:
+                throw new IllegalArgumentException("unexpected registration status: " + status);
+        }
+    }
+}
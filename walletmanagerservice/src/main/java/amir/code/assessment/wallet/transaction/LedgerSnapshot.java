@@ -0,0 +1,221 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Balances of all accounts and the transactionId counter after applying every journal record up to the end of
+ * lastSegment. Built by folding journal records, so it never reads the live accounts.
+ *
+ * It also keeps the transactions and transfers registered within the idempotency window, so a retry of a registration
+ * covered by the snapshot is still deduplicated after a restart. Older transactions only remain in the balances.
+ */
+class LedgerSnapshot implements LedgerJournal.Handler {
+
+    private static final int MAGIC = 0x534e4150; // SNAP
+    private static final int VERSION = 2;
+    // snapshots without the recent registrations, still restored
+    private static final int VERSION_WITHOUT_RECENT = 1;
+
+    private long lastSegment;
+    private long transactionId;
+    private final Map<Long, BigDecimal> balances;
+    // time registrations are kept for deduplication, 0 for none
+    private final long windowMillis;
+    // registrations within the window in journal order, a transfer being the list of its legs
+    private final List<Recent> recent;
+
+    /**
+     * @param windowMillis . Time the registrations are kept for deduplication, 0 for none.
+     */
+    LedgerSnapshot(long windowMillis) {
+        this(0, 0, new HashMap<>(), windowMillis, new ArrayList<>());
+    }
+
+    private LedgerSnapshot(long lastSegment, long transactionId, Map<Long, BigDecimal> balances, long windowMillis,
+                           List<Recent> recent) {
+        this.lastSegment = lastSegment;
+        this.transactionId = transactionId;
+        this.balances = balances;
+        this.windowMillis = windowMillis;
+        this.recent = recent;
+    }
+
+    @Override
+    public void accountRegistered(long accountId) {
+        balances.putIfAbsent(accountId, BigDecimal.ZERO);
+    }
+
+    /**
+     * Transactions of one account may have been logged by concurrent threads in a different order than they were
+     * applied, so a balance is the sum of all CREDIT and DEBIT funds instead of replaying every debit against the
+     * balance of the moment.
+     */
+    @Override
+    public void transactionRegistered(Transaction transaction) {
+        fold(transaction);
+        if (isRecent(transaction))
+            recent.add(new Recent(false, Collections.singletonList(transaction)));
+    }
+
+    @Override
+    public void transferRegistered(List<Transaction> legs) {
+        for (Transaction leg : legs)
+            fold(leg);
+        if (isRecent(legs.get(0)))
+            recent.add(new Recent(true, legs));
+    }
+
+    private void fold(Transaction transaction) {
+        BigDecimal funds = TransactionType.CREDIT.name().equals(transaction.getTransactionType())
+                ? transaction.getFunds()
+                : transaction.getFunds().negate();
+        balances.merge(transaction.getAccountId(), funds, BigDecimal::add);
+        long id = transaction.getId() != Transaction.NO_ID
+                ? transaction.getId()
+                : Ledger.getTransactionSequence(transaction.getTransactionId());
+        transactionId = Math.max(transactionId, id);
+    }
+
+    long getLastSegment() {
+        return lastSegment;
+    }
+
+    void setLastSegment(long lastSegment) {
+        this.lastSegment = lastSegment;
+    }
+
+    long getTransactionId() {
+        return transactionId;
+    }
+
+    Map<Long, BigDecimal> getBalances() {
+        return balances;
+    }
+
+    /**
+     * Remembers the registrations kept for deduplication in the index, transactions and transfers in journal order.
+     */
+    void rememberRecent(IdempotencyIndex idempotency) {
+        for (Recent registration : recent) {
+            if (registration.transfer)
+                idempotency.rememberTransfer(registration.transactions);
+            else
+                idempotency.remember(registration.transactions.get(0));
+        }
+    }
+
+    private boolean isRecent(Transaction transaction) {
+        return transaction.getTransactionDate().getTime() > System.currentTimeMillis() - windowMillis;
+    }
+
+    /**
+     * Writes the snapshot followed by a CRC32 of its content.
+     */
+    void writeTo(OutputStream output) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(output), new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(lastSegment);
+        data.writeLong(transactionId);
+        data.writeInt(balances.size());
+        for (Map.Entry<Long, BigDecimal> balance : balances.entrySet()) {
+            byte[] unscaled = balance.getValue().unscaledValue().toByteArray();
+            data.writeLong(balance.getKey());
+            data.writeInt(balance.getValue().scale());
+            data.writeInt(unscaled.length);
+            data.write(unscaled);
+        }
+        // registrations which left the window since they were folded are dropped
+        List<Recent> kept = new ArrayList<>(recent.size());
+        for (Recent registration : recent)
+            if (isRecent(registration.transactions.get(0)))
+                kept.add(registration);
+        data.writeInt(kept.size());
+        for (Recent registration : kept) {
+            data.writeBoolean(registration.transfer);
+            data.writeInt(registration.transactions.size());
+            for (Transaction transaction : registration.transactions) {
+                ByteBuffer record = LedgerJournal.encode(transaction);
+                data.writeInt(record.remaining());
+                data.write(record.array(), record.arrayOffset() + record.position(), record.remaining());
+            }
+        }
+        data.flush();
+        data.writeLong(checked.getChecksum().getValue());
+        data.flush();
+    }
+
+    /**
+     * @param windowMillis . Time the registrations are kept for deduplication, 0 for none.
+     * @throws IOException if the snapshot is not complete or corrupted
+     */
+    static LedgerSnapshot readFrom(InputStream input, long windowMillis) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(input), new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        if (data.readInt() != MAGIC)
+            throw new IOException("unexpected snapshot format");
+        int version = data.readInt();
+        if (version != VERSION && version != VERSION_WITHOUT_RECENT)
+            throw new IOException("unexpected snapshot version: " + version);
+        long lastSegment = data.readLong();
+        long transactionId = data.readLong();
+        int accounts = data.readInt();
+        Map<Long, BigDecimal> balances = new HashMap<>(accounts * 2);
+        for (int i = 0; i < accounts; i++) {
+            long accountId = data.readLong();
+            int scale = data.readInt();
+            byte[] unscaled = new byte[data.readInt()];
+            data.readFully(unscaled);
+            balances.put(accountId, new BigDecimal(new BigInteger(unscaled), scale));
+        }
+        List<Recent> recent = new ArrayList<>();
+        for (int registrations = version == VERSION ? data.readInt() : 0; registrations > 0; registrations--) {
+            boolean transfer = data.readBoolean();
+            int count = data.readInt();
+            List<Transaction> transactions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] record = new byte[data.readInt()];
+                data.readFully(record);
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                buffer.get(); // TRANSACTION_REGISTERED
+                transactions.add(LedgerJournal.decode(buffer));
+            }
+            recent.add(new Recent(transfer, transactions));
+        }
+        long checksum = checked.getChecksum().getValue();
+        if (data.readLong() != checksum)
+            throw new IOException("snapshot checksum mismatch");
+        return new LedgerSnapshot(lastSegment, transactionId, balances, windowMillis, recent);
+    }
+
+    /**
+     * A transaction, or the legs of a transfer, kept for deduplication.
+     */
+    private static final class Recent {
+        private final boolean transfer;
+        private final List<Transaction> transactions;
+
+        Recent(boolean transfer, List<Transaction> transactions) {
+            this.transfer = transfer;
+            this.transactions = transactions;
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LedgerEngine partitioning accounts by accountId across N shards, each shard being a single thread which is the only
+ * writer of its accounts.
+ *
+ * A request thread hands its command to the owning shard through a pre-allocated ring buffer of command slots and waits
+ * for the completion. The shard applies all published commands in batches without any lock and builds the registered
+ * Transaction records, so transactions of one account are always applied in the order they were published.
+ * The records of a batch are logged by the shard and made durable together before the batch is completed. A credit
+ * is only applied once the batch is durable, so a debit never spends a credit which may still be lost, and a debit
+ * of a batch which could not be made durable is credited back, which can not fail.
+ *
+ * A batch request publishes one command per account group to the owning shards before waiting for any of them, so
+ * groups on different shards are applied in parallel. Those commands are completed and released by the shard itself.
+ *
+ * A transfer publishes a pause command to every shard owning one of its accounts. A shard reaching the pause completes
+ * the commands before it and waits, and once all of them wait the request thread applies the legs and releases them,
+ * so the shards stay the only writers of their accounts while no transfer holds them. Pauses over several shards are
+ * published under one lock, so every shard sees them in the same order and two transfers never wait for each other.
+ */
+class PartitionedLedgerEngine implements LedgerEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedLedgerEngine.class);
+
+    // busy spins before a waiting thread yields or parks
+    private static final int SPINS = 200;
+    private static final int YIELDS = 50;
+    // upper bound of an idle shard sleep, a publishing request thread wakes the shard up anyway
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+
+    private final AccountRegistry accounts;
+    private final TransactionStore transactions;
+    private final LedgerJournal journal;
+    private final TransactionIdGenerator ids;
+    private final TransferManager transfers;
+    private final Shard[] shards;
+    // publishes the pauses of transfers over several shards in one order
+    private final ReentrantLock pauseLock = new ReentrantLock();
+    // time request threads waited for a free slot of a full ring, only measured when they had to
+    private final Timer ringFullWait;
+
+    /**
+     * @param shards . Number of single-threaded shards.
+     * @param ringSize . Number of command slots per shard, rounded up to a power of two.
+     * @param maxBatch . Max number of commands applied by a shard before completing them.
+     */
+    PartitionedLedgerEngine(AccountRegistry accounts, TransactionStore transactions, LedgerJournal journal,
+                            TransactionIdGenerator ids, int shards, int ringSize, int maxBatch, MetricRegistry metrics) {
+        this.accounts = accounts;
+        this.transactions = transactions;
+        this.journal = journal;
+        this.ids = ids;
+        this.transfers = new TransferManager(accounts, transactions, journal, ids);
+        this.shards = new Shard[shards];
+        int capacity = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        for (int i = 0; i < shards; i++)
+            this.shards[i] = new Shard(i, capacity, maxBatch);
+        this.ringFullWait = metrics.timer(MetricRegistry.name(PartitionedLedgerEngine.class, "ring-full-wait"));
+        metrics.register(MetricRegistry.name(PartitionedLedgerEngine.class, "backlog"), (Gauge<Long>) this::backlog);
+    }
+
+    @Override
+    public RegistrationResult register(long accountId, TransactionType transactionType, BigDecimal funds, String externalTransactionId) {
+        return shards[shardIndex(accountId)].submit(accountId, transactionType, funds, externalTransactionId);
+    }
+
+    @Override
+    public void registerAll(TransactionBatch batch) throws IOException {
+        for (int group = 0; group < batch.groupCount(); group++)
+            shards[shardIndex(batch.getAccountId(group))].publish(batch, group);
+        batch.await();
+    }
+
+    @Override
+    public RegistrationResult transfer(List<TransactionRequest> legs) throws IOException {
+        Account[] legAccounts = new Account[legs.size()];
+        RegistrationResult failed = transfers.resolve(legs, legAccounts);
+        if (failed != null)
+            return failed;
+
+        int[] held = shardIndexes(legs);
+        Pause pause = new Pause(held.length);
+        try {
+            if (held.length > 1)
+                pauseLock.lock();
+            try {
+                for (int shard : held)
+                    shards[shard].pause(pause);
+            } finally {
+                if (held.length > 1)
+                    pauseLock.unlock();
+            }
+            for (int spins = 0; pause.waiting.get() > 0; spins++) {
+                if (spins < SPINS)
+                    continue;
+                LockSupport.park(this);
+            }
+            return transfers.apply(legs, legAccounts);
+        } finally {
+            // also releases the shards paused before a failed publish
+            pause.released = true;
+            for (int shard : held)
+                LockSupport.unpark(shards[shard].thread);
+        }
+    }
+
+    @Override
+    public void start() {
+        for (Shard shard : shards)
+            shard.thread.start();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards)
+            shard.thread.join();
+    }
+
+    /**
+     * @return number of published commands not applied yet, over all shards
+     */
+    long backlog() {
+        long backlog = 0;
+        for (Shard shard : shards)
+            backlog += Math.max(0, shard.tail.get() - shard.applied);
+        return backlog;
+    }
+
+    /**
+     * @return distinct shards of the accounts of the legs in ascending order
+     */
+    private int[] shardIndexes(List<TransactionRequest> legs) {
+        int[] indexes = new int[legs.size()];
+        for (int leg = 0; leg < indexes.length; leg++)
+            indexes[leg] = shardIndex(legs.get(leg).getAccountId());
+        Arrays.sort(indexes);
+        int distinct = 0;
+        for (int i = 0; i < indexes.length; i++)
+            if (i == 0 || indexes[i] != indexes[i - 1])
+                indexes[distinct++] = indexes[i];
+        return Arrays.copyOf(indexes, distinct);
+    }
+
+    int shardIndex(long accountId) {
+        // mixed so sequential account ids are spread over shards
+        return (int) Long.remainderUnsigned(StripedLongMap.mix(accountId), shards.length);
+    }
+
+    /**
+     * Applies one command on the shard thread and logs the registered transaction, which is stored by store once the
+     * batch of the shard is durable.
+     */
+    private RegistrationResult apply(Command command) throws IOException {
+        journal.checkWritable();
+        if (command.batch != null) {
+            command.position = command.batch.apply(command.group, accounts, journal, ids);
+            return null;
+        }
+        Account account = accounts.get(command.accountId);
+        if (account == null)
+            return RegistrationResult.failed(RegistrationResult.ACCOUNT_NOT_FOUND);
+
+        // a credit is applied by store once durable
+        int registrationStatus = command.transactionType == TransactionType.CREDIT
+                ? (command.funds.signum() > 0 ? RegistrationResult.REGISTERED : RegistrationResult.UNEXPECTED_FUNDS)
+                : account.debit(command.funds);
+        if (registrationStatus != RegistrationResult.REGISTERED)
+            return RegistrationResult.failed(registrationStatus);
+
+        // ids come from the block of the shard thread
+        Transaction registeredTransaction = new Transaction(ids.next(), command.externalTransactionId,
+                command.transactionType.name(), command.funds, command.accountId);
+        try {
+            command.position = journal.logTransaction(registeredTransaction);
+        } catch (IOException | RuntimeException e) {
+            if (command.transactionType == TransactionType.DEBIT)
+                account.credit(command.funds);
+            throw e;
+        }
+        return RegistrationResult.registered(registeredTransaction);
+    }
+
+    /**
+     * Applies the credits of an applied command and stores its transactions once its record is durable.
+     */
+    private void store(Command command) {
+        if (command.batch != null) {
+            command.batch.store(command.group, accounts, transactions);
+        } else if (command.result != null && command.result.getStatus() == RegistrationResult.REGISTERED) {
+            if (command.transactionType == TransactionType.CREDIT)
+                accounts.get(command.accountId).credit(command.funds);
+            transactions.add(command.result.getTransaction());
+        }
+    }
+
+    /**
+     * Takes back an applied command whose record could not be made durable, i.e. credits back its debits.
+     */
+    private void rollBack(Command command) {
+        if (command.batch != null)
+            command.batch.rollBack(command.group, accounts);
+        else if (command.transactionType == TransactionType.DEBIT)
+            accounts.get(command.accountId).credit(command.funds);
+    }
+
+    /**
+     * Holds the shards of a transfer until its legs are applied.
+     */
+    private static final class Pause {
+        // shards which did not reach the pause yet
+        private final AtomicInteger waiting;
+        private final Thread transfer = Thread.currentThread();
+        private volatile boolean released;
+
+        Pause(int shards) {
+            this.waiting = new AtomicInteger(shards);
+        }
+
+        void arrive() {
+            if (waiting.decrementAndGet() == 0)
+                LockSupport.unpark(transfer);
+        }
+    }
+
+    /**
+     * A pre-allocated slot of the ring buffer. For the lap of position p the slot goes through:
+     * sequence == p (free), sequence == p + 1 (published), completed == p (applied) and finally
+     * sequence == p + capacity (released by the request thread for the next lap).
+     */
+    private static final class Command {
+        private volatile long sequence;
+        private volatile long completed = -1;
+
+        // written by the request thread before publishing
+        private long accountId;
+        private TransactionType transactionType;
+        private BigDecimal funds;
+        private String externalTransactionId;
+        private Thread waiter;
+        // or a group of a batch request
+        private TransactionBatch batch;
+        private int group;
+        // or the pause of a transfer
+        private Pause pause;
+
+        // written by the shard thread before completing
+        private long position;
+        private RegistrationResult result;
+        private RuntimeException error;
+
+        Command(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        private final Command[] ring;
+        private final int mask;
+        private final int maxBatch;
+        private final AtomicLong tail = new AtomicLong();
+        private final Thread thread;
+
+        // only touched by the shard thread
+        private long head;
+        // head published once per drained batch for the backlog metric
+        private volatile long applied;
+
+        private volatile boolean running = true;
+        private volatile boolean sleeping;
+
+        Shard(int index, int capacity, int maxBatch) {
+            this.ring = new Command[capacity];
+            for (int i = 0; i < capacity; i++)
+                ring[i] = new Command(i);
+            this.mask = capacity - 1;
+            this.maxBatch = maxBatch;
+            this.thread = new Thread(this, "ledger-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        RegistrationResult submit(long accountId, TransactionType transactionType, BigDecimal funds, String externalTransactionId) {
+            long position = claim();
+            Command command = ring[(int) position & mask];
+            command.accountId = accountId;
+            command.transactionType = transactionType;
+            command.funds = funds;
+            command.externalTransactionId = externalTransactionId;
+            command.waiter = Thread.currentThread();
+            command.sequence = position + 1;
+            if (sleeping)
+                LockSupport.unpark(thread);
+
+            for (int spins = 0; command.completed != position; spins++) {
+                if (spins < SPINS)
+                    continue;
+                LockSupport.park(this);
+            }
+
+            RegistrationResult result = command.result;
+            RuntimeException error = command.error;
+            command.funds = null;
+            command.externalTransactionId = null;
+            command.waiter = null;
+            command.result = null;
+            command.error = null;
+            command.sequence = position + ring.length;
+
+            if (error != null)
+                throw new IllegalStateException("could not register transaction on account " + accountId, error);
+            return result;
+        }
+
+        /**
+         * Publishes one group of a batch without waiting for it, the batch is notified when the group is completed.
+         */
+        void publish(TransactionBatch batch, int group) {
+            long position = claim();
+            Command command = ring[(int) position & mask];
+            command.batch = batch;
+            command.group = group;
+            command.sequence = position + 1;
+            if (sleeping)
+                LockSupport.unpark(thread);
+        }
+
+        /**
+         * Publishes the pause of a transfer without waiting for it, the shard waits until the pause is released.
+         */
+        void pause(Pause pause) {
+            long position = claim();
+            Command command = ring[(int) position & mask];
+            command.pause = pause;
+            command.sequence = position + 1;
+            if (sleeping)
+                LockSupport.unpark(thread);
+        }
+
+        /**
+         * @return position of a free slot owned by the caller
+         */
+        private long claim() {
+            if (!running)
+                throw new IllegalStateException("ledger engine is stopped");
+
+            long position = tail.getAndIncrement();
+            Command command = ring[(int) position & mask];
+
+            // wait for the slot to be released by the previous lap when the ring is full
+            if (command.sequence != position) {
+                long startTime = System.nanoTime();
+                for (int spins = 0; command.sequence != position; spins++)
+                    backOff(spins);
+                ringFullWait.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            }
+            return position;
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running) {
+                if (drain() > 0) {
+                    idle = 0;
+                } else if (idle < SPINS) {
+                    idle++;
+                } else if (idle < SPINS + YIELDS) {
+                    idle++;
+                    Thread.yield();
+                } else {
+                    sleeping = true;
+                    if (!available())
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    sleeping = false;
+                }
+            }
+            // complete commands published before stopping
+            while (drain() > 0) {
+            }
+        }
+
+        /**
+         * Applies a batch of published commands and then completes them.
+         * @return number of applied commands
+         */
+        private int drain() {
+            int batch = 0;
+            long position = LedgerJournal.NOT_LOGGED;
+            while (batch < maxBatch) {
+                Command command = ring[(int) (head + batch) & mask];
+                if (command.sequence != head + batch + 1)
+                    break;
+                if (command.pause != null) {
+                    // the commands before the pause are completed before the transfer is applied
+                    if (batch == 0)
+                        return hold(command);
+                    break;
+                }
+                command.position = LedgerJournal.NOT_LOGGED;
+                try {
+                    command.result = apply(command);
+                    position = Math.max(position, command.position);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("exception caught: ", e);
+                    command.error = new IllegalStateException(e);
+                }
+                batch++;
+            }
+
+            // one sync makes the whole batch durable (group commit)
+            try {
+                journal.sync(position);
+                for (int i = 0; i < batch; i++) {
+                    Command command = ring[(int) (head + i) & mask];
+                    if (command.error == null)
+                        store(command);
+                }
+            } catch (IOException e) {
+                logger.error("exception caught: ", e);
+                // credits back the applied debits, the credits were not applied yet
+                for (int i = batch - 1; i >= 0; i--) {
+                    Command command = ring[(int) (head + i) & mask];
+                    if (command.position != LedgerJournal.NOT_LOGGED) {
+                        rollBack(command);
+                        command.error = new IllegalStateException(e);
+                    }
+                }
+            }
+
+            for (int i = 0; i < batch; i++) {
+                Command command = ring[(int) (head + i) & mask];
+                TransactionBatch transactionBatch = command.batch;
+                if (transactionBatch != null) {
+                    RuntimeException error = command.error;
+                    command.batch = null;
+                    command.error = null;
+                    command.sequence = head + i + ring.length;
+                    transactionBatch.complete(error);
+                    continue;
+                }
+                Thread waiter = command.waiter;
+                command.completed = head + i;
+                LockSupport.unpark(waiter);
+            }
+            if (batch > 0) {
+                head += batch;
+                applied = head;
+            }
+            return batch;
+        }
+
+        /**
+         * Waits on the shard thread while a transfer applies its legs, then releases the slot of the pause.
+         * @return 1, the pause command
+         */
+        private int hold(Command command) {
+            Pause pause = command.pause;
+            pause.arrive();
+            for (int spins = 0; !pause.released; spins++)
+                backOff(spins);
+            command.pause = null;
+            command.sequence = head + ring.length;
+            head++;
+            applied = head;
+            return 1;
+        }
+
+        private boolean available() {
+            return ring[(int) head & mask].sequence == head + 1;
+        }
+
+        private void backOff(int spins) {
+            if (spins < SPINS)
+                return;
+            if (spins < SPINS + YIELDS)
+                Thread.yield();
+            else
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+    }
+}
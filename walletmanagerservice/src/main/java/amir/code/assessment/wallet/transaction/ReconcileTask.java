@@ -0,0 +1,35 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+
+import java.io.PrintWriter;
+
+/**
+ * Admin task running a reconciliation and writing its report, incremental unless full=true is given:
+ *
+ *   curl -X POST localhost:8081/tasks/reconcile
+ *   curl -X POST 'localhost:8081/tasks/reconcile?full=true'
+ */
+class ReconcileTask extends Task {
+
+    private final Reconciler reconciler;
+
+    ReconcileTask(Reconciler reconciler) {
+        super("reconcile");
+        this.reconciler = reconciler;
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) {
+        boolean full = parameters.get("full").contains("true");
+        Reconciler.Report report = reconciler.reconcile(full);
+        output.println("accounts: " + report.getAccounts());
+        output.println("transactions: " + report.getTransactions());
+        output.println("discrepancies: " + report.getDiscrepancyCount());
+        output.println("unsettled: " + report.getUnsettled());
+        output.println("millis: " + report.getMillis());
+        for (Reconciler.Discrepancy discrepancy : report.getDiscrepancies())
+            output.println(discrepancy);
+    }
+}
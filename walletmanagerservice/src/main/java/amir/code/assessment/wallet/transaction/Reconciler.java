@@ -0,0 +1,339 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Checks that the balance of every account equals its opening balance plus the CREDIT and minus the DEBIT funds of
+ * its transaction history, and reports the accounts which do not.
+ *
+ * The opening balance of an account is its balance in the snapshot restored on startup, the history only holds the
+ * transactions registered after it. A history recovered after archived positions starts at its opening position.
+ * A run splits the registered accounts over a fork/join pool, each account is reconciled by exactly one task.
+ *
+ * Runs are incremental: the history is append-only, so the sum of the transactions up to a position never changes,
+ * and every account keeps the position it was summed up to as its watermark. A run only reads the transactions
+ * registered since the previous one, a full run forgets the watermarks and reads every history again.
+ *
+ * A run never blocks the writers. A balance is updated before its transaction is added to the history, so a running
+ * registration can be seen in the balance but not yet in the history. An account is therefore only reported when its
+ * balance version did not change while its history was summed and the balances still differ after a few short
+ * retries. An account updated during every retry is counted as unsettled and checked again by the next run.
+ */
+class Reconciler {
+
+    private static final Logger logger = LoggerFactory.getLogger(Reconciler.class);
+
+    // accounts reconciled by one task without forking
+    private static final int ACCOUNTS_PER_TASK = 256;
+    // transactions read from a history at once
+    private static final int PAGE_SIZE = 1024;
+    // attempts to find an account at rest, each one after a longer park
+    private static final int ATTEMPTS = 5;
+    private static final long RETRY_PARK_NANOS = 100_000L;
+    // discrepancies kept in a report, all of them are counted and logged
+    private static final int MAX_REPORTED = 1000;
+
+    private final AccountRegistry accounts;
+    private final TransactionStore transactions;
+    private final int parallelism;
+    // watermark of every reconciled account
+    private final Map<Long, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+
+    private volatile Map<Long, BigDecimal> openingBalances = Collections.emptyMap();
+    private volatile Map<Long, Integer> openingPositions = Collections.emptyMap();
+
+    private final Timer runTimer;
+    private volatile Report lastReport;
+
+    /**
+     * Sum of the transactions of an account up to a position of its history.
+     */
+    private static final class Checkpoint {
+        final int position;
+        final BigDecimal sum;
+
+        Checkpoint(int position, BigDecimal sum) {
+            this.position = position;
+            this.sum = sum;
+        }
+    }
+
+    /**
+     * An account whose balance differs from the sum of its history.
+     */
+    static final class Discrepancy {
+        private final long accountId;
+        private final BigDecimal balance;
+        private final BigDecimal computedBalance;
+
+        Discrepancy(long accountId, BigDecimal balance, BigDecimal computedBalance) {
+            this.accountId = accountId;
+            this.balance = balance;
+            this.computedBalance = computedBalance;
+        }
+
+        long getAccountId() {
+            return accountId;
+        }
+
+        /**
+         * @return the balance of the account
+         */
+        BigDecimal getBalance() {
+            return balance;
+        }
+
+        /**
+         * @return the opening balance of the account plus the sum of its history
+         */
+        BigDecimal getComputedBalance() {
+            return computedBalance;
+        }
+
+        @Override
+        public String toString() {
+            return "account " + accountId + ": balance " + balance.toPlainString()
+                    + ", computed " + computedBalance.toPlainString()
+                    + ", difference " + balance.subtract(computedBalance).toPlainString();
+        }
+    }
+
+    /**
+     * Outcome of a run, or of the accounts of one task before they are combined.
+     */
+    static final class Report {
+        private long accounts;
+        private long transactions;
+        private long unsettled;
+        private long discrepancyCount;
+        private final List<Discrepancy> discrepancies = new ArrayList<>();
+        private long millis;
+
+        /**
+         * @return number of reconciled accounts
+         */
+        long getAccounts() {
+            return accounts;
+        }
+
+        /**
+         * @return number of history transactions read by the run, only the new ones of an incremental run
+         */
+        long getTransactions() {
+            return transactions;
+        }
+
+        /**
+         * @return number of accounts updated during every attempt to reconcile them
+         */
+        long getUnsettled() {
+            return unsettled;
+        }
+
+        long getDiscrepancyCount() {
+            return discrepancyCount;
+        }
+
+        /**
+         * @return the first discrepancies found, up to MAX_REPORTED
+         */
+        List<Discrepancy> getDiscrepancies() {
+            return discrepancies;
+        }
+
+        long getMillis() {
+            return millis;
+        }
+
+        private void add(Discrepancy discrepancy) {
+            discrepancyCount++;
+            if (discrepancies.size() < MAX_REPORTED)
+                discrepancies.add(discrepancy);
+        }
+
+        private Report combine(Report other) {
+            accounts += other.accounts;
+            transactions += other.transactions;
+            unsettled += other.unsettled;
+            discrepancyCount += other.discrepancyCount;
+            for (Discrepancy discrepancy : other.discrepancies)
+                if (discrepancies.size() < MAX_REPORTED)
+                    discrepancies.add(discrepancy);
+            return this;
+        }
+    }
+
+    /**
+     * @param parallelism . Number of threads of a run, 0 for the number of available processors.
+     */
+    Reconciler(AccountRegistry accounts, TransactionStore transactions, int parallelism, MetricRegistry metrics) {
+        this.accounts = accounts;
+        this.transactions = transactions;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+
+        this.runTimer = metrics.timer(MetricRegistry.name(Reconciler.class, "run"));
+        metrics.register(MetricRegistry.name(Reconciler.class, "discrepancies"), (Gauge<Long>) () -> {
+            Report report = lastReport;
+            return report == null ? 0 : report.discrepancyCount;
+        });
+        metrics.register(MetricRegistry.name(Reconciler.class, "unsettled"), (Gauge<Long>) () -> {
+            Report report = lastReport;
+            return report == null ? 0 : report.unsettled;
+        });
+    }
+
+    /**
+     * @param openingBalances . Balances of the accounts before the transactions of their history, e.g. the ones of
+     * the restored snapshot. Accounts without an opening balance start at 0.
+     * @param openingPositions . Positions of the histories the opening balances are at, 0 for accounts without one.
+     */
+    void setOpeningBalances(Map<Long, BigDecimal> openingBalances, Map<Long, Integer> openingPositions) {
+        this.openingBalances = new HashMap<>(openingBalances);
+        this.openingPositions = new HashMap<>(openingPositions);
+        checkpoints.clear();
+    }
+
+    /**
+     * @return report of the latest run or null if none ran yet
+     */
+    Report getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Reconciles all registered accounts, one run at a time. Accounts registered during the run may or may not be
+     * reconciled.
+     *
+     * @param full . If true, every history is read from its start instead of from its watermark.
+     */
+    synchronized Report reconcile(boolean full) {
+        long startTime = System.nanoTime();
+        if (full)
+            checkpoints.clear();
+
+        List<Long> accountIds = new ArrayList<>(accounts.size());
+        List<Account> registered = new ArrayList<>(accounts.size());
+        accounts.forEach((accountId, account) -> {
+            accountIds.add(accountId);
+            registered.add(account);
+        });
+
+        Report report;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (Timer.Context ignored = runTimer.time()) {
+            report = pool.invoke(new Task(accountIds, registered, 0, registered.size()));
+        } finally {
+            pool.shutdown();
+        }
+        report.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        for (Discrepancy discrepancy : report.discrepancies)
+            logger.warn("reconciliation discrepancy, {}", discrepancy);
+        logger.info("reconciled {} accounts and {} transactions in {} ms, {} discrepancies, {} unsettled",
+                report.accounts, report.transactions, report.millis, report.discrepancyCount, report.unsettled);
+        lastReport = report;
+        return report;
+    }
+
+    /**
+     * Reconciles a range of accounts, split in halves until it is small enough.
+     */
+    private final class Task extends RecursiveTask<Report> {
+        private final List<Long> accountIds;
+        private final List<Account> registered;
+        private final int from;
+        private final int to;
+
+        Task(List<Long> accountIds, List<Account> registered, int from, int to) {
+            this.accountIds = accountIds;
+            this.registered = registered;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Report compute() {
+            if (to - from > ACCOUNTS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                Task left = new Task(accountIds, registered, from, middle);
+                left.fork();
+                Report right = new Task(accountIds, registered, middle, to).compute();
+                return left.join().combine(right);
+            }
+            Report report = new Report();
+            for (int i = from; i < to; i++)
+                reconcile(accountIds.get(i), registered.get(i), report);
+            return report;
+        }
+    }
+
+    private void reconcile(long accountId, Account account, Report report) {
+        BigDecimal opening = openingBalances.getOrDefault(accountId, BigDecimal.ZERO);
+        boolean settled = false;
+        BalanceSnapshot snapshot = null;
+        BigDecimal computed = null;
+
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            if (attempt > 0)
+                LockSupport.parkNanos(RETRY_PARK_NANOS << attempt);
+            snapshot = account.getSnapshot();
+            computed = opening.add(advance(accountId, transactions.getHistory(accountId), report));
+            if (computed.compareTo(snapshot.getBalance()) == 0) {
+                report.accounts++;
+                return;
+            }
+            // balance and history read at rest, a running registration would have changed the version
+            settled = account.getSnapshot().getVersion() == snapshot.getVersion();
+        }
+
+        report.accounts++;
+        if (settled)
+            report.add(new Discrepancy(accountId, snapshot.getBalance(), computed));
+        else
+            report.unsettled++;
+    }
+
+    /**
+     * Sums the transactions appended to the history since the watermark of the account and moves the watermark.
+     *
+     * @return sum of all the transactions of the history up to its new watermark
+     */
+    private BigDecimal advance(long accountId, TransactionHistory history, Report report) {
+        Checkpoint checkpoint = checkpoints.get(accountId);
+        int position = checkpoint == null ? openingPositions.getOrDefault(accountId, 0) : checkpoint.position;
+        BigDecimal sum = checkpoint == null ? BigDecimal.ZERO : checkpoint.sum;
+        if (history == null || history.size() == position)
+            return sum;
+
+        TransactionHistory.Page page;
+        do {
+            page = history.page(position, Long.MIN_VALUE, Long.MAX_VALUE, null, PAGE_SIZE);
+            for (Transaction transaction : page.getTransactions()) {
+                sum = TransactionType.CREDIT.name().equals(transaction.getTransactionType())
+                        ? sum.add(transaction.getFunds())
+                        : sum.subtract(transaction.getFunds());
+            }
+            report.transactions += page.getTransactions().size();
+            position = page.getNextCursor();
+        } while (page.hasMore());
+
+        checkpoints.put(accountId, new Checkpoint(position, sum));
+        return sum;
+    }
+}
@@ -0,0 +1,37 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Configuration of the reconciliation of balances against the transaction history, e.g.
+ *
+ *   reconciliation:
+ *     parallelism: 0
+ *
+ * A run is triggered on the admin port, see ReconcileTask.
+ */
+public class ReconciliationFactory {
+
+    @Min(0)
+    private int parallelism = 0;
+
+    /**
+     * @return number of threads of a run, 0 for the number of available processors
+     */
+    @JsonProperty
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @JsonProperty
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    Reconciler build(AccountRegistry accounts, TransactionStore transactions, MetricRegistry metrics) {
+        return new Reconciler(accounts, transactions, parallelism, metrics);
+    }
+}
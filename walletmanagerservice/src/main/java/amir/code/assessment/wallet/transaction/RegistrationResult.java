@@ -0,0 +1,109 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.util.List;
+
+/**
+ * Outcome of registering a transaction on one account, or a transfer between accounts: a status code and the
+ * registered Transaction (the linked Transactions of a transfer) if successful. Status codes of Account.credit and
+ * Account.debit are kept as is.
+ */
+final class RegistrationResult {
+
+    static final int REGISTERED = 0;
+    static final int UNEXPECTED_FUNDS = -1;
+    static final int NOT_ENOUGH_BALANCE = -2;
+    static final int ACCOUNT_NOT_FOUND = -3;
+    // an all-or-nothing group of a batch was not applied because another transaction of the group failed
+    static final int ROLLED_BACK = -4;
+    // the externalTransactionId was registered before with a different account, type or funds
+    static final int IDEMPOTENCY_CONFLICT = -5;
+
+    // failures carry no transaction, so one shared instance per status is enough
+    private static final RegistrationResult UNEXPECTED_FUNDS_RESULT = new RegistrationResult(UNEXPECTED_FUNDS, null);
+    private static final RegistrationResult NOT_ENOUGH_BALANCE_RESULT = new RegistrationResult(NOT_ENOUGH_BALANCE, null);
+    private static final RegistrationResult ACCOUNT_NOT_FOUND_RESULT = new RegistrationResult(ACCOUNT_NOT_FOUND, null);
+    private static final RegistrationResult ROLLED_BACK_RESULT = new RegistrationResult(ROLLED_BACK, null);
+    private static final RegistrationResult IDEMPOTENCY_CONFLICT_RESULT = new RegistrationResult(IDEMPOTENCY_CONFLICT, null);
+
+    private final int status;
+    private final Transaction transaction;
+    // the linked transactions of a transfer, null otherwise
+    private final List<Transaction> linkedTransactions;
+    // index of the failed leg of a transfer, -1 otherwise
+    private final int failedLeg;
+
+    private RegistrationResult(int status, Transaction transaction) {
+        this(status, transaction, null, -1);
+    }
+
+    private RegistrationResult(int status, Transaction transaction, List<Transaction> linkedTransactions, int failedLeg) {
+        this.status = status;
+        this.transaction = transaction;
+        this.linkedTransactions = linkedTransactions;
+        this.failedLeg = failedLeg;
+    }
+
+    static RegistrationResult registered(Transaction transaction) {
+        return new RegistrationResult(REGISTERED, transaction);
+    }
+
+    /**
+     * @param linkedTransactions . The registered transactions of all legs of a transfer, in the order of the legs.
+     */
+    static RegistrationResult registered(List<Transaction> linkedTransactions) {
+        return new RegistrationResult(REGISTERED, linkedTransactions.get(0), linkedTransactions, -1);
+    }
+
+    /**
+     * @param status . One of the non-zero status codes.
+     * @param failedLeg . Index of the leg of a transfer which could not be applied.
+     */
+    static RegistrationResult failed(int status, int failedLeg) {
+        return new RegistrationResult(failed(status).status, null, null, failedLeg);
+    }
+
+    /**
+     * @param status . One of the non-zero status codes.
+     */
+    static RegistrationResult failed(int status) {
+        switch (status) {
+            case UNEXPECTED_FUNDS:
+                return UNEXPECTED_FUNDS_RESULT;
+            case NOT_ENOUGH_BALANCE:
+                return NOT_ENOUGH_BALANCE_RESULT;
+            case ACCOUNT_NOT_FOUND:
+                return ACCOUNT_NOT_FOUND_RESULT;
+            case ROLLED_BACK:
+                return ROLLED_BACK_RESULT;
+            case IDEMPOTENCY_CONFLICT:
+                return IDEMPOTENCY_CONFLICT_RESULT;
+            default:
+                throw new IllegalArgumentException("unexpected registration status: " + status);
+        }
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the registered transaction, the one of the first leg for a transfer
+     */
+    Transaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * @return registered transactions of all legs of a transfer, or null if this is not the result of a transfer
+     */
+    List<Transaction> getLinkedTransactions() {
+        return linkedTransactions;
+    }
+
+    /**
+     * @return index of the leg of a transfer which could not be applied, or -1
+     */
+    int getFailedLeg() {
+        return failedLeg;
+    }
+}
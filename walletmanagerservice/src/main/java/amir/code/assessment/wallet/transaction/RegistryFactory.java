@@ -0,0 +1,95 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Configuration of the account registry and the transaction store, e.g.
+ *
+ *   registry:
+ *     stripes: 64
+ *     expectedAccounts: 65536
+ *     expectedTransactions: 1048576
+ *     transactionStore: COLUMNAR
+ */
+public class RegistryFactory {
+
+    /**
+     * HEAP keeps every transaction as a Transaction object, COLUMNAR keeps them in primitive columns.
+     */
+    public enum StoreType {
+        HEAP,
+        COLUMNAR
+    }
+
+    @Min(1)
+    private int stripes = 64;
+
+    @Min(0)
+    private int expectedAccounts = 1 << 16;
+
+    @Min(0)
+    private int expectedTransactions = 1 << 20;
+
+    @NotNull
+    private StoreType transactionStore = StoreType.HEAP;
+
+    @JsonProperty
+    public int getStripes() {
+        return stripes;
+    }
+
+    @JsonProperty
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    @JsonProperty
+    public int getExpectedAccounts() {
+        return expectedAccounts;
+    }
+
+    @JsonProperty
+    public void setExpectedAccounts(int expectedAccounts) {
+        this.expectedAccounts = expectedAccounts;
+    }
+
+    @JsonProperty
+    public int getExpectedTransactions() {
+        return expectedTransactions;
+    }
+
+    @JsonProperty
+    public void setExpectedTransactions(int expectedTransactions) {
+        this.expectedTransactions = expectedTransactions;
+    }
+
+    @JsonProperty
+    public StoreType getTransactionStore() {
+        return transactionStore;
+    }
+
+    @JsonProperty
+    public void setTransactionStore(StoreType transactionStore) {
+        this.transactionStore = transactionStore;
+    }
+
+    AccountRegistry buildAccountRegistry() {
+        return new StripedAccountRegistry(stripes, expectedAccounts);
+    }
+
+    TransactionStore buildTransactionStore() {
+        return buildTransactionStore(TransactionArchive.disabled());
+    }
+
+    /**
+     * @param archive . The archive holding the oldest transactions of the histories.
+     */
+    TransactionStore buildTransactionStore(TransactionArchive archive) {
+        if (transactionStore == StoreType.COLUMNAR)
+            return new ColumnarTransactionStore(expectedTransactions, archive);
+        return new ConcurrentTransactionStore(expectedTransactions, stripes, archive);
+    }
+}
@@ -0,0 +1,183 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executors running the requests of the AsyncAccountTransactionAPI off the HTTP threads, one for
+ * registrations and one for transaction history reads, so a burst of writes can neither tie up the HTTP threads nor
+ * queue up without limit.
+ *
+ * A request finding the queue of its executor full is rejected at once with 429 Too Many Requests, a request still
+ * queued after the timeout is taken off the queue and gets 503 Service Unavailable, both with a Retry-After header.
+ * Neither of them ran, so a 503 never hides an applied registration. A request already running when the timeout fires
+ * is answered with its own result once it completes, the timeout is extended until then.
+ */
+class RequestExecutors implements Managed {
+
+    static final int TOO_MANY_REQUESTS = 429;
+    static final int SERVICE_UNAVAILABLE = 503;
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestExecutors.class);
+
+    private final Pool writes;
+    private final Pool reads;
+    private final long timeoutMillis;
+    private final int retryAfterSeconds;
+
+    /**
+     * @param timeoutMillis . Max time of a request from its submission to its response, 0 for no limit.
+     * @param retryAfterSeconds . Retry-After of the rejected requests.
+     */
+    RequestExecutors(int writeThreads, int writeQueue, int readThreads, int readQueue,
+                     long timeoutMillis, int retryAfterSeconds, MetricRegistry metrics) {
+        this.writes = new Pool("write", writeThreads, writeQueue, metrics);
+        this.reads = new Pool("read", readThreads, readQueue, metrics);
+        this.timeoutMillis = timeoutMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Runs a registration on the write executor and resumes the response with its result.
+     */
+    void write(AsyncResponse response, Supplier<Response> request) {
+        submit(writes, response, request);
+    }
+
+    /**
+     * Runs a read on the read executor and resumes the response with its result.
+     */
+    void read(AsyncResponse response, Supplier<Response> request) {
+        submit(reads, response, request);
+    }
+
+    @Override
+    public void start() {
+        writes.executor.prestartAllCoreThreads();
+        reads.executor.prestartAllCoreThreads();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        // queued requests are still run, new ones are rejected with 503
+        writes.executor.shutdown();
+        reads.executor.shutdown();
+        long waitMillis = Math.max(timeoutMillis, 1000);
+        writes.executor.awaitTermination(waitMillis, TimeUnit.MILLISECONDS);
+        reads.executor.awaitTermination(waitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void submit(Pool pool, AsyncResponse response, Supplier<Response> request) {
+        Task task = new Task(pool, response, request);
+        if (timeoutMillis > 0) {
+            response.setTimeoutHandler(suspended -> {
+                if (task.cancel()) {
+                    pool.executor.remove(task);
+                    pool.timedOut.mark();
+                    suspended.resume(getRetryLaterResponse(SERVICE_UNAVAILABLE, "request timed out, retry later"));
+                } else {
+                    // the request is running, the response waits for its result
+                    suspended.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+                }
+            });
+            response.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        try {
+            pool.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            pool.rejected.mark();
+            if (pool.executor.isShutdown())
+                response.resume(getRetryLaterResponse(SERVICE_UNAVAILABLE, "service is stopping, retry later"));
+            else
+                response.resume(getRetryLaterResponse(TOO_MANY_REQUESTS, "too many requests, retry later"));
+        }
+    }
+
+    private Response getRetryLaterResponse(int status, String message) {
+        return Response.status(status)
+                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+                .entity((StreamingOutput) output -> JsonCodec.get().writeMessage(message, output))
+                .build();
+    }
+
+    /**
+     * A request which is either started by its executor or cancelled by its timeout, never both.
+     */
+    private static final class Task implements Runnable {
+        private final Pool pool;
+        private final AsyncResponse response;
+        private final Supplier<Response> request;
+        private final long submitTime = System.nanoTime();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Task(Pool pool, AsyncResponse response, Supplier<Response> request) {
+            this.pool = pool;
+            this.response = response;
+            this.request = request;
+        }
+
+        /**
+         * @return true if the request did not start and never will
+         */
+        boolean cancel() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            // timed out, or the client went away
+            if (!claimed.compareAndSet(false, true) || !response.isSuspended())
+                return;
+            Response result;
+            try {
+                result = request.get();
+            } catch (RuntimeException e) {
+                logger.error("exception caught: ", e);
+                result = Response.serverError().build();
+            }
+            response.resume(result);
+            pool.latency.update(System.nanoTime() - submitTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static final class Pool {
+        private final ThreadPoolExecutor executor;
+        // time from the submission of a request to its response
+        private final Timer latency;
+        private final Meter rejected;
+        private final Meter timedOut;
+
+        Pool(String name, int threads, int queue, MetricRegistry metrics) {
+            AtomicInteger count = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queue), runnable -> {
+                        Thread thread = new Thread(runnable, "ledger-" + name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            this.latency = metrics.register(MetricRegistry.name(RequestExecutors.class, name, "latency"),
+                    LedgerMetrics.newTimer());
+            this.rejected = metrics.meter(MetricRegistry.name(RequestExecutors.class, name, "rejected"));
+            this.timedOut = metrics.meter(MetricRegistry.name(RequestExecutors.class, name, "timed-out"));
+            metrics.register(MetricRegistry.name(RequestExecutors.class, name, "queued"),
+                    (Gauge<Integer>) () -> executor.getQueue().size());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.Min;
+import java.nio.file.Paths;
+
+/**
+ * Configuration of the tiered retention of the transaction histories, e.g.
+ *
+ *   retention:
+ *     enabled: true
+ *     directory: data/archive
+ *     maxAgeSeconds: 604800
+ *     intervalSeconds: 3600
+ *     cacheBytes: 67108864
+ *
+ * Transactions older than maxAgeSeconds are moved from the heap to compressed segment files, histories read both.
+ * Archived segments are kept across restarts, so retention is meant to be used with the write-ahead log.
+ */
+public class RetentionFactory {
+
+    private boolean enabled = false;
+
+    @NotEmpty
+    private String directory = "data/archive";
+
+    @Min(0)
+    private long maxAgeSeconds = 7 * 24 * 3600;
+
+    @Min(0)
+    private long intervalSeconds = 3600;
+
+    @Min(0)
+    private long cacheBytes = 64L * 1024 * 1024;
+
+    @JsonProperty
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty
+    public String getDirectory() {
+        return directory;
+    }
+
+    @JsonProperty
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return age in seconds after which a transaction is moved to the archive
+     */
+    @JsonProperty
+    public long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    @JsonProperty
+    public void setMaxAgeSeconds(long maxAgeSeconds) {
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * @return delay between two archive runs, 0 disables periodic runs
+     */
+    @JsonProperty
+    public long getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    @JsonProperty
+    public void setIntervalSeconds(long intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    /**
+     * @return max bytes of recently read archive blocks kept in memory
+     */
+    @JsonProperty
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    @JsonProperty
+    public void setCacheBytes(long cacheBytes) {
+        this.cacheBytes = cacheBytes;
+    }
+
+    TransactionArchive buildArchive(MetricRegistry metrics) {
+        if (!enabled)
+            return TransactionArchive.disabled();
+        return new TransactionArchive(Paths.get(directory), cacheBytes, metrics);
+    }
+
+    RetentionManager build(AccountRegistry accounts, TransactionStore transactions, TransactionArchive archive,
+                           MetricRegistry metrics) {
+        return new RetentionManager(accounts, transactions, archive, maxAgeSeconds, intervalSeconds, metrics);
+    }
+}
@@ -0,0 +1,125 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically moves the transactions older than the retention age from the TransactionStore (hot tier) to the
+ * TransactionArchive (cold tier), so the heap only holds recent activity while histories keep every transaction.
+ *
+ * A run finds the first row of the store registered after the cutoff, writes the positions of every history up to
+ * the last one below that row into a new segment, trims the histories and releases the rows archived by the previous
+ * run. Releasing one run later gives readers which picked a row before the trim a whole interval to read it.
+ */
+class RetentionManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetentionManager.class);
+
+    private final AccountRegistry accounts;
+    private final TransactionStore transactions;
+    private final TransactionArchive archive;
+    private final long maxAgeMillis;
+    private final long intervalSeconds;
+
+    private final Timer runTimer;
+    // rows below it are archived, they are released by the next run
+    private int archivedRows;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param maxAgeSeconds . Age of the transactions moved to the archive.
+     * @param intervalSeconds . Delay between two runs, 0 disables periodic runs.
+     */
+    RetentionManager(AccountRegistry accounts, TransactionStore transactions, TransactionArchive archive,
+                     long maxAgeSeconds, long intervalSeconds, MetricRegistry metrics) {
+        this.accounts = accounts;
+        this.transactions = transactions;
+        this.archive = archive;
+        this.maxAgeMillis = TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+        this.intervalSeconds = intervalSeconds;
+
+        this.runTimer = metrics.timer(MetricRegistry.name(RetentionManager.class, "run"));
+        metrics.register(MetricRegistry.name(TransactionStore.class, "transactions"),
+                (Gauge<Integer>) () -> transactions.rows() - transactions.firstRow());
+        metrics.register(MetricRegistry.name(TransactionStore.class, "heap-bytes"), (Gauge<Long>) transactions::footprint);
+    }
+
+    /**
+     * Archives the transactions older than the retention age.
+     *
+     * @return number of archived transactions
+     */
+    synchronized long archive() throws IOException {
+        if (!archive.isEnabled())
+            return 0;
+
+        try (Timer.Context ignored = runTimer.time()) {
+            long cutoff = System.currentTimeMillis() - maxAgeMillis;
+            int end = transactions.rows();
+            int rows = archivedRows;
+            while (rows < end && transactions.read(rows).getTransactionDate().getTime() < cutoff)
+                rows++;
+
+            // also picks up rows below the previous cutoff which were appended to their history after the previous run
+            int limit = rows;
+            List<TransactionArchive.Run> runs = new ArrayList<>();
+            accounts.forEach((accountId, account) -> {
+                TransactionHistory history = transactions.getHistory(accountId);
+                if (history == null)
+                    return;
+                int base = history.base();
+                int to = history.archivable(limit);
+                if (to > base)
+                    runs.add(new TransactionArchive.Run(accountId, history, base, to));
+            });
+
+            long archived = 0;
+            archive.append(runs, transactions);
+            for (TransactionArchive.Run run : runs) {
+                run.history.trim(run.to);
+                archived += run.to - run.from;
+            }
+
+            transactions.release(archivedRows);
+            archivedRows = rows;
+            if (archived > 0)
+                logger.info("archived {} transactions of {} accounts", archived, runs.size());
+            return archived;
+        }
+    }
+
+    void start() {
+        if (!archive.isEnabled() || intervalSeconds <= 0)
+            return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                archive();
+            } catch (Exception e) {
+                logger.error("could not archive transactions", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    void stop() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Configuration of the balance snapshots compacting the write-ahead log, e.g.
+ *
+ *   snapshot:
+ *     intervalSeconds: 300
+ *     archiveSegments: false
+ *     retainSnapshots: 2
+ *
+ * Snapshots are only taken when the write-ahead log is enabled. A snapshot keeps the registrations inside the
+ * idempotency window, so retries stay deduplicated across a restart. It does not keep the transaction histories: after
+ * a restart the history of an account and the lookup by transactionId only hold the transactions registered after the
+ * restored snapshot, plus the archived ones when retention is enabled. intervalSeconds 0 keeps the whole histories.
+ */
+public class SnapshotFactory {
+
+    @Min(0)
+    private long intervalSeconds = 300;
+
+    private boolean archiveSegments = false;
+
+    @Min(1)
+    private int retainSnapshots = 2;
+
+    @JsonProperty
+    public long getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    @JsonProperty
+    public void setIntervalSeconds(long intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    @JsonProperty
+    public boolean isArchiveSegments() {
+        return archiveSegments;
+    }
+
+    @JsonProperty
+    public void setArchiveSegments(boolean archiveSegments) {
+        this.archiveSegments = archiveSegments;
+    }
+
+    @JsonProperty
+    public int getRetainSnapshots() {
+        return retainSnapshots;
+    }
+
+    @JsonProperty
+    public void setRetainSnapshots(int retainSnapshots) {
+        this.retainSnapshots = retainSnapshots;
+    }
+
+    /**
+     * @param idempotencyWindowSeconds . Time the registrations are kept for deduplication, 0 when it is disabled.
+     */
+    SnapshotManager build(LedgerJournal journal, long idempotencyWindowSeconds, MetricRegistry metrics) {
+        return new SnapshotManager(journal, intervalSeconds, archiveSegments, retainSnapshots,
+                idempotencyWindowSeconds, metrics);
+    }
+}
@@ -0,0 +1,244 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically compacts the write-ahead log into snapshot files (snapshot-00000000000000000042.snap) holding the balance
+ * of every account and the transactionId counter up to the end of a sealed segment, plus the registrations still inside
+ * the idempotency window. Transaction histories are not part of a snapshot, see SnapshotFactory.
+ *
+ * A snapshot is taken by rolling the log over and folding the newly sealed segments into the previous snapshot, so it
+ * only reads log files and never stops or even touches the writers. The snapshot file and its directory are forced to
+ * disk before the covered segments are deleted or moved to the archive directory. On startup the latest snapshot is
+ * restored and only the log tail after it is replayed. An older snapshot is only restored when the log still holds
+ * every segment after it, otherwise recovery fails instead of losing the transactions of the missing segments.
+ */
+class SnapshotManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotManager.class);
+
+    static final String SNAPSHOT_PREFIX = "snapshot-";
+    static final String SNAPSHOT_SUFFIX = ".snap";
+    static final String ARCHIVE_DIRECTORY = "archive";
+
+    private final LedgerJournal journal;
+    private final long intervalSeconds;
+    private final boolean archiveSegments;
+    private final int retainSnapshots;
+    private final long idempotencyWindowMillis;
+
+    private final Timer writeTimer;
+    private volatile long restoreMillis;
+    private volatile long lastSegment;
+    private volatile int lastAccounts;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param journal . The journal to compact, snapshots are only taken when its write-ahead log is enabled.
+     * @param intervalSeconds . Delay between two snapshots, 0 disables periodic snapshots.
+     * @param archiveSegments . Whether covered segments are moved to the archive directory instead of being deleted.
+     * @param retainSnapshots . Number of most recent snapshot files kept.
+     * @param idempotencyWindowSeconds . Time the registrations are kept in snapshots for deduplication, 0 for none.
+     */
+    SnapshotManager(LedgerJournal journal, long intervalSeconds, boolean archiveSegments, int retainSnapshots,
+                    long idempotencyWindowSeconds, MetricRegistry metrics) {
+        this.journal = journal;
+        this.intervalSeconds = intervalSeconds;
+        this.archiveSegments = archiveSegments;
+        this.retainSnapshots = retainSnapshots;
+        this.idempotencyWindowMillis = TimeUnit.SECONDS.toMillis(idempotencyWindowSeconds);
+
+        this.writeTimer = metrics.timer(MetricRegistry.name(SnapshotManager.class, "write"));
+        metrics.register(MetricRegistry.name(SnapshotManager.class, "restore-millis"), (Gauge<Long>) () -> restoreMillis);
+        metrics.register(MetricRegistry.name(SnapshotManager.class, "last-segment"), (Gauge<Long>) () -> lastSegment);
+        metrics.register(MetricRegistry.name(SnapshotManager.class, "accounts"), (Gauge<Integer>) () -> lastAccounts);
+    }
+
+    /**
+     * Loads the latest valid snapshot, or an empty snapshot if there is none yet.
+     */
+    LedgerSnapshot restore() throws IOException {
+        long startTime = System.nanoTime();
+        LedgerSnapshot snapshot = latest();
+        checkContinuity(snapshot.getLastSegment());
+        restoreMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        lastSegment = snapshot.getLastSegment();
+        lastAccounts = snapshot.getBalances().size();
+        if (snapshot.getLastSegment() > 0)
+            logger.info("restored snapshot of {} accounts up to segment {} in {} ms",
+                    lastAccounts, lastSegment, restoreMillis);
+        return snapshot;
+    }
+
+    /**
+     * Rolls the log over and compacts all sealed segments into a new snapshot.
+     */
+    synchronized void takeSnapshot() throws IOException {
+        if (!journal.isEnabled())
+            return;
+
+        try (Timer.Context ignored = writeTimer.time()) {
+            WriteAheadLog wal = journal.getWriteAheadLog();
+            long sealed = wal.roll() - 1;
+            LedgerSnapshot snapshot = latest();
+            if (sealed <= snapshot.getLastSegment())
+                return;
+            checkContinuity(snapshot.getLastSegment());
+
+            for (long segment : wal.segmentNumbers()) {
+                if (segment > snapshot.getLastSegment() && segment <= sealed)
+                    journal.readSegment(segment, snapshot);
+            }
+            snapshot.setLastSegment(sealed);
+
+            Path directory = wal.getDirectory();
+            Path temporary = directory.resolve(SNAPSHOT_PREFIX + "tmp");
+            try (FileOutputStream output = new FileOutputStream(temporary.toFile())) {
+                snapshot.writeTo(output);
+                output.getChannel().force(true);
+            }
+            Files.move(temporary, snapshotPath(sealed), StandardCopyOption.ATOMIC_MOVE);
+            // the rename must be durable before the segments it covers are removed
+            syncDirectory(directory);
+
+            lastSegment = sealed;
+            lastAccounts = snapshot.getBalances().size();
+            compact(wal, sealed);
+        }
+    }
+
+    void start() {
+        if (!journal.isEnabled() || intervalSeconds <= 0)
+            return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                takeSnapshot();
+            } catch (Exception e) {
+                logger.error("could not take snapshot", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    void stop() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * @return the most recent snapshot which can be read completely, older ones are a fallback for a corrupted file
+     */
+    private LedgerSnapshot latest() throws IOException {
+        if (!journal.isEnabled())
+            return new LedgerSnapshot(idempotencyWindowMillis);
+        List<Long> snapshots = snapshotSegments();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            try (InputStream input = Files.newInputStream(snapshotPath(snapshots.get(i)))) {
+                return LedgerSnapshot.readFrom(input, idempotencyWindowMillis);
+            } catch (IOException e) {
+                logger.error("could not read snapshot " + snapshotPath(snapshots.get(i)), e);
+            }
+        }
+        return new LedgerSnapshot(idempotencyWindowMillis);
+    }
+
+    /**
+     * Makes sure the log continues right after the restored snapshot, up to the newest snapshot file. A fallback to an
+     * older snapshot after the newest one could not be read is refused once the segments in between were compacted.
+     *
+     * @throws IOException if a segment after the snapshot is missing
+     */
+    private void checkContinuity(long lastSegment) throws IOException {
+        if (!journal.isEnabled())
+            return;
+        long expected = lastSegment + 1;
+        for (long segment : journal.getWriteAheadLog().segmentNumbers()) {
+            if (segment <= lastSegment)
+                continue;
+            if (segment != expected)
+                throw missingSegment(expected, lastSegment);
+            expected++;
+        }
+        List<Long> snapshots = snapshotSegments();
+        if (!snapshots.isEmpty() && snapshots.get(snapshots.size() - 1) >= expected)
+            throw missingSegment(expected, lastSegment);
+    }
+
+    private static IOException missingSegment(long segment, long lastSegment) {
+        return new IOException("write-ahead log segment " + segment + " following the snapshot of segment "
+                + lastSegment + " is missing, restore the newest snapshot or the archived segments");
+    }
+
+    private static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Deletes or archives segments covered by the snapshot of sealed and deletes snapshots which are not retained.
+     */
+    private void compact(WriteAheadLog wal, long sealed) throws IOException {
+        Path archive = wal.getDirectory().resolve(ARCHIVE_DIRECTORY);
+        for (long segment : wal.segmentNumbers()) {
+            if (segment > sealed)
+                continue;
+            Path path = wal.segmentPath(segment);
+            if (archiveSegments) {
+                Files.createDirectories(archive);
+                Files.move(path, archive.resolve(path.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(path);
+            }
+        }
+
+        List<Long> snapshots = snapshotSegments();
+        for (int i = 0; i < snapshots.size() - retainSnapshots; i++)
+            Files.delete(snapshotPath(snapshots.get(i)));
+    }
+
+    private List<Long> snapshotSegments() {
+        List<Long> segments = new ArrayList<>();
+        File[] files = journal.getWriteAheadLog().getDirectory().toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX))
+                    segments.add(Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path snapshotPath(long segment) {
+        return journal.getWriteAheadLog().getDirectory().resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, segment, SNAPSHOT_SUFFIX));
+    }
+}
@@ -0,0 +1,44 @@
+package amir.code.assessment.wallet.transaction;
+
+/**
+ * AccountRegistry on top of a StripedLongMap: accounts are split across a power of two number of stripes, each stripe
+ * being an open addressing hash table of primitive long keys (no Long boxing per lookup) guarded by its own
+ * StampedLock.
+ *
+ * Lookups are optimistic reads which never block and only fall back to the read lock when a writer modified the same
+ * stripe meanwhile. Registrations lock one stripe only, so request threads working on different stripes never contend.
+ */
+class StripedAccountRegistry implements AccountRegistry {
+
+    private final StripedLongMap<Account> accounts;
+
+    /**
+     * @param stripes . Number of stripes, rounded up to a power of two.
+     * @param expectedAccounts . Expected number of accounts, used to size the stripes upfront.
+     */
+    StripedAccountRegistry(int stripes, int expectedAccounts) {
+        this.accounts = new StripedLongMap<>(stripes, expectedAccounts);
+    }
+
+    @Override
+    public Account get(long accountId) {
+        return accounts.get(accountId);
+    }
+
+    @Override
+    public Account registerIfAbsent(long accountId, Account account) {
+        if (accountId == 0)
+            throw new IllegalArgumentException("unexpected accountId: " + accountId);
+        return accounts.putIfAbsent(accountId, account);
+    }
+
+    @Override
+    public int size() {
+        return accounts.size();
+    }
+
+    @Override
+    public void forEach(Visitor visitor) {
+        accounts.forEach(visitor::visit);
+    }
+}
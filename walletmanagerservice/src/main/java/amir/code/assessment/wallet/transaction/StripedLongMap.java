@@ -0,0 +1,239 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+
+/**
+ * Concurrent map of primitive long keys (no Long boxing per lookup) split across a power of two number of stripes,
+ * each stripe being an open addressing hash table guarded by its own StampedLock. Key 0 marks an empty slot of the
+ * tables, its value is kept aside.
+ *
+ * Lookups are optimistic reads which never block and only fall back to the read lock when a writer modified the same
+ * stripe meanwhile. Insertions lock one stripe only, so threads working on different stripes never contend.
+ */
+class StripedLongMap<V> {
+
+    private static final int MIN_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    // value of key 0, set under the lock of the map
+    private volatile V zeroValue;
+
+    /**
+     * @param stripes . Number of stripes, rounded up to a power of two.
+     * @param expectedSize . Expected number of keys, used to size the stripes upfront.
+     */
+    StripedLongMap(int stripes, int expectedSize) {
+        int stripeCount = powerOfTwo(Math.max(1, stripes));
+        int stripeCapacity = powerOfTwo(Math.max(MIN_STRIPE_CAPACITY, 2 * (expectedSize / stripeCount + 1)));
+
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++)
+            this.stripes[i] = new Stripe(stripeCapacity);
+        // stripes are picked by the high bits of the hash, slots by the low bits
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+    }
+
+    /**
+     * @return the value of key or null if there is none
+     */
+    V get(long key) {
+        if (key == 0)
+            return zeroValue;
+        long hash = mix(key);
+        Stripe stripe = stripeFor(hash);
+
+        long stamp = stripe.tryOptimisticRead();
+        Object value = stripe.table.find(key, hash);
+        if (!stripe.validate(stamp)) {
+            stamp = stripe.readLock();
+            try {
+                value = stripe.table.find(key, hash);
+            } finally {
+                stripe.unlockRead(stamp);
+            }
+        }
+        return cast(value);
+    }
+
+    /**
+     * Atomically maps key to value if key has no value yet.
+     * @return null if value was added or the value of key otherwise
+     */
+    V putIfAbsent(long key, V value) {
+        if (key == 0) {
+            V current = computeZeroIfAbsent(k -> value);
+            return current == value ? null : current;
+        }
+        long hash = mix(key);
+        Stripe stripe = stripeFor(hash);
+
+        long stamp = stripe.writeLock();
+        try {
+            Object current = stripe.table.find(key, hash);
+            if (current != null)
+                return cast(current);
+            insert(stripe, key, hash, value);
+            return null;
+        } finally {
+            stripe.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param newValue . Creates the value of a key seen for the first time, called under the lock of the stripe.
+     * @return the value of key, created if there was none
+     */
+    V computeIfAbsent(long key, LongFunction<V> newValue) {
+        V value = get(key);
+        if (value != null)
+            return value;
+        if (key == 0)
+            return computeZeroIfAbsent(newValue);
+        long hash = mix(key);
+        Stripe stripe = stripeFor(hash);
+
+        long stamp = stripe.writeLock();
+        try {
+            Object current = stripe.table.find(key, hash);
+            if (current != null)
+                return cast(current);
+            value = newValue.apply(key);
+            insert(stripe, key, hash, value);
+            return value;
+        } finally {
+            stripe.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        int size = zeroValue != null ? 1 : 0;
+        for (Stripe stripe : stripes)
+            size += stripe.size;
+        return size;
+    }
+
+    /**
+     * Visits all keys and their values. Keys added concurrently may or may not be visited.
+     */
+    void forEach(Visitor<V> visitor) {
+        V zero = zeroValue;
+        if (zero != null)
+            visitor.visit(0, zero);
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.readLock();
+            try {
+                Table table = stripe.table;
+                for (int i = 0; i < table.keys.length; i++) {
+                    if (table.keys[i] != 0)
+                        visitor.visit(table.keys[i], cast(table.values[i]));
+                }
+            } finally {
+                stripe.unlockRead(stamp);
+            }
+        }
+    }
+
+    interface Visitor<V> {
+        void visit(long key, V value);
+    }
+
+    private static void insert(Stripe stripe, long key, long hash, Object value) {
+        Table table = stripe.table;
+        // keep the load factor under 0.5 so probing stays short
+        if (2 * (stripe.size + 1) > table.keys.length)
+            stripe.table = table = table.grow();
+        table.insert(key, hash, value);
+        stripe.size++;
+    }
+
+    private synchronized V computeZeroIfAbsent(LongFunction<V> newValue) {
+        if (zeroValue == null)
+            zeroValue = newValue.apply(0);
+        return zeroValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+
+    private Stripe stripeFor(long hash) {
+        return stripes[(int) (hash >>> stripeShift) & (stripes.length - 1)];
+    }
+
+    /**
+     * murmur3 finalizer, every bit of the key affects every bit of the result. Shared by the lock stripes, shards and
+     * the consistent hash ring so sequential account ids are spread over them.
+     */
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static int powerOfTwo(int value) {
+        int power = Integer.highestOneBit(value);
+        return power == value ? value : power << 1;
+    }
+
+    private static final class Stripe extends StampedLock {
+        private volatile Table table;
+        private volatile int size;
+
+        Stripe(int capacity) {
+            this.table = new Table(capacity);
+        }
+    }
+
+    /**
+     * Linear probing table, 0 marks an empty slot. A table is replaced as a whole when it grows so optimistic
+     * readers always see arrays of the same length.
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final Object[] values;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+        }
+
+        Object find(long key, long hash) {
+            int mask = keys.length - 1;
+            int index = (int) hash & mask;
+            // bounded by the table length since an optimistic reader may observe a table being filled
+            for (int probes = 0; probes < keys.length; probes++) {
+                long current = keys[index];
+                if (current == key)
+                    return values[index];
+                if (current == 0)
+                    return null;
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        void insert(long key, long hash, Object value) {
+            int mask = keys.length - 1;
+            int index = (int) hash & mask;
+            while (keys[index] != 0)
+                index = (index + 1) & mask;
+            values[index] = value;
+            keys[index] = key;
+        }
+
+        Table grow() {
+            Table grown = new Table(keys.length << 1);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0)
+                    grown.insert(keys[i], mix(keys[i]), values[i]);
+            }
+            return grown;
+        }
+    }
+}
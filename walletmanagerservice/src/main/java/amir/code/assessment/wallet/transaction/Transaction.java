@@ -5,7 +5,12 @@ import java.util.Date;
 
 public class Transaction {
 
+    // id of a transaction created from its transactionId
+    static final long NO_ID = -1;
+
+    // built from the externalTransactionId and the id when first read
     private String transactionId;
+    private final long id;
     private String externalTransactionId;
     private String transactionType;
     private BigDecimal funds;
@@ -17,18 +22,66 @@ public class Transaction {
                        String transactionType,
                        BigDecimal funds,
                        Long accountId) {
+        this(transactionId, externalTransactionId, transactionType, funds, accountId, new Date());
+    }
+
+    Transaction(String transactionId,
+                String externalTransactionId,
+                String transactionType,
+                BigDecimal funds,
+                Long accountId,
+                Date transactionDate) {
         this.transactionId = transactionId;
+        this.id = NO_ID;
         this.externalTransactionId = externalTransactionId;
         this.transactionType = transactionType;
         this.funds = funds;
         this.accountId = accountId;
-        this.transactionDate = new Date();
+        this.transactionDate = transactionDate;
+    }
+
+    /**
+     * A registered transaction, its transactionId is the externalTransactionId followed by the id.
+     *
+     * @param id . Id issued by the TransactionIdGenerator.
+     */
+    Transaction(long id,
+                String externalTransactionId,
+                String transactionType,
+                BigDecimal funds,
+                Long accountId,
+                Date transactionDate) {
+        this.id = id;
+        this.externalTransactionId = externalTransactionId;
+        this.transactionType = transactionType;
+        this.funds = funds;
+        this.accountId = accountId;
+        this.transactionDate = transactionDate;
+    }
+
+    Transaction(long id,
+                String externalTransactionId,
+                String transactionType,
+                BigDecimal funds,
+                Long accountId) {
+        this(id, externalTransactionId, transactionType, funds, accountId, new Date());
     }
 
     public String getTransactionId() {
+        // racing readers build equal strings
+        String transactionId = this.transactionId;
+        if (transactionId == null)
+            this.transactionId = transactionId = TransactionIdGenerator.format(externalTransactionId, id);
         return transactionId;
     }
 
+    /**
+     * @return the id of the transactionId, or NO_ID if the transaction was created from its transactionId
+     */
+    long getId() {
+        return id;
+    }
+
     public String getExternalTransactionId() {
         return externalTransactionId;
     }
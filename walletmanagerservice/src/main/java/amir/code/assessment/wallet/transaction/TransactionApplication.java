@@ -9,8 +9,39 @@ public class TransactionApplication extends Application<TransactionConfiguration
         new TransactionApplication().run(args);
     }
     public void run(TransactionConfiguration transactionConfiguration, Environment environment) throws Exception {
+        // metrics of the ledger and the timers of the @Timed resources are published on the admin port, /metrics
+        Ledger ledger = new Ledger(transactionConfiguration, environment.metrics());
+        // rebuild accounts and transactions from the latest snapshot and write-ahead log before serving any request
+        ledger.recover();
+        environment.lifecycle().manage(ledger);
+        // balances checked against the transaction history on demand, POST /tasks/reconcile on the admin port
+        environment.admin().addTask(new ReconcileTask(ledger.getReconciler()));
+
+        // change feed of the transactions registered on this node, stopped before the ledger
+        FeedFactory feed = transactionConfiguration.getFeed();
+        if (feed.isEnabled()) {
+            TransactionFeed transactionFeed = feed.build(ledger, environment.metrics());
+            environment.lifecycle().manage(transactionFeed);
+            environment.jersey().register(new TransactionFeedAPI(transactionFeed, feed.getMaxWaitMillis()));
+        }
+
+        // accounts of other nodes are served by forwarding their requests to the owner
+        ClusterFactory cluster = transactionConfiguration.getCluster();
+        if (cluster.isEnabled())
+            environment.jersey().register(cluster.build(transactionConfiguration.getNode(), environment.metrics()));
+
         //Register resource
-        AccountTransactionAPI transactionAPI = AccountTransactionAPI.getInstance();
-        environment.jersey().register(transactionAPI);
+        AccountTransactionAPI transactionAPI = AccountTransactionAPI.getInstance(ledger);
+        AsyncFactory async = transactionConfiguration.getAsync();
+        if (async.isEnabled()) {
+            // registrations and history reads run on bounded executors, stopped before the ledger
+            RequestExecutors executors = async.build(environment.metrics());
+            environment.lifecycle().manage(executors);
+            LedgerMetrics.registerTimers(environment.metrics(), AsyncAccountTransactionAPI.class);
+            environment.jersey().register(new AsyncAccountTransactionAPI(transactionAPI, executors));
+        } else {
+            LedgerMetrics.registerTimers(environment.metrics(), AccountTransactionAPI.class);
+            environment.jersey().register(transactionAPI);
+        }
     }
 }
@@ -0,0 +1,769 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold tier of the transaction histories: the oldest positions of every history moved out of the TransactionStore
+ * into immutable, compressed segment files (segment-00000000000000000042.arc).
+ *
+ * A segment holds a run of consecutive positions of the history of every archived account, cut in entries of up to
+ * ENTRY_SIZE transactions. Within an entry the times and ids are delta-encoded and every number is a varint, entries
+ * are grouped in blocks of about BLOCK_BYTES compressed with Deflate. The footer of a segment is its sparse index:
+ * per account the block, first position, count and time range of every entry. The footers of all segments are kept
+ * in memory, so a query finds its entries without reading a file and only inflates the blocks of the entries it
+ * overlaps. Recently read blocks are kept in a bounded cache.
+ *
+ * A segment is written to a temporary file, synced and moved into place before its entries are published to readers,
+ * it never changes afterwards. Segments are written by one thread at a time, see RetentionManager.
+ */
+class TransactionArchive {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionArchive.class);
+
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".arc";
+
+    private static final int MAGIC = 0x41524348; // ARCH
+    private static final int VERSION = 1;
+    // transactions of an entry of the index
+    private static final int ENTRY_SIZE = 128;
+    // uncompressed bytes after which a block is closed
+    private static final int BLOCK_BYTES = 64 * 1024;
+    // heap bytes of an entry of the index and of an account, see AccountIndex
+    private static final int ENTRY_BYTES = 5 * 4 + 2 * 8;
+    private static final int ACCOUNT_BYTES = 7 * 16 + 64;
+
+    // flags of the header byte of an encoded transaction, next to the transactionType ordinal
+    private static final int STRING_ID = 0x40;
+    private static final int BIG_FUNDS = 0x80;
+    private static final int TYPE_MASK = 0x3f;
+
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    // null when archiving is disabled
+    private final Path directory;
+    private final long cacheBytes;
+
+    private final Map<Long, AccountIndex> indexes = new ConcurrentHashMap<>();
+    // only appended to, the index of a segment never changes
+    private volatile Segment[] segments = new Segment[0];
+
+    // inflated blocks by segment << 32 | block, least recently read first
+    private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    private volatile long transactions;
+    private volatile long indexBytes;
+    private volatile long fileBytes;
+
+    // null when archiving is disabled
+    private final Timer hotReads;
+    private final Timer archiveReads;
+
+    /**
+     * Positions [from, to) of the history of an account, to be archived.
+     */
+    static final class Run {
+        final long accountId;
+        final TransactionHistory history;
+        final int from;
+        final int to;
+
+        Run(long accountId, TransactionHistory history, int from, int to) {
+            this.accountId = accountId;
+            this.history = history;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * An immutable segment file and the location of its blocks.
+     */
+    private static final class Segment {
+        final RandomAccessFile file;
+        final long[] offsets;
+        final int[] lengths;
+        final int[] rawLengths;
+
+        Segment(RandomAccessFile file, long[] offsets, int[] lengths, int[] rawLengths) {
+            this.file = file;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.rawLengths = rawLengths;
+        }
+    }
+
+    /**
+     * Entries of the archived positions of one account over all segments, in position order. Replaced rather than
+     * changed when a segment is added.
+     */
+    private static final class AccountIndex {
+        final int size;
+        final int[] segments;
+        final int[] blocks;
+        // offset of the entry in the inflated block
+        final int[] offsets;
+        final int[] firstPositions;
+        final int[] counts;
+        final long[] firstTimes;
+        final long[] lastTimes;
+
+        AccountIndex(int size) {
+            this.size = size;
+            this.segments = new int[size];
+            this.blocks = new int[size];
+            this.offsets = new int[size];
+            this.firstPositions = new int[size];
+            this.counts = new int[size];
+            this.firstTimes = new long[size];
+            this.lastTimes = new long[size];
+        }
+
+        /**
+         * @return number of archived positions, the hot tier of the history starts there
+         */
+        int end() {
+            return size == 0 ? 0 : firstPositions[size - 1] + counts[size - 1];
+        }
+
+        /**
+         * @return first entry ending after the position
+         */
+        int find(int position) {
+            int from = 0;
+            int to = size;
+            while (from < to) {
+                int middle = (from + to) >>> 1;
+                if (firstPositions[middle] + counts[middle] <= position)
+                    from = middle + 1;
+                else
+                    to = middle;
+            }
+            return from;
+        }
+
+        AccountIndex concat(AccountIndex next) {
+            AccountIndex joined = new AccountIndex(size + next.size);
+            copy(this, 0, joined, 0, size);
+            copy(next, 0, joined, size, next.size);
+            return joined;
+        }
+
+        private static void copy(AccountIndex source, int from, AccountIndex target, int to, int length) {
+            System.arraycopy(source.segments, from, target.segments, to, length);
+            System.arraycopy(source.blocks, from, target.blocks, to, length);
+            System.arraycopy(source.offsets, from, target.offsets, to, length);
+            System.arraycopy(source.firstPositions, from, target.firstPositions, to, length);
+            System.arraycopy(source.counts, from, target.counts, to, length);
+            System.arraycopy(source.firstTimes, from, target.firstTimes, to, length);
+            System.arraycopy(source.lastTimes, from, target.lastTimes, to, length);
+        }
+    }
+
+    /**
+     * @param directory . Directory of the segment files.
+     * @param cacheBytes . Max bytes of inflated blocks kept in memory.
+     */
+    TransactionArchive(Path directory, long cacheBytes, MetricRegistry metrics) {
+        this.directory = directory;
+        this.cacheBytes = cacheBytes;
+
+        this.hotReads = metrics.register(MetricRegistry.name(TransactionHistory.class, "read", "hot"), LedgerMetrics.newTimer());
+        this.archiveReads = metrics.register(MetricRegistry.name(TransactionHistory.class, "read", "archive"), LedgerMetrics.newTimer());
+        metrics.register(MetricRegistry.name(TransactionArchive.class, "segments"), (Gauge<Integer>) () -> segments.length);
+        metrics.register(MetricRegistry.name(TransactionArchive.class, "transactions"), (Gauge<Long>) () -> transactions);
+        metrics.register(MetricRegistry.name(TransactionArchive.class, "file-bytes"), (Gauge<Long>) () -> fileBytes);
+        metrics.register(MetricRegistry.name(TransactionArchive.class, "heap-bytes"), (Gauge<Long>) () -> {
+            synchronized (cache) {
+                return indexBytes + cachedBytes;
+            }
+        });
+    }
+
+    private TransactionArchive() {
+        this.directory = null;
+        this.cacheBytes = 0;
+        this.hotReads = null;
+        this.archiveReads = null;
+    }
+
+    /**
+     * @return an archive without segments, histories are then only kept in the TransactionStore
+     */
+    static TransactionArchive disabled() {
+        return new TransactionArchive();
+    }
+
+    boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Loads the index of the segments written by previous runs. Should be called before any history is created.
+     *
+     * @throws IOException if a segment can not be read, its transactions would be missing from their histories
+     */
+    void open() throws IOException {
+        if (directory == null)
+            return;
+        Files.createDirectories(directory);
+        for (long number : segmentNumbers())
+            load(segmentPath(number));
+        if (segments.length > 0)
+            logger.info("opened {} archive segments of {} transactions", segments.length, transactions);
+    }
+
+    void close() throws IOException {
+        for (Segment segment : segments)
+            segment.file.close();
+    }
+
+    /**
+     * @return number of archived positions of the history of the account
+     */
+    int archivedCount(long accountId) {
+        AccountIndex index = indexes.get(accountId);
+        return index == null ? 0 : index.end();
+    }
+
+    /**
+     * @return number of archived positions of every archived account
+     */
+    Map<Long, Integer> archivedCounts() {
+        Map<Long, Integer> counts = new HashMap<>(indexes.size() * 2);
+        indexes.forEach((accountId, index) -> counts.put(accountId, index.end()));
+        return counts;
+    }
+
+    /**
+     * @return time of the last archived position of the account, or Long.MIN_VALUE if there is none
+     */
+    long lastTime(long accountId) {
+        AccountIndex index = indexes.get(accountId);
+        return index == null ? Long.MIN_VALUE : index.lastTimes[index.size - 1];
+    }
+
+    /**
+     * Adds the archived transactions of the positions [cursor, end) of the account matching the query to the page.
+     *
+     * @param max . Max number of transactions to add.
+     * @return the position after the last added transaction if max were added, the first position from the cursor on
+     * with a time not before to if there is one before end, otherwise end
+     */
+    int read(long accountId, int cursor, int end, long from, long to, TransactionType transactionType, int max,
+             List<Transaction> page) {
+        AccountIndex index = indexes.get(accountId);
+        if (index == null)
+            return end;
+        int taken = 0;
+        for (int entry = index.find(cursor); entry < index.size && index.firstPositions[entry] < end; entry++) {
+            if (index.lastTimes[entry] < from)
+                continue;
+            if (index.firstTimes[entry] >= to)
+                return Math.max(cursor, index.firstPositions[entry]);
+            Decoder decoder = decoder(index, entry, accountId);
+            for (int i = 0; i < index.counts[entry]; i++) {
+                decoder.next();
+                int position = index.firstPositions[entry] + i;
+                if (position < cursor || position >= end || decoder.time < from)
+                    continue;
+                if (decoder.time >= to)
+                    return position;
+                if (transactionType != null && decoder.type != transactionType)
+                    continue;
+                page.add(decoder.transaction());
+                if (++taken == max)
+                    return position + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return true if the transaction was archived already, e.g. when it is replayed again from the journal
+     */
+    boolean contains(Transaction transaction) {
+        long accountId = transaction.getAccountId();
+        AccountIndex index = indexes.get(accountId);
+        if (index == null)
+            return false;
+        long date = transaction.getTransactionDate().getTime();
+        String transactionId = transaction.getTransactionId();
+        // the time of a position is never before its date
+        for (int entry = index.size - 1; entry >= 0 && index.lastTimes[entry] >= date; entry--) {
+            Decoder decoder = decoder(index, entry, accountId);
+            for (int i = 0; i < index.counts[entry]; i++) {
+                decoder.next();
+                if (decoder.date == date && decoder.transactionId().equals(transactionId))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the latency of a history page, per tier it was read from.
+     *
+     * @param archived . Whether the page read archived positions.
+     * @param startTime . System.nanoTime of the start of the page.
+     */
+    void recordRead(boolean archived, long startTime) {
+        if (hotReads != null)
+            (archived ? archiveReads : hotReads).update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Writes the positions of the runs into a new segment and publishes it. The histories still keep the positions
+     * in their hot tier, they can be trimmed once this returns.
+     *
+     * @param runs . Runs of different accounts, each one starting at the first position which is not archived yet.
+     * @param store . The store holding the rows of the runs.
+     */
+    synchronized void append(List<Run> runs, TransactionStore store) throws IOException {
+        if (runs.isEmpty())
+            return;
+        long[] numbers = segmentNumbers();
+        Path path = segmentPath(numbers.length == 0 ? 1 : numbers[numbers.length - 1] + 1);
+        Path temporary = directory.resolve(SEGMENT_PREFIX + "tmp");
+
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+
+            ByteArrayOutputStream footer = new ByteArrayOutputStream();
+            DataOutputStream index = new DataOutputStream(footer);
+            List<long[]> blocks = new ArrayList<>();
+            long offset = 8;
+            Encoder encoder = new Encoder();
+            Deflater deflater = new Deflater();
+            try {
+                index.writeInt(runs.size());
+                for (Run run : runs) {
+                    index.writeLong(run.accountId);
+                    index.writeInt((run.to - run.from + ENTRY_SIZE - 1) / ENTRY_SIZE);
+                    for (int first = run.from; first < run.to; first += ENTRY_SIZE) {
+                        int count = Math.min(ENTRY_SIZE, run.to - first);
+                        index.writeInt(blocks.size());
+                        index.writeInt(encoder.size);
+                        index.writeInt(first);
+                        index.writeInt(count);
+                        index.writeLong(run.history.time(first));
+                        index.writeLong(run.history.time(first + count - 1));
+                        encoder.encode(run, first, count, store);
+                        if (encoder.size >= BLOCK_BYTES)
+                            offset = writeBlock(encoder, deflater, output, offset, blocks);
+                    }
+                }
+                if (encoder.size > 0)
+                    writeBlock(encoder, deflater, output, offset, blocks);
+            } finally {
+                deflater.end();
+            }
+
+            // the block table is read before the accounts
+            ByteArrayOutputStream table = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(table);
+            data.writeInt(blocks.size());
+            for (long[] block : blocks) {
+                data.writeLong(block[0]);
+                data.writeInt((int) block[1]);
+                data.writeInt((int) block[2]);
+            }
+            footer.writeTo(table);
+            byte[] bytes = table.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+
+            long footerOffset = blocks.isEmpty() ? 8 : blocks.get(blocks.size() - 1)[0] + blocks.get(blocks.size() - 1)[1];
+            output.write(bytes);
+            output.writeLong(footerOffset);
+            output.writeLong(crc.getValue());
+            output.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        load(path);
+    }
+
+    /**
+     * Compresses the encoded entries into the next block of the segment.
+     *
+     * @return offset of the next block
+     */
+    private static long writeBlock(Encoder encoder, Deflater deflater, DataOutputStream output, long offset,
+                                   List<long[]> blocks) throws IOException {
+        deflater.reset();
+        deflater.setInput(encoder.bytes, 0, encoder.size);
+        deflater.finish();
+        byte[] buffer = new byte[8192];
+        int length = 0;
+        while (!deflater.finished()) {
+            int deflated = deflater.deflate(buffer);
+            output.write(buffer, 0, deflated);
+            length += deflated;
+        }
+        blocks.add(new long[] { offset, length, encoder.size });
+        encoder.size = 0;
+        return offset + length;
+    }
+
+    /**
+     * Reads the footer of a segment and publishes its entries.
+     */
+    private void load(Path path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path.toFile(), "r");
+        Segment segment;
+        Map<Long, AccountIndex> loaded = new LinkedHashMap<>();
+        long count = 0;
+        try {
+            long length = file.length();
+            if (length < 24)
+                throw new IOException("truncated archive segment " + path);
+            file.seek(0);
+            if (file.readInt() != MAGIC || file.readInt() != VERSION)
+                throw new IOException("unexpected archive segment format " + path);
+            file.seek(length - 16);
+            long footerOffset = file.readLong();
+            long checksum = file.readLong();
+            if (footerOffset < 8 || footerOffset > length - 16)
+                throw new IOException("truncated archive segment " + path);
+            byte[] bytes = new byte[(int) (length - 16 - footerOffset)];
+            file.seek(footerOffset);
+            file.readFully(bytes);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            if (crc.getValue() != checksum)
+                throw new IOException("archive segment checksum mismatch " + path);
+
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+            int blocks = data.readInt();
+            long[] offsets = new long[blocks];
+            int[] lengths = new int[blocks];
+            int[] rawLengths = new int[blocks];
+            for (int block = 0; block < blocks; block++) {
+                offsets[block] = data.readLong();
+                lengths[block] = data.readInt();
+                rawLengths[block] = data.readInt();
+            }
+            segment = new Segment(file, offsets, lengths, rawLengths);
+
+            int number = segments.length;
+            int accounts = data.readInt();
+            for (int i = 0; i < accounts; i++) {
+                long accountId = data.readLong();
+                AccountIndex index = new AccountIndex(data.readInt());
+                for (int entry = 0; entry < index.size; entry++) {
+                    index.segments[entry] = number;
+                    index.blocks[entry] = data.readInt();
+                    index.offsets[entry] = data.readInt();
+                    index.firstPositions[entry] = data.readInt();
+                    index.counts[entry] = data.readInt();
+                    index.firstTimes[entry] = data.readLong();
+                    index.lastTimes[entry] = data.readLong();
+                    count += index.counts[entry];
+                }
+                AccountIndex previous = indexes.get(accountId);
+                if (index.size == 0 || index.firstPositions[0] != (previous == null ? 0 : previous.end()))
+                    throw new IOException("archive segment " + path + " does not continue the history of account " + accountId);
+                loaded.put(accountId, index);
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+
+        Segment[] published = Arrays.copyOf(segments, segments.length + 1);
+        published[segments.length] = segment;
+        segments = published;
+        long bytes = 0;
+        for (Map.Entry<Long, AccountIndex> entry : loaded.entrySet()) {
+            AccountIndex previous = indexes.get(entry.getKey());
+            indexes.put(entry.getKey(), previous == null ? entry.getValue() : previous.concat(entry.getValue()));
+            bytes += (long) entry.getValue().size * ENTRY_BYTES + (previous == null ? ACCOUNT_BYTES : 0);
+        }
+        transactions += count;
+        indexBytes += bytes;
+        fileBytes += segment.file.length();
+    }
+
+    private Decoder decoder(AccountIndex index, int entry, long accountId) {
+        byte[] block;
+        try {
+            block = block(index.segments[entry], index.blocks[entry]);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not read archived transactions of account " + accountId, e);
+        }
+        return new Decoder(block, index.offsets[entry], index.firstTimes[entry], accountId);
+    }
+
+    /**
+     * @return the inflated block, from the cache if it was read recently
+     */
+    private byte[] block(int number, int block) throws IOException {
+        Long key = (long) number << 32 | block;
+        synchronized (cache) {
+            byte[] raw = cache.get(key);
+            if (raw != null)
+                return raw;
+        }
+
+        Segment segment = segments[number];
+        byte[] compressed = new byte[segment.lengths[block]];
+        // positional reads of a RandomAccessFile are not interruptible, unlike the ones of a FileChannel
+        synchronized (segment) {
+            segment.file.seek(segment.offsets[block]);
+            segment.file.readFully(compressed);
+        }
+        byte[] raw = new byte[segment.rawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length && !inflater.finished())
+                length += inflater.inflate(raw, length, raw.length - length);
+            if (length != raw.length)
+                throw new IOException("truncated archive block " + block + " of segment " + number);
+        } catch (DataFormatException e) {
+            throw new IOException("corrupted archive block " + block + " of segment " + number, e);
+        } finally {
+            inflater.end();
+        }
+
+        synchronized (cache) {
+            if (cache.put(key, raw) == null)
+                cachedBytes += raw.length;
+            for (Iterator<byte[]> eldest = cache.values().iterator(); cachedBytes > cacheBytes && eldest.hasNext(); ) {
+                cachedBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+        return raw;
+    }
+
+    private long[] segmentNumbers() {
+        List<Long> numbers = new ArrayList<>();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(numbers);
+        return numbers.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Encodes the entries of a block, each transaction as
+     * [time - previous time][time - date][header][scale][unscaled funds][id - previous id or transactionId][externalTransactionId]
+     * where numbers are varints, signed ones zig-zag encoded, and strings are prefixed by their length.
+     */
+    private static final class Encoder {
+        byte[] bytes = new byte[BLOCK_BYTES + ENTRY_SIZE * 64];
+        int size;
+
+        void encode(Run run, int first, int count, TransactionStore store) {
+            long previousTime = run.history.time(first);
+            long previousId = 0;
+            for (int position = first; position < first + count; position++) {
+                Transaction transaction = store.read(run.history.row(position));
+                long time = run.history.time(position);
+                BigDecimal funds = transaction.getFunds();
+                boolean big = funds.unscaledValue().bitLength() > 63;
+                long id = transaction.getId();
+
+                writeVarLong(time - previousTime);
+                writeVarLong(zigzag(time - transaction.getTransactionDate().getTime()));
+                writeByte(TransactionType.valueOf(transaction.getTransactionType()).ordinal()
+                        | (id == Transaction.NO_ID ? STRING_ID : 0) | (big ? BIG_FUNDS : 0));
+                writeVarLong(zigzag(funds.scale()));
+                if (big)
+                    writeBytes(funds.unscaledValue().toByteArray());
+                else
+                    writeVarLong(zigzag(funds.unscaledValue().longValue()));
+                if (id == Transaction.NO_ID) {
+                    writeBytes(transaction.getTransactionId().getBytes(StandardCharsets.UTF_8));
+                } else {
+                    writeVarLong(zigzag(id - previousId));
+                    previousId = id;
+                }
+                writeBytes(transaction.getExternalTransactionId().getBytes(StandardCharsets.UTF_8));
+                previousTime = time;
+            }
+        }
+
+        private void ensure(int length) {
+            if (size + length > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+        }
+
+        private void writeByte(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[size++] = (byte) (value & 0x7f | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] value) {
+            writeVarLong(value.length);
+            ensure(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+    }
+
+    /**
+     * Decodes the transactions of an entry one after the other, strings are only decoded for the transactions which
+     * are returned.
+     */
+    private static final class Decoder {
+        private final byte[] bytes;
+        private final long accountId;
+        private int position;
+
+        private long previousId;
+        long time;
+        long date;
+        TransactionType type;
+        private int scale;
+        private long unscaled;
+        private int bigOffset = -1;
+        private long id;
+        private int idOffset = -1;
+        private int externalOffset;
+
+        Decoder(byte[] bytes, int offset, long firstTime, long accountId) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.time = firstTime;
+            this.accountId = accountId;
+        }
+
+        /**
+         * Moves to the next transaction of the entry.
+         */
+        void next() {
+            time += readVarLong();
+            date = time - unzigzag(readVarLong());
+            int header = bytes[position++] & 0xff;
+            type = TYPES[header & TYPE_MASK];
+            scale = (int) unzigzag(readVarLong());
+            if ((header & BIG_FUNDS) != 0) {
+                bigOffset = position;
+                skipBytes();
+            } else {
+                bigOffset = -1;
+                unscaled = unzigzag(readVarLong());
+            }
+            if ((header & STRING_ID) != 0) {
+                idOffset = position;
+                skipBytes();
+            } else {
+                idOffset = -1;
+                id = previousId += unzigzag(readVarLong());
+            }
+            externalOffset = position;
+            skipBytes();
+        }
+
+        String transactionId() {
+            return idOffset >= 0 ? readString(idOffset) : TransactionIdGenerator.format(readString(externalOffset), id);
+        }
+
+        Transaction transaction() {
+            BigDecimal funds = bigOffset >= 0
+                    ? new BigDecimal(new BigInteger(readBytes(bigOffset)), scale)
+                    : BigDecimal.valueOf(unscaled, scale);
+            String external = readString(externalOffset);
+            return idOffset >= 0
+                    ? new Transaction(readString(idOffset), external, type.name(), funds, accountId, new Date(date))
+                    : new Transaction(id, external, type.name(), funds, accountId, new Date(date));
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0)
+                    return value;
+            }
+        }
+
+        private void skipBytes() {
+            int length = (int) readVarLong();
+            position += length;
+        }
+
+        private byte[] readBytes(int offset) {
+            int saved = position;
+            position = offset;
+            int length = (int) readVarLong();
+            byte[] value = Arrays.copyOfRange(bytes, position, position + length);
+            position = saved;
+            return value;
+        }
+
+        private String readString(int offset) {
+            return new String(readBytes(offset), StandardCharsets.UTF_8);
+        }
+    }
+}
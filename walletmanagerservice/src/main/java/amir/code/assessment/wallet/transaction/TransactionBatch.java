@@ -0,0 +1,188 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transactions of a batch request grouped by account. Each group is applied in submission order with one update of
+ * its Account and logged as one journal record, so an all-or-nothing group is never partially recovered either.
+ * Results are kept in the order of the requests.
+ *
+ * Like a single credit, what a group credits beyond its debits is only applied once its record is durable, so taking
+ * back a group which could not be made durable only credits back its debits and can not fail.
+ */
+final class TransactionBatch {
+
+    private final List<TransactionRequest> requests;
+    private final boolean allOrNothing;
+    private final RegistrationResult[] results;
+    // credits minus debits of each applied group, null while the group is not applied
+    private final BigDecimal[] netFunds;
+
+    // accounts in the order they first appear and the request indexes of each account
+    private final long[] accountIds;
+    private final int[][] groups;
+
+    // groups not completed yet, for engines applying groups on other threads
+    private final AtomicInteger pending;
+    private volatile Thread waiter;
+    private volatile Throwable error;
+
+    /**
+     * @param allOrNothing . If true, the transactions of an account are either all registered or none of them.
+     */
+    TransactionBatch(List<TransactionRequest> requests, boolean allOrNothing) {
+        this.requests = requests;
+        this.allOrNothing = allOrNothing;
+        this.results = new RegistrationResult[requests.size()];
+
+        Map<Long, List<Integer>> byAccount = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++)
+            byAccount.computeIfAbsent(requests.get(i).getAccountId(), accountId -> new ArrayList<>()).add(i);
+        this.accountIds = new long[byAccount.size()];
+        this.groups = new int[byAccount.size()][];
+        this.netFunds = new BigDecimal[byAccount.size()];
+        int group = 0;
+        for (Map.Entry<Long, List<Integer>> entry : byAccount.entrySet()) {
+            accountIds[group] = entry.getKey();
+            groups[group] = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            group++;
+        }
+        this.pending = new AtomicInteger(groups.length);
+    }
+
+    int size() {
+        return results.length;
+    }
+
+    int groupCount() {
+        return groups.length;
+    }
+
+    long getAccountId(int group) {
+        return accountIds[group];
+    }
+
+    RegistrationResult[] getResults() {
+        return results;
+    }
+
+    /**
+     * Applies the debits of one group to its account and logs the registered transactions. They are stored, and what
+     * the group credits beyond its debits is applied, by store once their record is durable, or the debits are taken
+     * back by rollBack if it could not be made durable.
+     * @return log position of the group record or LedgerJournal.NOT_LOGGED
+     * @throws IOException if the record could not be logged, the group is rolled back already
+     */
+    long apply(int group, AccountRegistry accounts, LedgerJournal journal, TransactionIdGenerator ids) throws IOException {
+        int[] indexes = groups[group];
+        Account account = accounts.get(accountIds[group]);
+        if (account == null) {
+            for (int index : indexes)
+                results[index] = RegistrationResult.failed(RegistrationResult.ACCOUNT_NOT_FOUND);
+            return LedgerJournal.NOT_LOGGED;
+        }
+
+        boolean[] credits = new boolean[indexes.length];
+        BigDecimal[] funds = new BigDecimal[indexes.length];
+        int[] statuses = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            TransactionRequest request = requests.get(indexes[i]);
+            credits[i] = request.getTransactionType() == TransactionType.CREDIT;
+            funds[i] = request.getFunds();
+        }
+        int applied = account.apply(credits, funds, allOrNothing, statuses);
+
+        List<Transaction> registered = new ArrayList<>(applied);
+        BigDecimal net = BigDecimal.ZERO;
+        for (int i = 0; i < indexes.length; i++) {
+            if (statuses[i] != RegistrationResult.REGISTERED) {
+                results[indexes[i]] = RegistrationResult.failed(statuses[i]);
+            } else if (applied == 0) {
+                results[indexes[i]] = RegistrationResult.failed(RegistrationResult.ROLLED_BACK);
+            } else {
+                TransactionRequest request = requests.get(indexes[i]);
+                Transaction transaction = new Transaction(ids.next(),
+                        request.getExternalTransactionId(), request.getTransactionType().name(), request.getFunds(),
+                        request.getAccountId());
+                registered.add(transaction);
+                results[indexes[i]] = RegistrationResult.registered(transaction);
+                net = credits[i] ? net.add(funds[i]) : net.subtract(funds[i]);
+            }
+        }
+        if (registered.isEmpty())
+            return LedgerJournal.NOT_LOGGED;
+        netFunds[group] = net;
+
+        try {
+            return journal.logTransactions(registered);
+        } catch (IOException | RuntimeException e) {
+            rollBack(group, accounts);
+            throw e;
+        }
+    }
+
+    /**
+     * Credits what an applied group credits beyond its debits and stores its registered transactions, once its record
+     * is durable.
+     */
+    void store(int group, AccountRegistry accounts, TransactionStore transactions) {
+        BigDecimal net = netFunds[group];
+        if (net != null && net.signum() > 0)
+            accounts.get(accountIds[group]).credit(net);
+        for (int index : groups[group]) {
+            RegistrationResult result = results[index];
+            if (result != null && result.getStatus() == RegistrationResult.REGISTERED)
+                transactions.add(result.getTransaction());
+        }
+    }
+
+    /**
+     * Takes back the registered transactions of an applied group when its record could not be logged or made durable:
+     * only what the group debited beyond its credits was applied, it is credited back.
+     */
+    void rollBack(int group, AccountRegistry accounts) {
+        BigDecimal net = netFunds[group];
+        if (net == null)
+            return;
+        if (net.signum() < 0)
+            accounts.get(accountIds[group]).credit(net.negate());
+        netFunds[group] = null;
+        for (int index : groups[group]) {
+            RegistrationResult result = results[index];
+            if (result != null && result.getStatus() == RegistrationResult.REGISTERED)
+                results[index] = null;
+        }
+    }
+
+    /**
+     * Marks one group as completed by another thread, with the error it failed with if any.
+     */
+    void complete(Throwable groupError) {
+        if (groupError != null)
+            error = groupError;
+        if (pending.decrementAndGet() == 0)
+            LockSupport.unpark(waiter);
+    }
+
+    /**
+     * Waits until every group was completed by the threads applying them.
+     */
+    void await() throws IOException {
+        waiter = Thread.currentThread();
+        while (pending.get() > 0)
+            LockSupport.park(this);
+        Throwable failure = error;
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure != null)
+            throw new IllegalStateException("could not register transactions on accounts " + Arrays.toString(accountIds), failure);
+    }
+}
@@ -1,6 +1,218 @@
 package amir.code.assessment.wallet.transaction;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.Configuration;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
 public class TransactionConfiguration extends Configuration{
+
+    /**
+     * Number of fractional digits kept by the lock-free fixed-point balance of an Account.
+     * Amounts with more fractional digits move the account to the BigDecimal balance.
+     */
+    @Min(0)
+    @Max(Account.MAX_SCALE)
+    private int balanceScale = Account.DEFAULT_SCALE;
+
+    /**
+     * Records the metrics of the ledger (registered and rejected transactions, balance update retries), published on
+     * the admin port together with the timers of the API.
+     */
+    private boolean instrumented = true;
+
+    /**
+     * Number of this instance when several instances serve the same accounts, part of every transactionId so the
+     * transactionIds of different instances never collide.
+     */
+    @Min(0)
+    @Max(TransactionIdGenerator.MAX_NODE)
+    private int node = 0;
+
+    @Valid
+    @NotNull
+    private RegistryFactory registry = new RegistryFactory();
+
+    @Valid
+    @NotNull
+    private EngineFactory engine = new EngineFactory();
+
+    @Valid
+    @NotNull
+    private WalFactory wal = new WalFactory();
+
+    @Valid
+    @NotNull
+    private SnapshotFactory snapshot = new SnapshotFactory();
+
+    @Valid
+    @NotNull
+    private IdempotencyFactory idempotency = new IdempotencyFactory();
+
+    @Valid
+    @NotNull
+    private AsyncFactory async = new AsyncFactory();
+
+    @Valid
+    @NotNull
+    private HotAccountFactory hotAccounts = new HotAccountFactory();
+
+    @Valid
+    @NotNull
+    private ReconciliationFactory reconciliation = new ReconciliationFactory();
+
+    @Valid
+    @NotNull
+    private FeedFactory feed = new FeedFactory();
+
+    @Valid
+    @NotNull
+    private RetentionFactory retention = new RetentionFactory();
+
+    @Valid
+    @NotNull
+    private ClusterFactory cluster = new ClusterFactory();
+
+    @JsonProperty
+    public int getBalanceScale() {
+        return balanceScale;
+    }
+
+    @JsonProperty
+    public void setBalanceScale(int balanceScale) {
+        this.balanceScale = balanceScale;
+    }
+
+    @JsonProperty
+    public boolean isInstrumented() {
+        return instrumented;
+    }
+
+    @JsonProperty
+    public void setInstrumented(boolean instrumented) {
+        this.instrumented = instrumented;
+    }
+
+    @JsonProperty
+    public int getNode() {
+        return node;
+    }
+
+    @JsonProperty
+    public void setNode(int node) {
+        this.node = node;
+    }
+
+    @JsonProperty
+    public RegistryFactory getRegistry() {
+        return registry;
+    }
+
+    @JsonProperty
+    public void setRegistry(RegistryFactory registry) {
+        this.registry = registry;
+    }
+
+    @JsonProperty
+    public EngineFactory getEngine() {
+        return engine;
+    }
+
+    @JsonProperty
+    public void setEngine(EngineFactory engine) {
+        this.engine = engine;
+    }
+
+    @JsonProperty
+    public WalFactory getWal() {
+        return wal;
+    }
+
+    @JsonProperty
+    public void setWal(WalFactory wal) {
+        this.wal = wal;
+    }
+
+    @JsonProperty
+    public SnapshotFactory getSnapshot() {
+        return snapshot;
+    }
+
+    @JsonProperty
+    public void setSnapshot(SnapshotFactory snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    @JsonProperty
+    public IdempotencyFactory getIdempotency() {
+        return idempotency;
+    }
+
+    @JsonProperty
+    public void setIdempotency(IdempotencyFactory idempotency) {
+        this.idempotency = idempotency;
+    }
+
+    @JsonProperty
+    public AsyncFactory getAsync() {
+        return async;
+    }
+
+    @JsonProperty
+    public void setAsync(AsyncFactory async) {
+        this.async = async;
+    }
+
+    @JsonProperty
+    public ClusterFactory getCluster() {
+        return cluster;
+    }
+
+    @JsonProperty
+    public void setCluster(ClusterFactory cluster) {
+        this.cluster = cluster;
+    }
+
+    @JsonProperty
+    public HotAccountFactory getHotAccounts() {
+        return hotAccounts;
+    }
+
+    @JsonProperty
+    public void setHotAccounts(HotAccountFactory hotAccounts) {
+        this.hotAccounts = hotAccounts;
+    }
+
+    @JsonProperty
+    public ReconciliationFactory getReconciliation() {
+        return reconciliation;
+    }
+
+    @JsonProperty
+    public void setReconciliation(ReconciliationFactory reconciliation) {
+        this.reconciliation = reconciliation;
+    }
+
+    @JsonProperty
+    public RetentionFactory getRetention() {
+        return retention;
+    }
+
+    @JsonProperty
+    public void setRetention(RetentionFactory retention) {
+        this.retention = retention;
+    }
+
+    @JsonProperty
+    public FeedFactory getFeed() {
+        return feed;
+    }
+
+    @JsonProperty
+    public void setFeed(FeedFactory feed) {
+        this.feed = feed;
+    }
 }
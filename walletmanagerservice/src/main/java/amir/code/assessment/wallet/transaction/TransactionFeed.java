@@ -0,0 +1,321 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Change feed of all registered transactions in registration order, read from a cursor by any number of consumers.
+ *
+ * The feed is the sequence of rows of the TransactionStore, a cursor is the incarnation of the ledger and a row, so
+ * a cursor of a previous run of the service is told apart: rows are numbered again by the recovery of a restart.
+ * The feed starts at the first row of the store which is not released, rows moved to the TransactionArchive are only
+ * read through the histories.
+ *
+ * A feed thread follows the rows of the store and keeps the JSON of the most recent ones in a bounded ring, encoded
+ * once for all consumers. A consumer behind the ring is served from the store (spill-over), encoding the rows itself.
+ * A consumer at the end of the feed can wait for the next transactions (long-poll): it is parked without a thread and
+ * resumed on a dispatch thread once the feed thread sees new rows or its wait is over, so a slow consumer only holds
+ * a dispatch thread while its response is written. Registrations never touch the feed, they only add rows to the
+ * store.
+ */
+class TransactionFeed implements Managed {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionFeed.class);
+
+    private static final char CURSOR_SEPARATOR = '-';
+    // upper bound of the delay between a new row and the resume of its waiting consumers
+    private static final long PARK_NANOS = 1_000_000L;
+
+    private final TransactionStore store;
+    private final String incarnation;
+    private final AtomicReferenceArray<Entry> ring;
+    private final int mask;
+    private final int maxSubscribers;
+    private final int dispatchThreads;
+
+    // consumers waiting for new rows, handed over to the feed thread
+    private final ConcurrentLinkedQueue<Subscriber> arrivals = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final Meter spilled;
+
+    private volatile boolean running;
+    private Thread thread;
+    private ExecutorService dispatcher;
+
+    /**
+     * Encoded transaction of a row of the ring.
+     */
+    private static final class Entry {
+        final int row;
+        final byte[] json;
+
+        Entry(int row, byte[] json) {
+            this.row = row;
+            this.json = json;
+        }
+    }
+
+    private static final class Subscriber {
+        final int row;
+        final int limit;
+        final long deadline;
+        final Consumer<Page> callback;
+        final Consumer<RuntimeException> failure;
+
+        Subscriber(int row, int limit, long deadline, Consumer<Page> callback, Consumer<RuntimeException> failure) {
+            this.row = row;
+            this.limit = limit;
+            this.deadline = deadline;
+            this.callback = callback;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Transactions read from a cursor, as JSON objects of the JsonCodec.
+     */
+    static final class Page {
+        private final List<byte[]> transactions;
+        private final String nextCursor;
+
+        Page(List<byte[]> transactions, String nextCursor) {
+            this.transactions = transactions;
+            this.nextCursor = nextCursor;
+        }
+
+        List<byte[]> getTransactions() {
+            return transactions;
+        }
+
+        /**
+         * @return cursor to read the next transactions from, also the ones registered later
+         */
+        String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    /**
+     * @param incarnation . Value telling apart the runs of the ledger, see Ledger.getIncarnation.
+     * @param ringSize . Number of most recent transactions kept encoded, rounded up to a power of two.
+     * @param maxSubscribers . Max number of consumers waiting at the same time.
+     * @param dispatchThreads . Number of threads resuming waiting consumers.
+     */
+    TransactionFeed(TransactionStore store, long incarnation, int ringSize, int maxSubscribers, int dispatchThreads,
+                    MetricRegistry metrics) {
+        this.store = store;
+        this.incarnation = Long.toString(incarnation, 36);
+        int capacity = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.maxSubscribers = maxSubscribers;
+        this.dispatchThreads = dispatchThreads;
+        this.spilled = metrics.meter(MetricRegistry.name(TransactionFeed.class, "spilled"));
+        metrics.register(MetricRegistry.name(TransactionFeed.class, "subscribers"), (Gauge<Integer>) subscribers::get);
+    }
+
+    /**
+     * @param cursor . A cursor of a page, or null or empty for the oldest transaction.
+     * @return the row of the cursor, or -1 if it is a cursor of a previous run
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    int parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty())
+            return store.firstRow();
+        int separator = cursor.lastIndexOf(CURSOR_SEPARATOR);
+        int row;
+        try {
+            row = Integer.parseInt(cursor.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("unexpected cursor: " + cursor);
+        }
+        if (separator <= 0 || row < 0)
+            throw new IllegalArgumentException("unexpected cursor: " + cursor);
+        return cursor.regionMatches(0, incarnation, 0, separator) && separator == incarnation.length() ? row : -1;
+    }
+
+    /**
+     * @return true if the transactions of the row on were archived and released by the store
+     */
+    boolean isArchived(int row) {
+        return row < store.firstRow();
+    }
+
+    String cursor(int row) {
+        return incarnation + CURSOR_SEPARATOR + row;
+    }
+
+    /**
+     * @param row . Row of a cursor of this run.
+     * @param limit . Max number of transactions.
+     * @return the transactions of the rows from row on, empty at the end of the feed, or null if some of them were
+     *         archived and released meanwhile
+     */
+    Page read(int row, int limit) {
+        if (isArchived(row))
+            return null;
+        int end = store.rows();
+        if (row >= end)
+            return new Page(Collections.emptyList(), cursor(row));
+        int last = (int) Math.min(end, (long) row + limit);
+        List<byte[]> transactions = new ArrayList<>(last - row);
+        for (int next = row; next < last; next++) {
+            Entry entry = ring.get(next & mask);
+            if (entry != null && entry.row == next) {
+                transactions.add(entry.json);
+            } else {
+                spilled.mark();
+                byte[] json = encode(next);
+                if (json == null)
+                    return null;
+                transactions.add(json);
+            }
+        }
+        return new Page(transactions, cursor(last));
+    }
+
+    /**
+     * @return the JSON of the transaction of a row, or null if the row was released before or while it was read
+     */
+    private byte[] encode(int row) {
+        try {
+            byte[] json = JsonCodec.get().encodeTransaction(store.read(row));
+            // a row released while it was read may have been encoded from dropped columns
+            return isArchived(row) ? null : json;
+        } catch (RuntimeException e) {
+            if (isArchived(row))
+                return null;
+            throw e;
+        }
+    }
+
+    /**
+     * Gives the transactions from row on to the callback, at once if there are any or when waitMillis is 0,
+     * otherwise as soon as new transactions are registered or after waitMillis with an empty page. The callback gets
+     * null if the transactions were archived meanwhile, see read.
+     *
+     * @param failure . Called instead when the page could not be read or the callback failed, so the consumer is
+     *                always answered.
+     * @return false if too many consumers are waiting already, the callbacks are then not called
+     */
+    boolean subscribe(int row, int limit, long waitMillis, Consumer<Page> callback, Consumer<RuntimeException> failure) {
+        if (waitMillis <= 0 || !running || row < store.rows()) {
+            resume(row, limit, callback, failure);
+            return true;
+        }
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            return false;
+        }
+        arrivals.add(new Subscriber(row, limit, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis),
+                callback, failure));
+        // stopped meanwhile, the feed thread may not see it anymore
+        if (!running)
+            releaseArrivals();
+        return true;
+    }
+
+    @Override
+    public void start() {
+        AtomicInteger count = new AtomicInteger();
+        dispatcher = Executors.newFixedThreadPool(dispatchThreads, runnable -> {
+            Thread thread = new Thread(runnable, "ledger-feed-dispatch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        thread = new Thread(this::follow, "ledger-feed");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        running = false;
+        thread.join();
+        releaseArrivals();
+        dispatcher.shutdown();
+        dispatcher.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Loop of the feed thread: encodes new rows into the ring and resumes the consumers waiting for them.
+     */
+    private void follow() {
+        List<Subscriber> waiting = new ArrayList<>();
+        int filled = 0;
+        while (running) {
+            try {
+                int end = store.rows();
+                // only the rows which still fit the ring and are not released are worth encoding
+                for (int row = Math.max(Math.max(filled, end - ring.length()), store.firstRow()); row < end; row++)
+                    ring.lazySet(row & mask, new Entry(row, JsonCodec.get().encodeTransaction(store.read(row))));
+                filled = end;
+
+                for (Subscriber subscriber; (subscriber = arrivals.poll()) != null; )
+                    waiting.add(subscriber);
+                long now = System.nanoTime();
+                for (int i = waiting.size() - 1; i >= 0; i--) {
+                    Subscriber subscriber = waiting.get(i);
+                    if (subscriber.row < end || now - subscriber.deadline >= 0) {
+                        waiting.set(i, waiting.get(waiting.size() - 1));
+                        waiting.remove(waiting.size() - 1);
+                        dispatch(subscriber);
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.error("could not follow the transaction store", e);
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        for (Subscriber subscriber : waiting)
+            dispatch(subscriber);
+    }
+
+    private void releaseArrivals() {
+        for (Subscriber subscriber; (subscriber = arrivals.poll()) != null; )
+            dispatch(subscriber);
+    }
+
+    /**
+     * Resumes a consumer on a dispatch thread, the queue holds at most one task per waiting consumer.
+     */
+    private void dispatch(Subscriber subscriber) {
+        subscribers.decrementAndGet();
+        try {
+            dispatcher.execute(() -> resume(subscriber.row, subscriber.limit, subscriber.callback, subscriber.failure));
+        } catch (RejectedExecutionException e) {
+            // the feed is stopped
+            resume(subscriber.row, subscriber.limit, subscriber.callback, subscriber.failure);
+        }
+    }
+
+    /**
+     * Gives the page of a consumer to its callback, or the exception to its failure callback.
+     */
+    private void resume(int row, int limit, Consumer<Page> callback, Consumer<RuntimeException> failure) {
+        try {
+            callback.accept(read(row, limit));
+        } catch (RuntimeException e) {
+            logger.error("could not resume a consumer of the feed", e);
+            failure.accept(e);
+        }
+    }
+}
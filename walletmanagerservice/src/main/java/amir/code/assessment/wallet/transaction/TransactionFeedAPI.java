@@ -0,0 +1,102 @@
+package amir.code.assessment.wallet.transaction;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Change feed of the registered transactions of this node, for downstream consumers (reporting, fraud detection)
+ * instead of polling balances. See TransactionFeed.
+ */
+@Path("/TransactionFeedAPI")
+@Produces(MediaType.APPLICATION_JSON)
+public class TransactionFeedAPI {
+
+    private static final int GONE = 410;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final String ARCHIVED = "transactions of the cursor were archived, read the feed again from its start";
+    // max number of transactions of one page
+    private static final int MAX_PAGE_SIZE = 1_000;
+
+    private final TransactionFeed feed;
+    private final long maxWaitMillis;
+
+    TransactionFeedAPI(TransactionFeed feed, long maxWaitMillis) {
+        this.feed = feed;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * This API is to read the registered transactions of all accounts in registration order from a cursor. The
+     * nextCursor of a response is the cursor of the next request. At the end of the feed the request waits up to
+     * waitMillis for new transactions (long-poll) and gets an empty page when none came.
+     *
+     * A cursor of a previous run of the service gets a 410 Gone: the feed is then read again from its start, without
+     * a cursor, and transactions already seen are recognized by their transactionId. A cursor of transactions which
+     * were archived meanwhile also gets a 410 Gone, they are read from the histories of their accounts.
+     *
+     * @param cursor . nextCursor of a previous response, empty for the oldest transaction of the feed.
+     * @param limit . Max number of transactions, up to 1000.
+     * @param waitMillis . Max time to wait for new transactions, 0 to never wait.
+     * @return
+     *  { "transactions" : [ { "transactionId" : ..., "transactionDate" : 1520000000000, ... } ], "nextCursor" : "jz3k1q-100" }
+     */
+    @GET
+    @Path("/get-transactions")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getTransactions(
+            @QueryParam("cursor") @DefaultValue("") String cursor,
+            @QueryParam("limit") @DefaultValue("100") int limit,
+            @QueryParam("waitMillis") @DefaultValue("0") long waitMillis,
+            @Suspended AsyncResponse response) {
+
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            response.resume(getFailResponse(400, "unexpected limit: limit should be between 1 and " + MAX_PAGE_SIZE));
+            return;
+        }
+        int row;
+        try {
+            row = feed.parseCursor(cursor);
+        } catch (IllegalArgumentException e) {
+            response.resume(getFailResponse(400, e.getMessage()));
+            return;
+        }
+        if (row < 0) {
+            response.resume(getFailResponse(GONE, "cursor of a previous run, read the feed again from its start"));
+            return;
+        }
+        if (feed.isArchived(row)) {
+            response.resume(getFailResponse(GONE, ARCHIVED));
+            return;
+        }
+
+        // no page when the transactions were archived while waiting or being read
+        boolean subscribed = feed.subscribe(row, limit, Math.min(Math.max(waitMillis, 0), maxWaitMillis),
+                page -> response.resume(page != null
+                        ? Response.ok((StreamingOutput) output ->
+                                JsonCodec.get().writeFeed(page.getTransactions(), page.getNextCursor(), output)).build()
+                        : getFailResponse(GONE, ARCHIVED)),
+                e -> response.resume(Response.serverError().build()));
+        if (!subscribed)
+            response.resume(Response.status(TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, 1)
+                    .entity((StreamingOutput) output -> JsonCodec.get().writeMessage("too many subscribers, retry later", output))
+                    .build());
+    }
+
+    private Response getFailResponse(int errorCode, String errorMessage) {
+        return Response.status(errorCode)
+                .entity((StreamingOutput) output -> JsonCodec.get().writeMessage(errorMessage, output))
+                .build();
+    }
+}
@@ -0,0 +1,303 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Append-only history of the registered transactions of one account, in the order they were registered.
+ *
+ * Every transaction has a position in the history, which is used as the cursor of paged queries. The history keeps
+ * the row of each transaction in its TransactionStore, so it holds no object per transaction, and next to the rows
+ * their transactionDate as non-decreasing epoch millis (a transaction registered concurrently with a slightly later
+ * date keeps the date of its predecessor in the index) and the positions of each transactionType, so a time range is
+ * found with a binary search and a page of one type is read without scanning transactions of the other type. Query
+ * cost is proportional to the page size, not to the history size.
+ *
+ * The history is made of two tiers: the positions below the base were moved to the TransactionArchive, the hot tier
+ * only keeps the positions from the base on. A page starting below the base reads the archive first and continues
+ * in the hot tier, positions never change when they are archived.
+ *
+ * Appends are serialized per account, readers never block: a reader only looks at positions below the volatile size,
+ * which are never changed again, and arrays are copied rather than changed when they grow. Archiving a prefix
+ * replaces the hot tier by a copy of its remaining positions, after they are readable from the archive.
+ */
+final class TransactionHistory {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final TransactionStore store;
+    private final TransactionArchive archive;
+    private final long accountId;
+
+    private volatile Tier hot;
+
+    // written last by an append, everything below it is visible to readers
+    private volatile int size;
+
+    /**
+     * Positions from base on, the arrays are indexed by position - base.
+     */
+    private static final class Tier {
+        final int base;
+        // time of the position before the base, Long.MIN_VALUE if there is none
+        final long baseTime;
+        int[] rows;
+        long[] times;
+        // positions of the transactions of each TransactionType
+        final int[][] typePositions = new int[TransactionType.values().length][];
+        // updated before size, so a reader reading it after size sees at least the positions below size
+        final AtomicIntegerArray typeSizes = new AtomicIntegerArray(TransactionType.values().length);
+
+        Tier(int base, long baseTime, int capacity) {
+            this.base = base;
+            this.baseTime = baseTime;
+            this.rows = new int[capacity];
+            this.times = new long[capacity];
+            for (int type = 0; type < typePositions.length; type++)
+                typePositions[type] = new int[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * One page of a query.
+     */
+    static final class Page {
+        private final List<Transaction> transactions;
+        private final int nextCursor;
+        private final boolean hasMore;
+
+        Page(List<Transaction> transactions, int nextCursor, boolean hasMore) {
+            this.transactions = transactions;
+            this.nextCursor = nextCursor;
+            this.hasMore = hasMore;
+        }
+
+        List<Transaction> getTransactions() {
+            return transactions;
+        }
+
+        /**
+         * @return cursor to continue with, also to poll transactions registered later
+         */
+        int getNextCursor() {
+            return nextCursor;
+        }
+
+        /**
+         * @return true if more transactions matched the query than fit the page
+         */
+        boolean hasMore() {
+            return hasMore;
+        }
+    }
+
+    /**
+     * @param store . The store holding the rows of the hot tier.
+     * @param archive . The archive holding the positions before the hot tier, the history starts after them.
+     * @param accountId . The account of the history.
+     */
+    TransactionHistory(TransactionStore store, TransactionArchive archive, long accountId) {
+        this.store = store;
+        this.archive = archive;
+        this.accountId = accountId;
+        int base = archive.archivedCount(accountId);
+        this.hot = new Tier(base, archive.lastTime(accountId), INITIAL_CAPACITY);
+        this.size = base;
+    }
+
+    /**
+     * @param row . Row of the transaction in the store, readable before it is appended.
+     * @param transactionType . Type of the transaction.
+     * @param time . transactionDate of the transaction in epoch millis.
+     */
+    synchronized void append(int row, TransactionType transactionType, long time) {
+        Tier hot = this.hot;
+        int position = size;
+        int offset = position - hot.base;
+        if (offset == hot.rows.length) {
+            hot.rows = Arrays.copyOf(hot.rows, offset * 2);
+            hot.times = Arrays.copyOf(hot.times, offset * 2);
+        }
+        hot.rows[offset] = row;
+        hot.times[offset] = Math.max(time, offset == 0 ? hot.baseTime : hot.times[offset - 1]);
+
+        int type = transactionType.ordinal();
+        int typeSize = hot.typeSizes.get(type);
+        if (typeSize == hot.typePositions[type].length)
+            hot.typePositions[type] = Arrays.copyOf(hot.typePositions[type], typeSize * 2);
+        hot.typePositions[type][typeSize] = position;
+        hot.typeSizes.set(type, typeSize + 1);
+
+        size = position + 1;
+    }
+
+    /**
+     * @return number of positions, archived ones included
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return first position of the hot tier, the positions before it are archived
+     */
+    int base() {
+        return hot.base;
+    }
+
+    /**
+     * @param position . A position of the hot tier below size.
+     * @return row of the transaction in the store
+     */
+    int row(int position) {
+        Tier hot = this.hot;
+        return hot.rows[position - hot.base];
+    }
+
+    /**
+     * @param position . A position of the hot tier below size.
+     * @return non-decreasing time of the position in epoch millis
+     */
+    long time(int position) {
+        Tier hot = this.hot;
+        return hot.times[position - hot.base];
+    }
+
+    /**
+     * @param rows . Rows of the store which are archived.
+     * @return the position after the last one of the hot tier whose row is below rows, or base if there is none
+     */
+    int archivable(int rows) {
+        Tier hot = this.hot;
+        int end = size;
+        // rows of concurrent registrations may be appended out of order
+        for (int position = end - 1; position >= hot.base; position--)
+            if (hot.rows[position - hot.base] < rows)
+                return position + 1;
+        return hot.base;
+    }
+
+    /**
+     * Drops the positions before base from the hot tier, they must be readable from the archive already.
+     */
+    synchronized void trim(int base) {
+        Tier hot = this.hot;
+        if (base <= hot.base)
+            return;
+        int end = size;
+        int remaining = end - base;
+        Tier trimmed = new Tier(base, hot.times[base - 1 - hot.base], Math.max(INITIAL_CAPACITY, remaining));
+        System.arraycopy(hot.rows, base - hot.base, trimmed.rows, 0, remaining);
+        System.arraycopy(hot.times, base - hot.base, trimmed.times, 0, remaining);
+        for (int type = 0; type < trimmed.typePositions.length; type++) {
+            int[] positions = hot.typePositions[type];
+            int typeSize = hot.typeSizes.get(type);
+            int from = lowerBound(positions, typeSize, base);
+            int[] kept = new int[Math.max(INITIAL_CAPACITY, typeSize - from)];
+            System.arraycopy(positions, from, kept, 0, typeSize - from);
+            trimmed.typePositions[type] = kept;
+            trimmed.typeSizes.set(type, typeSize - from);
+        }
+        // appends are blocked meanwhile, readers keep using the tier they read
+        this.hot = trimmed;
+    }
+
+    /**
+     * @param cursor . Position to start from, 0 for the oldest transaction.
+     * @param from . Epoch millis, inclusive.
+     * @param to . Epoch millis, exclusive.
+     * @param transactionType . Only transactions of this type, or null for all.
+     * @param limit . Max number of transactions of the page.
+     */
+    Page page(int cursor, long from, long to, TransactionType transactionType, int limit) {
+        long startTime = System.nanoTime();
+        // read the size before anything else, see append
+        int end = size;
+        Tier hot = this.hot;
+        List<Transaction> transactions = new ArrayList<>();
+        if (cursor >= hot.base) {
+            Page page = page(hot, end, cursor, from, to, transactionType, limit, transactions);
+            archive.recordRead(false, startTime);
+            return page;
+        }
+
+        // one more than the limit tells whether the page ends in the archive
+        Page page;
+        int next = archive.read(accountId, cursor, hot.base, from, to, transactionType, limit + 1, transactions);
+        if (transactions.size() > limit) {
+            transactions.remove(limit);
+            page = new Page(transactions, next - 1, true);
+        } else if (next < hot.base) {
+            // the time range ends in the archive
+            page = new Page(transactions, next, false);
+        } else {
+            page = page(hot, end, hot.base, from, to, transactionType, limit - transactions.size(), transactions);
+        }
+        archive.recordRead(true, startTime);
+        return page;
+    }
+
+    /**
+     * Adds the transactions of the hot tier matching the query to the page.
+     */
+    private Page page(Tier hot, int end, int cursor, long from, long to, TransactionType transactionType, int limit,
+                      List<Transaction> page) {
+        int base = hot.base;
+        long[] times = hot.times;
+
+        int start = Math.max(cursor, base + lowerBound(times, 0, end - base, from));
+        int stop = Math.max(start, base + lowerBound(times, start - base, end - base, to));
+
+        if (transactionType == null) {
+            int last = (int) Math.min(stop, (long) start + limit);
+            int[] rows = hot.rows;
+            for (int position = start; position < last; position++)
+                page.add(store.read(rows[position - base]));
+            return new Page(page, last, last < stop);
+        }
+
+        // may include positions appended after reading the size, they are at or after stop
+        int type = transactionType.ordinal();
+        int typeSize = hot.typeSizes.get(type);
+        int[] positions = hot.typePositions[type];
+        int index = lowerBound(positions, typeSize, start);
+        if (index == typeSize || positions[index] >= stop)
+            return new Page(page, stop, false);
+
+        int[] rows = hot.rows;
+        int last = page.size() + limit;
+        while (index < typeSize && positions[index] < stop && page.size() < last)
+            page.add(store.read(rows[positions[index++] - base]));
+        boolean hasMore = index < typeSize && positions[index] < stop;
+        return new Page(page, hasMore ? positions[index] : stop, hasMore);
+    }
+
+    /**
+     * @return first position in [from, to) with a time not before the given time, or to
+     */
+    private static int lowerBound(long[] times, int from, int to, long time) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (times[middle] < time)
+                from = middle + 1;
+            else
+                to = middle;
+        }
+        return from;
+    }
+
+    private static int lowerBound(int[] positions, int size, int position) {
+        int from = 0;
+        int to = size;
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (positions[middle] < position)
+                from = middle + 1;
+            else
+                to = middle;
+        }
+        return from;
+    }
+}
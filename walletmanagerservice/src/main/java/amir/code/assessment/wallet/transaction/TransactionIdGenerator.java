@@ -0,0 +1,107 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues the ids of registered transactions, 64-bit numbers ordered by time:
+ *
+ *   41 bits of milliseconds since 2020-01-01 | 10 bits of node | 12 bits of sequence in the millisecond
+ *
+ * A thread reserves a block of sequences with one CAS and issues ids from it without any shared write, a block is
+ * dropped once its millisecond is over so ids of different threads stay ordered by time. When more ids than the
+ * sequence bits allow are issued in a millisecond, the ids borrow the next milliseconds and run a little ahead of the
+ * clock instead of waiting.
+ *
+ * Ids are unique across nodes through the node bits and across restarts through the time bits. The ids recovered
+ * from the journal are observed on startup, so the ids of a node only grow also when its clock was set back.
+ * The transactionId of the API is the externalTransactionId followed by the id, only built when it is read.
+ */
+class TransactionIdGenerator {
+
+    static final int NODE_BITS = 10;
+    static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+    // 2020-01-01T00:00:00Z, 41 bits of milliseconds after it last until 2089
+    private static final long EPOCH = 1_577_836_800_000L;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    // sequences reserved at once by a thread
+    private static final int BLOCK_SIZE = 16;
+
+    private final long node;
+    // next free tick, a tick being the milliseconds since EPOCH << SEQUENCE_BITS | sequence
+    private final AtomicLong nextTick = new AtomicLong();
+    private final ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+
+    /**
+     * @param node . Number of this instance in a multi-instance deployment, from 0 to MAX_NODE.
+     */
+    TransactionIdGenerator(int node) {
+        if (node < 0 || node > MAX_NODE)
+            throw new IllegalArgumentException("node should be between 0 and " + MAX_NODE + ": " + node);
+        this.node = (long) node << SEQUENCE_BITS;
+    }
+
+    /**
+     * @return a new id, greater than the ids issued before by the calling thread
+     */
+    long next() {
+        Block block = blocks.get();
+        long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        if (block.next == block.end || block.start < now) {
+            long start = reserve(now);
+            block.start = start;
+            block.next = start;
+            block.end = start + BLOCK_SIZE;
+        }
+        long tick = block.next++;
+        return (tick >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS) | node | (tick & SEQUENCE_MASK);
+    }
+
+    /**
+     * Makes sure the next ids are greater than the given one, e.g. the greatest id recovered from the journal.
+     * Should be called before ids are issued.
+     */
+    void observe(long id) {
+        long tick = (id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS | (id & SEQUENCE_MASK);
+        nextTick.accumulateAndGet(tick + 1, Math::max);
+    }
+
+    /**
+     * @return the transactionId of the API for the id
+     */
+    static String format(String externalTransactionId, long id) {
+        // sized for the up to 19 digits of the id
+        return new StringBuilder(externalTransactionId.length() + 20)
+                .append(externalTransactionId).append('-').append(id).toString();
+    }
+
+    /**
+     * @return the node bits of the id
+     */
+    static int nodeOf(long id) {
+        return (int) (id >>> SEQUENCE_BITS) & MAX_NODE;
+    }
+
+    /**
+     * @return the time of the id in epoch millis
+     */
+    static long timeOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    private long reserve(long now) {
+        while (true) {
+            long current = nextTick.get();
+            long start = Math.max(current, now);
+            if (nextTick.compareAndSet(current, start + BLOCK_SIZE))
+                return start;
+        }
+    }
+
+    private static final class Block {
+        private long start;
+        private long next;
+        private long end;
+    }
+}
@@ -0,0 +1,37 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.math.BigDecimal;
+
+/**
+ * A CREDIT or DEBIT transaction to register, e.g. one item of a batch request.
+ */
+final class TransactionRequest {
+
+    private final long accountId;
+    private final TransactionType transactionType;
+    private final BigDecimal funds;
+    private final String externalTransactionId;
+
+    TransactionRequest(long accountId, TransactionType transactionType, BigDecimal funds, String externalTransactionId) {
+        this.accountId = accountId;
+        this.transactionType = transactionType;
+        this.funds = funds;
+        this.externalTransactionId = externalTransactionId;
+    }
+
+    long getAccountId() {
+        return accountId;
+    }
+
+    TransactionType getTransactionType() {
+        return transactionType;
+    }
+
+    BigDecimal getFunds() {
+        return funds;
+    }
+
+    String getExternalTransactionId() {
+        return externalTransactionId;
+    }
+}
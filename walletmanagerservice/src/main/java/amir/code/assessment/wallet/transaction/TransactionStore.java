@@ -0,0 +1,60 @@
+package amir.code.assessment.wallet.transaction;
+
+/**
+ * History of registered transactions. There is a one-2-many relationship between one account and its transactions.
+ * meaning that each transaction should be connected to only and only one account but there can be an account to have
+ * zero or many transactions connected to.
+ */
+interface TransactionStore {
+
+    /**
+     * @param transaction . A registered transaction with a unique transactionId.
+     */
+    void add(Transaction transaction);
+
+    /**
+     * @param transactionId . The unique transactionId of a registered transaction.
+     * @return registered Transaction or null if not found or released, see release
+     */
+    Transaction get(String transactionId);
+
+    /**
+     * @param row . Row of a stored transaction, as kept by a TransactionHistory.
+     * @return the stored Transaction
+     */
+    Transaction read(int row);
+
+    /**
+     * @return number of readable rows: every row below it is stored, rows are added in registration order
+     */
+    int rows();
+
+    /**
+     * @return first row which is not released, rows from it up to rows() are readable
+     */
+    int firstRow();
+
+    /**
+     * Drops the rows below the given row, e.g. after they were moved to the TransactionArchive. Released rows must not
+     * be read anymore, neither by row nor through a history.
+     *
+     * @param rows . A number of readable rows.
+     */
+    void release(int rows);
+
+    /**
+     * @param accountId . The account of the transactions.
+     * @return history of the transactions of the account or null if none was registered or archived
+     */
+    TransactionHistory getHistory(long accountId);
+
+    /**
+     * @return number of stored transactions, released ones included
+     */
+    long size();
+
+    /**
+     * @return heap bytes of the stored transactions which are not released, estimated when they are objects
+     */
+    long footprint();
+}
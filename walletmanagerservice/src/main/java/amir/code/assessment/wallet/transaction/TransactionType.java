@@ -0,0 +1,9 @@
+package amir.code.assessment.wallet.transaction;
+
+/**
+ * Supported types of a transaction registered on one account.
+ */
+enum TransactionType {
+    CREDIT,
+    DEBIT
+}
@@ -0,0 +1,105 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Applies transfers, i.e. transactions on several accounts which are registered all together or not at all.
+ *
+ * The debits are applied first, one failing debit credits the previous ones back, then the linked transactions of all
+ * legs are logged as one journal record, so they are also recovered all together. The credits are only applied once
+ * the record is durable, a record which could not be made durable credits the debits back, which can not fail.
+ *
+ * The LedgerEngine calling apply makes sure no other registration debits the accounts of the legs meanwhile, so a
+ * registration never fails on the intermediate or credited back balance of a transfer: DirectLedgerEngine holds the
+ * lock stripes of the accounts, PartitionedLedgerEngine holds their shards. Balance reads may still observe a
+ * transfer in progress, e.g. the debit of its source account before the credit of its destination.
+ */
+class TransferManager {
+
+    private final AccountRegistry accounts;
+    private final TransactionStore transactions;
+    private final LedgerJournal journal;
+    private final TransactionIdGenerator ids;
+
+    TransferManager(AccountRegistry accounts, TransactionStore transactions, LedgerJournal journal, TransactionIdGenerator ids) {
+        this.accounts = accounts;
+        this.transactions = transactions;
+        this.ids = ids;
+        this.journal = journal;
+    }
+
+    /**
+     * Looks up the accounts of the legs, before the engine waits for them.
+     * @param legAccounts . Receives the account of every leg.
+     * @return the failed leg, or null if every leg can be applied
+     */
+    RegistrationResult resolve(List<TransactionRequest> legs, Account[] legAccounts) {
+        for (int leg = 0; leg < legs.size(); leg++) {
+            TransactionRequest request = legs.get(leg);
+            if (request.getFunds().signum() <= 0)
+                return RegistrationResult.failed(RegistrationResult.UNEXPECTED_FUNDS, leg);
+            legAccounts[leg] = accounts.get(request.getAccountId());
+            if (legAccounts[leg] == null)
+                return RegistrationResult.failed(RegistrationResult.ACCOUNT_NOT_FOUND, leg);
+        }
+        return null;
+    }
+
+    /**
+     * @param legs . CREDIT and DEBIT transactions of the transfer sharing one externalTransactionId.
+     * @param legAccounts . The accounts of the legs, as resolved.
+     * @return registration status and the linked transactions of all legs if successful, otherwise the failed leg
+     * @throws IOException if the registered transactions could not be made durable
+     */
+    RegistrationResult apply(List<TransactionRequest> legs, Account[] legAccounts) throws IOException {
+        journal.checkWritable();
+        int count = legs.size();
+        for (int leg = 0; leg < count; leg++) {
+            TransactionRequest request = legs.get(leg);
+            if (request.getTransactionType() != TransactionType.DEBIT)
+                continue;
+            int status = legAccounts[leg].debit(request.getFunds());
+            if (status != RegistrationResult.REGISTERED) {
+                creditDebitsBack(legs, legAccounts, leg);
+                return RegistrationResult.failed(status, leg);
+            }
+        }
+
+        Date transactionDate = new Date();
+        List<Transaction> registered = new ArrayList<>(count);
+        for (TransactionRequest request : legs)
+            registered.add(new Transaction(ids.next(),
+                    request.getExternalTransactionId(), request.getTransactionType().name(), request.getFunds(),
+                    request.getAccountId(), transactionDate));
+        try {
+            // concurrent transfers over other accounts share one write of the log (group commit)
+            journal.sync(journal.logTransfer(registered));
+        } catch (IOException | RuntimeException e) {
+            creditDebitsBack(legs, legAccounts, count);
+            throw e;
+        }
+        for (int leg = 0; leg < count; leg++) {
+            TransactionRequest request = legs.get(leg);
+            // can not fail, funds are positive
+            if (request.getTransactionType() == TransactionType.CREDIT)
+                legAccounts[leg].credit(request.getFunds());
+        }
+        for (Transaction transaction : registered)
+            transactions.add(transaction);
+        return RegistrationResult.registered(registered);
+    }
+
+    /**
+     * Takes back the debits of the legs before the given one, which can not fail.
+     */
+    private static void creditDebitsBack(List<TransactionRequest> legs, Account[] legAccounts, int before) {
+        for (int leg = before - 1; leg >= 0; leg--) {
+            TransactionRequest request = legs.get(leg);
+            if (request.getTransactionType() == TransactionType.DEBIT)
+                legAccounts[leg].credit(request.getFunds());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.nio.file.Paths;
+
+/**
+ * Configuration of the write-ahead log keeping registered accounts and transactions across restarts, e.g.
+ *
+ *   wal:
+ *     enabled: true
+ *     directory: data/wal
+ *     fsyncPolicy: BATCHED
+ *     batchBytes: 65536
+ *     batchWindowMillis: 2
+ *     segmentBytes: 67108864
+ */
+public class WalFactory {
+
+    private boolean enabled = false;
+
+    @NotEmpty
+    private String directory = "data/wal";
+
+    @NotNull
+    private WriteAheadLog.FsyncPolicy fsyncPolicy = WriteAheadLog.FsyncPolicy.BATCHED;
+
+    @Min(1)
+    private int batchBytes = 64 * 1024;
+
+    @Min(0)
+    private long batchWindowMillis = 2;
+
+    @Min(1024)
+    private long segmentBytes = 64L * 1024 * 1024;
+
+    @JsonProperty
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty
+    public String getDirectory() {
+        return directory;
+    }
+
+    @JsonProperty
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    @JsonProperty
+    public WriteAheadLog.FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    @JsonProperty
+    public void setFsyncPolicy(WriteAheadLog.FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    @JsonProperty
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+
+    @JsonProperty
+    public void setBatchBytes(int batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+
+    @JsonProperty
+    public long getBatchWindowMillis() {
+        return batchWindowMillis;
+    }
+
+    @JsonProperty
+    public void setBatchWindowMillis(long batchWindowMillis) {
+        this.batchWindowMillis = batchWindowMillis;
+    }
+
+    @JsonProperty
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    @JsonProperty
+    public void setSegmentBytes(long segmentBytes) {
+        this.segmentBytes = segmentBytes;
+    }
+
+    LedgerJournal build() {
+        if (!enabled)
+            return LedgerJournal.disabled();
+        return new LedgerJournal(new WriteAheadLog(Paths.get(directory), fsyncPolicy, batchBytes, batchWindowMillis, segmentBytes));
+    }
+}
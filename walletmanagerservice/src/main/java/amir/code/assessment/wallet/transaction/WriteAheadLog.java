@@ -0,0 +1,441 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log split into segment files (wal-00000000000000000001.log, ...) written through a FileChannel.
+ *
+ * Every record is framed as [int length][int crc32][payload]. Request threads only copy their framed record into an
+ * in-memory buffer and get back its log position. A single flusher thread writes whatever was appended meanwhile with
+ * one write (and one fsync depending on the FsyncPolicy) and then releases all threads waiting for their positions to
+ * be durable, so concurrent commits share one fsync (group commit).
+ */
+class WriteAheadLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    /**
+     * When a committed record is considered durable.
+     */
+    enum FsyncPolicy {
+        // fsync as soon as there is anything to write, commits arriving meanwhile share the next fsync
+        EVERY_COMMIT,
+        // fsync once batchBytes are pending or batchWindowMillis elapsed since the first pending commit
+        BATCHED,
+        // write to the file without fsync, the operating system decides when pages reach the disk
+        OS
+    }
+
+    static final String SEGMENT_PREFIX = "wal-";
+    static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int MIN_BUFFER_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final int batchBytes;
+    private final long batchWindowNanos;
+    private final long segmentBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingCondition = lock.newCondition();
+    private final Condition durableCondition = lock.newCondition();
+
+    // guarded by lock
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+    private long appendedPosition;
+    private long durablePosition;
+    private long firstPendingNanos;
+    private boolean rollRequested;
+    // written under the lock, volatile for checkWritable; a failure is never cleared, the log stays failed
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // only written by the flusher thread once started
+    private FileChannel channel;
+    private volatile long segmentNumber;
+    private long segmentSize;
+
+    private Thread flusher;
+
+    /**
+     * @param directory . Directory of the segment files.
+     * @param fsyncPolicy . When appended records are forced to disk.
+     * @param batchBytes . Pending bytes triggering a write with the BATCHED policy.
+     * @param batchWindowMillis . Max time a commit waits for a write with the BATCHED policy.
+     * @param segmentBytes . Size after which the log rolls over to a new segment file.
+     */
+    WriteAheadLog(Path directory, FsyncPolicy fsyncPolicy, int batchBytes, long batchWindowMillis, long segmentBytes) {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.batchBytes = batchBytes;
+        this.batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
+        this.segmentBytes = segmentBytes;
+        int bufferBytes = Math.max(MIN_BUFFER_BYTES, 2 * batchBytes);
+        this.pending = ByteBuffer.allocate(bufferBytes);
+        this.spare = ByteBuffer.allocate(bufferBytes);
+    }
+
+    /**
+     * Reads all records of the log in order. A torn or corrupted record at the end of the last segment, left by a crash
+     * in the middle of a write, is cut off. Should be called before start.
+     *
+     * @param handler . Receives the payload of every valid record.
+     * @return number of replayed records
+     * @throws IOException if a segment other than the last one is corrupted
+     */
+    long replay(Consumer<ByteBuffer> handler) throws IOException {
+        return replay(0, handler);
+    }
+
+    /**
+     * Same as replay but skips segments up to afterSegment, e.g. segments already covered by a snapshot.
+     */
+    long replay(long afterSegment, Consumer<ByteBuffer> handler) throws IOException {
+        Files.createDirectories(directory);
+        List<Long> segments = segmentNumbers();
+        long records = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i) > afterSegment)
+                records += readSegment(segments.get(i), handler, i == segments.size() - 1);
+        }
+        return records;
+    }
+
+    /**
+     * Reads the records of one segment.
+     *
+     * @param truncateTornTail . Whether a torn tail is cut off (last segment) or reported as a corruption.
+     * @return number of read records
+     */
+    long readSegment(long number, Consumer<ByteBuffer> handler, boolean truncateTornTail) throws IOException {
+        Path segment = segmentPath(number);
+        long records = 0;
+        CRC32 crc = new CRC32();
+
+        try (FileChannel input = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = input.size();
+            MappedByteBuffer buffer = input.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+
+            long valid = 0;
+            while (buffer.remaining() >= FRAME_HEADER_BYTES) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < 0 || length > buffer.remaining())
+                    break;
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum)
+                    break;
+                handler.accept(payload.asReadOnlyBuffer());
+                buffer.position(buffer.position() + length);
+                valid = buffer.position();
+                records++;
+            }
+
+            if (valid < size) {
+                if (!truncateTornTail)
+                    throw new IOException("corrupted write-ahead log segment " + segment + " at offset " + valid);
+                logger.warn("truncating torn tail of write-ahead log segment {} from {} to {} bytes", segment, size, valid);
+                input.truncate(valid);
+                input.force(true);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Opens the last segment for appending and starts the flusher thread.
+     *
+     * @param minSegment . Lowest number of the segment to write, e.g. the first segment after a snapshot.
+     */
+    void start(long minSegment) throws IOException {
+        Files.createDirectories(directory);
+        List<Long> segments = segmentNumbers();
+        openSegment(Math.max(minSegment, segments.isEmpty() ? 1 : segments.get(segments.size() - 1)));
+
+        flusher = new Thread(this::flushLoop, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Writes pending records, forces them to disk and closes the log.
+     */
+    void stop() throws InterruptedException, IOException {
+        lock.lock();
+        try {
+            closed = true;
+            pendingCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (flusher != null)
+            flusher.join();
+        if (channel != null) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    /**
+     * Checks without blocking that records can still be appended, e.g. before changing a balance which would have to
+     * be rolled back if its record could not be logged.
+     *
+     * @throws IOException if the log failed or is closed
+     */
+    void checkWritable() throws IOException {
+        IOException error = failure;
+        if (error != null)
+            throw error;
+        if (closed)
+            throw new IOException("write-ahead log is closed");
+    }
+
+    /**
+     * Appends one record without waiting for it to be written.
+     *
+     * @param payload . The record, from its position to its limit.
+     * @return log position to pass to awaitDurable
+     * @throws IOException if the log failed or is closed
+     */
+    long append(ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        lock.lock();
+        try {
+            if (failure != null)
+                throw failure;
+            if (closed)
+                throw new IOException("write-ahead log is closed");
+
+            if (pending.remaining() < FRAME_HEADER_BYTES + length) {
+                // the flusher is behind, grow the buffer instead of blocking the request thread
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * pending.capacity(), pending.position() + FRAME_HEADER_BYTES + length));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            boolean wasEmpty = pending.position() == 0;
+            pending.putInt(length);
+            pending.putInt((int) crc.getValue());
+            pending.put(payload);
+            appendedPosition += FRAME_HEADER_BYTES + length;
+
+            if (wasEmpty) {
+                firstPendingNanos = System.nanoTime();
+                pendingCondition.signal();
+            } else if (pending.position() >= batchBytes) {
+                pendingCondition.signal();
+            }
+            return appendedPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the record at position is durable according to the FsyncPolicy.
+     *
+     * @param position . A position returned by append.
+     * @throws IOException if writing the log failed
+     */
+    void awaitDurable(long position) throws IOException {
+        lock.lock();
+        try {
+            while (durablePosition < position) {
+                if (failure != null)
+                    throw failure;
+                durableCondition.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the segment being written and continues with a new one, so all records appended so far end up in
+     * sealed segments. Blocks until the flusher rolled over.
+     *
+     * @return number of the new segment being written, all segments before it are sealed
+     */
+    long roll() throws IOException {
+        lock.lock();
+        try {
+            if (failure != null)
+                throw failure;
+            if (closed)
+                throw new IOException("write-ahead log is closed");
+            long current = segmentNumber;
+            rollRequested = true;
+            pendingCondition.signal();
+            while (segmentNumber == current && failure == null && !closed)
+                durableCondition.awaitUninterruptibly();
+            if (failure != null)
+                throw failure;
+            return segmentNumber;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of the segment being written, all segments before it are sealed
+     */
+    long activeSegment() {
+        return segmentNumber;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    private void flushLoop() {
+        for (;;) {
+            ByteBuffer toWrite;
+            long position;
+
+            lock.lock();
+            try {
+                while (pending.position() == 0 && !closed && !rollRequested)
+                    pendingCondition.awaitUninterruptibly();
+                if (rollRequested) {
+                    rollRequested = false;
+                    if (!rollOver())
+                        return;
+                    if (pending.position() == 0)
+                        continue;
+                }
+                if (pending.position() == 0)
+                    return;
+
+                if (fsyncPolicy == FsyncPolicy.BATCHED) {
+                    long remaining = firstPendingNanos + batchWindowNanos - System.nanoTime();
+                    while (pending.position() < batchBytes && !closed && remaining > 0)
+                        remaining = pendingCondition.awaitNanos(remaining);
+                }
+
+                toWrite = pending;
+                pending = spare;
+                spare = null;
+                position = appendedPosition;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                toWrite.flip();
+                write(toWrite);
+            } catch (IOException e) {
+                logger.error("could not write the write-ahead log", e);
+                error = e;
+            }
+
+            lock.lock();
+            try {
+                toWrite.clear();
+                spare = toWrite;
+                if (error != null)
+                    failure = error;
+                else
+                    durablePosition = position;
+                durableCondition.signalAll();
+                if (error != null)
+                    return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Rolls over to a new segment on the flusher thread, called with the lock held.
+     * @return false if the log failed
+     */
+    private boolean rollOver() {
+        try {
+            channel.force(true);
+            channel.close();
+            openSegment(segmentNumber + 1);
+            return true;
+        } catch (IOException e) {
+            logger.error("could not roll the write-ahead log over", e);
+            failure = e;
+            return false;
+        } finally {
+            durableCondition.signalAll();
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        if (segmentSize > 0 && segmentSize + buffer.remaining() > segmentBytes) {
+            channel.force(true);
+            channel.close();
+            openSegment(segmentNumber + 1);
+        }
+        int bytes = buffer.remaining();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        segmentSize += bytes;
+        if (fsyncPolicy != FsyncPolicy.OS)
+            channel.force(false);
+    }
+
+    private void openSegment(long number) throws IOException {
+        channel = FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentNumber = number;
+        segmentSize = channel.size();
+    }
+
+    /**
+     * @return numbers of the segment files in ascending order
+     */
+    List<Long> segmentNumbers() {
+        List<Long> numbers = new ArrayList<>();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+}
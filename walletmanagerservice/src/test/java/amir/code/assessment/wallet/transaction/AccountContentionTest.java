@@ -0,0 +1,220 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the lock-free Account under contention, every thread hammering the same (hot) account.
+ */
+public class AccountContentionTest {
+
+    private static final BigDecimal FUNDS = new BigDecimal("12.34");
+    private static final long ITERATIONS_PER_THREAD = 100_000;
+    private static final int[] THREADS = {1, 4, 16};
+
+    @Test
+    public void testContendedCreditsAndDebits() throws InterruptedException {
+        for (int threads : THREADS) {
+            Account account = new Account();
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+            AtomicLong failedDebits = new AtomicLong();
+
+            for (int i = 0; i < threads; i++) {
+                new Thread(() -> {
+                    try {
+                        start.await();
+                        for (long count = 0; count < ITERATIONS_PER_THREAD; count++) {
+                            account.credit(FUNDS);
+                            account.getBalance();
+                            if (account.debit(FUNDS) != 0)
+                                failedDebits.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }).start();
+            }
+            start.countDown();
+            done.await();
+
+            Assert.assertEquals(0, failedDebits.get());
+            Assert.assertEquals(0, account.getBalance().compareTo(BigDecimal.ZERO));
+            Assert.assertEquals(2 * ITERATIONS_PER_THREAD * threads, account.getSnapshot().getVersion());
+        }
+    }
+
+    @Test
+    public void testBigDecimalFallbackUnderContention() throws InterruptedException {
+        Account account = new Account(2);
+        BigDecimal fractional = new BigDecimal("0.001");
+        int threads = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicLong failedDebits = new AtomicLong();
+
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                for (long count = 0; count < ITERATIONS_PER_THREAD; count++) {
+                    account.credit(FUNDS);
+                    // more fractional digits than the scale, moves the account to the BigDecimal path once
+                    account.credit(fractional);
+                    if (account.debit(fractional) != 0)
+                        failedDebits.incrementAndGet();
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        Assert.assertEquals(0, failedDebits.get());
+        BigDecimal expectedBalance = FUNDS.multiply(BigDecimal.valueOf(ITERATIONS_PER_THREAD * threads));
+        Assert.assertEquals(0, account.getBalance().compareTo(expectedBalance));
+    }
+
+    @Test
+    public void testStripedCredits() throws InterruptedException {
+        Account account = new Account(2);
+        account.stripeCredits();
+        BigDecimal fractional = new BigDecimal("0.001");
+        int threads = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicLong failedDebits = new AtomicLong();
+        AtomicLong unseenCredits = new AtomicLong();
+
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                for (long count = 0; count < ITERATIONS_PER_THREAD; count++) {
+                    account.credit(FUNDS);
+                    // a read sees the credits which completed before it
+                    if (account.getBalance().compareTo(FUNDS) < 0)
+                        unseenCredits.incrementAndGet();
+                    if (account.debit(FUNDS) != 0)
+                        failedDebits.incrementAndGet();
+                    if (count % 1000 == 0) {
+                        // more fractional digits than the scale, promotes the striped account
+                        account.credit(fractional);
+                        account.debit(fractional);
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        Assert.assertEquals(0, failedDebits.get());
+        Assert.assertEquals(0, unseenCredits.get());
+        Assert.assertEquals(0, account.getBalance().signum());
+        long updates = threads * (ITERATIONS_PER_THREAD * 2 + ITERATIONS_PER_THREAD / 1000 * 2);
+        Assert.assertEquals(updates, account.getSnapshot().getVersion());
+        // never overdrawn
+        Assert.assertEquals(-2, account.debit(new BigDecimal("0.01")));
+    }
+
+    @Test
+    public void testStripedReadsDoNotUpdate() {
+        Account account = new Account(2);
+        account.stripeCredits();
+        account.credit(FUNDS);
+        account.credit(FUNDS);
+        // reads add the credits of the cells up without merging them, so they agree on the version
+        BalanceSnapshot read = account.getSnapshot();
+        Assert.assertEquals(2, read.getVersion());
+        Assert.assertEquals(0, read.getBalance().compareTo(FUNDS.add(FUNDS)));
+        Assert.assertEquals(2, account.getSnapshot().getVersion());
+
+        // a debit merges them with its own update
+        Assert.assertEquals(0, account.debit(FUNDS));
+        Assert.assertEquals(3, account.getSnapshot().getVersion());
+        Assert.assertEquals(0, account.getBalance().compareTo(FUNDS));
+        account.credit(FUNDS);
+        Assert.assertEquals(4, account.getSnapshot().getVersion());
+        Assert.assertEquals(-2, account.debit(FUNDS.multiply(BigDecimal.valueOf(3))));
+        Assert.assertEquals(0, account.debit(FUNDS.add(FUNDS)));
+        Assert.assertEquals(0, account.getBalance().signum());
+
+        // a cell full up to a long refuses further credits, they update the balance instead
+        BigDecimal large = BigDecimal.valueOf(Long.MAX_VALUE / 2, 2);
+        for (int i = 0; i < 4; i++)
+            Assert.assertEquals(0, account.credit(large));
+        Assert.assertEquals(0, account.getBalance().compareTo(large.multiply(BigDecimal.valueOf(4))));
+        Assert.assertEquals(9, account.getSnapshot().getVersion());
+    }
+
+    @Test
+    public void testStripedReadsWhileDebitsMerge() throws InterruptedException {
+        Account account = new Account(2);
+        account.stripeCredits();
+        int writers = 4;
+        int readers = 4;
+        CountDownLatch done = new CountDownLatch(writers + readers);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong writersLeft = new AtomicLong(writers);
+        // balance of every version any reader saw, a version stands for one balance only
+        Map<Long, BigDecimal> balances = new ConcurrentHashMap<>();
+        AtomicLong inconsistent = new AtomicLong();
+
+        for (int i = 0; i < writers; i++) {
+            int writer = i;
+            new Thread(() -> {
+                for (long count = 0; count < ITERATIONS_PER_THREAD; count++) {
+                    account.credit(FUNDS);
+                    // debits merge the credits of the cells while readers add them up
+                    if (writer % 2 == 0)
+                        account.debit(FUNDS);
+                }
+                if (writersLeft.decrementAndGet() == 0)
+                    writing.set(false);
+                done.countDown();
+            }).start();
+        }
+        for (int i = 0; i < readers; i++) {
+            new Thread(() -> {
+                long version = -1;
+                while (writing.get()) {
+                    BalanceSnapshot read = account.getSnapshot();
+                    BigDecimal seen = balances.putIfAbsent(read.getVersion(), read.getBalance());
+                    if (read.getVersion() < version || (seen != null && seen.compareTo(read.getBalance()) != 0))
+                        inconsistent.incrementAndGet();
+                    version = read.getVersion();
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        Assert.assertEquals(0, inconsistent.get());
+        Assert.assertTrue(balances.size() > 1);
+    }
+
+    @Test
+    public void testStripingOnContention() throws InterruptedException {
+        Account account = new Account(Account.DEFAULT_SCALE, 1);
+        Assert.assertFalse(account.isStriped());
+        long stripedAccounts = Account.getStripedAccounts();
+        int threads = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (!account.isStriped() && System.currentTimeMillis() < deadline)
+                    account.credit(FUNDS);
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        Assert.assertTrue(account.isStriped());
+        Assert.assertEquals(stripedAccounts + 1, Account.getStripedAccounts());
+        BigDecimal balance = account.getBalance();
+        Assert.assertEquals(0, balance.remainder(FUNDS).signum());
+        Assert.assertEquals(0, balance.compareTo(FUNDS.multiply(BigDecimal.valueOf(account.getSnapshot().getVersion()))));
+    }
+}
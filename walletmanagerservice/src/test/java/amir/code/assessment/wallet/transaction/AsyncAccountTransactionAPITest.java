@@ -0,0 +1,211 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AsyncAccountTransactionAPITest {
+
+    @Test
+    public void testRequests() throws Exception {
+        Ledger ledger = new Ledger(new TransactionConfiguration());
+        ledger.recover();
+        ledger.start();
+        RequestExecutors executors = new RequestExecutors(2, 16, 1, 16, 0, 1, new MetricRegistry());
+        executors.start();
+        try {
+            AsyncAccountTransactionAPI api = new AsyncAccountTransactionAPI(new AccountTransactionAPI(ledger), executors);
+
+            TestResponse response = new TestResponse();
+            api.registerAccount(1, response);
+            Assert.assertEquals(200, response.await().getStatus());
+
+            response = new TestResponse();
+            api.registerTransaction(("{\"accountId\":1,\"transactionType\":\"credit\",\"funds\":10,"
+                    + "\"externalTransactionId\":\"credit-1\"}").getBytes(StandardCharsets.UTF_8), response);
+            Assert.assertEquals(200, response.await().getStatus());
+
+            response = new TestResponse();
+            api.registerTransaction(("{\"accountId\":1,\"transactionType\":\"debit\",\"funds\":11,"
+                    + "\"externalTransactionId\":\"debit-1\"}").getBytes(StandardCharsets.UTF_8), response);
+            Assert.assertEquals(400, response.await().getStatus());
+
+            response = new TestResponse();
+            api.getAccountTransactions(1, 0, 100, 0, Long.MAX_VALUE, "", response);
+            Assert.assertEquals(200, response.await().getStatus());
+
+            Assert.assertEquals(200, api.getAccountBalance(1, null).getStatus());
+            Assert.assertEquals(0, BigDecimal.TEN.compareTo(ledger.getAccount(1).getBalance()));
+        } finally {
+            executors.stop();
+            ledger.stop();
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        RequestExecutors executors = new RequestExecutors(1, 1, 1, 1, 60_000, 3, new MetricRegistry());
+        executors.start();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // the only write thread is busy and its queue is full
+        TestResponse busy = new TestResponse();
+        executors.write(busy, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Response.ok().build();
+        });
+        Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+        TestResponse queued = new TestResponse();
+        AtomicBoolean queuedRan = new AtomicBoolean();
+        executors.write(queued, () -> {
+            queuedRan.set(true);
+            return Response.ok().build();
+        });
+
+        TestResponse rejected = new TestResponse();
+        executors.write(rejected, () -> Response.ok().build());
+        Assert.assertEquals(429, rejected.await().getStatus());
+        Assert.assertEquals(3, rejected.await().getMetadata().getFirst(HttpHeaders.RETRY_AFTER));
+
+        // reads have their own executor
+        TestResponse read = new TestResponse();
+        executors.read(read, () -> Response.ok().build());
+        Assert.assertEquals(200, read.await().getStatus());
+
+        // a queued request timing out gets a 503 and is not run anymore
+        Assert.assertEquals(60_000, queued.timeoutMillis);
+        queued.timeOut();
+        Assert.assertEquals(503, queued.await().getStatus());
+
+        // a running request timing out is answered with its own result, its timeout is extended
+        busy.timeoutMillis = 0;
+        busy.timeOut();
+        Assert.assertTrue(busy.isSuspended());
+        Assert.assertEquals(60_000, busy.timeoutMillis);
+        release.countDown();
+        Assert.assertEquals(200, busy.await().getStatus());
+        executors.stop();
+        Assert.assertFalse(queuedRan.get());
+
+        TestResponse stopped = new TestResponse();
+        executors.write(stopped, () -> Response.ok().build());
+        Assert.assertEquals(503, stopped.await().getStatus());
+        Assert.assertEquals(1, queued.resumed);
+    }
+
+    /**
+     * AsyncResponse recording the response the container would send.
+     */
+    private static class TestResponse implements AsyncResponse {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Response response;
+        private volatile int resumed;
+        private volatile long timeoutMillis;
+        private volatile TimeoutHandler timeoutHandler;
+
+        Response await() throws InterruptedException {
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            return response;
+        }
+
+        void timeOut() {
+            timeoutHandler.handleTimeout(this);
+        }
+
+        @Override
+        public synchronized boolean resume(Object response) {
+            resumed++;
+            if (this.response != null)
+                return false;
+            this.response = (Response) response;
+            done.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean resume(Throwable response) {
+            return resume(Response.serverError().build());
+        }
+
+        @Override
+        public boolean cancel() {
+            return false;
+        }
+
+        @Override
+        public boolean cancel(int retryAfter) {
+            return false;
+        }
+
+        @Override
+        public boolean cancel(Date retryAfter) {
+            return false;
+        }
+
+        @Override
+        public boolean isSuspended() {
+            return response == null;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return response != null;
+        }
+
+        @Override
+        public boolean setTimeout(long time, TimeUnit unit) {
+            timeoutMillis = unit.toMillis(time);
+            return true;
+        }
+
+        @Override
+        public void setTimeoutHandler(TimeoutHandler handler) {
+            this.timeoutHandler = handler;
+        }
+
+        @Override
+        public Collection<Class<?>> register(Class<?> callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Collection<Class<?>> register(Object callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+            return Collections.emptyMap();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BalanceSnapshotTest {
+
+    private static final BigDecimal FUNDS = new BigDecimal("0.25");
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int CREDITS_PER_WRITER = 50_000;
+
+    @Test
+    public void testVersion() {
+        Account account = new Account();
+        Assert.assertEquals(0, account.getSnapshot().getVersion());
+        account.credit(FUNDS);
+        account.debit(new BigDecimal("0.1"));
+        Assert.assertEquals(2, account.getSnapshot().getVersion());
+
+        // failed updates do not change the version
+        account.debit(BigDecimal.TEN);
+        account.credit(BigDecimal.ZERO);
+        Assert.assertEquals(2, account.getSnapshot().getVersion());
+
+        // nor does the promotion to the BigDecimal balance
+        account.credit(new BigDecimal("0.000000001"));
+        Assert.assertEquals(3, account.getSnapshot().getVersion());
+        Assert.assertEquals(0, new BigDecimal("0.150000001").compareTo(account.getSnapshot().getBalance()));
+
+        account.apply(new boolean[]{true, false}, new BigDecimal[]{BigDecimal.ONE, BigDecimal.TEN}, true, new int[2]);
+        Assert.assertEquals(3, account.getSnapshot().getVersion());
+        account.apply(new boolean[]{true, false}, new BigDecimal[]{BigDecimal.ONE, FUNDS}, true, new int[2]);
+        Assert.assertEquals(4, account.getSnapshot().getVersion());
+    }
+
+    @Test
+    public void testReadsAreConsistentWhileWriting() throws Exception {
+        Account account = new Account();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong inconsistent = new AtomicLong();
+        AtomicLong reads = new AtomicLong();
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            writers[w] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < CREDITS_PER_WRITER; i++)
+                    account.credit(FUNDS);
+            });
+            writers[w].start();
+        }
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            readers[r] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long version = 0;
+                while (version < (long) WRITERS * CREDITS_PER_WRITER) {
+                    BalanceSnapshot snapshot = account.getSnapshot();
+                    // every credit is one version, the balance has to match the version it was read with
+                    if (snapshot.getVersion() < version
+                            || snapshot.getBalance().compareTo(FUNDS.multiply(BigDecimal.valueOf(snapshot.getVersion()))) != 0)
+                        inconsistent.incrementAndGet();
+                    version = snapshot.getVersion();
+                    reads.incrementAndGet();
+                }
+            });
+            readers[r].start();
+        }
+        start.countDown();
+        for (Thread writer : writers)
+            writer.join();
+        for (Thread reader : readers)
+            reader.join();
+
+        Assert.assertEquals(0, inconsistent.get());
+        Assert.assertTrue(reads.get() > 0);
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        Ledger ledger = new Ledger(new TransactionConfiguration());
+        ledger.recover();
+        ledger.start();
+        try {
+            AccountTransactionAPI api = new AccountTransactionAPI(ledger);
+            api.registerAccount(1);
+            ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "credit-1");
+
+            Response response = api.getAccountBalance(1, null);
+            Assert.assertEquals(200, response.getStatus());
+            Assert.assertEquals("{\"accountId\":1,\"balance\":0.25,\"version\":1}", body(response));
+            String entityTag = (String) response.getMetadata().getFirst(HttpHeaders.ETAG);
+
+            response = api.getAccountBalance(1, entityTag);
+            Assert.assertEquals(304, response.getStatus());
+            Assert.assertNull(response.getEntity());
+            Assert.assertEquals(304, api.getAccountBalance(1, "\"other\", W/" + entityTag).getStatus());
+            Assert.assertEquals(304, api.getAccountBalance(1, "*").getStatus());
+
+            ledger.registerTransaction(1, TransactionType.DEBIT, FUNDS, "debit-1");
+            response = api.getAccountBalance(1, entityTag);
+            Assert.assertEquals(200, response.getStatus());
+            Assert.assertEquals("{\"accountId\":1,\"balance\":0,\"version\":2}", body(response));
+            Assert.assertNotEquals(entityTag, response.getMetadata().getFirst(HttpHeaders.ETAG));
+
+            // versions start again after a restart, the entity tags do not
+            Thread.sleep(2);
+            Ledger restarted = new Ledger(new TransactionConfiguration());
+            restarted.recover();
+            restarted.registerAccount(1);
+            restarted.getAccount(1).credit(FUNDS);
+            Assert.assertEquals(200, new AccountTransactionAPI(restarted).getAccountBalance(1, entityTag).getStatus());
+        } finally {
+            ledger.stop();
+        }
+    }
+
+    private static String body(Response response) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
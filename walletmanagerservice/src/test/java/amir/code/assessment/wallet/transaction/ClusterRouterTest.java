@@ -0,0 +1,176 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ClusterRouterTest {
+
+    private static final int ACCOUNTS = 100_000;
+
+    @Test
+    public void testRing() {
+        ConsistentHashRing ring = new ConsistentHashRing(new int[]{0, 1, 2}, 256);
+        int[] owned = new int[3];
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++)
+            owned[ring.owner(accountId)]++;
+        for (int count : owned)
+            Assert.assertTrue(Math.abs(count - ACCOUNTS / 3) < ACCOUNTS / 3 * 0.15);
+
+        // a new node only takes accounts over, about its share of them
+        ConsistentHashRing grown = new ConsistentHashRing(new int[]{2, 0, 3, 1}, 256);
+        int moved = 0;
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+            int owner = grown.owner(accountId);
+            if (owner != ring.owner(accountId)) {
+                Assert.assertEquals(3, owner);
+                moved++;
+            }
+        }
+        Assert.assertTrue(Math.abs(moved - ACCOUNTS / 4) < ACCOUNTS / 4 * 0.15);
+    }
+
+    @Test
+    public void testRouting() throws Exception {
+        // node 1 answers with what it received
+        AtomicReference<String> received = new AtomicReference<>();
+        HttpServer owner = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        owner.createContext("/", exchange -> {
+            byte[] body = readAll(exchange.getRequestBody());
+            received.set(exchange.getRequestMethod() + " " + exchange.getRequestURI()
+                    + " " + exchange.getRequestHeaders().getFirst(ClusterClient.FORWARDED_FROM)
+                    + " " + exchange.getRequestHeaders().getFirst(HttpHeaders.IF_NONE_MATCH)
+                    + " " + new String(body, StandardCharsets.UTF_8));
+            byte[] response = "{\"accountId\":2}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add(HttpHeaders.ETAG, "\"tag\"");
+            exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "application/json");
+            exchange.sendResponseHeaders(201, response.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(response);
+            }
+        });
+        owner.start();
+        try {
+            ClusterFactory factory = new ClusterFactory();
+            factory.getMembers().add(member(0, "http://localhost:1"));
+            factory.getMembers().add(member(1, "http://localhost:" + owner.getAddress().getPort()));
+            ClusterRouter router = factory.build(0, new MetricRegistry());
+            long local = accountOf(router, 0);
+            long remote = accountOf(router, 1);
+
+            // account of this node, the body is given back to the resource
+            String body = "{\"accountId\":" + local + ",\"transactionType\":\"credit\",\"funds\":1,\"externalTransactionId\":\"e\"}";
+            ContainerRequestContext request = request("POST", "/AccountTransactionAPI/register-transaction", null, body);
+            router.filter(request);
+            Mockito.verify(request, Mockito.never()).abortWith(Mockito.any());
+            ArgumentCaptor<InputStream> entity = ArgumentCaptor.forClass(InputStream.class);
+            Mockito.verify(request).setEntityStream(entity.capture());
+            Assert.assertEquals(body, new String(readAll(entity.getValue()), StandardCharsets.UTF_8));
+
+            // account of node 1, in the body and in the path
+            body = "{\"accountId\":\"" + remote + "\",\"transactionType\":\"credit\",\"funds\":1,\"externalTransactionId\":\"e\"}";
+            request = request("POST", "/AccountTransactionAPI/register-transaction", null, body);
+            Response response = forward(router, request);
+            Assert.assertEquals(201, response.getStatus());
+            Assert.assertEquals("\"tag\"", response.getHeaderString(HttpHeaders.ETAG));
+            Assert.assertEquals("{\"accountId\":2}", new String((byte[]) response.getEntity(), StandardCharsets.UTF_8));
+            Assert.assertEquals("POST /AccountTransactionAPI/register-transaction 0 null " + body, received.get());
+
+            request = request("GET", "/AccountTransactionAPI/get-account-balance/accountId/" + remote + "?x=1", remote, null);
+            Mockito.when(request.getHeaderString(HttpHeaders.IF_NONE_MATCH)).thenReturn("\"tag\"");
+            Assert.assertEquals(201, forward(router, request).getStatus());
+            Assert.assertEquals("GET /AccountTransactionAPI/get-account-balance/accountId/" + remote + "?x=1 0 \"tag\" ",
+                    received.get());
+
+            // a forwarded request is served where it arrives when this node owns the account
+            request = request("GET", "/AccountTransactionAPI/get-account-balance/accountId/" + local, local, null);
+            Mockito.when(request.getHeaderString(ClusterClient.FORWARDED_FROM)).thenReturn("1");
+            router.filter(request);
+            Mockito.verify(request, Mockito.never()).abortWith(Mockito.any());
+
+            // and rejected otherwise, also when a client sets the header itself, instead of being forwarded again
+            body = "{\"accountId\":" + remote + ",\"transactionType\":\"credit\",\"funds\":1,\"externalTransactionId\":\"f\"}";
+            received.set(null);
+            for (ContainerRequestContext misdirected : new ContainerRequestContext[] {
+                    request("POST", "/AccountTransactionAPI/register-transaction", null, body),
+                    request("GET", "/AccountTransactionAPI/get-account-balance/accountId/" + remote, remote, null) }) {
+                Mockito.when(misdirected.getHeaderString(ClusterClient.FORWARDED_FROM)).thenReturn("1");
+                Assert.assertEquals(ClusterRouter.MISDIRECTED_REQUEST, forward(router, misdirected).getStatus());
+            }
+            Assert.assertNull(received.get());
+
+            // node 0 is down for node 1
+            ClusterRouter other = factory.build(1, new MetricRegistry());
+            request = request("GET", "/AccountTransactionAPI/get-account-balance/accountId/" + local, local, null);
+            response = forward(other, request);
+            Assert.assertEquals(503, response.getStatus());
+            Assert.assertNotNull(response.getHeaderString(HttpHeaders.RETRY_AFTER));
+        } finally {
+            owner.stop(0);
+        }
+    }
+
+    private static ClusterFactory.Member member(int node, String address) {
+        ClusterFactory.Member member = new ClusterFactory.Member();
+        member.setNode(node);
+        member.setAddress(address);
+        return member;
+    }
+
+    private static long accountOf(ClusterRouter router, int node) {
+        for (long accountId = 1; ; accountId++)
+            if (router.owner(accountId) == node)
+                return accountId;
+    }
+
+    private static ContainerRequestContext request(String method, String path, Long accountId, String body) {
+        UriInfo uriInfo = Mockito.mock(UriInfo.class);
+        MultivaluedHashMap<String, String> parameters = new MultivaluedHashMap<>();
+        if (accountId != null)
+            parameters.putSingle("accountId", accountId.toString());
+        Mockito.when(uriInfo.getPathParameters()).thenReturn(parameters);
+        Mockito.when(uriInfo.getPath()).thenReturn(URI.create(path).getPath().substring(1));
+        Mockito.when(uriInfo.getRequestUri()).thenReturn(URI.create("http://localhost:8080" + path));
+
+        ContainerRequestContext request = Mockito.mock(ContainerRequestContext.class);
+        Mockito.when(request.getUriInfo()).thenReturn(uriInfo);
+        Mockito.when(request.getMethod()).thenReturn(method);
+        Mockito.when(request.hasEntity()).thenReturn(body != null);
+        Mockito.when(request.getEntityStream()).thenReturn(
+                new ByteArrayInputStream(body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8)));
+        return request;
+    }
+
+    private static Response forward(ClusterRouter router, ContainerRequestContext request) throws Exception {
+        router.filter(request);
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        Mockito.verify(request).abortWith(response.capture());
+        return response.getValue();
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = input.read(buffer)) != -1; )
+            output.write(buffer, 0, read);
+        return output.toByteArray();
+    }
+}
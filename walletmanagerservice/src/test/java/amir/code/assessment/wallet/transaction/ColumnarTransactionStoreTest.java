@@ -0,0 +1,76 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Checks the columnar store keeps transactions as is and takes less heap than the concurrent one.
+ */
+public class ColumnarTransactionStoreTest {
+
+    private static final int TRANSACTIONS = 1_000_000;
+    private static final int ACCOUNTS = 1_000;
+
+    @Test
+    public void testStoresTransactionsAsIs() {
+        ColumnarTransactionStore store = new ColumnarTransactionStore(4);
+        Transaction[] transactions = {
+                new Transaction("bet-1-1", "bet-1", "CREDIT", new BigDecimal("10.25"), 1L, new Date(1000)),
+                // transactionId not following externalTransactionId-sequence
+                new Transaction("custom", "bet-2", "DEBIT", new BigDecimal("1E+3"), 2L, new Date(2000)),
+                new Transaction("bet-3-007", "bet-3", "CREDIT", BigDecimal.ONE, 3L, new Date(3000)),
+                // funds beyond an unscaled long
+                new Transaction("\u00fcn\u00efcode-4", "\u00fcn\u00efcode", "DEBIT", new BigDecimal("3.14159265358979323846264338327950288"), 4L, new Date(4000)),
+                new Transaction(new String(new char[300]).replace('\0', 'x') + "-5",
+                        new String(new char[300]).replace('\0', 'x'), "CREDIT", new BigDecimal("0.00000001"), Long.MAX_VALUE, new Date(5000)),
+        };
+        for (Transaction transaction : transactions)
+            store.add(transaction);
+        // grow the transactionId index a few times
+        for (int i = 0; i < 1000; i++)
+            store.add(new Transaction("e" + i + "-" + (i + 1), "e" + i, "CREDIT", BigDecimal.TEN, 9L, new Date()));
+
+        Assert.assertEquals(transactions.length + 1000, store.size());
+        for (Transaction expected : transactions)
+            assertSame(expected, store.get(expected.getTransactionId()));
+        assertSame(transactions[1], store.read(1));
+        assertSame(transactions[3], store.getHistory(4).page(0, 0, Long.MAX_VALUE, null, 10).getTransactions().get(0));
+        Assert.assertEquals("e999-1000", store.get("e999-1000").getTransactionId());
+        Assert.assertNull(store.get("bet-1-2"));
+        Assert.assertNull(store.get("bet-3-7"));
+    }
+
+    @Test
+    public void testFootprintOfBothStores() {
+        TransactionStore[] stores = new TransactionStore[2];
+        for (RegistryFactory.StoreType storeType : RegistryFactory.StoreType.values()) {
+            RegistryFactory factory = new RegistryFactory();
+            factory.setTransactionStore(storeType);
+            factory.setExpectedTransactions(TRANSACTIONS);
+            TransactionStore store = factory.buildTransactionStore();
+            BigDecimal funds = new BigDecimal("12.34");
+            for (int i = 0; i < TRANSACTIONS; i++) {
+                String externalTransactionId = "bet-" + i;
+                store.add(new Transaction(externalTransactionId + "-" + (i + 1), externalTransactionId,
+                        i % 2 == 0 ? "CREDIT" : "DEBIT", funds.add(BigDecimal.valueOf(i)), (long) (i % ACCOUNTS), new Date()));
+            }
+
+            Assert.assertEquals(TRANSACTIONS, store.size());
+            Assert.assertEquals(0, store.get("bet-12345-12346").getFunds().compareTo(new BigDecimal("12357.34")));
+            stores[storeType == RegistryFactory.StoreType.COLUMNAR ? 1 : 0] = store;
+        }
+        Assert.assertTrue(stores[1].footprint() < stores[0].footprint());
+    }
+
+    private static void assertSame(Transaction expected, Transaction actual) {
+        Assert.assertEquals(expected.getTransactionId(), actual.getTransactionId());
+        Assert.assertEquals(expected.getExternalTransactionId(), actual.getExternalTransactionId());
+        Assert.assertEquals(expected.getTransactionType(), actual.getTransactionType());
+        Assert.assertEquals(expected.getFunds(), actual.getFunds());
+        Assert.assertEquals(expected.getAccountId(), actual.getAccountId());
+        Assert.assertEquals(expected.getTransactionDate(), actual.getTransactionDate());
+    }
+}
@@ -0,0 +1,141 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class IdempotencyIndexTest {
+
+    private static final BigDecimal FUNDS = new BigDecimal("1.25");
+    private static final int THREADS = 8;
+
+    @Test
+    public void testConcurrentRetriesRegisterOnce() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        Ledger ledger = new Ledger(new TransactionConfiguration(), metrics);
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong failures = new AtomicLong();
+        String[] transactionIds = new String[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    RegistrationResult result = ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "retried");
+                    if (result.getStatus() != RegistrationResult.REGISTERED)
+                        failures.incrementAndGet();
+                    else
+                        transactionIds[thread] = result.getTransaction().getTransactionId();
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        ledger.stop();
+
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(0, ledger.getAccount(1).getBalance().compareTo(FUNDS));
+        for (String transactionId : transactionIds)
+            Assert.assertEquals(transactionIds[0], transactionId);
+        Assert.assertEquals(1, metrics.counter("amir.code.assessment.wallet.transaction.IdempotencyIndex.misses").getCount());
+        Assert.assertEquals(THREADS - 1, metrics.counter("amir.code.assessment.wallet.transaction.IdempotencyIndex.hits").getCount());
+    }
+
+    @Test
+    public void testFailedRegistrationCanBeRetried() throws Exception {
+        Ledger ledger = new Ledger(new TransactionConfiguration());
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+
+        Assert.assertEquals(RegistrationResult.NOT_ENOUGH_BALANCE,
+                ledger.registerTransaction(1, TransactionType.DEBIT, FUNDS, "debit").getStatus());
+        ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "credit");
+        Assert.assertEquals(RegistrationResult.REGISTERED,
+                ledger.registerTransaction(1, TransactionType.DEBIT, FUNDS, "debit").getStatus());
+        ledger.stop();
+
+        Assert.assertEquals(0, ledger.getAccount(1).getBalance().signum());
+    }
+
+    @Test
+    public void testReusedExternalTransactionIdConflicts() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        Ledger ledger = new Ledger(new TransactionConfiguration(), metrics);
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+        ledger.registerAccount(2);
+        ledger.registerAccount(3);
+
+        String transactionId = ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "c").getTransaction().getTransactionId();
+        Assert.assertEquals(RegistrationResult.IDEMPOTENCY_CONFLICT,
+                ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS.add(FUNDS), "c").getStatus());
+        Assert.assertEquals(RegistrationResult.IDEMPOTENCY_CONFLICT,
+                ledger.registerTransaction(1, TransactionType.DEBIT, FUNDS, "c").getStatus());
+        // the same funds with another scale are a retry
+        Assert.assertEquals(transactionId, ledger.registerTransaction(1, TransactionType.CREDIT,
+                new BigDecimal("1.250"), "c").getTransaction().getTransactionId());
+
+        Assert.assertEquals(RegistrationResult.REGISTERED, ledger.transfer(Arrays.asList(
+                new TransactionRequest(1, TransactionType.DEBIT, FUNDS, "t"),
+                new TransactionRequest(2, TransactionType.CREDIT, FUNDS, "t"))).getStatus());
+        // same first leg, another account credited
+        Assert.assertEquals(RegistrationResult.IDEMPOTENCY_CONFLICT, ledger.transfer(Arrays.asList(
+                new TransactionRequest(1, TransactionType.DEBIT, FUNDS, "t"),
+                new TransactionRequest(3, TransactionType.CREDIT, FUNDS, "t"))).getStatus());
+        Assert.assertEquals(RegistrationResult.REGISTERED, ledger.registerTransactions(Arrays.asList(
+                new TransactionRequest(1, TransactionType.CREDIT, FUNDS, "c"),
+                new TransactionRequest(2, TransactionType.DEBIT, FUNDS, "c")), false)[0].getStatus());
+        Assert.assertEquals(RegistrationResult.IDEMPOTENCY_CONFLICT, ledger.registerTransactions(Arrays.asList(
+                new TransactionRequest(2, TransactionType.CREDIT, FUNDS, "c")), false)[0].getStatus());
+        ledger.stop();
+
+        Assert.assertEquals(0, ledger.getAccount(1).getBalance().compareTo(BigDecimal.ZERO));
+        Assert.assertEquals(0, ledger.getAccount(2).getBalance().compareTo(BigDecimal.ZERO));
+        Assert.assertEquals(0, ledger.getAccount(3).getBalance().signum());
+        Assert.assertEquals(4, metrics.counter("amir.code.assessment.wallet.transaction.IdempotencyIndex.conflicts").getCount());
+    }
+
+    @Test
+    public void testEvictsEldestBeyondMaxEntries() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        IdempotencyIndex index = new IdempotencyIndex(2, 3600, metrics);
+        AtomicLong registrations = new AtomicLong();
+        IdempotencyIndex.Registration registration = () -> {
+            registrations.incrementAndGet();
+            return RegistrationResult.registered(new Transaction("id", "ext", "CREDIT", FUNDS, 1L));
+        };
+
+        index.register(credit(1, "a"), registration);
+        index.register(credit(1, "b"), registration);
+        index.register(credit(2, "a"), registration);
+        Assert.assertEquals(2, index.size());
+        Assert.assertEquals(1, metrics.counter("amir.code.assessment.wallet.transaction.IdempotencyIndex.evictions").getCount());
+
+        // "b" of account 1 and "a" of account 2 are remembered, "a" of account 1 was evicted
+        index.register(credit(1, "b"), registration);
+        index.register(credit(2, "a"), registration);
+        Assert.assertEquals(3, registrations.get());
+        index.register(credit(1, "a"), registration);
+        Assert.assertEquals(4, registrations.get());
+    }
+
+    private static TransactionRequest credit(long accountId, String externalTransactionId) {
+        return new TransactionRequest(accountId, TransactionType.CREDIT, FUNDS, externalTransactionId);
+    }
+}
@@ -0,0 +1,106 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks the codec against org.json.
+ */
+public class JsonCodecTest {
+
+    @Test
+    public void testParseTransaction() throws Exception {
+        TransactionRequest request = parse("{\"accountId\" : \"1\", \"transactionType\" : \"Credit\","
+                + " \"funds\" : 43242434.34234244243244423424234432424423432424234242, \"externalTransactionId\" : \"2d\\\"sff\\u00e9\", \"x\": null}");
+        Assert.assertEquals(1, request.getAccountId());
+        Assert.assertEquals(TransactionType.CREDIT, request.getTransactionType());
+        Assert.assertEquals(new BigDecimal("43242434.34234244243244423424234432424423432424234242"), request.getFunds());
+        Assert.assertEquals("2d\"sff\u00e9", request.getExternalTransactionId());
+
+        request = parse("{\"funds\":\"10.50\",\"accountId\":-7,\"externalTransactionId\":\"\u00fc\",\"transactionType\":\"DEBIT\"}");
+        Assert.assertEquals(-7, request.getAccountId());
+        Assert.assertEquals(TransactionType.DEBIT, request.getTransactionType());
+        Assert.assertEquals(new BigDecimal("10.50"), request.getFunds());
+        Assert.assertEquals("\u00fc", request.getExternalTransactionId());
+        Assert.assertEquals(new BigDecimal("1E+3"), parse(body("1e3")).getFunds());
+        Assert.assertEquals(new BigDecimal("-0.5"), parse(body("\"-.5\"")).getFunds());
+
+        // left to org.json
+        Assert.assertNull(parse(body("\"x\"")));
+        Assert.assertNull(parse(body("\" 5\"")));
+        Assert.assertNull(parse(body("1e")));
+        Assert.assertNull(parse("{\"accountId\": 1, \"accountId\": 2, \"transactionType\": \"credit\", \"funds\": 1, \"externalTransactionId\": \"e\"}"));
+        Assert.assertNull(parse("{\"accountId\": 1.5, \"transactionType\": \"credit\", \"funds\": 1, \"externalTransactionId\": \"e\"}"));
+        Assert.assertNull(parse("{\"accountId\": 1, \"transactionType\": \"refund\", \"funds\": 1, \"externalTransactionId\": \"e\"}"));
+        Assert.assertNull(parse("{\"accountId\": 1, \"transactionType\": \"credit\", \"funds\": 1}"));
+        Assert.assertNull(parse("{\"accountId\": 1, \"transactionType\": \"credit\", \"funds\": 1, \"externalTransactionId\": \"e\", \"o\": {}}"));
+        Assert.assertNull(parse("not json"));
+    }
+
+    @Test
+    public void testWriteLikeOrgJson() throws Exception {
+        Transaction transaction = new Transaction("</e\u0085\u2001\"\\\t-1", "e", "CREDIT", new BigDecimal("10.500"), 3L);
+        Assert.assertEquals("{\"message\":\"ok\""
+                        + ",\"transactionId\":" + JSONObject.quote(transaction.getTransactionId())
+                        + ",\"externalTransactionId\":\"e\",\"transactionType\":\"CREDIT\",\"accountId\":3,\"funds\":10.5}",
+                write(output -> JsonCodec.get().writeTransaction("ok", transaction, output)));
+
+        for (String balance : new String[]{"0", "100", "0.10", "1E-20", "1E+3", "123456789012345678901234567890.123"})
+            Assert.assertEquals("{\"accountId\":1,\"balance\":" + JSONObject.numberToString(new BigDecimal(balance)) + "}",
+                    write(output -> JsonCodec.get().writeBalance(1, new BigDecimal(balance), output)));
+        Assert.assertEquals("{\"message\":\"\u00fcn\u00efcode \ud83d\ude00\"}", write(output -> JsonCodec.get().writeMessage("\u00fcn\u00efcode \ud83d\ude00", output)));
+    }
+
+    @Test
+    public void testFallbackKeepsMessages() throws Exception {
+        Ledger ledger = new Ledger(new TransactionConfiguration());
+        ledger.recover();
+        ledger.start();
+        try {
+            AccountTransactionAPI api = new AccountTransactionAPI(ledger);
+            api.registerAccount(1);
+            Assert.assertEquals("could not register transaction. JSONException: JSONObject[\"externalTransactionId\"] not found.",
+                    message(api, "{\"accountId\": 1, \"transactionType\": \"credit\", \"funds\": 1}"));
+            Assert.assertEquals("could not register transaction. unexpected transaction type: REFUND",
+                    message(api, "{\"accountId\": 1, \"transactionType\": \"refund\", \"funds\": 1, \"externalTransactionId\": \"e\"}"));
+            Assert.assertEquals("could not register transaction. account with id:2 does not exist",
+                    message(api, "{\"accountId\": 2, \"transactionType\": \"refund\", \"funds\": 1, \"externalTransactionId\": \"e\"}"));
+            Assert.assertEquals("could not register transaction. not enough balance!",
+                    message(api, "{\"accountId\": 1, \"transactionType\": \"debit\", \"funds\": 1, \"externalTransactionId\": \"e\"}"));
+            Assert.assertEquals("could not register transaction. unexpected zero or negative funds amount:-1.0",
+                    message(api, "{\"accountId\": 1, \"transactionType\": \"debit\", \"funds\": -1.0, \"externalTransactionId\": \"e\"}"));
+            Assert.assertEquals("transaction registered successfully",
+                    message(api, "{\"accountId\": 1, \"transactionType\": \"credit\", \"funds\": 1, \"externalTransactionId\": \"e\"}"));
+        } finally {
+            ledger.stop();
+        }
+    }
+
+    private static String body(String funds) {
+        return "{\"accountId\": 1, \"transactionType\": \"credit\", \"funds\": " + funds + ", \"externalTransactionId\": \"e\"}";
+    }
+
+    private static TransactionRequest parse(String body) throws IOException {
+        return JsonCodec.get().read(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))).parseTransaction();
+    }
+
+    private static String write(StreamingOutput output) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        output.write(bytes);
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String message(AccountTransactionAPI api, String body) throws Exception {
+        Response response = api.registerTransaction(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        return new JSONObject(write((StreamingOutput) response.getEntity())).getString("message");
+    }
+}
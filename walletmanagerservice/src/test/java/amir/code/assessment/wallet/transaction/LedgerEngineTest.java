@@ -0,0 +1,223 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks both LedgerEngine modes.
+ */
+public class LedgerEngineTest {
+
+    private static final BigDecimal FUNDS = new BigDecimal("2.5");
+    private static final int ACCOUNTS = 64;
+    private static final int THREADS = 8;
+    private static final int ITERATIONS_PER_THREAD = 20_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPartitionedEngineAppliesTransactionsInOrder() throws Exception {
+        Ledger ledger = TestLedgers.newLedger(EngineFactory.Mode.PARTITIONED, null);
+        ledger.start();
+        try {
+            ledger.registerAccount(1);
+            // a debit published after a credit of the same thread always sees the credit
+            for (int i = 0; i < 10_000; i++) {
+                Assert.assertEquals(RegistrationResult.REGISTERED,
+                        ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "c" + i).getStatus());
+                Assert.assertEquals(RegistrationResult.REGISTERED,
+                        ledger.registerTransaction(1, TransactionType.DEBIT, FUNDS, "d" + i).getStatus());
+            }
+            Assert.assertEquals(RegistrationResult.NOT_ENOUGH_BALANCE,
+                    ledger.registerTransaction(1, TransactionType.DEBIT, FUNDS, "d").getStatus());
+            Assert.assertEquals(RegistrationResult.ACCOUNT_NOT_FOUND,
+                    ledger.registerTransaction(2, TransactionType.CREDIT, FUNDS, "c").getStatus());
+            Assert.assertEquals(20_000, ledger.getTransactions().size());
+        } finally {
+            ledger.stop();
+        }
+    }
+
+    @Test
+    public void testConcurrentRegistrations() throws Exception {
+        for (EngineFactory.Mode mode : EngineFactory.Mode.values()) {
+            Ledger ledger = TestLedgers.newLedger(mode, null);
+            ledger.start();
+            try {
+                for (long accountId = 1; accountId <= ACCOUNTS; accountId++)
+                    ledger.registerAccount(accountId);
+
+                AtomicLong failures = new AtomicLong();
+                CountDownLatch start = new CountDownLatch(1);
+                CountDownLatch done = new CountDownLatch(THREADS);
+
+                for (int i = 0; i < THREADS; i++) {
+                    int thread = i;
+                    new Thread(() -> {
+                        try {
+                            start.await();
+                            for (int count = 0; count < ITERATIONS_PER_THREAD; count++) {
+                                long accountId = 1 + (thread + count) % ACCOUNTS;
+                                TransactionType type = count % 2 == 0 ? TransactionType.CREDIT : TransactionType.DEBIT;
+                                RegistrationResult result = ledger.registerTransaction(accountId, type, FUNDS, "e" + count);
+                                if (result.getStatus() != RegistrationResult.REGISTERED && type == TransactionType.CREDIT)
+                                    failures.incrementAndGet();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (IOException e) {
+                            failures.incrementAndGet();
+                        }
+                        done.countDown();
+                    }).start();
+                }
+
+                start.countDown();
+                done.await();
+
+                Assert.assertEquals(0, failures.get());
+                BigDecimal total = BigDecimal.ZERO;
+                for (long accountId = 1; accountId <= ACCOUNTS; accountId++)
+                    total = total.add(ledger.getAccount(accountId).getBalance());
+                long debits = ledger.getTransactions().size() - THREADS * ITERATIONS_PER_THREAD / 2;
+                Assert.assertEquals(0, total.compareTo(FUNDS.multiply(BigDecimal.valueOf(THREADS * ITERATIONS_PER_THREAD / 2 - debits))));
+
+            } finally {
+                ledger.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testFailedLogIsRolledBack() throws Exception {
+        for (EngineFactory.Mode mode : EngineFactory.Mode.values()) {
+            FailingWriteAheadLog wal = new FailingWriteAheadLog(folder.newFolder().toPath());
+            LedgerJournal journal = new LedgerJournal(wal);
+            AccountRegistry accounts = new StripedAccountRegistry(4, 16);
+            TransactionStore transactions = new ConcurrentTransactionStore(16, 1);
+            EngineFactory factory = new EngineFactory();
+            factory.setMode(mode);
+            factory.setShards(2);
+            LedgerEngine engine = factory.build(accounts, transactions, journal, new TransactionIdGenerator(0), new MetricRegistry());
+            IdempotencyIndex idempotency = new IdempotencyIndex(1000, 3600, new MetricRegistry());
+            Account account = new Account();
+            accounts.registerIfAbsent(1, account);
+            journal.start(1);
+            engine.start();
+            try {
+                Assert.assertEquals(RegistrationResult.REGISTERED, idempotency.register(new TransactionRequest(1, TransactionType.CREDIT, BigDecimal.TEN, "c"),
+                        () -> engine.register(1, TransactionType.CREDIT, BigDecimal.TEN, "c")).getStatus());
+
+                // the debit is applied and logged but its write fails, it is taken back
+                wal.failNextSync = true;
+                assertFails(mode, () -> idempotency.register(new TransactionRequest(1, TransactionType.DEBIT, FUNDS, "d"),
+                        () -> engine.register(1, TransactionType.DEBIT, FUNDS, "d")));
+                Assert.assertEquals(0, account.getBalance().compareTo(BigDecimal.TEN));
+
+                // the log stays failed, a retry is rejected before touching the balance
+                for (int retry = 0; retry < 3; retry++) {
+                    assertFails(mode, () -> idempotency.register(new TransactionRequest(1, TransactionType.DEBIT, FUNDS, "d"),
+                            () -> engine.register(1, TransactionType.DEBIT, FUNDS, "d")));
+                    assertFails(mode, () -> engine.registerAll(new TransactionBatch(Collections.singletonList(
+                            new TransactionRequest(1, TransactionType.CREDIT, FUNDS, "b")), false)));
+                }
+                Assert.assertEquals(0, account.getBalance().compareTo(BigDecimal.TEN));
+                Assert.assertEquals(1, transactions.size());
+                Assert.assertEquals(1, transactions.getHistory(1).size());
+            } finally {
+                engine.stop();
+                journal.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testFailedCreditIsNotApplied() throws Exception {
+        for (EngineFactory.Mode mode : EngineFactory.Mode.values()) {
+            FailingWriteAheadLog wal = new FailingWriteAheadLog(folder.newFolder().toPath());
+            LedgerJournal journal = new LedgerJournal(wal);
+            AccountRegistry accounts = new StripedAccountRegistry(4, 16);
+            TransactionStore transactions = new ConcurrentTransactionStore(16, 1);
+            EngineFactory factory = new EngineFactory();
+            factory.setMode(mode);
+            factory.setShards(2);
+            LedgerEngine engine = factory.build(accounts, transactions, journal, new TransactionIdGenerator(0), new MetricRegistry());
+            Account account = new Account();
+            accounts.registerIfAbsent(1, account);
+            journal.start(1);
+            engine.start();
+            try {
+                // the credit is logged but its write fails, it was never applied so nothing can spend it
+                wal.failNextSync = true;
+                assertFails(mode, () -> engine.register(1, TransactionType.CREDIT, BigDecimal.TEN, "c"));
+                Assert.assertEquals(0, account.getBalance().signum());
+                assertFails(mode, () -> engine.register(1, TransactionType.DEBIT, BigDecimal.TEN, "d"));
+                Assert.assertEquals(0, account.getBalance().signum());
+                Assert.assertEquals(0, transactions.size());
+            } finally {
+                engine.stop();
+                journal.stop();
+            }
+        }
+    }
+
+    private interface Call {
+        void call() throws Exception;
+    }
+
+    private static void assertFails(EngineFactory.Mode mode, Call call) {
+        try {
+            call.call();
+            Assert.fail(mode + " engine registered a transaction although the log failed");
+        } catch (Exception expected) {
+            // IOException or IllegalStateException from a shard
+        }
+    }
+
+    /**
+     * Log whose next write fails on demand, like a full disk, and which then stays failed.
+     */
+    private static final class FailingWriteAheadLog extends WriteAheadLog {
+        private volatile boolean failNextSync;
+        private volatile boolean failed;
+
+        FailingWriteAheadLog(Path directory) {
+            super(directory, FsyncPolicy.OS, 1024, 0, 1 << 20);
+        }
+
+        @Override
+        void checkWritable() throws IOException {
+            if (failed)
+                throw new IOException("write-ahead log failed");
+            super.checkWritable();
+        }
+
+        @Override
+        long append(ByteBuffer payload) throws IOException {
+            checkWritable();
+            return super.append(payload);
+        }
+
+        @Override
+        void awaitDurable(long position) throws IOException {
+            if (failNextSync) {
+                failNextSync = false;
+                failed = true;
+            }
+            checkWritable();
+            super.awaitDurable(position);
+        }
+    }
+}
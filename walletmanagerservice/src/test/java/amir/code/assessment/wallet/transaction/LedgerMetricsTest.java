@@ -0,0 +1,81 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+public class LedgerMetricsTest {
+
+    private static final String LEDGER = "amir.code.assessment.wallet.transaction.Ledger.";
+
+    @Test
+    public void testRecordsRegisteredAndRejected() throws Exception {
+        for (EngineFactory.Mode mode : EngineFactory.Mode.values()) {
+            MetricRegistry metrics = new MetricRegistry();
+            TransactionConfiguration configuration = new TransactionConfiguration();
+            configuration.getEngine().setMode(mode);
+            Ledger ledger = new Ledger(configuration, metrics);
+            ledger.recover();
+            ledger.start();
+            try {
+                ledger.registerAccount(1);
+                ledger.registerTransaction(1, TransactionType.CREDIT, new BigDecimal("10"), "credit");
+                ledger.registerTransaction(1, TransactionType.CREDIT, new BigDecimal("10"), "credit");
+                ledger.registerTransaction(1, TransactionType.DEBIT, new BigDecimal("11"), "debit");
+                ledger.registerTransaction(1, TransactionType.DEBIT, new BigDecimal("-1"), "negative");
+                ledger.registerTransaction(2, TransactionType.CREDIT, new BigDecimal("1"), "unknown");
+                ledger.registerTransactions(Arrays.asList(
+                        new TransactionRequest(1, TransactionType.CREDIT, new BigDecimal("1"), "batch-1"),
+                        new TransactionRequest(1, TransactionType.DEBIT, new BigDecimal("100"), "batch-2"),
+                        new TransactionRequest(1, TransactionType.CREDIT, new BigDecimal("2"), "batch-3")), true);
+            } finally {
+                ledger.stop();
+            }
+
+            // the retried credit is answered by the idempotency index and not registered twice
+            Assert.assertEquals(1, metrics.meter(LEDGER + "registered").getCount());
+            Assert.assertEquals(1, metrics.counter(LEDGER + "rejected.unexpected-funds").getCount());
+            Assert.assertEquals(2, metrics.counter(LEDGER + "rejected.not-enough-balance").getCount());
+            Assert.assertEquals(1, metrics.counter(LEDGER + "rejected.account-not-found").getCount());
+            Assert.assertEquals(2, metrics.counter(LEDGER + "rejected.rolled-back").getCount());
+            Assert.assertEquals(1, metrics.getGauges().get(LEDGER + "accounts").getValue());
+            Assert.assertEquals(1L, metrics.getGauges().get(LEDGER + "transactions").getValue());
+            Assert.assertTrue(metrics.getGauges().containsKey("amir.code.assessment.wallet.transaction.Account.balance-update-retries"));
+        }
+    }
+
+    @Test
+    public void testNotInstrumented() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        TransactionConfiguration configuration = new TransactionConfiguration();
+        configuration.setInstrumented(false);
+        Ledger ledger = new Ledger(configuration, metrics);
+        ledger.recover();
+        ledger.start();
+        try {
+            ledger.registerAccount(1);
+            ledger.registerTransaction(1, TransactionType.CREDIT, new BigDecimal("10"), "credit");
+        } finally {
+            ledger.stop();
+        }
+        Assert.assertTrue(metrics.getNames().stream().noneMatch(name -> name.startsWith(LEDGER)));
+    }
+
+    @Test
+    public void testRecentSamplesReservoir() {
+        RecentSamplesReservoir reservoir = new RecentSamplesReservoir(100);
+        for (long value = 1; value <= 50; value++)
+            reservoir.update(value);
+        Assert.assertEquals(50, reservoir.getSnapshot().size());
+        Assert.assertEquals(25.5, reservoir.getSnapshot().getMedian(), 0.0);
+
+        // older samples are replaced by the recent ones
+        for (int i = 0; i < 10_000; i++)
+            reservoir.update(1000);
+        Assert.assertEquals(100, reservoir.size());
+        Assert.assertEquals(1000, reservoir.getSnapshot().getMin());
+    }
+}
@@ -0,0 +1,373 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LedgerRecoveryTest {
+
+    private static final BigDecimal FUNDS = new BigDecimal("1.25");
+    private static final int ACCOUNTS = 16;
+    private static final int THREADS = 8;
+    private static final int ITERATIONS_PER_THREAD = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecoverDirectEngine() throws Exception {
+        testRecover(EngineFactory.Mode.DIRECT, WriteAheadLog.FsyncPolicy.BATCHED);
+    }
+
+    @Test
+    public void testRecoverPartitionedEngine() throws Exception {
+        testRecover(EngineFactory.Mode.PARTITIONED, WriteAheadLog.FsyncPolicy.EVERY_COMMIT);
+    }
+
+    @Test
+    public void testRecoverCutsTornTail() throws Exception {
+        File directory = folder.newFolder();
+        Ledger ledger = newLedger(directory, EngineFactory.Mode.DIRECT, WriteAheadLog.FsyncPolicy.OS);
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+        ledger.registerTransaction(1, TransactionType.CREDIT, TestLedgers.PI, "pi");
+        ledger.stop();
+
+        // a record cut in the middle of its write by a crash
+        Path segment = new WriteAheadLog(directory.toPath(), WriteAheadLog.FsyncPolicy.OS, 1, 0, 1024).segmentPath(1);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 42, 1, 2, 3}));
+        }
+
+        Ledger recovered = newLedger(directory, EngineFactory.Mode.DIRECT, WriteAheadLog.FsyncPolicy.OS);
+        Assert.assertEquals(2, recovered.recover());
+        Assert.assertEquals(0, recovered.getAccount(1).getBalance().compareTo(TestLedgers.PI));
+
+        // the log keeps working after the torn tail was cut
+        recovered.start();
+        // a retry after the restart gets the recovered transaction back
+        Assert.assertEquals(TestLedgers.PI,
+                recovered.registerTransaction(1, TransactionType.CREDIT, TestLedgers.PI, "pi").getTransaction().getFunds());
+        Assert.assertEquals(0, recovered.getAccount(1).getBalance().compareTo(TestLedgers.PI));
+        recovered.registerTransaction(1, TransactionType.DEBIT, TestLedgers.PI, "pi-back");
+        recovered.stop();
+
+        Ledger again = newLedger(directory, EngineFactory.Mode.DIRECT, WriteAheadLog.FsyncPolicy.OS);
+        Assert.assertEquals(3, again.recover());
+        Assert.assertEquals(0, again.getAccount(1).getBalance().compareTo(BigDecimal.ZERO));
+    }
+
+    @Test
+    public void testRecoverFromSnapshotAndTail() throws Exception {
+        File directory = folder.newFolder();
+        Ledger ledger = newLedger(directory, EngineFactory.Mode.DIRECT, WriteAheadLog.FsyncPolicy.OS);
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+        ledger.registerAccount(2);
+
+        // writers keep going while snapshots are taken
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            new Thread(() -> {
+                try {
+                    for (int count = 0; count < ITERATIONS_PER_THREAD; count++) {
+                        String suffix = "-" + thread + "-" + count;
+                        ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "c" + suffix);
+                        ledger.registerTransaction(2, TransactionType.CREDIT, TestLedgers.PI, "pi" + suffix);
+                    }
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+                done.countDown();
+            }).start();
+        }
+        while (done.getCount() > 0) {
+            ledger.getSnapshots().takeSnapshot();
+            Thread.sleep(5);
+        }
+        ledger.getSnapshots().takeSnapshot();
+        // the tail after the last snapshot
+        Transaction last = ledger.registerTransaction(1, TransactionType.DEBIT, FUNDS, "d").getTransaction();
+        ledger.stop();
+        Assert.assertEquals(0, failures.get());
+
+        // covered segments are removed, only the active segment is left
+        Assert.assertEquals(1, new WriteAheadLog(directory.toPath(), WriteAheadLog.FsyncPolicy.OS, 1, 0, 1024).segmentNumbers().size());
+
+        Ledger recovered = newLedger(directory, EngineFactory.Mode.DIRECT, WriteAheadLog.FsyncPolicy.OS);
+        Assert.assertEquals(1, recovered.recover());
+        Assert.assertEquals(0, recovered.getAccount(1).getBalance().compareTo(ledger.getAccount(1).getBalance()));
+        Assert.assertEquals(0, recovered.getAccount(2).getBalance().compareTo(ledger.getAccount(2).getBalance()));
+
+        // transactionIds keep increasing after a restore
+        recovered.start();
+        Transaction transaction = recovered.registerTransaction(1, TransactionType.CREDIT, FUNDS, "c").getTransaction();
+        Assert.assertTrue(Ledger.getTransactionSequence(transaction.getTransactionId())
+                > Ledger.getTransactionSequence(last.getTransactionId()));
+        recovered.stop();
+    }
+
+    @Test
+    public void testRecoverRefusesSnapshotWithoutFollowingSegments() throws Exception {
+        File directory = folder.newFolder();
+        Ledger ledger = newLedger(directory, EngineFactory.Mode.DIRECT, WriteAheadLog.FsyncPolicy.OS);
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+        ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "c1");
+        ledger.getSnapshots().takeSnapshot();
+        ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "c2");
+        ledger.getSnapshots().takeSnapshot();
+        ledger.stop();
+
+        // a torn newest snapshot, the segments it covered are gone and the older one would lose c2
+        File[] snapshots = directory.listFiles((dir, name) -> name.startsWith(SnapshotManager.SNAPSHOT_PREFIX));
+        Assert.assertEquals(2, snapshots.length);
+        Arrays.sort(snapshots);
+        try (FileChannel channel = FileChannel.open(snapshots[1].toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+        }
+
+        try {
+            newLedger(directory, EngineFactory.Mode.DIRECT, WriteAheadLog.FsyncPolicy.OS).recover();
+            Assert.fail("restored an older snapshot without the segments following it");
+        } catch (IOException expected) {
+            Assert.assertTrue(expected.getMessage().contains("is missing"));
+        }
+    }
+
+    @Test
+    public void testRetriesCoveredBySnapshotAreDeduplicated() throws Exception {
+        File directory = folder.newFolder();
+        Ledger ledger = newLedger(directory, EngineFactory.Mode.DIRECT, WriteAheadLog.FsyncPolicy.OS);
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+        ledger.registerAccount(2);
+        Transaction credit = ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "c").getTransaction();
+        List<Transaction> transfer = ledger.transfer(Arrays.asList(
+                new TransactionRequest(1, TransactionType.DEBIT, FUNDS, "t"),
+                new TransactionRequest(2, TransactionType.CREDIT, FUNDS, "t"))).getLinkedTransactions();
+        ledger.getSnapshots().takeSnapshot();
+        ledger.stop();
+
+        // both registrations are only in the snapshot, the log segments holding them were compacted
+        Ledger recovered = newLedger(directory, EngineFactory.Mode.DIRECT, WriteAheadLog.FsyncPolicy.OS);
+        recovered.recover();
+        recovered.start();
+        RegistrationResult retriedCredit = recovered.registerTransaction(1, TransactionType.CREDIT, FUNDS, "c");
+        Assert.assertEquals(credit.getTransactionId(), retriedCredit.getTransaction().getTransactionId());
+        RegistrationResult retriedTransfer = recovered.transfer(Arrays.asList(
+                new TransactionRequest(1, TransactionType.DEBIT, FUNDS, "t"),
+                new TransactionRequest(2, TransactionType.CREDIT, FUNDS, "t")));
+        Assert.assertEquals(transfer.get(1).getTransactionId(),
+                retriedTransfer.getLinkedTransactions().get(1).getTransactionId());
+        Assert.assertEquals(0, recovered.getAccount(1).getBalance().signum());
+        Assert.assertEquals(0, recovered.getAccount(2).getBalance().compareTo(FUNDS));
+        recovered.stop();
+    }
+
+    @Test
+    public void testRecoverRefusesNegativeBalance() throws Exception {
+        File directory = folder.newFolder();
+        // a debit without the credit it spent, e.g. a corrupt or hand edited log
+        LedgerJournal journal = new LedgerJournal(new WriteAheadLog(directory.toPath(), WriteAheadLog.FsyncPolicy.OS, 1, 0, 64 * 1024));
+        journal.start(1);
+        journal.logAccount(1);
+        journal.sync(journal.logTransaction(new Transaction("d-1", "d", "DEBIT", FUNDS, 1L)));
+        journal.stop();
+
+        try {
+            newLedger(directory, EngineFactory.Mode.DIRECT, WriteAheadLog.FsyncPolicy.OS).recover();
+            Assert.fail("recovered a negative balance");
+        } catch (IOException expected) {
+            Assert.assertTrue(expected.getMessage().contains("account 1"));
+        }
+    }
+
+    @Test
+    public void testEveryLogPrefixRecoversNonNegativeBalances() throws Exception {
+        for (EngineFactory.Mode mode : EngineFactory.Mode.values()) {
+            File directory = folder.newFolder();
+            Ledger ledger = newLedger(directory, mode, WriteAheadLog.FsyncPolicy.OS);
+            ledger.recover();
+            ledger.start();
+            ledger.registerAccount(1);
+
+            // debits of one hot account only funded by the credits of the other threads
+            AtomicLong failures = new AtomicLong();
+            CountDownLatch done = new CountDownLatch(THREADS);
+            for (int i = 0; i < THREADS; i++) {
+                int thread = i;
+                new Thread(() -> {
+                    try {
+                        for (int count = 0; count < ITERATIONS_PER_THREAD; count++) {
+                            String suffix = "-" + thread + "-" + count;
+                            ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "c" + suffix);
+                            ledger.registerTransaction(1, TransactionType.DEBIT, FUNDS, "d" + suffix);
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+            ledger.stop();
+            Assert.assertEquals(0, failures.get());
+
+            // a crash may keep any prefix of the log, none of them may hold a debit before the credits it spent
+            BigDecimal[] balance = { BigDecimal.ZERO };
+            AtomicLong overdrawn = new AtomicLong();
+            new LedgerJournal(new WriteAheadLog(directory.toPath(), WriteAheadLog.FsyncPolicy.OS, 1, 0, 64 * 1024))
+                    .replay(new LedgerJournal.Handler() {
+                        @Override
+                        public void accountRegistered(long accountId) {
+                        }
+
+                        @Override
+                        public void transactionRegistered(Transaction transaction) {
+                            balance[0] = TransactionType.CREDIT.name().equals(transaction.getTransactionType())
+                                    ? balance[0].add(transaction.getFunds())
+                                    : balance[0].subtract(transaction.getFunds());
+                            if (balance[0].signum() < 0)
+                                overdrawn.incrementAndGet();
+                        }
+                    });
+            Assert.assertEquals(mode + " engine", 0, overdrawn.get());
+            Assert.assertEquals(0, balance[0].compareTo(ledger.getAccount(1).getBalance()));
+        }
+    }
+
+    @Test
+    public void testCreditIsNotSpentBeforeDurable() throws Exception {
+        HoldingWriteAheadLog wal = new HoldingWriteAheadLog(folder.newFolder().toPath());
+        LedgerJournal journal = new LedgerJournal(wal);
+        AccountRegistry accounts = new StripedAccountRegistry(4, 16);
+        TransactionStore transactions = new ConcurrentTransactionStore(16, 1);
+        LedgerEngine engine = new DirectLedgerEngine(accounts, transactions, journal, new TransactionIdGenerator(0));
+        accounts.registerIfAbsent(1, new Account());
+        journal.start(1);
+        try {
+            wal.hold = true;
+            Thread credit = new Thread(() -> {
+                try {
+                    engine.register(1, TransactionType.CREDIT, BigDecimal.TEN, "c");
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            credit.start();
+            wal.syncing.await();
+
+            // the credit is logged but not durable yet, a crash now would lose it
+            Assert.assertEquals(RegistrationResult.NOT_ENOUGH_BALANCE,
+                    engine.register(1, TransactionType.DEBIT, BigDecimal.TEN, "d").getStatus());
+            Assert.assertEquals(0, accounts.get(1).getBalance().signum());
+
+            wal.release.countDown();
+            credit.join();
+            Assert.assertEquals(0, accounts.get(1).getBalance().compareTo(BigDecimal.TEN));
+            Assert.assertEquals(RegistrationResult.REGISTERED,
+                    engine.register(1, TransactionType.DEBIT, BigDecimal.TEN, "d").getStatus());
+            Assert.assertEquals(2, transactions.size());
+        } finally {
+            journal.stop();
+        }
+    }
+
+    /**
+     * Log whose next sync waits until it is released, like a slow disk.
+     */
+    private static final class HoldingWriteAheadLog extends WriteAheadLog {
+        private final CountDownLatch syncing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile boolean hold;
+
+        HoldingWriteAheadLog(Path directory) {
+            super(directory, FsyncPolicy.OS, 1024, 0, 1 << 20);
+        }
+
+        @Override
+        void awaitDurable(long position) throws IOException {
+            if (hold) {
+                hold = false;
+                syncing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            super.awaitDurable(position);
+        }
+    }
+
+    private void testRecover(EngineFactory.Mode mode, WriteAheadLog.FsyncPolicy fsyncPolicy) throws Exception {
+        File directory = folder.newFolder();
+        Ledger ledger = newLedger(directory, mode, fsyncPolicy);
+        ledger.recover();
+        ledger.start();
+
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++)
+            ledger.registerAccount(accountId);
+        // an account without any transaction is recovered as well
+        ledger.registerAccount(ACCOUNTS + 1);
+
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            new Thread(() -> {
+                try {
+                    for (int count = 0; count < ITERATIONS_PER_THREAD; count++) {
+                        long accountId = 1 + (thread + count) % ACCOUNTS;
+                        String suffix = "-" + thread + "-" + count;
+                        ledger.registerTransaction(accountId, TransactionType.CREDIT, FUNDS, "c" + suffix);
+                        ledger.registerTransaction(accountId, TransactionType.DEBIT, FUNDS, "d" + suffix);
+                        ledger.registerTransaction(accountId, TransactionType.CREDIT, TestLedgers.PI, "pi" + suffix);
+                    }
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        ledger.stop();
+        Assert.assertEquals(0, failures.get());
+
+        Ledger recovered = newLedger(directory, mode, fsyncPolicy);
+        recovered.recover();
+        Assert.assertEquals(ledger.getTransactions().size(), recovered.getTransactions().size());
+        Assert.assertEquals(ACCOUNTS + 1, recovered.getAccounts().size());
+        for (long accountId = 1; accountId <= ACCOUNTS + 1; accountId++)
+            Assert.assertEquals(0, recovered.getAccount(accountId).getBalance().compareTo(ledger.getAccount(accountId).getBalance()));
+    }
+
+    private Ledger newLedger(File directory, EngineFactory.Mode mode, WriteAheadLog.FsyncPolicy fsyncPolicy) {
+        TransactionConfiguration configuration = TestLedgers.configuration(mode, directory);
+        configuration.getWal().setFsyncPolicy(fsyncPolicy);
+        // small segments so the log rolls over while testing
+        configuration.getWal().setSegmentBytes(64 * 1024);
+        return new Ledger(configuration);
+    }
+}
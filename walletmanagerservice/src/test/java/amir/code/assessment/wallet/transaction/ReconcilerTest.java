@@ -0,0 +1,121 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ReconcilerTest {
+
+    private static final BigDecimal FUNDS = new BigDecimal("1.25");
+    private static final int ACCOUNTS = 1000;
+    private static final int THREADS = 8;
+    private static final int ITERATIONS_PER_THREAD = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReconcileWhileWriting() throws Exception {
+        Ledger ledger = newLedger(EngineFactory.Mode.PARTITIONED, null);
+        ledger.recover();
+        ledger.start();
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++)
+            ledger.registerAccount(accountId);
+
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            new Thread(() -> {
+                try {
+                    for (int count = 0; count < ITERATIONS_PER_THREAD; count++) {
+                        long accountId = 1 + (thread * 31 + count) % ACCOUNTS;
+                        String suffix = "-" + thread + "-" + count;
+                        ledger.registerTransaction(accountId, TransactionType.CREDIT, TestLedgers.PI, "pi" + suffix);
+                        ledger.registerTransaction(accountId, TransactionType.DEBIT, FUNDS, "d" + suffix);
+                    }
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+                done.countDown();
+            }).start();
+        }
+
+        // incremental runs alongside the writers never report an account which is only being updated
+        Reconciler reconciler = ledger.getReconciler();
+        while (done.getCount() > 0)
+            Assert.assertEquals(0, reconciler.reconcile(false).getDiscrepancyCount());
+        Assert.assertEquals(0, failures.get());
+
+        Reconciler.Report report = reconciler.reconcile(false);
+        Assert.assertEquals(0, report.getDiscrepancyCount());
+        Assert.assertEquals(0, report.getUnsettled());
+        Assert.assertEquals(ACCOUNTS, report.getAccounts());
+
+        // nothing new since the watermarks
+        Assert.assertEquals(0, reconciler.reconcile(false).getTransactions());
+        ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "c");
+        Assert.assertEquals(1, reconciler.reconcile(false).getTransactions());
+        Assert.assertEquals(ledger.getTransactions().size(), reconciler.reconcile(true).getTransactions());
+        ledger.stop();
+    }
+
+    @Test
+    public void testReportDiscrepancy() throws Exception {
+        Ledger ledger = newLedger(EngineFactory.Mode.DIRECT, null);
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+        ledger.registerAccount(2);
+        ledger.registerTransaction(1, TransactionType.CREDIT, TestLedgers.PI, "pi");
+        ledger.registerTransaction(2, TransactionType.CREDIT, FUNDS, "c");
+
+        // a balance update without its transaction
+        ledger.getAccount(2).credit(FUNDS);
+
+        Reconciler.Report report = ledger.getReconciler().reconcile(false);
+        Assert.assertEquals(2, report.getAccounts());
+        Assert.assertEquals(1, report.getDiscrepancyCount());
+        Reconciler.Discrepancy discrepancy = report.getDiscrepancies().get(0);
+        Assert.assertEquals(2, discrepancy.getAccountId());
+        Assert.assertEquals(0, discrepancy.getBalance().compareTo(FUNDS.add(FUNDS)));
+        Assert.assertEquals(0, discrepancy.getComputedBalance().compareTo(FUNDS));
+        Assert.assertEquals(1, ledger.getReconciler().getLastReport().getDiscrepancyCount());
+        ledger.stop();
+    }
+
+    @Test
+    public void testReconcileAfterRecoveryFromSnapshot() throws Exception {
+        File directory = folder.newFolder();
+        Ledger ledger = newLedger(EngineFactory.Mode.DIRECT, directory);
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+        ledger.registerAccount(2);
+        ledger.registerTransaction(1, TransactionType.CREDIT, TestLedgers.PI, "pi");
+        ledger.registerTransaction(2, TransactionType.CREDIT, FUNDS, "c");
+        ledger.getSnapshots().takeSnapshot();
+        // the tail after the snapshot
+        ledger.registerTransaction(1, TransactionType.DEBIT, FUNDS, "d");
+        ledger.stop();
+
+        Ledger recovered = newLedger(EngineFactory.Mode.DIRECT, directory);
+        recovered.recover();
+        Reconciler.Report report = recovered.getReconciler().reconcile(true);
+        Assert.assertEquals(2, report.getAccounts());
+        Assert.assertEquals(1, report.getTransactions());
+        Assert.assertEquals(0, report.getDiscrepancyCount());
+    }
+
+    private Ledger newLedger(EngineFactory.Mode mode, File directory) {
+        TransactionConfiguration configuration = TestLedgers.configuration(mode, directory);
+        configuration.getReconciliation().setParallelism(4);
+        return new Ledger(configuration);
+    }
+}
@@ -0,0 +1,64 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StripedAccountRegistryTest {
+
+    private static final int ACCOUNTS = 100_000;
+    private static final int THREADS = 8;
+
+    @Test
+    public void testRegisterIfAbsentHasOneWinnerPerAccount() throws InterruptedException {
+        // deliberately undersized so stripes grow while registering
+        StripedAccountRegistry registry = new StripedAccountRegistry(4, 16);
+        AtomicLong winners = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+
+        for (int i = 0; i < THREADS; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+                        if (registry.registerIfAbsent(accountId, new Account()) == null)
+                            winners.incrementAndGet();
+                        if (registry.get(accountId) == null)
+                            winners.addAndGet(-ACCOUNTS); // a registered account must always be visible
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        Assert.assertEquals(ACCOUNTS, winners.get());
+        Assert.assertEquals(ACCOUNTS, registry.size());
+
+        AtomicLong visited = new AtomicLong();
+        registry.forEach((accountId, account) -> {
+            Assert.assertSame(account, registry.get(accountId));
+            visited.incrementAndGet();
+        });
+        Assert.assertEquals(ACCOUNTS, visited.get());
+    }
+
+    @Test
+    public void testGetUnknownAccount() {
+        StripedAccountRegistry registry = new StripedAccountRegistry(64, 1024);
+        Account account = new Account();
+
+        Assert.assertNull(registry.get(1));
+        Assert.assertNull(registry.get(0));
+        Assert.assertNull(registry.registerIfAbsent(1, account));
+        Assert.assertSame(account, registry.registerIfAbsent(1, new Account()));
+        Assert.assertSame(account, registry.get(1));
+        Assert.assertNull(registry.get(-1));
+    }
+}
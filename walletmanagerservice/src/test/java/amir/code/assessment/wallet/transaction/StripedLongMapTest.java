@@ -0,0 +1,65 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StripedLongMapTest {
+
+    private static final int KEYS = 100_000;
+    private static final int THREADS = 8;
+
+    @Test
+    public void testComputeIfAbsentCreatesOneValuePerKey() throws InterruptedException {
+        // deliberately undersized so stripes grow while adding
+        StripedLongMap<long[]> map = new StripedLongMap<>(4, 16);
+        AtomicLong created = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+
+        for (int i = 0; i < THREADS; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (long key = 1; key <= KEYS; key++) {
+                        long[] value = map.computeIfAbsent(key, k -> {
+                            created.incrementAndGet();
+                            return new long[] { k };
+                        });
+                        if (value[0] != key || map.get(key) != value)
+                            created.addAndGet(-KEYS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        Assert.assertEquals(KEYS, created.get());
+        Assert.assertEquals(KEYS, map.size());
+        Assert.assertNull(map.get(0));
+        Assert.assertNull(map.get(KEYS + 1));
+    }
+
+    @Test
+    public void testZeroKey() {
+        StripedLongMap<String> map = new StripedLongMap<>(4, 16);
+        Assert.assertNull(map.putIfAbsent(0, "zero"));
+        Assert.assertEquals("zero", map.putIfAbsent(0, "other"));
+        Assert.assertEquals("zero", map.computeIfAbsent(0, key -> "other"));
+        Assert.assertEquals("one", map.computeIfAbsent(1, key -> "one"));
+        Assert.assertEquals(2, map.size());
+
+        AtomicLong visited = new AtomicLong();
+        map.forEach((key, value) -> {
+            Assert.assertEquals(key == 0 ? "zero" : "one", value);
+            visited.incrementAndGet();
+        });
+        Assert.assertEquals(2, visited.get());
+    }
+}
@@ -0,0 +1,38 @@
+package amir.code.assessment.wallet.transaction;
+
+import java.io.File;
+import java.math.BigDecimal;
+
+/**
+ * Ledger configuration and funds shared by the tests.
+ */
+final class TestLedgers {
+
+    // more digits than a double keeps, to catch a lossy conversion of funds
+    static final BigDecimal PI = new BigDecimal("3.14159265358979323846264338327950288");
+
+    private TestLedgers() {
+    }
+
+    /**
+     * @param directory . Directory of the write-ahead log or null to disable it.
+     * @return configuration of a ledger with the given engine and several shards
+     */
+    static TransactionConfiguration configuration(EngineFactory.Mode mode, File directory) {
+        TransactionConfiguration configuration = new TransactionConfiguration();
+        configuration.getEngine().setMode(mode);
+        configuration.getEngine().setShards(4);
+        if (directory != null) {
+            configuration.getWal().setEnabled(true);
+            configuration.getWal().setDirectory(directory.getAbsolutePath());
+        }
+        return configuration;
+    }
+
+    /**
+     * @param directory . Directory of the write-ahead log or null to disable it.
+     */
+    static Ledger newLedger(EngineFactory.Mode mode, File directory) {
+        return new Ledger(configuration(mode, directory));
+    }
+}
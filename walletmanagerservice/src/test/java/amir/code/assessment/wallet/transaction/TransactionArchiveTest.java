@@ -0,0 +1,185 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+
+public class TransactionArchiveTest {
+
+    private static final BigDecimal FUNDS = new BigDecimal("1.5");
+    private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+    private static final int ACCOUNTS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPagesReadBothTiers() throws Exception {
+        testPagesReadBothTiers(archive -> new ConcurrentTransactionStore(16, 1, archive));
+        testPagesReadBothTiers(archive -> new ColumnarTransactionStore(16, archive));
+    }
+
+    @Test
+    public void testRecoverAfterArchiving() throws Exception {
+        File wal = folder.newFolder();
+        File segments = folder.newFolder();
+        Ledger ledger = newLedger(wal, segments);
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+        ledger.registerAccount(2);
+        for (int i = 0; i < 300; i++) {
+            if (i % 5 == 4)
+                ledger.registerTransaction(1 + i % 2, TransactionType.DEBIT, FUNDS, "e" + i);
+            else
+                ledger.registerTransaction(1 + i % 2, TransactionType.CREDIT, i % 7 == 0 ? TestLedgers.PI : FUNDS, "e" + i);
+        }
+        Thread.sleep(5);
+        Assert.assertEquals(300, ledger.getRetention().archive());
+        Assert.assertEquals(150, ledger.getHistory(1).base());
+        ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "hot");
+        List<String> expected = transactionIds(ledger.getHistory(1));
+        Assert.assertEquals(151, expected.size());
+        ledger.stop();
+
+        // the journal tail replays the archived transactions again, they are not added twice
+        Ledger recovered = newLedger(wal, segments);
+        recovered.recover();
+        Assert.assertEquals(150, recovered.getHistory(1).base());
+        Assert.assertEquals(expected, transactionIds(recovered.getHistory(1)));
+        Assert.assertEquals(150, recovered.getHistory(2).size());
+        Assert.assertEquals(150, recovered.getHistory(2).page(0, 0, Long.MAX_VALUE, null, 1000).getTransactions().size());
+        Reconciler.Report report = recovered.getReconciler().reconcile(true);
+        Assert.assertEquals(0, report.getDiscrepancyCount());
+        Assert.assertEquals(2, report.getAccounts());
+        Assert.assertEquals(1, report.getTransactions());
+    }
+
+    private void testPagesReadBothTiers(Function<TransactionArchive, TransactionStore> stores) throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        TransactionArchive archive = new TransactionArchive(folder.newFolder().toPath(), 4096, metrics);
+        archive.open();
+        TransactionStore store = stores.apply(archive);
+        // the same transactions without archive
+        TransactionStore expected = new ConcurrentTransactionStore(16, 1);
+        AccountRegistry accounts = new StripedAccountRegistry(4, 16);
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++)
+            accounts.registerIfAbsent(accountId, new Account());
+        RetentionManager retention = new RetentionManager(accounts, store, archive, 3600, 0, metrics);
+
+        // two days ago, a day ago and now, with dates going back and forth a little within each day
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (long start : new long[] { now - 2 * DAY_MILLIS, now - DAY_MILLIS, now }) {
+            for (int i = 0; i < 400; i++, count++) {
+                Transaction transaction = transaction(count, start + i * 10 - (i % 4) * 15);
+                store.add(transaction);
+                expected.add(transaction);
+            }
+            if (start == now - DAY_MILLIS)
+                Assert.assertEquals(800, retention.archive());
+        }
+        assertSamePages(expected, store);
+
+        // releases the rows of the first run, archives the ones of the day before
+        Assert.assertEquals(0, retention.archive());
+        Assert.assertEquals(800, store.firstRow());
+        Assert.assertTrue(store.getHistory(1).base() > 0);
+        Assert.assertEquals(800, archive.archivedCounts().values().stream().mapToInt(Integer::intValue).sum());
+        assertSamePages(expected, store);
+        Assert.assertEquals(800L, metrics.getGauges().get(MetricRegistry.name(TransactionArchive.class, "transactions")).getValue());
+        Assert.assertEquals(400, metrics.getGauges().get(MetricRegistry.name(TransactionStore.class, "transactions")).getValue());
+        Assert.assertTrue(metrics.timer(MetricRegistry.name(TransactionHistory.class, "read", "archive")).getCount() > 0);
+        Assert.assertNull(store.get("x0"));
+        Assert.assertNotNull(store.get(transaction(1000, now).getTransactionId()));
+
+        // an archived transaction is recognized when it is replayed again
+        Assert.assertTrue(archive.contains(transaction(10, now - 2 * DAY_MILLIS + 100 - 30)));
+        Assert.assertFalse(archive.contains(transaction(1000, now)));
+        archive.close();
+    }
+
+    /**
+     * Compares pages of every account for a few cursors, time ranges, types and limits.
+     */
+    private void assertSamePages(TransactionStore expected, TransactionStore store) {
+        long now = System.currentTimeMillis();
+        long[][] ranges = { { 0, Long.MAX_VALUE }, { now - 2 * DAY_MILLIS + 1000, now - DAY_MILLIS + 2000 },
+                { now - DAY_MILLIS + 3995, now + DAY_MILLIS }, { now - DAY_MILLIS - 1000, now - DAY_MILLIS } };
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+            TransactionHistory history = store.getHistory(accountId);
+            TransactionHistory reference = expected.getHistory(accountId);
+            Assert.assertEquals(reference.size(), history.size());
+            for (long[] range : ranges) {
+                for (TransactionType type : new TransactionType[] { null, TransactionType.DEBIT, TransactionType.CREDIT }) {
+                    for (int limit : new int[] { 1, 7, 1000 }) {
+                        for (int cursor = 0; cursor < reference.size(); cursor += 37) {
+                            TransactionHistory.Page page = history.page(cursor, range[0], range[1], type, limit);
+                            TransactionHistory.Page referencePage = reference.page(cursor, range[0], range[1], type, limit);
+                            String query = "account " + accountId + " cursor " + cursor + " type " + type + " limit " + limit;
+                            Assert.assertEquals(query, referencePage.getNextCursor(), page.getNextCursor());
+                            Assert.assertEquals(query, referencePage.hasMore(), page.hasMore());
+                            Assert.assertEquals(query, referencePage.getTransactions().size(), page.getTransactions().size());
+                            for (int i = 0; i < page.getTransactions().size(); i++)
+                                assertSameTransaction(referencePage.getTransactions().get(i), page.getTransactions().get(i));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertSameTransaction(Transaction expected, Transaction actual) {
+        Assert.assertEquals(expected.getTransactionId(), actual.getTransactionId());
+        Assert.assertEquals(expected.getExternalTransactionId(), actual.getExternalTransactionId());
+        Assert.assertEquals(expected.getTransactionType(), actual.getTransactionType());
+        Assert.assertEquals(expected.getFunds(), actual.getFunds());
+        Assert.assertEquals(expected.getAccountId(), actual.getAccountId());
+        Assert.assertEquals(expected.getTransactionDate(), actual.getTransactionDate());
+    }
+
+    /**
+     * Transaction of one of the accounts, every third one a DEBIT, some with funds beyond a long and some with a
+     * transactionId which is not built from an id.
+     */
+    private static Transaction transaction(int i, long date) {
+        long accountId = 1 + i % ACCOUNTS;
+        String type = (i % 3 == 0 ? TransactionType.DEBIT : TransactionType.CREDIT).name();
+        BigDecimal funds = i % 11 == 0 ? TestLedgers.PI.multiply(TestLedgers.PI)
+                : i % 2 == 0 ? TestLedgers.PI : FUNDS.negate().add(BigDecimal.TEN);
+        if (i % 5 == 0)
+            return new Transaction("x" + i, "e" + i, type, funds, accountId, new Date(date));
+        return new Transaction(1_000_000_000_000L + i * 7919L, "e" + i, type, funds, accountId, new Date(date));
+    }
+
+    private static List<String> transactionIds(TransactionHistory history) {
+        List<String> transactionIds = new ArrayList<>();
+        TransactionHistory.Page page;
+        int cursor = 0;
+        do {
+            page = history.page(cursor, Long.MIN_VALUE, Long.MAX_VALUE, null, 64);
+            for (Transaction transaction : page.getTransactions())
+                transactionIds.add(transaction.getTransactionId());
+            cursor = page.getNextCursor();
+        } while (page.hasMore());
+        return transactionIds;
+    }
+
+    private Ledger newLedger(File wal, File segments) {
+        TransactionConfiguration configuration = TestLedgers.configuration(EngineFactory.Mode.DIRECT, wal);
+        configuration.getRetention().setEnabled(true);
+        configuration.getRetention().setDirectory(segments.getAbsolutePath());
+        configuration.getRetention().setMaxAgeSeconds(0);
+        configuration.getRetention().setIntervalSeconds(0);
+        return new Ledger(configuration);
+    }
+}
@@ -0,0 +1,218 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the batch registration of transactions.
+ */
+public class TransactionBatchTest {
+
+    private static final int ACCOUNTS = 64;
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS_PER_THREAD = 2_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGroupsAreAppliedInSubmissionOrder() throws Exception {
+        for (EngineFactory.Mode mode : EngineFactory.Mode.values()) {
+            Ledger ledger = TestLedgers.newLedger(mode, null);
+            ledger.recover();
+            ledger.start();
+            try {
+                ledger.registerAccount(1);
+                ledger.registerAccount(2);
+
+                List<TransactionRequest> requests = Arrays.asList(
+                        request(1, TransactionType.CREDIT, "10", "a"),
+                        request(2, TransactionType.CREDIT, "1", "b"),
+                        request(1, TransactionType.DEBIT, "4", "c"),
+                        request(1, TransactionType.DEBIT, "7", "d"),
+                        request(3, TransactionType.CREDIT, "1", "e"),
+                        request(1, TransactionType.CREDIT, "0", "f"),
+                        request(1, TransactionType.DEBIT, "6", "g"));
+                RegistrationResult[] results = ledger.registerTransactions(requests, false);
+
+                assertStatuses(results, RegistrationResult.REGISTERED, RegistrationResult.REGISTERED,
+                        RegistrationResult.REGISTERED, RegistrationResult.NOT_ENOUGH_BALANCE,
+                        RegistrationResult.ACCOUNT_NOT_FOUND, RegistrationResult.UNEXPECTED_FUNDS,
+                        RegistrationResult.REGISTERED);
+                Assert.assertEquals(0, ledger.getAccount(1).getBalance().signum());
+                Assert.assertEquals(0, ledger.getAccount(2).getBalance().compareTo(BigDecimal.ONE));
+                Assert.assertEquals(4, ledger.getTransactions().size());
+            } finally {
+                ledger.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testAllOrNothingPerAccount() throws Exception {
+        for (EngineFactory.Mode mode : EngineFactory.Mode.values()) {
+            Ledger ledger = TestLedgers.newLedger(mode, null);
+            ledger.recover();
+            ledger.start();
+            try {
+                ledger.registerAccount(1);
+                ledger.registerAccount(2);
+
+                List<TransactionRequest> requests = Arrays.asList(
+                        request(1, TransactionType.CREDIT, "10", "a"),
+                        request(2, TransactionType.CREDIT, "1", "b"),
+                        request(1, TransactionType.DEBIT, "11", "c"),
+                        request(2, TransactionType.CREDIT, "2", "d"));
+                RegistrationResult[] results = ledger.registerTransactions(requests, true);
+
+                assertStatuses(results, RegistrationResult.ROLLED_BACK, RegistrationResult.REGISTERED,
+                        RegistrationResult.NOT_ENOUGH_BALANCE, RegistrationResult.REGISTERED);
+                Assert.assertEquals(0, ledger.getAccount(1).getBalance().signum());
+                Assert.assertEquals(0, ledger.getAccount(2).getBalance().compareTo(new BigDecimal(3)));
+
+                // a rolled back transaction can be submitted again
+                results = ledger.registerTransactions(requests.subList(0, 1), true);
+                assertStatuses(results, RegistrationResult.REGISTERED);
+                Assert.assertEquals(0, ledger.getAccount(1).getBalance().compareTo(BigDecimal.TEN));
+            } finally {
+                ledger.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testBatchIsRecovered() throws Exception {
+        File directory = folder.newFolder();
+        Ledger ledger = TestLedgers.newLedger(EngineFactory.Mode.PARTITIONED, directory);
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+        ledger.registerTransactions(Arrays.asList(
+                request(1, TransactionType.CREDIT, "10", "a"),
+                request(1, TransactionType.DEBIT, "2.5", "b"),
+                request(1, TransactionType.DEBIT, "0.25", "c")), true);
+        ledger.stop();
+
+        Ledger recovered = TestLedgers.newLedger(EngineFactory.Mode.DIRECT, directory);
+        // the account record and one record for the whole group
+        Assert.assertEquals(2, recovered.recover());
+        Assert.assertEquals(0, recovered.getAccount(1).getBalance().compareTo(new BigDecimal("7.25")));
+        Assert.assertEquals(3, recovered.getTransactions().size());
+    }
+
+    @Test
+    public void testRegisterTransactionsAPI() throws Exception {
+        Ledger ledger = TestLedgers.newLedger(EngineFactory.Mode.DIRECT, null);
+        ledger.recover();
+        ledger.start();
+        try {
+            AccountTransactionAPI api = new AccountTransactionAPI(ledger);
+            api.registerAccount(1);
+            api.registerAccount(2);
+
+            Response response = api.registerTransactions("{\"allOrNothing\": true, \"transactions\": ["
+                    + "{\"accountId\": 1, \"transactionType\": \"credit\", \"funds\": 5, \"externalTransactionId\": \"a\"},"
+                    + "{\"accountId\": 2, \"transactionType\": \"credit\", \"funds\": 5, \"externalTransactionId\": \"b\"},"
+                    + "{\"accountId\": 2, \"transactionType\": \"refund\", \"funds\": 5, \"externalTransactionId\": \"c\"},"
+                    + "{\"accountId\": 1, \"transactionType\": \"debit\", \"funds\": \"x\", \"externalTransactionId\": \"d\"},"
+                    + "{\"accountId\": 3, \"transactionType\": \"debit\", \"funds\": 5, \"externalTransactionId\": \"e\"}]}");
+            Assert.assertEquals(200, response.getStatus());
+            JSONArray results = new JSONObject((String) response.getEntity()).getJSONArray("results");
+            Assert.assertEquals(5, results.length());
+            for (int i = 0; i < results.length(); i++)
+                Assert.assertEquals(400, results.getJSONObject(i).getInt("status"));
+            Assert.assertEquals("could not register transaction. rolled back, another transaction of the account could not be registered",
+                    results.getJSONObject(0).getString("message"));
+            Assert.assertEquals("could not register transaction. unexpected transaction type: REFUND",
+                    results.getJSONObject(2).getString("message"));
+            Assert.assertEquals("could not register transaction. account with id:3 does not exist",
+                    results.getJSONObject(4).getString("message"));
+            Assert.assertEquals(0, ledger.getAccount(1).getBalance().signum());
+
+            response = api.registerTransactions("["
+                    + "{\"accountId\": 1, \"transactionType\": \"credit\", \"funds\": 5, \"externalTransactionId\": \"a\"},"
+                    + "{\"accountId\": 1, \"transactionType\": \"debit\", \"funds\": 6, \"externalTransactionId\": \"b\"}]");
+            results = new JSONObject((String) response.getEntity()).getJSONArray("results");
+            Assert.assertEquals(200, results.getJSONObject(0).getInt("status"));
+            Assert.assertEquals("transaction registered successfully", results.getJSONObject(0).getString("message"));
+            Assert.assertEquals("could not register transaction. not enough balance!", results.getJSONObject(1).getString("message"));
+
+            Assert.assertEquals(400, api.registerTransactions("{\"transactions\": 1}").getStatus());
+        } finally {
+            ledger.stop();
+        }
+    }
+
+    @Test
+    public void testConcurrentBatches() throws Exception {
+        for (int batchSize : new int[]{1, 10, 100, 1000}) {
+            Ledger ledger = TestLedgers.newLedger(EngineFactory.Mode.PARTITIONED, folder.newFolder());
+            ledger.recover();
+            ledger.start();
+            try {
+                AccountTransactionAPI api = new AccountTransactionAPI(ledger);
+                for (long accountId = 1; accountId <= ACCOUNTS; accountId++)
+                    ledger.registerAccount(accountId);
+
+                int requestsPerThread = TRANSACTIONS_PER_THREAD / batchSize;
+                AtomicLong failures = new AtomicLong();
+                CountDownLatch start = new CountDownLatch(1);
+                CountDownLatch done = new CountDownLatch(THREADS);
+                for (int i = 0; i < THREADS; i++) {
+                    int thread = i;
+                    new Thread(() -> {
+                        try {
+                            start.await();
+                            for (int request = 0; request < requestsPerThread; request++) {
+                                StringBuilder body = new StringBuilder("[");
+                                for (int item = 0; item < batchSize; item++) {
+                                    long accountId = 1 + (thread + item) % ACCOUNTS;
+                                    body.append(item == 0 ? "" : ",")
+                                            .append("{\"accountId\": ").append(accountId)
+                                            .append(", \"transactionType\": \"credit\", \"funds\": 2.5")
+                                            .append(", \"externalTransactionId\": \"").append(thread).append('-')
+                                            .append(request).append('-').append(item).append("\"}");
+                                }
+                                if (api.registerTransactions(body.append(']').toString()).getStatus() != 200)
+                                    failures.incrementAndGet();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        done.countDown();
+                    }).start();
+                }
+
+                start.countDown();
+                done.await();
+
+                Assert.assertEquals(0, failures.get());
+                Assert.assertEquals(THREADS * requestsPerThread * batchSize, ledger.getTransactions().size());
+            } finally {
+                ledger.stop();
+            }
+        }
+    }
+
+    private static TransactionRequest request(long accountId, TransactionType transactionType, String funds, String externalTransactionId) {
+        return new TransactionRequest(accountId, transactionType, new BigDecimal(funds), externalTransactionId);
+    }
+
+    private static void assertStatuses(RegistrationResult[] results, int... statuses) {
+        Assert.assertEquals(statuses.length, results.length);
+        for (int i = 0; i < statuses.length; i++)
+            Assert.assertEquals("status of transaction " + i, statuses[i], results[i].getStatus());
+    }
+}
@@ -0,0 +1,158 @@
+package amir.code.assessment.wallet.transaction;
+
+import com.codahale.metrics.MetricRegistry;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TransactionFeedTest {
+
+    private static final BigDecimal FUNDS = new BigDecimal("1.25");
+    private static final int ACCOUNTS = 16;
+    private static final int THREADS = 8;
+    private static final int ITERATIONS_PER_THREAD = 2000;
+
+    @Test
+    public void testReadWhileWriting() throws Exception {
+        testReadWhileWriting(RegistryFactory.StoreType.HEAP);
+        testReadWhileWriting(RegistryFactory.StoreType.COLUMNAR);
+    }
+
+    private void testReadWhileWriting(RegistryFactory.StoreType storeType) throws Exception {
+        TransactionConfiguration configuration = new TransactionConfiguration();
+        configuration.getRegistry().setTransactionStore(storeType);
+        Ledger ledger = new Ledger(configuration);
+        ledger.recover();
+        ledger.start();
+        // a ring smaller than the feed, slow readers are served from the store
+        TransactionFeed feed = new TransactionFeed(ledger.getTransactions(), ledger.getIncarnation(), 256, 16, 2,
+                new MetricRegistry());
+        feed.start();
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++)
+            ledger.registerAccount(accountId);
+
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            new Thread(() -> {
+                try {
+                    for (int count = 0; count < ITERATIONS_PER_THREAD; count++)
+                        ledger.registerTransaction(1 + (thread + count) % ACCOUNTS, TransactionType.CREDIT, FUNDS,
+                                "c-" + thread + "-" + count);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+                done.countDown();
+            }).start();
+        }
+
+        // every transaction comes exactly once, also while being registered
+        Set<String> seen = new HashSet<>();
+        int row = feed.parseCursor("");
+        while (done.getCount() > 0 || row < ledger.getTransactions().size()) {
+            TransactionFeed.Page page = feed.read(row, 100);
+            for (byte[] transaction : page.getTransactions()) {
+                JSONObject json = new JSONObject(new String(transaction, StandardCharsets.UTF_8));
+                Assert.assertTrue(seen.add(json.getString("transactionId")));
+                Assert.assertEquals(0, FUNDS.compareTo(new BigDecimal(json.getString("funds"))));
+            }
+            row = feed.parseCursor(page.getNextCursor());
+        }
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(THREADS * ITERATIONS_PER_THREAD, seen.size());
+
+        feed.stop();
+        ledger.stop();
+    }
+
+    @Test
+    public void testLongPoll() throws Exception {
+        Ledger ledger = new Ledger(new TransactionConfiguration());
+        ledger.recover();
+        ledger.start();
+        TransactionFeed feed = new TransactionFeed(ledger.getTransactions(), ledger.getIncarnation(), 1024, 1, 1,
+                new MetricRegistry());
+        feed.start();
+        ledger.registerAccount(1);
+
+        // waits for the next transaction
+        CompletableFuture<TransactionFeed.Page> next = new CompletableFuture<>();
+        Assert.assertTrue(feed.subscribe(0, 100, 60_000, next::complete, next::completeExceptionally));
+        Thread.sleep(20);
+        Assert.assertFalse(next.isDone());
+        // one waiting consumer at most
+        Assert.assertFalse(feed.subscribe(0, 100, 60_000, page -> Assert.fail(), e -> Assert.fail()));
+
+        ledger.registerTransaction(1, TransactionType.CREDIT, FUNDS, "c");
+        TransactionFeed.Page page = next.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, page.getTransactions().size());
+        Assert.assertEquals(1, feed.parseCursor(page.getNextCursor()));
+
+        // nothing new within the wait
+        CompletableFuture<TransactionFeed.Page> empty = new CompletableFuture<>();
+        Assert.assertTrue(feed.subscribe(1, 100, 50, empty::complete, empty::completeExceptionally));
+        page = empty.get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(page.getTransactions().isEmpty());
+        Assert.assertEquals(1, feed.parseCursor(page.getNextCursor()));
+
+        // a waiting consumer is released on stop
+        CompletableFuture<TransactionFeed.Page> stopped = new CompletableFuture<>();
+        Assert.assertTrue(feed.subscribe(1, 100, 60_000, stopped::complete, stopped::completeExceptionally));
+        feed.stop();
+        Assert.assertTrue(stopped.get(10, TimeUnit.SECONDS).getTransactions().isEmpty());
+        ledger.stop();
+    }
+
+    @Test
+    public void testReadReleasedRows() throws Exception {
+        TransactionStore store = new ConcurrentTransactionStore(16, 1);
+        for (int i = 0; i < 4; i++)
+            store.add(new Transaction("id-" + i, "ext-" + i, "CREDIT", FUNDS, 1L));
+        // not started, every page is read from the store
+        TransactionFeed feed = new TransactionFeed(store, 42, 16, 1, 1, new MetricRegistry());
+        Assert.assertEquals(4, feed.read(0, 100).getTransactions().size());
+
+        // rows archived after the cursor was checked
+        store.release(2);
+        Assert.assertNull(feed.read(0, 100));
+        Assert.assertNull(feed.read(1, 1));
+        Assert.assertEquals(2, feed.read(2, 100).getTransactions().size());
+        CompletableFuture<TransactionFeed.Page> archived = new CompletableFuture<>();
+        Assert.assertTrue(feed.subscribe(0, 100, 0, archived::complete, archived::completeExceptionally));
+        Assert.assertNull(archived.get(10, TimeUnit.SECONDS));
+
+        // a failing callback is answered through the failure callback
+        CompletableFuture<RuntimeException> failed = new CompletableFuture<>();
+        Assert.assertTrue(feed.subscribe(2, 100, 0, page -> {
+            throw new IllegalStateException("response already written");
+        }, failed::complete));
+        Assert.assertTrue(failed.get(10, TimeUnit.SECONDS) instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testCursors() {
+        TransactionFeed feed = new TransactionFeed(new ConcurrentTransactionStore(16, 1), 42, 16, 1, 1, new MetricRegistry());
+        Assert.assertEquals(0, feed.parseCursor(null));
+        Assert.assertEquals(7, feed.parseCursor(feed.cursor(7)));
+        // a cursor of another run
+        TransactionFeed previous = new TransactionFeed(new ConcurrentTransactionStore(16, 1), 41, 16, 1, 1, new MetricRegistry());
+        Assert.assertEquals(-1, feed.parseCursor(previous.cursor(7)));
+        for (String malformed : new String[]{"7", "-7", "abc-", "abc-x"}) {
+            try {
+                feed.parseCursor(malformed);
+                Assert.fail(malformed);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
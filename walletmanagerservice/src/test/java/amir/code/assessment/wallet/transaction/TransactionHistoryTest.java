@@ -0,0 +1,163 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TransactionHistoryTest {
+
+    private static final BigDecimal FUNDS = new BigDecimal("1.5");
+
+    @Test
+    public void testPagesByTimeRangeAndType() {
+        testPagesByTimeRangeAndType(new ConcurrentTransactionStore(16, 1));
+        testPagesByTimeRangeAndType(new ColumnarTransactionStore(16));
+    }
+
+    @Test
+    public void testReadersFollowConcurrentWriters() throws Exception {
+        testReadersFollowConcurrentWriters(new ConcurrentTransactionStore(16, 4));
+        testReadersFollowConcurrentWriters(new ColumnarTransactionStore(16));
+    }
+
+    private void testPagesByTimeRangeAndType(TransactionStore store) {
+        // every third transaction is a DEBIT, one transaction per millisecond starting at 1000
+        for (int i = 0; i < 100; i++)
+            store.add(transaction(i, i % 3 == 0 ? TransactionType.DEBIT : TransactionType.CREDIT, 1000 + i));
+        TransactionHistory history = store.getHistory(1);
+
+        TransactionHistory.Page page = history.page(0, 0, Long.MAX_VALUE, null, 30);
+        Assert.assertEquals(30, page.getTransactions().size());
+        Assert.assertEquals("t-0", page.getTransactions().get(0).getTransactionId());
+        Assert.assertTrue(page.hasMore());
+        page = history.page(page.getNextCursor(), 0, Long.MAX_VALUE, null, 100);
+        Assert.assertEquals(70, page.getTransactions().size());
+        Assert.assertEquals("t-30", page.getTransactions().get(0).getTransactionId());
+        Assert.assertFalse(page.hasMore());
+        Assert.assertEquals(100, page.getNextCursor());
+
+        // [1010, 1020) holds t-10 .. t-19
+        page = history.page(0, 1010, 1020, null, 100);
+        Assert.assertEquals(10, page.getTransactions().size());
+        Assert.assertEquals("t-10", page.getTransactions().get(0).getTransactionId());
+        Assert.assertEquals("t-19", page.getTransactions().get(9).getTransactionId());
+
+        // DEBIT transactions in [1010, 1020) are t-12, t-15 and t-18
+        page = history.page(0, 1010, 1020, TransactionType.DEBIT, 2);
+        Assert.assertEquals(2, page.getTransactions().size());
+        Assert.assertEquals("t-12", page.getTransactions().get(0).getTransactionId());
+        Assert.assertTrue(page.hasMore());
+        page = history.page(page.getNextCursor(), 1010, 1020, TransactionType.DEBIT, 2);
+        Assert.assertEquals(1, page.getTransactions().size());
+        Assert.assertEquals("t-18", page.getTransactions().get(0).getTransactionId());
+        Assert.assertFalse(page.hasMore());
+
+        // a transaction registered concurrently with an earlier date keeps the order of registration
+        store.add(transaction(100, TransactionType.CREDIT, 500));
+        page = history.page(99, 1099, Long.MAX_VALUE, null, 10);
+        Assert.assertEquals(2, page.getTransactions().size());
+        Assert.assertEquals("t-100", page.getTransactions().get(1).getTransactionId());
+    }
+
+    private void testReadersFollowConcurrentWriters(TransactionStore store) throws Exception {
+        int writers = 4;
+        int transactionsPerWriter = 50_000;
+        store.add(transaction(-1, TransactionType.DEBIT, 0));
+        TransactionHistory history = store.getHistory(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong failures = new AtomicLong();
+
+        // a reader polling credits with its cursor sees every credit exactly once, in order
+        Thread reader = new Thread(() -> {
+            Set<String> seen = new HashSet<>();
+            int cursor = 0;
+            long lastTime = Long.MIN_VALUE;
+            boolean done;
+            do {
+                done = !writing.get();
+                TransactionHistory.Page page;
+                do {
+                    page = history.page(cursor, 0, Long.MAX_VALUE, TransactionType.CREDIT, 100);
+                    for (Transaction transaction : page.getTransactions()) {
+                        if (!seen.add(transaction.getTransactionId()) || !"CREDIT".equals(transaction.getTransactionType())
+                                || store.get(transaction.getTransactionId()) == null)
+                            failures.incrementAndGet();
+                        if (transaction.getTransactionDate().getTime() < lastTime)
+                            failures.incrementAndGet();
+                        lastTime = transaction.getTransactionDate().getTime();
+                    }
+                    cursor = page.getNextCursor();
+                } while (page.hasMore());
+            } while (!done);
+            if (seen.size() != writers * transactionsPerWriter / 2)
+                failures.incrementAndGet();
+        });
+        reader.start();
+
+        Thread[] threads = new Thread[writers];
+        for (int i = 0; i < writers; i++) {
+            int writer = i;
+            threads[i] = new Thread(() -> {
+                for (int count = 0; count < transactionsPerWriter; count++) {
+                    TransactionType type = count % 2 == 0 ? TransactionType.CREDIT : TransactionType.DEBIT;
+                    // dates are taken by the history in order of appends
+                    synchronized (history) {
+                        store.add(transaction(writer * transactionsPerWriter + count, type, System.currentTimeMillis()));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        writing.set(false);
+        reader.join();
+
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(writers * transactionsPerWriter + 1, history.size());
+        Assert.assertEquals(writers * transactionsPerWriter + 1, store.size());
+    }
+
+    @Test
+    public void testGetAccountTransactionsAPI() throws Exception {
+        Ledger ledger = new Ledger(new TransactionConfiguration());
+        ledger.recover();
+        ledger.start();
+        try {
+            AccountTransactionAPI api = new AccountTransactionAPI(ledger);
+            api.registerAccount(1);
+            for (int i = 0; i < 5; i++)
+                ledger.registerTransaction(1, i == 2 ? TransactionType.DEBIT : TransactionType.CREDIT, FUNDS, "e" + i);
+
+            Response response = api.getAccountTransactions(1, 0, 2, 0, Long.MAX_VALUE, "credit");
+            Assert.assertEquals(200, response.getStatus());
+            JSONObject page = new JSONObject((String) response.getEntity());
+            Assert.assertEquals(2, page.getJSONArray("transactions").length());
+            Assert.assertEquals("e1", page.getJSONArray("transactions").getJSONObject(1).getString("externalTransactionId"));
+            Assert.assertTrue(page.getBoolean("hasMore"));
+
+            page = new JSONObject((String) api.getAccountTransactions(1, page.getInt("nextCursor"), 2, 0, Long.MAX_VALUE, "credit").getEntity());
+            Assert.assertEquals("e3", page.getJSONArray("transactions").getJSONObject(0).getString("externalTransactionId"));
+            Assert.assertEquals("e4", page.getJSONArray("transactions").getJSONObject(1).getString("externalTransactionId"));
+            Assert.assertFalse(page.getBoolean("hasMore"));
+
+            Assert.assertEquals(400, api.getAccountTransactions(2, 0, 2, 0, Long.MAX_VALUE, "").getStatus());
+            Assert.assertEquals(400, api.getAccountTransactions(1, 0, 2, 0, Long.MAX_VALUE, "refund").getStatus());
+            Assert.assertEquals(400, api.getAccountTransactions(1, 0, 0, 0, Long.MAX_VALUE, "").getStatus());
+        } finally {
+            ledger.stop();
+        }
+    }
+
+    private static Transaction transaction(int id, TransactionType type, long time) {
+        return new Transaction("t-" + id, "e-" + id, type.name(), FUNDS, 1L, new Date(time));
+    }
+}
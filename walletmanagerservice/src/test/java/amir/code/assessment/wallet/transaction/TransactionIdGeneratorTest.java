@@ -0,0 +1,104 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class TransactionIdGeneratorTest {
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 100_000;
+
+    @Test
+    public void testUniqueAndOrdered() throws Exception {
+        TransactionIdGenerator ids = new TransactionIdGenerator(5);
+        long[][] issued = new long[THREADS][IDS_PER_THREAD];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            long[] thread = issued[t];
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < IDS_PER_THREAD; i++)
+                    thread[i] = ids.next();
+            });
+            threads[t].start();
+        }
+        long before = System.currentTimeMillis();
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        Set<Long> unique = new HashSet<>();
+        for (long[] thread : issued) {
+            for (int i = 0; i < IDS_PER_THREAD; i++) {
+                Assert.assertTrue(unique.add(thread[i]));
+                Assert.assertEquals(5, TransactionIdGenerator.nodeOf(thread[i]));
+                Assert.assertTrue(TransactionIdGenerator.timeOf(thread[i]) >= before);
+                if (i > 0)
+                    Assert.assertTrue(thread[i] > thread[i - 1]);
+            }
+        }
+    }
+
+    @Test
+    public void testNodesAndRestarts() {
+        // two nodes issuing ids at the same time
+        TransactionIdGenerator first = new TransactionIdGenerator(0);
+        TransactionIdGenerator second = new TransactionIdGenerator(TransactionIdGenerator.MAX_NODE);
+        Set<Long> unique = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertTrue(unique.add(first.next()));
+            Assert.assertTrue(unique.add(second.next()));
+        }
+
+        // a restarted node whose clock is behind the recovered ids
+        long recovered = first.next() + (1000L << 22);
+        TransactionIdGenerator restarted = new TransactionIdGenerator(0);
+        restarted.observe(recovered);
+        Assert.assertTrue(restarted.next() > recovered);
+        // ids of the former counter are observed as well
+        restarted.observe(42);
+        Assert.assertTrue(restarted.next() > recovered);
+
+        try {
+            new TransactionIdGenerator(TransactionIdGenerator.MAX_NODE + 1);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testTransactionId() {
+        TransactionIdGenerator ids = new TransactionIdGenerator(1);
+        long id = ids.next();
+        Transaction transaction = new Transaction(id, "bet-1", "CREDIT", BigDecimal.TEN, 1L, new Date(1000));
+        Assert.assertEquals("bet-1-" + id, transaction.getTransactionId());
+        Assert.assertEquals(id, Ledger.getTransactionSequence(transaction.getTransactionId()));
+
+        // the journal writes the transactionId of the id
+        ByteBuffer record = LedgerJournal.encode(transaction);
+        record.get();
+        Transaction decoded = LedgerJournal.decode(record);
+        Assert.assertEquals(transaction.getTransactionId(), decoded.getTransactionId());
+        Assert.assertEquals(Transaction.NO_ID, decoded.getId());
+
+        // and the columnar store indexes it, also once recovered from the journal
+        ColumnarTransactionStore store = new ColumnarTransactionStore(16);
+        store.add(transaction);
+        Transaction other = new Transaction(ids.next(), "bet-2", "DEBIT", BigDecimal.ONE, 1L, new Date(2000));
+        store.add(LedgerJournal.decode((ByteBuffer) LedgerJournal.encode(other).position(1)));
+        Assert.assertEquals(transaction.getTransactionId(), store.get(transaction.getTransactionId()).getTransactionId());
+        Assert.assertEquals("bet-2", store.get(other.getTransactionId()).getExternalTransactionId());
+    }
+}
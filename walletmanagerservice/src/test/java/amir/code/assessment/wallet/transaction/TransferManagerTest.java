@@ -0,0 +1,289 @@
+package amir.code.assessment.wallet.transaction;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TransferManagerTest {
+
+    private static final BigDecimal OPENING_BALANCE = new BigDecimal("100");
+    private static final int ACCOUNTS = 4;
+    private static final int THREADS = 8;
+    private static final int TRANSFERS_PER_THREAD = 5_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTransfer() throws Exception {
+        Ledger ledger = TestLedgers.newLedger(EngineFactory.Mode.DIRECT, null);
+        ledger.recover();
+        ledger.start();
+        try {
+            for (long accountId = 1; accountId <= 3; accountId++)
+                ledger.registerAccount(accountId);
+            ledger.registerTransaction(1, TransactionType.CREDIT, new BigDecimal("10"), "deposit");
+
+            RegistrationResult result = ledger.transfer(legs("pot-1", 1, "-6", 2, "4", 3, "2"));
+            Assert.assertEquals(RegistrationResult.REGISTERED, result.getStatus());
+            List<Transaction> linked = result.getLinkedTransactions();
+            Assert.assertEquals(3, linked.size());
+            for (Transaction transaction : linked) {
+                Assert.assertEquals("pot-1", transaction.getExternalTransactionId());
+                Assert.assertEquals(linked.get(0).getTransactionDate(), transaction.getTransactionDate());
+            }
+            Assert.assertEquals("DEBIT", linked.get(0).getTransactionType());
+            assertBalances(ledger, "4", "4", "2");
+
+            // the second debit fails, the first one is credited back and nothing is registered
+            long registered = ledger.getTransactions().size();
+            result = ledger.transfer(legs("pot-2", 2, "-4", 1, "-5", 3, "9"));
+            Assert.assertEquals(RegistrationResult.NOT_ENOUGH_BALANCE, result.getStatus());
+            Assert.assertEquals(1, result.getFailedLeg());
+            assertBalances(ledger, "4", "4", "2");
+            Assert.assertEquals(registered, ledger.getTransactions().size());
+
+            result = ledger.transfer(legs("pot-3", 2, "-1", 4, "1"));
+            Assert.assertEquals(RegistrationResult.ACCOUNT_NOT_FOUND, result.getStatus());
+            Assert.assertEquals(1, result.getFailedLeg());
+
+            // a retried transfer is not applied twice
+            Assert.assertSame(linked.get(0), ledger.transfer(legs("pot-1", 1, "-6", 2, "4", 3, "2")).getTransaction());
+            assertBalances(ledger, "4", "4", "2");
+        } finally {
+            ledger.stop();
+        }
+    }
+
+    @Test
+    public void testConcurrentTransfersOverOverlappingAccounts() throws Exception {
+        for (EngineFactory.Mode mode : EngineFactory.Mode.values()) {
+            Ledger ledger = TestLedgers.newLedger(mode, null);
+            ledger.recover();
+            ledger.start();
+            for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+                ledger.registerAccount(accountId);
+                ledger.registerTransaction(accountId, TransactionType.CREDIT, OPENING_BALANCE, "opening-" + accountId);
+            }
+
+            // every thread moves funds between random pairs in both directions, plain debits and credits in between
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicLong errors = new AtomicLong();
+            AtomicLong transferred = new AtomicLong();
+            Thread[] threads = new Thread[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                            long from = 1 + random.nextInt(ACCOUNTS);
+                            long to = 1 + (from + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                            String externalTransactionId = "transfer-" + thread + "-" + i;
+                            BigDecimal funds = BigDecimal.valueOf(2 + random.nextInt(30));
+                            RegistrationResult result = i % 10 == 0
+                                    ? ledger.transfer(legs(externalTransactionId, from, "-" + funds, to, funds.subtract(BigDecimal.ONE).toString(), 1 + to % ACCOUNTS, "1"))
+                                    : ledger.transfer(legs(externalTransactionId, from, "-" + funds, to, funds.toString()));
+                            if (result.getStatus() == RegistrationResult.REGISTERED)
+                                transferred.incrementAndGet();
+                            else if (result.getStatus() != RegistrationResult.NOT_ENOUGH_BALANCE)
+                                errors.incrementAndGet();
+                            if (ledger.registerTransaction(from, TransactionType.DEBIT, BigDecimal.ONE, "fee-" + thread + "-" + i).getStatus() == RegistrationResult.REGISTERED)
+                                ledger.registerTransaction(to, TransactionType.CREDIT, BigDecimal.ONE, "refund-" + thread + "-" + i);
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                });
+                threads[t].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join(TimeUnit.MINUTES.toMillis(1));
+                Assert.assertFalse("transfers dead-locked", thread.isAlive());
+            }
+            ledger.stop();
+
+            Assert.assertEquals(0, errors.get());
+            Assert.assertTrue(transferred.get() > 0);
+            BigDecimal total = BigDecimal.ZERO;
+            for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+                Assert.assertTrue(ledger.getAccount(accountId).getBalance().signum() >= 0);
+                total = total.add(ledger.getAccount(accountId).getBalance());
+            }
+            Assert.assertEquals(0, OPENING_BALANCE.multiply(BigDecimal.valueOf(ACCOUNTS)).compareTo(total));
+        }
+    }
+
+    @Test
+    public void testDebitsDoNotFailOnTransfersInProgress() throws Exception {
+        for (EngineFactory.Mode mode : EngineFactory.Mode.values()) {
+            Ledger ledger = TestLedgers.newLedger(mode, null);
+            ledger.recover();
+            ledger.start();
+            for (long accountId = 1; accountId <= 3; accountId++)
+                ledger.registerAccount(accountId);
+            ledger.registerTransaction(1, TransactionType.CREDIT, new BigDecimal("10"), "deposit");
+
+            // every transfer debits account 1 and fails on the empty account 2, so its debit is credited back
+            AtomicLong errors = new AtomicLong();
+            Thread transfers = new Thread(() -> {
+                try {
+                    for (int i = 0; i < TRANSFERS_PER_THREAD; i++)
+                        if (ledger.transfer(legs("failing-" + i, 1, "-10", 2, "-1", 3, "11")).getStatus() != RegistrationResult.NOT_ENOUGH_BALANCE)
+                            errors.incrementAndGet();
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                }
+            });
+            transfers.start();
+            for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                Assert.assertEquals(mode + " debit " + i, RegistrationResult.REGISTERED,
+                        ledger.registerTransaction(1, TransactionType.DEBIT, new BigDecimal("10"), "bet-" + i).getStatus());
+                ledger.registerTransaction(1, TransactionType.CREDIT, new BigDecimal("10"), "win-" + i);
+            }
+            transfers.join(TimeUnit.MINUTES.toMillis(1));
+            Assert.assertFalse("transfers dead-locked", transfers.isAlive());
+            ledger.stop();
+            Assert.assertEquals(0, errors.get());
+            assertBalances(ledger, "10", "0", "0");
+        }
+    }
+
+    @Test
+    public void testTransferKeysDoNotMatchTransactions() throws Exception {
+        Ledger ledger = TestLedgers.newLedger(EngineFactory.Mode.DIRECT, null);
+        ledger.recover();
+        ledger.start();
+        try {
+            ledger.registerAccount(1);
+            ledger.registerAccount(2);
+            ledger.registerTransaction(1, TransactionType.CREDIT, new BigDecimal("10"), "shared");
+
+            // the transfer is not answered with the earlier credit of its first account, nor the other way around
+            RegistrationResult result = ledger.transfer(legs("shared", 1, "-4", 2, "4"));
+            Assert.assertEquals(RegistrationResult.REGISTERED, result.getStatus());
+            Assert.assertEquals(2, result.getLinkedTransactions().size());
+            Assert.assertEquals(RegistrationResult.REGISTERED,
+                    ledger.registerTransaction(2, TransactionType.DEBIT, new BigDecimal("1"), "shared").getStatus());
+            assertBalances(ledger, "6", "3");
+
+            Assert.assertSame(result.getTransaction(), ledger.transfer(legs("shared", 1, "-4", 2, "4")).getTransaction());
+            Assert.assertEquals(RegistrationResult.REGISTERED,
+                    ledger.registerTransaction(1, TransactionType.CREDIT, new BigDecimal("10"), "shared").getStatus());
+            assertBalances(ledger, "6", "3");
+        } finally {
+            ledger.stop();
+        }
+    }
+
+    @Test
+    public void testRecoverTransfer() throws Exception {
+        File directory = folder.newFolder();
+        Ledger ledger = TestLedgers.newLedger(EngineFactory.Mode.DIRECT, directory);
+        ledger.recover();
+        ledger.start();
+        ledger.registerAccount(1);
+        ledger.registerAccount(2);
+        ledger.registerTransaction(1, TransactionType.CREDIT, new BigDecimal("10"), "deposit");
+        ledger.transfer(legs("transfer-1", 1, "-7.5", 2, "7.5"));
+        ledger.stop();
+
+        Ledger recovered = TestLedgers.newLedger(EngineFactory.Mode.DIRECT, directory);
+        // 2 accounts, 1 transaction and 1 transfer
+        Assert.assertEquals(4, recovered.recover());
+        recovered.start();
+        try {
+            Assert.assertEquals(0, recovered.getAccount(1).getBalance().compareTo(new BigDecimal("2.5")));
+            Assert.assertEquals(0, recovered.getAccount(2).getBalance().compareTo(new BigDecimal("7.5")));
+            // a retry after the restart is not applied twice
+            RegistrationResult retried = recovered.transfer(legs("transfer-1", 1, "-7.5", 2, "7.5"));
+            Assert.assertEquals(RegistrationResult.REGISTERED, retried.getStatus());
+            Assert.assertEquals(2, retried.getLinkedTransactions().size());
+            Assert.assertEquals(0, recovered.getAccount(2).getBalance().compareTo(new BigDecimal("7.5")));
+            // the recovered transfer is not taken for a transaction of its first account
+            Assert.assertEquals(RegistrationResult.REGISTERED,
+                    recovered.registerTransaction(1, TransactionType.DEBIT, new BigDecimal("2.5"), "transfer-1").getStatus());
+            Assert.assertEquals(0, recovered.getAccount(1).getBalance().signum());
+        } finally {
+            recovered.stop();
+        }
+    }
+
+    @Test
+    public void testTransferApi() throws Exception {
+        Ledger ledger = TestLedgers.newLedger(EngineFactory.Mode.DIRECT, null);
+        ledger.recover();
+        ledger.start();
+        try {
+            AccountTransactionAPI api = new AccountTransactionAPI(ledger);
+            api.registerAccount(1);
+            api.registerAccount(2);
+            api.registerAccount(3);
+            ledger.registerTransaction(1, TransactionType.CREDIT, new BigDecimal("10"), "deposit");
+
+            Response response = api.registerTransfer("{\"fromAccountId\": 1, \"toAccountId\": 2, \"funds\": 4, \"externalTransactionId\": \"t-1\"}");
+            Assert.assertEquals(200, response.getStatus());
+            JSONObject body = new JSONObject((String) response.getEntity());
+            Assert.assertEquals("transfer registered successfully", body.getString("message"));
+            Assert.assertEquals(2, body.getJSONArray("transactions").length());
+            Assert.assertEquals(2, body.getJSONArray("transactions").getJSONObject(1).getLong("accountId"));
+            // the externalTransactionId of a registered transfer reused for another one
+            response = api.registerTransfer("{\"fromAccountId\": 1, \"toAccountId\": 3, \"funds\": 4, \"externalTransactionId\": \"t-1\"}");
+            Assert.assertEquals(422, response.getStatus());
+
+            response = api.registerTransfer("{\"fromAccountId\": 2, \"toAccountId\": 1, \"funds\": 5, \"externalTransactionId\": \"t-2\"}");
+            Assert.assertEquals(400, response.getStatus());
+            response = api.registerTransfer("{\"fromAccountId\": 2, \"toAccountId\": 2, \"funds\": 1, \"externalTransactionId\": \"t-3\"}");
+            Assert.assertEquals(400, response.getStatus());
+
+            response = api.registerMultiLegTransfer("{\"externalTransactionId\": \"pot-1\", \"legs\": ["
+                    + "{\"accountId\": 1, \"transactionType\": \"debit\", \"funds\": 6},"
+                    + "{\"accountId\": 2, \"transactionType\": \"credit\", \"funds\": 5},"
+                    + "{\"accountId\": 3, \"transactionType\": \"credit\", \"funds\": 1}]}");
+            Assert.assertEquals(200, response.getStatus());
+            Assert.assertEquals(3, new JSONObject((String) response.getEntity()).getJSONArray("transactions").length());
+
+            // debits and credits do not balance
+            response = api.registerMultiLegTransfer("{\"externalTransactionId\": \"pot-2\", \"legs\": ["
+                    + "{\"accountId\": 2, \"transactionType\": \"debit\", \"funds\": 6},"
+                    + "{\"accountId\": 3, \"transactionType\": \"credit\", \"funds\": 5}]}");
+            Assert.assertEquals(400, response.getStatus());
+            assertBalances(ledger, "0", "9", "1");
+        } finally {
+            ledger.stop();
+        }
+    }
+
+    /**
+     * @param legs . accountId and funds of each leg, negative funds for a DEBIT.
+     */
+    private static List<TransactionRequest> legs(String externalTransactionId, Object... legs) {
+        TransactionRequest[] requests = new TransactionRequest[legs.length / 2];
+        for (int i = 0; i < requests.length; i++) {
+            long accountId = ((Number) legs[2 * i]).longValue();
+            BigDecimal funds = new BigDecimal((String) legs[2 * i + 1]);
+            requests[i] = new TransactionRequest(accountId, funds.signum() < 0 ? TransactionType.DEBIT : TransactionType.CREDIT,
+                    funds.abs(), externalTransactionId);
+        }
+        return Arrays.asList(requests);
+    }
+
+    private static void assertBalances(Ledger ledger, String... balances) {
+        for (int i = 0; i < balances.length; i++)
+            Assert.assertEquals(0, ledger.getAccount(i + 1).getBalance().compareTo(new BigDecimal(balances[i])));
+    }
+}